@@ -0,0 +1,180 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Benchmarks of ACL evaluation and transformation. */
+class AclBenchmarks {
+  private static final int[] CHAIN_DEPTHS = {1, 10};
+  private static final int BATCH_SIZE = 100;
+  private static final int NUM_GROUPS = 50;
+  private static final int LARGE_ACL_SIZE = 2000;
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    for (int depth : CHAIN_DEPTHS) {
+      benchmarks.add(new IsAuthorizedBatch(depth));
+    }
+    benchmarks.add(new Transform());
+    benchmarks.add(new BuildLarge());
+    return benchmarks;
+  }
+
+  /** Returns a user belonging to {@link #NUM_GROUPS} groups. */
+  static AuthnIdentity createIdentity() {
+    Set<GroupPrincipal> groups = new HashSet<GroupPrincipal>();
+    for (int i = 0; i < NUM_GROUPS; i++) {
+      groups.add(new GroupPrincipal("group" + i, "Default"));
+    }
+    return new AuthnIdentityImpl.Builder(new UserPrincipal("user", "Default"))
+        .setGroups(groups).build();
+  }
+
+  /**
+   * Builds ACLs for {@link #BATCH_SIZE} documents that share a chain of
+   * {@code depth} parent folders, with the permit at the top of the chain so
+   * that the whole chain must be evaluated.
+   */
+  static Map<DocId, Acl> createAcls(int depth, List<DocId> documents) {
+    Map<DocId, Acl> acls = new HashMap<DocId, Acl>();
+    DocId parent = null;
+    for (int i = 0; i < depth; i++) {
+      DocId folder = new DocId("folder" + i);
+      Acl.Builder builder = new Acl.Builder()
+          .setInheritanceType(Acl.InheritanceType.CHILD_OVERRIDES)
+          .setDenyUsers(Arrays.asList(new UserPrincipal("other" + i)));
+      if (parent == null) {
+        builder.setPermitGroups(
+            Arrays.asList(new GroupPrincipal("group" + (NUM_GROUPS - 1))));
+      } else {
+        builder.setInheritFrom(parent);
+      }
+      acls.put(folder, builder.build());
+      parent = folder;
+    }
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      DocId doc = new DocId("folder" + (depth - 1) + "/doc" + i);
+      documents.add(doc);
+      acls.put(doc, new Acl.Builder().setInheritFrom(parent)
+          .setDenyGroups(Arrays.asList(new GroupPrincipal("blocked" + i)))
+          .build());
+    }
+    return acls;
+  }
+
+  private static class IsAuthorizedBatch extends Benchmark {
+    private final int depth;
+    private AuthnIdentity identity;
+    private List<DocId> documents;
+    private Acl.BatchRetriever retriever;
+
+    IsAuthorizedBatch(int depth) {
+      super("Acl.isAuthorizedBatch[batch=" + BATCH_SIZE + ",depth=" + depth
+          + "]");
+      this.depth = depth;
+    }
+
+    @Override
+    void setUp() {
+      identity = createIdentity();
+      documents = new ArrayList<DocId>();
+      final Map<DocId, Acl> acls = createAcls(depth, documents);
+      retriever = new Acl.BatchRetriever() {
+        @Override
+        public Map<DocId, Acl> retrieveAcls(Set<DocId> ids) {
+          return acls;
+        }
+      };
+    }
+
+    @Override
+    Object run() throws Exception {
+      return Acl.isAuthorizedBatch(identity, documents, retriever);
+    }
+  }
+
+  private static class Transform extends Benchmark {
+    private AclTransform transform;
+    private Acl acl;
+
+    Transform() {
+      super("AclTransform.transform");
+    }
+
+    @Override
+    void setUp() {
+      transform = new AclTransform(Arrays.asList(
+          new AclTransform.Rule(
+              new AclTransform.MatchData(null, null, "CORP", null),
+              new AclTransform.MatchData(null, null, "corp.example.com",
+                  null)),
+          new AclTransform.Rule(
+              new AclTransform.MatchData(true, "Everyone", null, null),
+              new AclTransform.MatchData(null, "all-users", null, null)),
+          new AclTransform.Rule(
+              new AclTransform.MatchData(false, null, null, "Default"),
+              new AclTransform.MatchData(null, null, null, "corp"))));
+      List<UserPrincipal> users = new ArrayList<UserPrincipal>();
+      List<GroupPrincipal> groups = new ArrayList<GroupPrincipal>();
+      for (int i = 0; i < 10; i++) {
+        users.add(new UserPrincipal("CORP\\user" + i));
+        groups.add(new GroupPrincipal("group" + i + "@CORP"));
+      }
+      groups.add(new GroupPrincipal("Everyone"));
+      acl = new Acl.Builder().setPermitUsers(users).setPermitGroups(groups)
+          .setDenyUsers(Arrays.asList(new UserPrincipal("CORP\\blocked")))
+          .setInheritFrom(new DocId("parent")).build();
+    }
+
+    @Override
+    Object run() {
+      return transform.transform(acl);
+    }
+  }
+
+  /**
+   * Builds a case-insensitive ACL of {@link #LARGE_ACL_SIZE} domain groups,
+   * which sorts the groups twice.
+   */
+  private static class BuildLarge extends Benchmark {
+    private List<GroupPrincipal> groups;
+
+    BuildLarge() {
+      super("Acl.Builder.build[groups=" + LARGE_ACL_SIZE
+          + ",caseInsensitive]");
+    }
+
+    @Override
+    void setUp() {
+      groups = new ArrayList<GroupPrincipal>();
+      for (int i = 0; i < LARGE_ACL_SIZE; i++) {
+        groups.add(new GroupPrincipal("CORP\\Group" + (i * 7919 % 10007)));
+      }
+    }
+
+    @Override
+    Object run() {
+      return new Acl.Builder().setPermitGroups(groups)
+          .setEverythingCaseInsensitive().build();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+/**
+ * A repeatable operation whose throughput is measured by
+ * {@link BenchmarkRunner}.
+ */
+abstract class Benchmark {
+  private final String name;
+  private final int threads;
+
+  /**
+   * @param name name reported in results, conventionally
+   *     {@code Class.method[param=value]}
+   * @param threads number of threads calling {@link #run} concurrently
+   */
+  protected Benchmark(String name, int threads) {
+    if (name == null) {
+      throw new NullPointerException();
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive");
+    }
+    this.name = name;
+    this.threads = threads;
+  }
+
+  protected Benchmark(String name) {
+    this(name, 1);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /** Prepares state shared by all calls to {@link #run}. */
+  void setUp() throws Exception {}
+
+  /** Releases state created by {@link #setUp}. */
+  void tearDown() throws Exception {}
+
+  /**
+   * Performs one operation. The result is consumed by the runner so that the
+   * JIT compiler cannot discard the work that produced it. Must be
+   * thread-safe if {@link #getThreads} is greater than one.
+   */
+  abstract Object run() throws Exception;
+}
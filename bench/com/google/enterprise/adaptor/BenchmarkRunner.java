@@ -0,0 +1,273 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the library's microbenchmarks and writes their results as JSON, so
+ * that runs can be compared across versions.
+ *
+ * <p>Each benchmark is warmed up, so that the JIT compiler has compiled its
+ * hot paths, and then measured over several fixed-length iterations. The
+ * throughput of each iteration is reported along with the mean and standard
+ * deviation, which give a sense of how much the results can be trusted.
+ *
+ * <p>Usage: {@code BenchmarkRunner [--filter=regex] [--warmupMillis=2000]
+ * [--iterations=5] [--iterationMillis=1000] [--label=version]
+ * [--output=results.json]}
+ */
+class BenchmarkRunner {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Combined results, so that benchmark results are never dead code. */
+  private static volatile int sink;
+
+  private final long warmupMillis;
+  private final int iterations;
+  private final long iterationMillis;
+
+  BenchmarkRunner(long warmupMillis, int iterations, long iterationMillis) {
+    if (warmupMillis < 0 || iterations < 1 || iterationMillis < 1) {
+      throw new IllegalArgumentException("invalid run lengths");
+    }
+    this.warmupMillis = warmupMillis;
+    this.iterations = iterations;
+    this.iterationMillis = iterationMillis;
+  }
+
+  /** Returns every benchmark in the suite. */
+  static List<Benchmark> allBenchmarks() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.addAll(FeedBenchmarks.create());
+    benchmarks.addAll(DocIdCodecBenchmarks.create());
+    benchmarks.addAll(CommandStreamParserBenchmarks.create());
+    benchmarks.addAll(AclBenchmarks.create());
+    benchmarks.addAll(MetadataTransformBenchmarks.create());
+    benchmarks.addAll(DocumentHandlerBenchmarks.create());
+    benchmarks.addAll(JournalBenchmarks.create());
+    benchmarks.addAll(SessionManagerBenchmarks.create());
+    benchmarks.addAll(SamlBatchAuthzBenchmarks.create());
+    return benchmarks;
+  }
+
+  Result measure(Benchmark benchmark) throws Exception {
+    benchmark.setUp();
+    try {
+      if (warmupMillis > 0) {
+        runFor(benchmark, warmupMillis);
+      }
+      double[] opsPerSecond = new double[iterations];
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        long ops = runFor(benchmark, iterationMillis);
+        long elapsed = System.nanoTime() - start;
+        opsPerSecond[i] = ops * 1e9 / elapsed;
+      }
+      return new Result(benchmark, opsPerSecond);
+    } finally {
+      benchmark.tearDown();
+    }
+  }
+
+  /**
+   * Calls the benchmark from its threads until {@code millis} have passed.
+   *
+   * @return the number of operations completed by all threads
+   */
+  private long runFor(final Benchmark benchmark, long millis)
+      throws Exception {
+    final long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(millis);
+    int threads = benchmark.getThreads();
+    if (threads == 1) {
+      return runUntil(benchmark, deadline);
+    }
+    final long[] counts = new long[threads];
+    final AtomicReference<Exception> failure
+        = new AtomicReference<Exception>();
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      final int index = i;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            counts[index] = runUntil(benchmark, deadline);
+          } catch (Exception ex) {
+            failure.compareAndSet(null, ex);
+          } finally {
+            done.countDown();
+          }
+        }
+      }, "benchmark-" + i);
+      thread.start();
+    }
+    done.await();
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    return total;
+  }
+
+  private static long runUntil(Benchmark benchmark, long deadline)
+      throws Exception {
+    long ops = 0;
+    int hash = 0;
+    do {
+      Object result = benchmark.run();
+      hash += result == null ? 0 : System.identityHashCode(result);
+      ops++;
+    } while (System.nanoTime() < deadline);
+    sink += hash;
+    return ops;
+  }
+
+  /** Measurements of one benchmark, in the form written as JSON. */
+  static class Result {
+    final String name;
+    final int threads;
+    final double opsPerSecond;
+    final double opsPerSecondStddev;
+    final double nanosPerOp;
+    final double[] iterations;
+
+    Result(Benchmark benchmark, double[] opsPerSecond) {
+      this.name = benchmark.getName();
+      this.threads = benchmark.getThreads();
+      this.iterations = opsPerSecond;
+      double sum = 0;
+      for (double value : opsPerSecond) {
+        sum += value;
+      }
+      double mean = sum / opsPerSecond.length;
+      double squares = 0;
+      for (double value : opsPerSecond) {
+        squares += (value - mean) * (value - mean);
+      }
+      this.opsPerSecond = mean;
+      this.opsPerSecondStddev = opsPerSecond.length < 2 ? 0
+          : Math.sqrt(squares / (opsPerSecond.length - 1));
+      // Average time each thread spent on one operation.
+      this.nanosPerOp = mean == 0 ? 0 : threads * 1e9 / mean;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH, "%-60s %14.1f ops/s +- %5.1f%% "
+          + "%12.1f ns/op", name, opsPerSecond,
+          opsPerSecond == 0 ? 0 : 100 * opsPerSecondStddev / opsPerSecond,
+          nanosPerOp);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Pattern filter = Pattern.compile(".*");
+    long warmupMillis = 2000;
+    int iterations = 5;
+    long iterationMillis = 1000;
+    String label = "unknown";
+    File output = null;
+    for (String arg : args) {
+      if (arg.isEmpty()) {
+        continue;
+      }
+      int equals = arg.indexOf('=');
+      String key = equals == -1 ? arg : arg.substring(0, equals);
+      String value = equals == -1 ? "" : arg.substring(equals + 1);
+      if ("--filter".equals(key)) {
+        filter = Pattern.compile(value);
+      } else if ("--warmupMillis".equals(key)) {
+        warmupMillis = Long.parseLong(value);
+      } else if ("--iterations".equals(key)) {
+        iterations = Integer.parseInt(value);
+      } else if ("--iterationMillis".equals(key)) {
+        iterationMillis = Long.parseLong(value);
+      } else if ("--label".equals(key)) {
+        label = value;
+      } else if ("--output".equals(key)) {
+        output = new File(value);
+      } else {
+        System.err.println("Unknown argument: " + arg);
+        System.exit(1);
+      }
+    }
+
+    BenchmarkRunner runner
+        = new BenchmarkRunner(warmupMillis, iterations, iterationMillis);
+    List<Result> results = new ArrayList<Result>();
+    for (Benchmark benchmark : allBenchmarks()) {
+      if (!filter.matcher(benchmark.getName()).find()) {
+        continue;
+      }
+      Result result = runner.measure(benchmark);
+      System.out.println(result);
+      results.add(result);
+    }
+
+    if (output != null) {
+      Map<String, Object> report = new LinkedHashMap<String, Object>();
+      report.put("label", label);
+      report.put("timestamp", System.currentTimeMillis());
+      report.put("javaVersion", System.getProperty("java.version"));
+      report.put("javaVmName", System.getProperty("java.vm.name"));
+      report.put("osName", System.getProperty("os.name"));
+      report.put("availableProcessors",
+          Runtime.getRuntime().availableProcessors());
+      report.put("warmupMillis", warmupMillis);
+      report.put("iterations", iterations);
+      report.put("iterationMillis", iterationMillis);
+      report.put("results", results);
+      writeJson(report, output);
+      System.out.println("Results written to " + output);
+    }
+  }
+
+  private static void writeJson(Object report, File file) throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    Gson gson = new GsonBuilder().setPrettyPrinting()
+        .disableHtmlEscaping().create();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+    try {
+      gson.toJson(report, writer);
+    } finally {
+      writer.close();
+    }
+  }
+}
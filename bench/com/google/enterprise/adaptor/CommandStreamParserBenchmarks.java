@@ -0,0 +1,108 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/** Benchmarks of parsing the output of command line listers. */
+class CommandStreamParserBenchmarks {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int[] NUM_RECORDS = {100, 10000};
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    for (int numRecords : NUM_RECORDS) {
+      benchmarks.add(new ReadFromLister(numRecords));
+    }
+    return benchmarks;
+  }
+
+  /**
+   * Builds a lister stream mixing bare ids, ids with attributes, and an
+   * id-list, as a typical command line lister would produce.
+   */
+  static byte[] createListerStream(int numRecords) {
+    StringBuilder sb = new StringBuilder("GSA Adaptor Data Version 1 [\n]\n");
+    int i = 0;
+    for (; i < numRecords / 2; i++) {
+      sb.append("id=share/folder").append(i % 50).append("/doc").append(i)
+          .append('\n');
+      if (i % 4 == 0) {
+        sb.append("last-modified=1420070400\ncrawl-immediately\n");
+      }
+    }
+    sb.append("id-list\n");
+    for (; i < numRecords; i++) {
+      sb.append("share/list/doc").append(i).append('\n');
+    }
+    sb.append('\n');
+    return sb.toString().getBytes(UTF8);
+  }
+
+  private static class ReadFromLister extends Benchmark {
+    private final int numRecords;
+    private byte[] stream;
+    private final CountingDocIdPusher pusher = new CountingDocIdPusher();
+
+    ReadFromLister(int numRecords) {
+      super("CommandStreamParser.readFromLister[records=" + numRecords + "]");
+      this.numRecords = numRecords;
+    }
+
+    @Override
+    void setUp() {
+      stream = createListerStream(numRecords);
+    }
+
+    @Override
+    Object run() throws Exception {
+      new CommandStreamParser(new ByteArrayInputStream(stream))
+          .readFromLister(pusher, null);
+      return pusher.count;
+    }
+  }
+
+  /** Counts pushed records without keeping them. */
+  private static class CountingDocIdPusher extends AbstractDocIdPusher {
+    long count;
+
+    @Override
+    public Record pushRecords(Iterable<Record> records,
+        ExceptionHandler handler) {
+      for (Record record : records) {
+        count++;
+      }
+      return null;
+    }
+
+    @Override
+    public DocId pushNamedResources(Map<DocId, Acl> resources,
+        ExceptionHandler handler) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public GroupPrincipal pushGroupDefinitions(
+        Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+        boolean caseSensitive, ExceptionHandler handler) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Benchmarks of converting between DocIds and URIs. */
+class DocIdCodecBenchmarks {
+  private static final String BASE_URI = "http://localhost:5678/doc/";
+  private static final int NUM_IDS = 1024;
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new Encode());
+    benchmarks.add(new Decode());
+    return benchmarks;
+  }
+
+  private static DocId[] createDocIds() {
+    DocId[] ids = new DocId[NUM_IDS];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = new DocId("Shared Documents/Project " + (i % 37)
+          + "/résumé #" + i + "?.docx");
+    }
+    return ids;
+  }
+
+  private static class Encode extends Benchmark {
+    private DocIdCodec codec;
+    private DocId[] ids;
+    private int next;
+
+    Encode() {
+      super("DocIdCodec.encodeDocId");
+    }
+
+    @Override
+    void setUp() throws Exception {
+      codec = new DocIdCodec(new URI(BASE_URI), false);
+      ids = createDocIds();
+    }
+
+    @Override
+    Object run() {
+      next = (next + 1) % ids.length;
+      return codec.encodeDocId(ids[next]);
+    }
+  }
+
+  private static class Decode extends Benchmark {
+    private DocIdCodec codec;
+    private URI[] uris;
+    private int next;
+
+    Decode() {
+      super("DocIdCodec.decodeDocId");
+    }
+
+    @Override
+    void setUp() throws Exception {
+      codec = new DocIdCodec(new URI(BASE_URI), false);
+      DocId[] ids = createDocIds();
+      uris = new URI[ids.length];
+      for (int i = 0; i < ids.length; i++) {
+        uris[i] = codec.encodeDocId(ids[i]);
+      }
+    }
+
+    @Override
+    Object run() {
+      next = (next + 1) % uris.length;
+      return codec.decodeDocId(uris[next]);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.sun.net.httpserver.HttpContext;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Benchmarks of serving a document through {@link DocumentHandler}, from
+ * parsing the request to writing the response, using mock exchanges.
+ */
+class DocumentHandlerBenchmarks {
+  private static final int CONTENT_SIZE = 10 * 1024;
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new Handle(true));
+    benchmarks.add(new Handle(false));
+    return benchmarks;
+  }
+
+  private static class Handle extends Benchmark {
+    private final boolean fromGsa;
+    private ScheduledExecutorService executor;
+    private DocumentHandler handler;
+    private HttpContext context;
+    private String path;
+
+    /**
+     * @param fromGsa whether requests come from a full-access host, rather
+     *     than a user whose access must be checked
+     */
+    Handle(boolean fromGsa) {
+      super("DocumentHandler.handle[client=" + (fromGsa ? "gsa" : "user")
+          + ",bytes=" + CONTENT_SIZE + "]");
+      this.fromGsa = fromGsa;
+    }
+
+    @Override
+    void setUp() throws Exception {
+      executor = Executors.newSingleThreadScheduledExecutor();
+      DocIdCodec codec
+          = new DocIdCodec(new URI("http://localhost/doc/"), false);
+      MockAdaptor adaptor = new MockAdaptor();
+      adaptor.documentBytes = new byte[CONTENT_SIZE];
+      // MockHttpExchange requests come from 127.0.0.3.
+      String[] fullAccessHosts
+          = fromGsa ? new String[] {"127.0.0.3"} : new String[0];
+      handler = new DocumentHandler(codec, codec, new Journal(false),
+          adaptor, adaptor, "localhost", fullAccessHosts, new String[0],
+          null, null, new AclTransform(Arrays.<AclTransform.Rule>asList()),
+          null, false, new Watchdog(executor), new NoOpPusher(), false, false,
+          30 * 1000, 180 * 1000, "content", false, new GsaVersion("7.2.0-0"));
+      context = new MockHttpContext("/");
+      path = codec.encodeDocId(new DocId("share/folder/document.txt"))
+          .getRawPath();
+    }
+
+    @Override
+    void tearDown() {
+      executor.shutdownNow();
+    }
+
+    @Override
+    Object run() throws Exception {
+      MockHttpExchange ex = new MockHttpExchange("GET", path, context);
+      handler.handle(ex);
+      if (ex.getResponseCode() != 200) {
+        throw new IllegalStateException(
+            "Unexpected response code: " + ex.getResponseCode());
+      }
+      return ex;
+    }
+  }
+
+  private static class NoOpPusher implements DocumentHandler.AsyncPusher {
+    @Override
+    public boolean asyncPushItem(DocIdSender.Item item) {
+      return true;
+    }
+  }
+}
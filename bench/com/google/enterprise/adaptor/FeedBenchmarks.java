@@ -0,0 +1,67 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/** Benchmarks of building feed files. */
+class FeedBenchmarks {
+  private static final int[] BATCH_SIZES = {1, 100, 5000};
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    for (int batchSize : BATCH_SIZES) {
+      benchmarks.add(new MakeMetadataAndUrlXml(batchSize));
+    }
+    return benchmarks;
+  }
+
+  private static class MakeMetadataAndUrlXml extends Benchmark {
+    private final int batchSize;
+    private GsaFeedFileMaker maker;
+    private List<DocIdPusher.Record> records;
+
+    MakeMetadataAndUrlXml(int batchSize) {
+      super("GsaFeedFileMaker.makeMetadataAndUrlXml[batch=" + batchSize + "]");
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    void setUp() throws Exception {
+      DocIdCodec codec
+          = new DocIdCodec(new URI("http://localhost:5678/doc/"), false);
+      maker = new GsaFeedFileMaker(codec,
+          new AclTransform(Arrays.<AclTransform.Rule>asList()));
+      records = new ArrayList<DocIdPusher.Record>(batchSize);
+      Date lastModified = new Date(1420070400000L);
+      for (int i = 0; i < batchSize; i++) {
+        records.add(new DocIdPusher.Record.Builder(
+            new DocId("share/folder" + (i % 50) + "/document " + i + ".txt"))
+            .setLastModified(lastModified)
+            .setCrawlImmediately(i % 10 == 0)
+            .build());
+      }
+    }
+
+    @Override
+    Object run() {
+      return maker.makeMetadataAndUrlXml("adaptor_bench", records);
+    }
+  }
+}
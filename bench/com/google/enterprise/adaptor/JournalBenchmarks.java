@@ -0,0 +1,70 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of the bookkeeping {@link Journal} does for each document
+ * request, with and without contention between request threads.
+ */
+class JournalBenchmarks {
+  private static final int[] THREADS = {1, 8};
+  private static final int NUM_IDS = 1024;
+  private static final int CONTENT_SIZE = 10 * 1024;
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    for (int threads : THREADS) {
+      benchmarks.add(new RecordRequest(threads, false));
+      benchmarks.add(new RecordRequest(threads, true));
+    }
+    return benchmarks;
+  }
+
+  /** Records the same events as {@link DocumentHandler} does per request. */
+  private static class RecordRequest extends Benchmark {
+    private final boolean reducedMem;
+    private final AtomicInteger next = new AtomicInteger();
+    private Journal journal;
+    private DocId[] ids;
+
+    RecordRequest(int threads, boolean reducedMem) {
+      super("Journal.recordGsaContentRequest[threads=" + threads
+          + ",reducedMem=" + reducedMem + "]", threads);
+      this.reducedMem = reducedMem;
+    }
+
+    @Override
+    void setUp() {
+      journal = new Journal(reducedMem);
+      ids = new DocId[NUM_IDS];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = new DocId("doc" + i);
+      }
+    }
+
+    @Override
+    Object run() {
+      DocId id = ids[(next.getAndIncrement() & Integer.MAX_VALUE) % NUM_IDS];
+      journal.recordRequestProcessingStart();
+      journal.recordGsaContentRequest(id);
+      journal.recordRequestProcessingEnd(CONTENT_SIZE);
+      return id;
+    }
+  }
+}
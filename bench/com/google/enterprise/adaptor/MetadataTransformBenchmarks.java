@@ -0,0 +1,81 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.enterprise.adaptor.prebuilt.PrebuiltTransforms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Benchmarks of metadata transforms. */
+class MetadataTransformBenchmarks {
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new Pipeline());
+    return benchmarks;
+  }
+
+  /**
+   * Runs a copy, a regular expression replacement and a delete over a
+   * document with twenty metadata keys.
+   */
+  private static class Pipeline extends Benchmark {
+    private MetadataTransformPipeline pipeline;
+    private Metadata original;
+
+    Pipeline() {
+      super("MetadataTransformPipeline.transform[stages=3]");
+    }
+
+    @Override
+    void setUp() {
+      Map<String, String> copy = new HashMap<String, String>();
+      copy.put("1.from", "author");
+      copy.put("1.to", "contributors");
+      Map<String, String> replace = new HashMap<String, String>();
+      replace.put("key1", "title");
+      replace.put("key2", "description");
+      replace.put("pattern", "(draft|final)");
+      replace.put("replacement", "[$1]");
+      Map<String, String> delete = new HashMap<String, String>();
+      delete.put("key1", "internal-id");
+      pipeline = new MetadataTransformPipeline(Arrays.asList(
+          PrebuiltTransforms.copyMetadata(copy),
+          PrebuiltTransforms.replaceMetadata(replace),
+          PrebuiltTransforms.deleteMetadata(delete)),
+          Arrays.asList("copy", "replace", "delete"));
+      original = new Metadata();
+      original.add("author", "Jane Doe");
+      original.add("title", "Quarterly report, final version");
+      original.add("description", "The draft of the quarterly report");
+      original.add("internal-id", "12345");
+      for (int i = 0; i < 16; i++) {
+        original.add("key" + i, "value " + i);
+      }
+    }
+
+    @Override
+    Object run() {
+      Metadata metadata = new Metadata(original);
+      Map<String, String> params = new HashMap<String, String>();
+      params.put("DocId", "share/doc");
+      pipeline.transform(metadata, params);
+      return metadata;
+    }
+  }
+}
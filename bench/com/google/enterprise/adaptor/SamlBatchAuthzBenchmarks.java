@@ -0,0 +1,99 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.sun.net.httpserver.HttpContext;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of answering batch authorization requests from the GSA through
+ * {@link SamlBatchAuthzHandler}, from decoding the SOAP request to encoding
+ * the SOAP response, using mock exchanges. Each run is one request.
+ */
+class SamlBatchAuthzBenchmarks {
+  private static final int[] THREADS = {1, 8};
+  private static final int[] QUERIES = {1, 50};
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    for (int threads : THREADS) {
+      for (int queries : QUERIES) {
+        benchmarks.add(new Handle(threads, queries));
+      }
+    }
+    return benchmarks;
+  }
+
+  private static class Handle extends Benchmark {
+    private final int queries;
+    private SamlBatchAuthzHandler handler;
+    private HttpContext context;
+    private byte[] request;
+
+    Handle(int threads, int queries) {
+      super("SamlBatchAuthzHandler.handle[threads=" + threads + ",queries="
+          + queries + "]", threads);
+      this.queries = queries;
+    }
+
+    @Override
+    void setUp() {
+      GsaCommunicationHandler.bootstrapOpenSaml();
+      SamlMetadata metadata = new SamlMetadata("localhost", 80, "localhost",
+          "http://google.com/enterprise/gsa/security-manager",
+          "http://google.com/enterprise/gsa/adaptor");
+      handler = new SamlBatchAuthzHandler(new MockAdaptor(),
+          new MockDocIdCodec(), metadata, Principal.DomainFormat.DNS);
+      context = new MockHttpContext(handler, "/");
+      StringBuilder sb = new StringBuilder();
+      sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<soap11:Envelope "
+          + "xmlns:soap11=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+          + "<soap11:Body>");
+      for (int i = 0; i < queries; i++) {
+        sb.append("<samlp:AuthzDecisionQuery ID=\"query").append(i)
+            .append("\" IssueInstant=\"2009-10-20T17:52:29Z\" Version=\"2.0\" "
+                + "Resource=\"http://localhost/doc/").append(i).append("\" "
+                + "xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+                + "xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                + "<saml:Subject><saml:NameID>user</saml:NameID>"
+                + "</saml:Subject>"
+                + "<saml:Action "
+                + "Namespace=\"urn:oasis:names:tc:SAML:1.0:action:ghpp\">GET"
+                + "</saml:Action>"
+                + "</samlp:AuthzDecisionQuery>");
+      }
+      sb.append("</soap11:Body></soap11:Envelope>");
+      request = sb.toString().getBytes(UTF_8);
+    }
+
+    @Override
+    Object run() throws Exception {
+      MockHttpExchange ex = new MockHttpExchange("POST", "/", context);
+      ex.setRequestBody(new ByteArrayInputStream(request));
+      handler.handle(ex);
+      if (ex.getResponseCode() != 200) {
+        throw new AssertionError("Unexpected response: "
+            + ex.getResponseCode());
+      }
+      return ex.getResponseBytes();
+    }
+  }
+}
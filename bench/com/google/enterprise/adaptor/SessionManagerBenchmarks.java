@@ -0,0 +1,91 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of looking up and creating sessions in {@link SessionManager},
+ * as done for each request from an authenticated user, with and without
+ * contention between request threads.
+ */
+class SessionManagerBenchmarks {
+  private static final int[] THREADS = {1, 8};
+  private static final int NUM_SESSIONS = 10000;
+  /** One in this many requests comes from a client without a session. */
+  private static final int NEW_CLIENT_PERIOD = 64;
+
+  static List<Benchmark> create() {
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    for (int threads : THREADS) {
+      benchmarks.add(new GetSession(threads, false));
+      benchmarks.add(new GetSession(threads, true));
+    }
+    return benchmarks;
+  }
+
+  private static class GetSession extends Benchmark {
+    private final boolean newClients;
+    private final AtomicInteger next = new AtomicInteger();
+    private SessionManager<HttpExchange> sessionManager;
+    private HttpContext context;
+    private String[] cookies;
+
+    /**
+     * @param newClients whether some requests create new sessions, which
+     *     causes expired sessions to be cleaned up
+     */
+    GetSession(int threads, boolean newClients) {
+      super("SessionManager.getSession[threads=" + threads + ",sessions="
+          + NUM_SESSIONS + ",newClients=" + newClients + "]", threads);
+      this.newClients = newClients;
+    }
+
+    @Override
+    void setUp() {
+      // When creating sessions, use a short lifetime so that cleanup has
+      // work to do while the benchmark runs.
+      sessionManager = newClients
+          ? new SessionManager<HttpExchange>(
+              new SessionManager.HttpExchangeClientStore(), 10 * 1000, 100)
+          : new SessionManager<HttpExchange>(
+              new SessionManager.HttpExchangeClientStore(),
+              30 * 60 * 1000, 5 * 60 * 1000);
+      context = new MockHttpContext("/");
+      cookies = new String[NUM_SESSIONS];
+      for (int i = 0; i < cookies.length; i++) {
+        MockHttpExchange ex = new MockHttpExchange("GET", "/", context);
+        sessionManager.getSession(ex);
+        String setCookie = ex.getResponseHeaders().getFirst("Set-Cookie");
+        cookies[i] = setCookie.substring(0, setCookie.indexOf(';'));
+      }
+    }
+
+    @Override
+    Object run() {
+      int i = next.getAndIncrement() & Integer.MAX_VALUE;
+      MockHttpExchange ex = new MockHttpExchange("GET", "/", context);
+      if (!newClients || i % NEW_CLIENT_PERIOD != 0) {
+        ex.getRequestHeaders().set("Cookie", cookies[i % NUM_SESSIONS]);
+      }
+      return sessionManager.getSession(ex, newClients);
+    }
+  }
+}
@@ -97,10 +97,20 @@ function formatChartData(stats, timeResolution) {
   return data;
 }
 
-function notAvailableInReducedMemMode(statValue) {
+function formatAverageMillis(sum, count) {
+  if (count == 0) {
+    return 'n/a';
+  }
+  return Math.round(sum / count) + ' ms';
+}
+
+function notAvailableInReducedMemMode(statValue, approximate) {
   if (statValue < 0) {
     return "Not available because journal.reducedMem is set to true";
   }
+  if (approximate) {
+    return "~" + statValue;
+  }
   return statValue.toString();
 }
 
@@ -125,14 +135,17 @@ function getStatsCallback(result, error) {
   $('#gaf-num-total-doc-ids-pushed').text(
       data.simpleStats.numTotalDocIdsPushed);
   $('#gaf-num-unique-doc-ids-pushed').text(
-      notAvailableInReducedMemMode(data.simpleStats.numUniqueDocIdsPushed));
+      notAvailableInReducedMemMode(data.simpleStats.numUniqueDocIdsPushed,
+          data.simpleStats.uniqueCountsApproximate));
   $('#gaf-num-total-gsa-requests').text(data.simpleStats.numTotalGsaRequests);
   $('#gaf-num-unique-gsa-requests').text(
-      notAvailableInReducedMemMode(data.simpleStats.numUniqueGsaRequests));
+      notAvailableInReducedMemMode(data.simpleStats.numUniqueGsaRequests,
+          data.simpleStats.uniqueCountsApproximate));
   $('#gaf-num-total-non-gsa-requests').text(
       data.simpleStats.numTotalNonGsaRequests);
   $('#gaf-num-unique-non-gsa-requests').text(
-      notAvailableInReducedMemMode(data.simpleStats.numUniqueNonGsaRequests));
+      notAvailableInReducedMemMode(data.simpleStats.numUniqueNonGsaRequests,
+          data.simpleStats.uniqueCountsApproximate));
   $('#gaf-when-started').text(String(new Date(data.simpleStats.whenStarted)));
   $('#gaf-time-resolution').text(data.simpleStats.timeResolution);
   $('#gaf-num-total-groups-pushed').text(
@@ -140,7 +153,10 @@ function getStatsCallback(result, error) {
   $('#gaf-num-total-group-members-pushed').text(
       data.simpleStats.numTotalGroupMembersPushed);
   $('#gaf-num-unique-groups-pushed').text(
-      notAvailableInReducedMemMode(data.simpleStats.numUniqueGroupsPushed));
+      notAvailableInReducedMemMode(data.simpleStats.numUniqueGroupsPushed,
+          data.simpleStats.uniqueCountsApproximate));
+  $('#gaf-total-feed-throttle-duration').text(
+      data.simpleStats.totalFeedThrottleDuration);
 
   var hadSuccessfulFullPush = Boolean(
       data.simpleStats.lastSuccessfulFullPushStart);
@@ -190,7 +206,78 @@ function getStatsCallback(result, error) {
       ? "Started " + String(new Date(data.simpleStats.currentGroupPushStart))
       : "None in progress");
 
+  var shardTable = $('#gaf-shard-table');
+  shardTable.find('tr:gt(0)').remove();
+  var shard, tr;
+  for (var i = 0; i < data.shardStats.length; i++) {
+    shard = data.shardStats[i];
+    tr = document.createElement('tr');
+    $.each([shard.name, shard.state, shard.attempts, shard.recordsPushed,
+        shard.startTime ? String(new Date(shard.startTime)) : '',
+        shard.endTime ? String(new Date(shard.endTime)) : ''],
+        function(key, val) {
+      var td = document.createElement('td');
+      td.appendChild(document.createTextNode(val));
+      tr.appendChild(td);
+    });
+    shardTable.append(tr);
+  }
+  $('#gaf-shards').toggle(data.shardStats.length > 0);
+
+  var topTable = $('#gaf-top-gsa-request-table');
+  topTable.find('tr:gt(0)').remove();
+  var request;
+  for (var i = 0; i < data.topGsaRequests.length; i++) {
+    request = data.topGsaRequests[i];
+    tr = document.createElement('tr');
+    $.each([request.docId, '~' + request.count], function(key, val) {
+      var td = document.createElement('td');
+      td.appendChild(document.createTextNode(val));
+      tr.appendChild(td);
+    });
+    topTable.append(tr);
+  }
+  $('#gaf-top-gsa-requests').toggle(data.topGsaRequests.length > 0);
+
+  var laneTable = $('#gaf-lane-table');
+  laneTable.find('tr:gt(0)').remove();
+  var lane;
+  for (var i = 0; i < data.feedLaneStats.length; i++) {
+    lane = data.feedLaneStats[i];
+    tr = document.createElement('tr');
+    $.each([lane.lane, lane.queueDepth, lane.uploading, lane.uploads,
+        formatAverageMillis(lane.waitDurationSum, lane.uploads),
+        lane.maxWaitDuration + ' ms',
+        formatAverageMillis(lane.uploadDurationSum, lane.uploads),
+        lane.maxUploadDuration + ' ms'],
+        function(key, val) {
+      var td = document.createElement('td');
+      td.appendChild(document.createTextNode(val));
+      tr.appendChild(td);
+    });
+    laneTable.append(tr);
+  }
+
   var vals = [];
+  var percentileTable = $('#gaf-percentile-table');
+  percentileTable.find('tr:gt(0)').remove();
+  var periods = ['Last minute', 'Last hour', 'Last day'];
+  var durations, sizes;
+  for (var i = 0; i < data.stats.length; i++) {
+    durations = data.stats[i].requestProcessingsDurationPercentiles;
+    sizes = data.stats[i].responseSizePercentiles;
+    tr = document.createElement('tr');
+    $.each([periods[i], durations.p50 + ' ms', durations.p95 + ' ms',
+        durations.p99 + ' ms', sizes.p50 + ' B', sizes.p95 + ' B',
+        sizes.p99 + ' B'],
+        function(key, val) {
+      var td = document.createElement('td');
+      td.appendChild(document.createTextNode(val));
+      tr.appendChild(td);
+    });
+    percentileTable.append(tr);
+  }
+
   vals.push(formatChartData(data.stats[0], data.simpleStats.timeResolution));
   vals.push(formatChartData(data.stats[1], data.simpleStats.timeResolution));
   vals.push(formatChartData(data.stats[2], data.simpleStats.timeResolution));
@@ -26,7 +26,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -59,36 +58,61 @@ public class Acl {
 
   private static final Logger log = Logger.getLogger(Acl.class.getName());
 
-  /** Locale used for case insensitivity related operations. */
-  private static final Locale CASE_LOCALE = Locale.ENGLISH;
+  private static final CaseInsensitiveCmp<Principal> CASE_INSENSITIVE_CMP
+      = new CaseInsensitiveCmp<Principal>();
 
-  private final Set<GroupPrincipal> permitGroups;
-  private final Set<GroupPrincipal> denyGroups;
-  private final Set<UserPrincipal> permitUsers;
-  private final Set<UserPrincipal> denyUsers;
+  private final PrincipalSet<GroupPrincipal> permitGroups;
+  private final PrincipalSet<GroupPrincipal> denyGroups;
+  private final PrincipalSet<UserPrincipal> permitUsers;
+  private final PrincipalSet<UserPrincipal> denyUsers;
   private final DocId inheritFrom;
   private final String inheritFromFragment;
   private final InheritanceType inheritType;
   private final boolean caseSensitive;
+  private final int hash;
 
   private Acl(Set<GroupPrincipal> permitGroups, Set<GroupPrincipal> denyGroups,
       Set<UserPrincipal> permitUsers, Set<UserPrincipal> denyUsers,
       DocId inheritFrom, String inheritFromFragment,
       InheritanceType inheritType, boolean caseSensitive) {
-    if (!caseSensitive) {
-      permitGroups = Collections.unmodifiableSet(cmpWrap(permitGroups));
-      denyGroups = Collections.unmodifiableSet(cmpWrap(denyGroups));
-      permitUsers = Collections.unmodifiableSet(cmpWrap(permitUsers));
-      denyUsers = Collections.unmodifiableSet(cmpWrap(denyUsers));
-    }
-    this.permitGroups = permitGroups;
-    this.denyGroups = denyGroups;
-    this.permitUsers = permitUsers;
-    this.denyUsers = denyUsers;
+    // Sets that are already ordered appropriately are shared, not copied.
+    Comparator<Principal> cmp = caseSensitive ? null : CASE_INSENSITIVE_CMP;
+    this.permitGroups = PrincipalSet.of(permitGroups, cmp);
+    this.denyGroups = PrincipalSet.of(denyGroups, cmp);
+    this.permitUsers = PrincipalSet.of(permitUsers, cmp);
+    this.denyUsers = PrincipalSet.of(denyUsers, cmp);
     this.inheritFrom = inheritFrom;
     this.inheritFromFragment = inheritFromFragment;
     this.inheritType = inheritType;
     this.caseSensitive = caseSensitive;
+    this.hash = Arrays.hashCode(new Object[] {
+      this.permitGroups, this.denyGroups, this.permitUsers, this.denyUsers,
+      inheritFrom, inheritFromFragment, inheritType, caseSensitive
+    });
+  }
+
+  /**
+   * Returns an ACL identical to this one, except that it uses the provided
+   * principal sets, which must be identical to this ACL's.
+   */
+  Acl withPrincipalSets(PrincipalSet<GroupPrincipal> permitGroups,
+      PrincipalSet<GroupPrincipal> denyGroups,
+      PrincipalSet<UserPrincipal> permitUsers,
+      PrincipalSet<UserPrincipal> denyUsers) {
+    return new Acl(permitGroups, denyGroups, permitUsers, denyUsers,
+        inheritFrom, inheritFromFragment, inheritType, caseSensitive);
+  }
+
+  /**
+   * Returns whether {@code other} is equal to this ACL and also spells all of
+   * its principals the same way.
+   */
+  boolean isIdentical(Acl other) {
+    return this == other || (equals(other)
+        && permitGroups.isIdentical(other.permitGroups)
+        && denyGroups.isIdentical(other.denyGroups)
+        && permitUsers.isIdentical(other.permitUsers)
+        && denyUsers.isIdentical(other.denyUsers));
   }
 
   private <P extends Principal> Set<P> cmpWrap(Set<P> unwrapped) {
@@ -102,25 +126,7 @@ public class Acl {
     /** Does not differentiate between UserPrincipal and GroupPrincipal */
     @Override
     public int compare(P p1, P p2) {
-      String ns1 = p1.getNamespace().toLowerCase(CASE_LOCALE);
-      String ns2 = p2.getNamespace().toLowerCase(CASE_LOCALE);
-      int nscmp = ns1.compareTo(ns2);
-      if (0 != nscmp) {
-        return nscmp;
-      }
-      // OK, same namespace
-
-      String d1 = p1.parse().domain.toLowerCase(CASE_LOCALE);
-      String d2 = p2.parse().domain.toLowerCase(CASE_LOCALE);
-      int dcmp = d1.compareTo(d2);
-      if (0 != dcmp) {
-        return dcmp;
-      }
-      // OK, same domain
-
-      String n1 = p1.parse().plainName.toLowerCase(CASE_LOCALE);
-      String n2 = p2.parse().plainName.toLowerCase(CASE_LOCALE);
-      return n1.compareTo(n2);
+      return p1.caseFolded().compareTo(p2.caseFolded());
     }
 
     @Override
@@ -529,6 +535,10 @@ public class Acl {
       return true;
     }
     Acl a = (Acl) o;
+    if (caseSensitive && a.caseSensitive && hash != a.hash) {
+      // Only case-sensitive ACLs have hash codes consistent with equals.
+      return false;
+    }
     return inheritType == a.inheritType
         // Handle null case.
         && (inheritFrom == a.inheritFrom
@@ -547,10 +557,7 @@ public class Acl {
    */
   @Override
   public int hashCode() {
-    return Arrays.hashCode(new Object[] {
-      permitGroups, denyGroups, permitUsers, denyUsers,
-      inheritFrom, inheritFromFragment, inheritType, caseSensitive
-    });
+    return hash;
   }
 
   /**
@@ -629,17 +636,9 @@ public class Acl {
     }
 
     private <P extends Principal> Set<P> sanitizeSet(Collection<P> set) {
-      if (set.isEmpty()) {
-        return Collections.emptySet();
-      }
-      // Check all the values to make sure they are valid.
-      for (P item : set) {
-        if (item == null) {
-          throw new NullPointerException("Entries in set may not be null");
-        }
-      }
-      // Use TreeSets so that sets have predictable order when serializing.
-      return Collections.unmodifiableSet(new TreeSet<P>(set));
+      // Use sorted sets so that sets have predictable order when serializing.
+      // This also checks that no entries are null.
+      return PrincipalSet.of(set, null);
     }
 
     /**
@@ -0,0 +1,184 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers a fingerprint of the last ACL successfully pushed for each named
+ * resource, so that {@link DocIdSender.AclItem}s identical to what the GSA
+ * already has need not be sent again. {@link DocumentHandler} queues the
+ * named resources of a document every time the document is retrieved, and
+ * most recrawls carry the same ACLs.
+ *
+ * <p>At most {@code maxSize} named resources are remembered, evicting the
+ * least recently used. A fingerprint expires {@code ttlMillis} after its push,
+ * so that the GSA is eventually sent every ACL again.
+ *
+ * <p>This class is thread-safe.
+ */
+class AclFingerprintCache {
+  private final long ttlMillis;
+  private final RelativeTimeProvider timeProvider;
+  private final Map<Key, Entry> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxSize number of named resources to remember
+   * @param ttlMillis how long a pushed ACL is remembered, or zero to remember
+   *     it until evicted
+   */
+  public AclFingerprintCache(final int maxSize, long ttlMillis,
+      RelativeTimeProvider timeProvider) {
+    if (timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (maxSize < 1 || ttlMillis < 0) {
+      throw new IllegalArgumentException(
+          "maxSize must be positive and ttlMillis must not be negative");
+    }
+    this.ttlMillis = ttlMillis;
+    this.timeProvider = timeProvider;
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Returns {@code true} if the same ACL was successfully pushed for the
+   * item's named resource, and has not expired.
+   */
+  public synchronized boolean isUnchanged(DocIdSender.AclItem item) {
+    Entry entry = entries.get(new Key(item));
+    if (entry != null && entry.fingerprint == fingerprint(item.getAcl())
+        && (ttlMillis == 0 || now() - entry.pushedMillis < ttlMillis)) {
+      hits.incrementAndGet();
+      return true;
+    }
+    misses.incrementAndGet();
+    return false;
+  }
+
+  /** Remember that {@code item} was successfully pushed. */
+  public synchronized void recordPushed(DocIdSender.AclItem item) {
+    entries.put(new Key(item), new Entry(fingerprint(item.getAcl()), now()));
+  }
+
+  /** Number of items found to be unchanged. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Number of items that needed to be pushed. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Number of named resources remembered. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private long now() {
+    return timeProvider.relativeTime(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Computes a hash of everything in {@code acl} that is sent to the GSA.
+   * Principals are combined without regard to order, because the principal
+   * sets of case-sensitive ACLs have no defined iteration order.
+   */
+  static long fingerprint(Acl acl) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putString(acl.getInheritanceType().name());
+    hasher.putBoolean(acl.isEverythingCaseSensitive());
+    DocId inheritFrom = acl.getInheritFrom();
+    putString(hasher, inheritFrom == null ? null : inheritFrom.getUniqueId());
+    putString(hasher, acl.getInheritFromFragment());
+    hasher.putLong(principalsHash(acl.getPermitUsers()));
+    hasher.putLong(principalsHash(acl.getDenyUsers()));
+    hasher.putLong(principalsHash(acl.getPermitGroups()));
+    hasher.putLong(principalsHash(acl.getDenyGroups()));
+    return hasher.hash().asLong();
+  }
+
+  private static long principalsHash(Set<? extends Principal> principals) {
+    long sum = principals.size();
+    for (Principal principal : principals) {
+      Hasher hasher = Hashing.murmur3_128().newHasher();
+      putString(hasher, principal.getNamespace());
+      putString(hasher, principal.getName());
+      sum += hasher.hash().asLong();
+    }
+    return sum;
+  }
+
+  /** Adds a length-prefixed string, so that adjacent strings can't collide. */
+  private static void putString(Hasher hasher, String s) {
+    if (s == null) {
+      hasher.putInt(-1);
+      return;
+    }
+    hasher.putInt(s.length());
+    hasher.putString(s);
+  }
+
+  private static class Key {
+    private final DocId docId;
+    private final String fragment;
+
+    Key(DocIdSender.AclItem item) {
+      this.docId = item.getDocId();
+      this.fragment = item.getDocIdFragment();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return docId.equals(other.docId) && (fragment == null
+          ? other.fragment == null : fragment.equals(other.fragment));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * docId.hashCode()
+          + (fragment == null ? 0 : fragment.hashCode());
+    }
+  }
+
+  private static class Entry {
+    final long fingerprint;
+    final long pushedMillis;
+
+    Entry(long fingerprint, long pushedMillis) {
+      this.fingerprint = fingerprint;
+      this.pushedMillis = pushedMillis;
+    }
+  }
+}
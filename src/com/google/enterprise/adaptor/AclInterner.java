@@ -0,0 +1,80 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Set;
+
+/**
+ * Pool of canonical {@link Acl} instances, for adaptors that keep many ACLs
+ * in memory. Equal ACLs share one instance, and ACLs that differ share the
+ * instances of their principal sets that are the same, so ACLs built from a
+ * few hundred distinct sets of principals take little more memory than the
+ * sets themselves. Since {@link Acl#equals} first checks identity, comparing
+ * canonical ACLs is also fast. The pool holds its ACLs weakly; ACLs no longer
+ * used elsewhere are garbage collected.
+ *
+ * <p>Only ACLs that spell all their principals the same way are shared. An ACL
+ * that is equal to a pooled one but spells a principal differently, such as
+ * {@code DOMAIN\name} instead of {@code name@DOMAIN}, or in a different case
+ * in a case-insensitive ACL, is not replaced by the pooled one.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class AclInterner {
+  private final Interner<Acl> acls = Interners.newWeakInterner();
+  private final Interner<PrincipalSet<?>> sets = Interners.newWeakInterner();
+
+  /**
+   * Returns the canonical instance identical to {@code acl}, which becomes
+   * the canonical instance if there was none.
+   */
+  public Acl intern(Acl acl) {
+    PrincipalSet<GroupPrincipal> permitGroups
+        = internSet(acl.getPermitGroups());
+    PrincipalSet<GroupPrincipal> denyGroups = internSet(acl.getDenyGroups());
+    PrincipalSet<UserPrincipal> permitUsers = internSet(acl.getPermitUsers());
+    PrincipalSet<UserPrincipal> denyUsers = internSet(acl.getDenyUsers());
+    Acl candidate = acl;
+    if (permitGroups != acl.getPermitGroups()
+        || denyGroups != acl.getDenyGroups()
+        || permitUsers != acl.getPermitUsers()
+        || denyUsers != acl.getDenyUsers()) {
+      candidate = acl.withPrincipalSets(permitGroups, denyGroups, permitUsers,
+          denyUsers);
+    }
+    Acl canonical = acls.intern(candidate);
+    // The canonical ACL's sets are canonical too, so identical sets are the
+    // same instances.
+    if (canonical != candidate
+        && (canonical.getPermitGroups() != permitGroups
+            || canonical.getDenyGroups() != denyGroups
+            || canonical.getPermitUsers() != permitUsers
+            || canonical.getDenyUsers() != denyUsers)) {
+      return candidate;
+    }
+    return canonical;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <P extends Principal> PrincipalSet<P> internSet(Set<P> set) {
+    // Acl always stores its principals in PrincipalSets.
+    PrincipalSet<P> principalSet = (PrincipalSet<P>) set;
+    PrincipalSet<P> canonical = (PrincipalSet<P>) sets.intern(principalSet);
+    return canonical.isIdentical(principalSet) ? canonical : principalSet;
+  }
+}
@@ -130,6 +130,14 @@ public interface AdaptorContext {
    */
   public void setPollingIncrementalLister(PollingIncrementalLister lister);
 
+  /**
+   * Register a sharded lister, so that full pushes list its shards
+   * concurrently instead of calling {@link Adaptor#getDocIds}. Registration may
+   * not occur after {@link Adaptor#init}.
+   * @param lister provides the shards of the full listing
+   */
+  public void setShardedLister(ShardedLister lister);
+
   /**
    * Register an authentication provider, so it can authenticate users for the
    * GSA. Registration may not occur after {@link Adaptor#init}.
@@ -143,4 +151,13 @@ public interface AdaptorContext {
    * @param authzAuthority makes access decisions
    */
   public void setAuthzAuthority(AuthzAuthority authzAuthority);
+
+  /**
+   * Register an asynchronous authorization provider, so it can check
+   * authorization of users for the GSA within a deadline. When registered, it
+   * is used instead of any {@link AuthzAuthority}. Registration may not occur
+   * after {@link Adaptor#init}.
+   * @param authzAuthority makes access decisions
+   */
+  public void setAsyncAuthzAuthority(AsyncAuthzAuthority authzAuthority);
 }
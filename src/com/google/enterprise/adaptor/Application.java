@@ -178,7 +178,10 @@ public final class Application {
         gsa.tryToPutVersionIntoConfig();
         String adaptorType = gsa.getAdaptor().getClass().getName();
         log.log(Level.INFO, "about to init {0}", adaptorType); 
+        long initStartNanos = System.nanoTime();
         gsa.getAdaptor().init(context);
+        log.log(Level.INFO, "Startup phase adaptor init took {0} ms",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStartNanos));
         break;
       } catch (InterruptedException ex) {
         throw ex;
@@ -379,8 +382,8 @@ public final class Application {
     // appear to handle that case.
     RejectedExecutionHandler policy
         = new SuggestHandlerAbortPolicy(HttpExchanges.abortImmediately);
-    Executor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
-        1, TimeUnit.MINUTES, blockingQueue, policy);
+    Executor executor = new InstrumentedThreadPoolExecutor(maxThreads,
+        maxThreads, 1, TimeUnit.MINUTES, blockingQueue, policy);
     server.setExecutor(executor);
 
     try {
@@ -0,0 +1,56 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Interface for adaptors capable of authorizing users without blocking the
+ * calling thread. When registered with {@link
+ * AdaptorContext#setAsyncAuthzAuthority}, it is used in place of any {@link
+ * AuthzAuthority}.
+ *
+ * <p>The library waits up to {@code adaptor.authzTimeoutSecs} for the
+ * returned future to complete. If it does not complete in time, or the
+ * request no longer needs the decisions, the future is cancelled with {@code
+ * mayInterruptIfRunning} set, so implementations should stop contacting
+ * their backend when cancelled.
+ */
+public interface AsyncAuthzAuthority {
+  /**
+   * Starts determining whether the user identified is allowed to access the
+   * {@code DocId}s, with the same meaning of results as {@link
+   * AuthzAuthority#isUserAuthorized}. This method should return quickly; the
+   * work of deciding should happen on other threads, for example by querying
+   * the backend in parallel.
+   *
+   * <p>The map provided by the future may be partial. {@code DocId}s missing
+   * from it are treated as {@link AuthzStatus#INDETERMINATE}, as are all the
+   * {@code DocId}s if the future does not complete by the deadline. If the
+   * future fails, the users will be denied access to the resources.
+   *
+   * @param userIdentity user to authorize, or {@code null} for anonymous
+   *        users
+   * @param ids Collection of {@code DocId}s that need to be checked
+   * @return future providing an {@code AuthzStatus} for {@code DocId}s in
+   *         {@code ids}
+   * @throws IOException on failure starting authorization
+   */
+  public Future<Map<DocId, AuthzStatus>> isUserAuthorizedAsync(
+      AuthnIdentity userIdentity, Collection<DocId> ids) throws IOException;
+}
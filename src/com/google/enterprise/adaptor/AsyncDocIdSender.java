@@ -20,6 +20,8 @@ import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +40,14 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
   private final TimeUnit maxLatencyUnit;
   private final BlockingQueue<DocIdSender.Item> queue;
   private final Runnable worker = new WorkerRunnable();
+  /**
+   * Number of items in {@link #queue}, maintained separately so it can be read
+   * without taking the queue's lock.
+   */
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicLong dropped = new AtomicLong();
+  /** Fingerprints of pushed ACLs, or {@code null} to push every ACL. */
+  private final AclFingerprintCache aclCache;
 
   /**
    * {@code queueCapacity} should be large enough to handle queuing the number
@@ -48,6 +58,18 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
    */
   public AsyncDocIdSender(ItemPusher itemPusher, int maxBatchSize,
       long maxLatency, TimeUnit maxLatencyUnit, int queueCapacity) {
+    this(itemPusher, maxBatchSize, maxLatency, maxLatencyUnit, queueCapacity,
+        null);
+  }
+
+  /**
+   * Like the other constructor, but {@link DocIdSender.AclItem}s are not
+   * queued if {@code aclCache} shows the same ACL was already pushed for the
+   * same named resource. {@code aclCache} may be {@code null}.
+   */
+  public AsyncDocIdSender(ItemPusher itemPusher, int maxBatchSize,
+      long maxLatency, TimeUnit maxLatencyUnit, int queueCapacity,
+      AclFingerprintCache aclCache) {
     if (itemPusher == null || maxLatencyUnit == null) {
       throw new NullPointerException();
     }
@@ -59,23 +81,45 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
     this.maxLatency = maxLatency;
     this.maxLatencyUnit = maxLatencyUnit;
     this.queue = new ArrayBlockingQueue<DocIdSender.Item>(queueCapacity);
+    this.aclCache = aclCache;
   }
 
   /**
    * Enqueue {@code item} to be sent by worker. If the queue is full, then the
-   * item will be dropped and a warning will be logged.
+   * item will be dropped and a warning will be logged. An ACL that is known
+   * to be unchanged is accepted without being queued.
    *
    * @return {@code true} if the item was accepted, {@code false} otherwise
    */
   @Override
   public boolean asyncPushItem(final DocIdSender.Item item) {
+    if (aclCache != null && item instanceof DocIdSender.AclItem
+        && aclCache.isUnchanged((DocIdSender.AclItem) item)) {
+      log.log(Level.FINEST, "Skipping unchanged ACL: {0}", item);
+      return true;
+    }
+    // Count the item before queuing it, so the worker never makes the depth
+    // negative.
+    queueDepth.incrementAndGet();
     if (!queue.offer(item)) {
+      queueDepth.decrementAndGet();
+      dropped.incrementAndGet();
       log.log(Level.WARNING, "Failed to queue item: {0}", item);
       return false;
     }
     return true;
   }
 
+  /** Returns the approximate number of items waiting to be sent. */
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  /** Returns the number of items dropped because the queue was full. */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
   @Override
   public boolean pushDocId(DocId docId) {
     return asyncPushItem(new DocIdPusher.Record.Builder(docId).build());
@@ -95,15 +139,36 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
     return worker;
   }
 
+  /**
+   * Sends {@code items}, then remembers the ACLs that were sent successfully.
+   */
+  private void pushItems(Set<DocIdSender.Item> items, ExceptionHandler handler)
+      throws InterruptedException {
+    DocIdSender.Item failed = itemPusher.pushItems(items.iterator(), handler);
+    if (aclCache == null) {
+      return;
+    }
+    // Items are sent in order, so those before the failed item were sent.
+    for (DocIdSender.Item item : items) {
+      if (item == failed) {
+        break;
+      }
+      if (item instanceof DocIdSender.AclItem) {
+        aclCache.recordPushed((DocIdSender.AclItem) item);
+      }
+    }
+  }
+
   private class WorkerRunnable implements Runnable {
     @Override
     public void run() {
       Set<DocIdSender.Item> items = new LinkedHashSet<DocIdSender.Item>();
       try {
         while (true) {
-          BlockingQueueBatcher.take(
+          int taken = BlockingQueueBatcher.take(
               queue, items, maxBatchSize, maxLatency, maxLatencyUnit);
-          itemPusher.pushItems(items.iterator(), null);
+          queueDepth.addAndGet(-taken);
+          pushItems(items, null);
           items.clear();
         }
       } catch (InterruptedException ex) {
@@ -115,8 +180,10 @@ class AsyncDocIdSender implements AsyncDocIdPusher,
           // have interrupted itself before draining the queue; might as well
           // send everything that was put on the queue.
           queue.drainTo(items);
-          itemPusher.pushItems(items.iterator(),
-              ExceptionHandlers.noRetryHandler());
+          // take() does not report the items it took before being
+          // interrupted, so resynchronize the depth with the queue.
+          queueDepth.set(queue.size());
+          pushItems(items, ExceptionHandlers.noRetryHandler());
         } catch (InterruptedException ex2) {
           // Ignore, because we are going to interrupt anyway. This should
           // actually not happen because of the ExceptionHandler we are using,
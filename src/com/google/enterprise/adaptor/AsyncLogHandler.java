@@ -0,0 +1,371 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Logging Handler that hands records to a background thread, which passes
+ * them on to other Handlers and keeps the most recent messages for later
+ * outputting. Threads that log never wait for each other or for the slower
+ * Handlers, like those writing to files, which are only used by the background
+ * thread.
+ *
+ * <p>Records are queued in a bounded ring buffer that many threads add to
+ * without locking and the background thread removes from. When the buffer is
+ * full, records are dropped instead of making the logging thread wait; the
+ * number dropped is logged to the target Handlers and shown with the recent
+ * messages.
+ *
+ * <p>Because records are formatted later on another thread, the source class
+ * and method of each record are determined when it is published, and
+ * parameters of messages should not be modified after they are logged.
+ *
+ * <p>This class can be configured in a logging properties file, like {@link
+ * java.util.logging.MemoryHandler}:
+ * <ul>
+ * <li>{@code com.google.enterprise.adaptor.AsyncLogHandler.targets}
+ *     comma-separated class names of the Handlers to pass records to
+ * <li>{@code com.google.enterprise.adaptor.AsyncLogHandler.capacity}
+ *     number of records that may be waiting, rounded up to a power of two.
+ *     Defaults to 8192
+ * <li>{@code com.google.enterprise.adaptor.AsyncLogHandler.historySize}
+ *     number of recent messages to keep for {@link #writeOut}, such as for
+ *     the dashboard. Defaults to 1000
+ * <li>{@code com.google.enterprise.adaptor.AsyncLogHandler.level}
+ *     level of records to accept. Defaults to {@code ALL}
+ * </ul>
+ *
+ * <p>This class is thread-safe.
+ */
+public class AsyncLogHandler extends Handler {
+  static final int DEFAULT_CAPACITY = 8192;
+  static final int DEFAULT_HISTORY_SIZE = 1000;
+
+  /**
+   * Entry being passed to the target Handlers by the current background
+   * thread, for {@link #getThreadName}.
+   */
+  private static final ThreadLocal<Entry> delivering
+      = new ThreadLocal<Entry>();
+
+  private final Handler[] targets;
+  private final AtomicReferenceArray<Entry> ring;
+  private final int mask;
+  /** Number of slots ever claimed by publishing threads. */
+  private final AtomicLong tail = new AtomicLong();
+  /**
+   * Number of records ever delivered. Only written by the background thread.
+   */
+  private volatile long head;
+  private final AtomicLong dropped = new AtomicLong();
+  /** Number of dropped records already reported to the targets. */
+  private long droppedReported;
+
+  /** Formats {@link #history}, or {@code null} if it is not kept. */
+  private final Formatter historyFormatter;
+  private final AtomicReferenceArray<String> history;
+  /** Number of messages ever added to {@link #history}. */
+  private final AtomicLong historyCount = new AtomicLong();
+
+  private final Thread worker;
+  private volatile boolean waiting;
+  private volatile boolean closed;
+
+  /**
+   * Creates a handler configured by the {@link LogManager}'s properties. Used
+   * when this class is named in a logging properties file.
+   */
+  public AsyncLogHandler() {
+    this(getIntProperty("capacity", DEFAULT_CAPACITY),
+        getIntProperty("historySize", DEFAULT_HISTORY_SIZE),
+        new SimpleFormatter(), createTargets());
+    String level = getProperty("level");
+    if (level != null) {
+      setLevel(Level.parse(level.trim()));
+    }
+  }
+
+  /**
+   * @param capacity number of records that may be waiting, rounded up to a
+   *     power of two
+   * @param historySize number of recent messages to keep for {@link
+   *     #writeOut}
+   * @param historyFormatter formats the recent messages, or {@code null} if
+   *     {@code historySize} is zero
+   * @param targets Handlers to pass records to
+   */
+  public AsyncLogHandler(int capacity, int historySize,
+      Formatter historyFormatter, Handler... targets) {
+    if (capacity < 1 || historySize < 0) {
+      throw new IllegalArgumentException("invalid capacity or history size");
+    }
+    if (historySize > 0 && historyFormatter == null) {
+      throw new NullPointerException();
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.ring = new AtomicReferenceArray<Entry>(size);
+    this.mask = size - 1;
+    this.historyFormatter = historySize > 0 ? historyFormatter : null;
+    this.history = new AtomicReferenceArray<String>(historySize);
+    this.targets = targets.clone();
+    this.worker = new Thread(new Worker(), "log-writer");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+    // Determine the caller while still on its thread.
+    record.getSourceClassName();
+    Entry entry = new Entry(record, Thread.currentThread().getName());
+    long slot;
+    do {
+      slot = tail.get();
+      if (slot - head >= ring.length()) {
+        dropped.incrementAndGet();
+        return;
+      }
+    } while (!tail.compareAndSet(slot, slot + 1));
+    ring.set((int) slot & mask, entry);
+    if (waiting) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  /**
+   * Waits for the records published so far to be passed on, and flushes the
+   * target Handlers.
+   */
+  @Override
+  public void flush() {
+    awaitDelivery(TimeUnit.SECONDS.toNanos(1));
+    for (Handler target : targets) {
+      target.flush();
+    }
+  }
+
+  /**
+   * Passes on any waiting records, stops the background thread, and closes the
+   * target Handlers.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(worker);
+    try {
+      worker.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    for (Handler target : targets) {
+      target.close();
+    }
+  }
+
+  /** Whether recent messages are kept for {@link #writeOut}. */
+  boolean keepsHistory() {
+    return historyFormatter != null;
+  }
+
+  /** Returns the number of records dropped because too many were waiting. */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Returns the recent messages, oldest first. Messages published before this
+   * call are included unless the background thread falls far behind.
+   */
+  public String writeOut() {
+    awaitDelivery(TimeUnit.SECONDS.toNanos(1));
+    StringBuilder sb = new StringBuilder();
+    long end = historyCount.get();
+    for (long i = Math.max(0, end - history.length()); i < end; i++) {
+      String message = history.get((int) (i % history.length()));
+      if (message != null) {
+        sb.append(message);
+      }
+    }
+    long numDropped = dropped.get();
+    if (numDropped > 0) {
+      sb.append(numDropped).append(" log messages were dropped because "
+          + "they were logged faster than they could be written")
+          .append(System.getProperty("line.separator"));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the name of the thread that logged {@code record}, if the current
+   * thread is passing it to the target Handlers. Otherwise, returns {@code
+   * null}. Lets formatters name the original thread instead of the background
+   * thread.
+   */
+  static String getThreadName(LogRecord record) {
+    Entry entry = delivering.get();
+    return entry != null && entry.record == record ? entry.threadName : null;
+  }
+
+  private void awaitDelivery(long timeoutNanos) {
+    long target = tail.get();
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (head < target && worker.isAlive()
+        && System.nanoTime() - deadline < 0) {
+      LockSupport.unpark(worker);
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+
+  private void deliver(Entry entry) {
+    delivering.set(entry);
+    try {
+      for (Handler target : targets) {
+        target.publish(entry.record);
+      }
+      if (historyFormatter != null) {
+        long index = historyCount.get();
+        history.set((int) (index % history.length()),
+            historyFormatter.format(entry.record));
+        historyCount.set(index + 1);
+      }
+    } catch (RuntimeException ex) {
+      reportError("Could not write log record", ex, ErrorManager.WRITE_FAILURE);
+    } finally {
+      delivering.remove();
+    }
+  }
+
+  /** Logs the number of records dropped since the last time it was logged. */
+  private void reportDropped() {
+    long numDropped = dropped.get();
+    if (numDropped == droppedReported) {
+      return;
+    }
+    LogRecord record = new LogRecord(Level.WARNING, "{0} log messages were "
+        + "dropped because they were logged faster than they could be "
+        + "written");
+    record.setParameters(new Object[] {numDropped - droppedReported});
+    record.setLoggerName(AsyncLogHandler.class.getName());
+    record.setSourceClassName(AsyncLogHandler.class.getName());
+    record.setSourceMethodName("reportDropped");
+    droppedReported = numDropped;
+    for (Handler target : targets) {
+      target.publish(record);
+    }
+  }
+
+  private class Worker implements Runnable {
+    @Override
+    public void run() {
+      while (true) {
+        long position = head;
+        int index = (int) position & mask;
+        Entry entry = ring.get(index);
+        if (entry != null) {
+          ring.set(index, null);
+          deliver(entry);
+          // Release the slot to publishing threads only after it is cleared,
+          // and let awaitDelivery() know the record was delivered.
+          head = position + 1;
+          continue;
+        }
+        if (position != tail.get()) {
+          // A publishing thread claimed the slot but has not filled it yet.
+          Thread.yield();
+          continue;
+        }
+        reportDropped();
+        if (closed) {
+          return;
+        }
+        waiting = true;
+        // Check again, in case a record was published before the flag was set.
+        if (head == tail.get() && !closed) {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        waiting = false;
+      }
+    }
+  }
+
+  private static class Entry {
+    final LogRecord record;
+    final String threadName;
+
+    Entry(LogRecord record, String threadName) {
+      this.record = record;
+      this.threadName = threadName;
+    }
+  }
+
+  private static String getProperty(String name) {
+    return LogManager.getLogManager().getProperty(
+        AsyncLogHandler.class.getName() + "." + name);
+  }
+
+  private static int getIntProperty(String name, int defaultValue) {
+    String value = getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException ex) {
+      return defaultValue;
+    }
+  }
+
+  private static Handler[] createTargets() {
+    String value = getProperty("targets");
+    List<Handler> targets = new ArrayList<Handler>();
+    if (value == null) {
+      return new Handler[0];
+    }
+    for (String className : value.split(",")) {
+      className = className.trim();
+      if ("".equals(className)) {
+        continue;
+      }
+      try {
+        targets.add((Handler) ClassLoader.getSystemClassLoader()
+            .loadClass(className).newInstance());
+      } catch (Exception ex) {
+        // The logging system is being configured, so it can't be used.
+        System.err.println("Could not create log handler " + className
+            + ": " + ex);
+      }
+    }
+    return targets.toArray(new Handler[targets.size()]);
+  }
+}
@@ -57,9 +57,28 @@ import java.util.regex.Pattern;
  * <tr><td> </td><td>adaptor.markAllDocsAsPublic </td><td> Tells GSA all
         documents are public.  Overrides all ACLs and even the setting of
         {@code Response.setSecure()}.  Defaults to false
+ * <tr><td> </td><td>adaptor.expandNestedGroups </td><td> when true, the
+ *     groups of users authenticated or authorized by the adaptor are expanded
+ *     to include parent groups known from the group definitions the adaptor
+ *     pushes, so that {@link Acl#isAuthorizedBatch} honors nested groups.
+ *     Defaults to false
+ * <tr><td> </td><td>adaptor.authzChunkSize </td><td> maximum number of
+ *     DocIds passed to a single {@link AuthzAuthority#isUserAuthorized} call
+ *     when answering a batch authorization request from the GSA.  Defaults
+ *     to 100
+ * <tr><td> </td><td>adaptor.authzParallelism </td><td> maximum number of
+ *     {@link AuthzAuthority#isUserAuthorized} calls evaluated concurrently
+ *     for batch authorization requests.  Defaults to 4
+ * <tr><td> </td><td>adaptor.authzTimeoutSecs </td><td> number of seconds
+ *     the adaptor has to authorize a batch of DocIds; DocIds not decided in
+ *     time are answered as indeterminate.  Also the deadline for each call to
+ *     {@link AsyncAuthzAuthority#isUserAuthorizedAsync}.  Defaults to 30
  * <tr><td> </td><td>adaptor.fullListingSchedule </td><td> when to invoke 
  *     {@link Adaptor#getDocIds Adaptor.getDocIds}, in cron format (minute,
  *     hour,  day of month, month, day of week).  Defaults to 0 3 * * *
+ * <tr><td> </td><td>adaptor.fullListingParallelism </td><td> maximum number
+ *     of {@link ShardedLister.Shard}s listed concurrently during a full push,
+ *     when the adaptor registered a {@link ShardedLister}.  Defaults to 4
  * <tr><td> </td><td>adaptor.incrementalPollPeriodSecs </td><td> number
  *     of seconds between invocations of {@link
  *     PollingIncrementalLister#getModifiedDocIds
@@ -108,12 +127,76 @@ import java.util.regex.Pattern;
  *     all documents as recrawlable (equivalent to value of false)
  * <tr><td> </td><td>feed.maxUrls </td><td> set max number of URLs included
  *     per feed file.    Defaults to 5000
+ * <tr><td> </td><td>feed.maxGroupMembers </td><td> max number of group
+ *     members included per group definitions feed file. A single group with
+ *     more members is sent in a feed of its own.  Defaults to 100000
+ * <tr><td> </td><td>feed.maxGroupBytes </td><td> approximate max size in
+ *     bytes of a group definitions feed file. A single group larger than this
+ *     is sent in a feed of its own.  Defaults to 10485760
  * <tr><td> </td><td>feed.name </td><td> source name used in feeds. Generated
  *     if not provided
  * <tr><td> </td><td>feed.archiveDirectory </td><td> specifies a directory in
  *     which all feeds sent to the GSA will be archived.  Feeds that failed to
  *     be sent to the GSA will be tagged with "FAILED" in the file name.
  *     If no directory is specified, feed files will not be saved.
+ * <tr><td> </td><td>feed.archiveSegmentSize </td><td> compressed size in
+ *     bytes at which a new feed archive segment file is started.  Defaults to
+ *     67108864
+ * <tr><td> </td><td>feed.archiveMaxSize </td><td> total size in bytes of
+ *     feed archive segments above which the oldest segments are deleted.
+ *     Defaults to 0, which keeps all segments
+ * <tr><td> </td><td>feed.archiveMaxAgeDays </td><td> number of days after
+ *     which feed archive segments are deleted.  Defaults to 0, which keeps all
+ *     segments
+ * <tr><td> </td><td>feed.archiveQueueSize </td><td> number of feeds that may
+ *     wait to be archived.  Feeds sent while the queue is full are not
+ *     archived.  Defaults to 16
+ * <tr><td> </td><td>feed.fingerprintFile </td><td> file in which to keep
+ *     a fingerprint of each record sent during full pushes. When set, records
+ *     that have not changed since the previous full push are not sent again.
+ *     If no file is specified, all records are sent during every full push
+ * <tr><td> </td><td>feed.fingerprintRefreshInterval </td><td> when
+ *     feed.fingerprintFile is set, every Nth full push sends all records
+ *     regardless of whether they changed. Zero disables periodic refreshes.
+ *     Defaults to 7
+ * <tr><td> </td><td>feed.fingerprintDeleteVanished </td><td> when
+ *     feed.fingerprintFile is set, send delete records at the end of a
+ *     successful full push for documents that were previously listed but were
+ *     not listed this time.  Defaults to false
+ * <tr><td> </td><td>feed.uploadSlots </td><td> number of feed files that
+ *     may be uploaded to the GSA at the same time.  Each lane uploads at most
+ *     one feed at a time, so the lane weights below only take effect when
+ *     this is less than 3.  Defaults to 2, so that asynchronous and
+ *     incremental feeds are uploaded ahead of full push feeds when all three
+ *     are waiting
+ * <tr><td> </td><td>feed.asyncLaneWeight </td><td> share of upload slots
+ *     given to feeds of {@link AsyncDocIdPusher} items, relative to the other
+ *     lanes, when several lanes are waiting to upload.  Defaults to 8
+ * <tr><td> </td><td>feed.incrementalLaneWeight </td><td> share of upload
+ *     slots given to incremental feeds and feeds the adaptor pushes outside of
+ *     full pushes.  Defaults to 8
+ * <tr><td> </td><td>feed.fullLaneWeight </td><td> share of upload slots
+ *     given to full push feeds.  Defaults to 1
+ * <tr><td> </td><td>feed.maxFeedsPerSecond </td><td> maximum rate at
+ *     which feed files are uploaded to the GSA, which may be fractional.
+ *     Zero means no limit.  Defaults to 0
+ * <tr><td> </td><td>feed.maxRecordsPerSecond </td><td> maximum rate at
+ *     which records and ACLs are uploaded to the GSA.  Zero means no limit.
+ *     Defaults to 0
+ * <tr><td> </td><td>feed.adaptiveRateLimit </td><td> whether to reduce the
+ *     feed.maxFeedsPerSecond and feed.maxRecordsPerSecond rates while feed
+ *     uploads fail or are slow, and restore them gradually once uploads are
+ *     fast again.  Defaults to false
+ * <tr><td> </td><td>feed.adaptiveLatencyTargetMillis </td><td> feed upload
+ *     duration in milliseconds above which feed.adaptiveRateLimit reduces the
+ *     upload rate.  Defaults to 10000
+ * <tr><td> </td><td>feed.aclDedupCacheSize </td><td> number of named
+ *     resources whose last pushed ACL is remembered, so that an ACL sent
+ *     while serving a document is only pushed again if it changed.  Zero
+ *     pushes every ACL.  Defaults to 50000
+ * <tr><td> </td><td>feed.aclDedupTtlMinutes </td><td> minutes after which a
+ *     remembered ACL is pushed again even if unchanged.  Zero means never.
+ *     Defaults to 1440
  * <tr><td> </td><td>gsa.version </td><td> version number used to configure
  *     expected GSA features.  Defaults to acquiring from GSA.
  *     Uses 7.0.14-114 if acquiring fails.
@@ -136,6 +219,11 @@ import java.util.regex.Pattern;
  * <tr><td> </td><td>journal.reducedMem </td><td> avoid tracking per URL 
  *     information in RAM; suggested with over five hundred thousand documents.
  *     Defaults to true
+ * <tr><td> </td><td>journal.approximateCounts </td><td> estimate the unique
+ *     document and group counts, and track the documents most requested by
+ *     the GSA, using a fixed amount of memory of about 1.3 MB. Unique counts
+ *     are usually within 2.4%.  Takes precedence over journal.reducedMem.
+ *     Defaults to false
  * <tr><td> </td><td>gsa.scoringType</td><td> type of relevance algorithm
  *      GSA utilizes to rank documents.  Either content or web.  Is sent
  *      when gsa.acceptsDocControlsHeader is true.  Defaults to content
@@ -160,6 +248,12 @@ import java.util.regex.Pattern;
  *     Defaults to adaptor
  * <tr><td> </td><td>server.maxWorkerThreads </td><td> number of maximum
  *     simultenous retrievals  allowed.  Defaults to 16
+ * <tr><td> </td><td>server.metricsEnabled </td><td> serve metrics in the
+ *     Prometheus text format, without authentication, at /metrics on the
+ *     dashboard port.  Defaults to false
+ * <tr><td> </td><td>server.metricsHosts </td><td> comma-separated hostnames,
+ *     IPs and CIDR ranges (like 10.0.0.0/8) allowed to read metrics.  Defaults
+ *     to empty, which allows any host
  * <tr><td> </td><td>server.port </td><td> retriever port.  Defaults to 5678
  * <tr><td> </td><td>server.queueCapacity </td><td> max retriever queue size.
  *     Defaults to  160
@@ -174,6 +268,15 @@ import java.util.regex.Pattern;
  *     http://google.com/enterprise/gsa/adaptor
  * <tr><td> </td><td>server.secure </td><td> enables https and certificate
  *     checking. Defaults to false
+ * <tr><td> </td><td>server.statelessSessions </td><td> when true, users
+ *     authenticated via SAML receive an encrypted session cookie holding
+ *     their identity, instead of the identity being kept in memory. Any
+ *     adaptor sharing the same key can accept the cookie. Identities with
+ *     a password are still kept in memory, so that passwords are never
+ *     stored in cookies. Requires server.secure=true. Defaults to false
+ * <tr><td> </td><td>server.statelessSessionLifetimeMinutes </td><td> maximum
+ *     lifetime of a stateless session cookie, after which the user is
+ *     authenticated again. Defaults to 30
  * <tr><td> </td><td>server.httpBasic.username </td><td> enables http basic
  *     authentication on all content requests. When enabled, requests receive
  *     HTTP 401 if correct username and password are not provided.  Once 
@@ -193,6 +296,16 @@ import java.util.regex.Pattern;
  *     content transform pipeline. Defaults to no-pipeline</td></tr>
  * <tr><td> </td><td>saml.idpExpirationMillis </td><td> Expiration time
  *     sent in SAML Authentication response. Defaults to 30,000 milliseconds.
+ * <tr><td> </td><td>saml.clientConnectTimeoutMillis </td><td> time allowed
+ *     for connecting to the GSA when resolving SAML artifacts, and for waiting
+ *     for a connection when {@code saml.clientMaxConnectionsPerHost} are in
+ *     use.  Defaults to 10,000 milliseconds
+ * <tr><td> </td><td>saml.clientReadTimeoutMillis </td><td> time allowed for
+ *     the GSA to respond when resolving SAML artifacts.  Defaults to 30,000
+ *     milliseconds
+ * <tr><td> </td><td>saml.clientMaxConnectionsPerHost </td><td> maximum
+ *     number of concurrent connections to the GSA for resolving SAML
+ *     artifacts.  Defaults to 20
  * </table>
  */
 public class Config {
@@ -262,6 +375,8 @@ public class Config {
     // for each request.
     addKey("server.queueCapacity", "160");
     addKey("server.useCompression", "false");
+    addKey("server.metricsEnabled", "false");
+    addKey("server.metricsHosts", "");
     addKey("server.asyncDocIdSenderQueueSize", "GENERATE",
         new ValueComputer() {
           public String compute(String rawValue) {
@@ -273,6 +388,8 @@ public class Config {
           }
         });
     addKey("server.samlEntityId", "http://google.com/enterprise/gsa/adaptor");
+    addKey("server.statelessSessions", "false");
+    addKey("server.statelessSessionLifetimeMinutes", "30");
     addKey("gsa.hostname", null);
     addKey("gsa.admin.hostname", "");
     addKey("gsa.characterEncoding", "UTF-8");
@@ -284,6 +401,10 @@ public class Config {
     addKey("gsa.scoringType", "content");
     addKey("docId.isUrl", "false");
     addKey("feed.archiveDirectory", "");
+    addKey("feed.archiveSegmentSize", "67108864");
+    addKey("feed.archiveMaxSize", "0");
+    addKey("feed.archiveMaxAgeDays", "0");
+    addKey("feed.archiveQueueSize", "16");
     addKey("feed.name", "GENERATE", new ValueComputer() {
           public String compute(String rawValue) {
             if ("GENERATE".equals(rawValue)) {
@@ -297,11 +418,27 @@ public class Config {
     addKey("feed.crawlImmediatelyBitEnabled", "");
     //addKey("feed.noFollowBitEnabled", "false");
     addKey("feed.maxUrls", "5000");
+    addKey("feed.maxGroupMembers", "100000");
+    addKey("feed.maxGroupBytes", "10485760");
+    addKey("feed.fingerprintFile", "");
+    addKey("feed.fingerprintRefreshInterval", "7");
+    addKey("feed.fingerprintDeleteVanished", "false");
+    addKey("feed.uploadSlots", "2");
+    addKey("feed.asyncLaneWeight", "8");
+    addKey("feed.incrementalLaneWeight", "8");
+    addKey("feed.fullLaneWeight", "1");
+    addKey("feed.maxFeedsPerSecond", "0");
+    addKey("feed.maxRecordsPerSecond", "0");
+    addKey("feed.adaptiveRateLimit", "false");
+    addKey("feed.adaptiveLatencyTargetMillis", "10000");
+    addKey("feed.aclDedupCacheSize", "50000");
+    addKey("feed.aclDedupTtlMinutes", "1440");
     addKey("adaptor.disableFullAndIncrementalListing", "false");
     addKey("adaptor.pushDocIdsOnStartup", "true");
     addKey("adaptor.domainFormat", "DNS");
     // 3:00 AM every day.
     addKey("adaptor.fullListingSchedule", "0 3 * * *");
+    addKey("adaptor.fullListingParallelism", "4");
     // 15 minutes.
     addKey("adaptor.incrementalPollPeriodSecs", "900");
     addKey("adaptor.docContentTimeoutSecs", "180");
@@ -310,6 +447,7 @@ public class Config {
     addKey("metadata.transform.pipeline", "");
     addKey("content.transform.pipeline", "");
     addKey("journal.reducedMem", "true");
+    addKey("journal.approximateCounts", "false");
     addKey("gsa.acceptsDocControlsHeader", "GENERATE", new ValueComputer() {
           public String compute(String rawValue) {
             if (!"GENERATE".equals(rawValue)) {
@@ -329,7 +467,14 @@ public class Config {
           }
         });
     addKey("adaptor.markAllDocsAsPublic", "false");
+    addKey("adaptor.expandNestedGroups", "false");
+    addKey("adaptor.authzChunkSize", "100");
+    addKey("adaptor.authzParallelism", "4");
+    addKey("adaptor.authzTimeoutSecs", "30");
     addKey("saml.idpExpirationMillis", "30000");
+    addKey("saml.clientConnectTimeoutMillis", "10000");
+    addKey("saml.clientReadTimeoutMillis", "30000");
+    addKey("saml.clientMaxConnectionsPerHost", "20");
   }
 
   public Set<String> getAllKeys() {
@@ -361,6 +506,29 @@ public class Config {
     return getValue("feed.archiveDirectory");
   }
 
+  /** Compressed size at which a new feed archive segment is started. */
+  long getFeedArchiveSegmentSize() {
+    return Long.parseLong(getValue("feed.archiveSegmentSize"));
+  }
+
+  /**
+   * Total size of feed archive segments above which the oldest are deleted,
+   * or zero for no limit.
+   */
+  long getFeedArchiveMaxSize() {
+    return Long.parseLong(getValue("feed.archiveMaxSize"));
+  }
+
+  /** Days after which feed archive segments are deleted, or zero. */
+  int getFeedArchiveMaxAgeDays() {
+    return Integer.parseInt(getValue("feed.archiveMaxAgeDays"));
+  }
+
+  /** Number of feeds that may wait to be archived. */
+  int getFeedArchiveQueueSize() {
+    return Integer.parseInt(getValue("feed.archiveQueueSize"));
+  }
+
   String getFeedName() {
     return getValue("feed.name");
   }
@@ -541,10 +709,40 @@ public class Config {
     return getValue("server.samlEntityId");
   }
 
+  /**
+   * Whether to keep the identities of authenticated users in encrypted
+   * cookies instead of in memory.
+   */
+  boolean isServerStatelessSessions() {
+    return Boolean.parseBoolean(getValue("server.statelessSessions"));
+  }
+
+  /**
+   * Maximum lifetime of stateless session cookies, in minutes.
+   */
+  long getServerStatelessSessionLifetimeMinutes() {
+    return Long.parseLong(getValue("server.statelessSessionLifetimeMinutes"));
+  }
+
   boolean isServerToUseCompression() {
     return Boolean.parseBoolean(getValue("server.useCompression"));
   }
 
+  /**
+   * Whether to serve metrics without authentication on the dashboard port.
+   */
+  boolean isServerMetricsEnabled() {
+    return Boolean.parseBoolean(getValue("server.metricsEnabled"));
+  }
+
+  /**
+   * Comma-separated list of hostnames, IPs and CIDR ranges allowed to read
+   * metrics. If empty, any host may read them.
+   */
+  String[] getServerMetricsHosts() {
+    return getValue("server.metricsHosts").split(",");
+  }
+
   boolean doesGsaAcceptDocControlsHeader() {
     return Boolean.parseBoolean(getValue("gsa.acceptsDocControlsHeader"));
   }
@@ -620,6 +818,26 @@ public class Config {
     return Boolean.parseBoolean(getValue("adaptor.markAllDocsAsPublic"));
   }
 
+  /**
+   * Whether to expand users' groups using the group definitions the adaptor
+   * pushes.
+   */
+  boolean isAdaptorExpandNestedGroups() {
+    return Boolean.parseBoolean(getValue("adaptor.expandNestedGroups"));
+  }
+
+  int getAdaptorAuthzChunkSize() {
+    return Integer.parseInt(getValue("adaptor.authzChunkSize"));
+  }
+
+  int getAdaptorAuthzParallelism() {
+    return Integer.parseInt(getValue("adaptor.authzParallelism"));
+  }
+
+  long getAdaptorAuthzTimeoutMillis() {
+    return Long.parseLong(getValue("adaptor.authzTimeoutSecs")) * 1000;
+  }
+
   /**
    * Format for usernames and domains inside of either GSA IdP authn messages
    * or GSA authorization requests.
@@ -639,6 +857,14 @@ public class Config {
     return getValue("adaptor.fullListingSchedule");
   }
 
+  /**
+   * Maximum number of listing shards that may run concurrently during a full
+   * push.
+   */
+  int getAdaptorFullListingParallelism() {
+    return Integer.parseInt(getValue("adaptor.fullListingParallelism"));
+  }
+
   long getAdaptorIncrementalPollPeriodMillis() {
     return Long.parseLong(getValue("adaptor.incrementalPollPeriodSecs")) * 1000;
   }
@@ -746,6 +972,10 @@ public class Config {
     return Boolean.parseBoolean(getValue("journal.reducedMem"));
   }
 
+  boolean isJournalApproximateCounts() {
+    return Boolean.parseBoolean(getValue("journal.approximateCounts"));
+  }
+
 // TODO(pjo): Implement on GSA
 //  /**
 //   * Optional (default false): Adds no-follow bit with sent records in feed
@@ -787,6 +1017,102 @@ public class Config {
     return Integer.parseInt(getValue("feed.maxUrls"));
   }
 
+  /**
+   * Max number of group members sent per group definitions feed file, in
+   * addition to the limit of {@link #getFeedMaxUrls} groups.
+   */
+  int getFeedMaxGroupMembers() {
+    return Integer.parseInt(getValue("feed.maxGroupMembers"));
+  }
+
+  /** Approximate max size in bytes of a group definitions feed file. */
+  long getFeedMaxGroupBytes() {
+    return Long.parseLong(getValue("feed.maxGroupBytes"));
+  }
+
+  /**
+   * File storing fingerprints of records sent during full pushes, or the empty
+   * string if all records should be sent during every full push.
+   */
+  String getFeedFingerprintFile() {
+    return getValue("feed.fingerprintFile");
+  }
+
+  /**
+   * Number of full pushes between full pushes that send all records, even
+   * those that have not changed. Less than one disables the refresh.
+   */
+  int getFeedFingerprintRefreshInterval() {
+    return Integer.parseInt(getValue("feed.fingerprintRefreshInterval"));
+  }
+
+  /**
+   * Whether to delete documents that disappear from the full listing.
+   */
+  boolean isFeedFingerprintDeleteVanished() {
+    return Boolean.parseBoolean(getValue("feed.fingerprintDeleteVanished"));
+  }
+
+  /**
+   * Number of feed files that may be uploaded concurrently.
+   */
+  int getFeedUploadSlots() {
+    return Integer.parseInt(getValue("feed.uploadSlots"));
+  }
+
+  int getFeedAsyncLaneWeight() {
+    return Integer.parseInt(getValue("feed.asyncLaneWeight"));
+  }
+
+  int getFeedIncrementalLaneWeight() {
+    return Integer.parseInt(getValue("feed.incrementalLaneWeight"));
+  }
+
+  int getFeedFullLaneWeight() {
+    return Integer.parseInt(getValue("feed.fullLaneWeight"));
+  }
+
+  /**
+   * Maximum number of feed files to upload per second, or zero for no limit.
+   */
+  double getFeedMaxFeedsPerSecond() {
+    return Double.parseDouble(getValue("feed.maxFeedsPerSecond"));
+  }
+
+  /**
+   * Maximum number of feed items to upload per second, or zero for no limit.
+   */
+  double getFeedMaxRecordsPerSecond() {
+    return Double.parseDouble(getValue("feed.maxRecordsPerSecond"));
+  }
+
+  /**
+   * Whether to lower the upload rate while uploads are slow or failing.
+   */
+  boolean isFeedAdaptiveRateLimit() {
+    return Boolean.parseBoolean(getValue("feed.adaptiveRateLimit"));
+  }
+
+  long getFeedAdaptiveLatencyTargetMillis() {
+    return Long.parseLong(getValue("feed.adaptiveLatencyTargetMillis"));
+  }
+
+  /**
+   * Number of named resource ACLs to remember to avoid pushing them again, or
+   * zero to push every ACL.
+   */
+  int getFeedAclDedupCacheSize() {
+    return Integer.parseInt(getValue("feed.aclDedupCacheSize"));
+  }
+
+  /**
+   * Minutes after which a remembered ACL is pushed again, or zero to only push
+   * it again once it changes.
+   */
+  long getFeedAclDedupTtlMinutes() {
+    return Long.parseLong(getValue("feed.aclDedupTtlMinutes"));
+  }
+
   /**
    * Provides the type of algorithm GSA is to use to rank documents sent by
    * adaptor.
@@ -799,6 +1125,18 @@ public class Config {
     return Integer.parseInt(getValue("saml.idpExpirationMillis"));
   }
 
+  int getSamlClientConnectTimeoutMillis() {
+    return Integer.parseInt(getValue("saml.clientConnectTimeoutMillis"));
+  }
+
+  int getSamlClientReadTimeoutMillis() {
+    return Integer.parseInt(getValue("saml.clientReadTimeoutMillis"));
+  }
+
+  int getSamlClientMaxConnectionsPerHost() {
+    return Integer.parseInt(getValue("saml.clientMaxConnectionsPerHost"));
+  }
+
   /**
    * Load user-provided configuration file.
    * @param configFile to be loaded
@@ -3,6 +3,7 @@ package com.google.enterprise.adaptor;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
@@ -31,7 +32,31 @@ class ContentTransformFactory {
     Method method;
   }
 
+  /** Receives the time spent in each stage of the pipelines created. */
+  @VisibleForTesting
+  interface StageRecorder {
+    /** Whether stages should be timed for pipelines created now. */
+    boolean isRecording();
+
+    /** Records that {@code nanos} were spent in {@code stage}. */
+    void recordStage(String stage, long nanos);
+  }
+
+  /** Records stages as {@link FlightRecorderEvents#TRANSFORM} events. */
+  private static final StageRecorder FLIGHT_RECORDER = new StageRecorder() {
+    @Override
+    public boolean isRecording() {
+      return FlightRecorderEvents.isRecording();
+    }
+
+    @Override
+    public void recordStage(String stage, long nanos) {
+      FlightRecorderEvents.TRANSFORM.begin().commit("content", stage, nanos);
+    }
+  };
+
   private List<SingleTransform> transforms;
+  private final StageRecorder stageRecorder;
 
   /**
    * Constructs a new ContentTransformFactory. Also checks the basic
@@ -46,6 +71,13 @@ class ContentTransformFactory {
    */
   public ContentTransformFactory(
       final List<Map<String, String>> configs) {
+    this(configs, FLIGHT_RECORDER);
+  }
+
+  @VisibleForTesting
+  ContentTransformFactory(final List<Map<String, String>> configs,
+      StageRecorder stageRecorder) {
+    this.stageRecorder = stageRecorder;
     transforms = new ArrayList<SingleTransform>();
     for (int i = 0; i < configs.size(); i++) {
       final Map<String, String> config = configs.get(i);
@@ -94,6 +126,13 @@ class ContentTransformFactory {
     }
     OutputStream currentOutputStream = original;
     int steps = transforms.size();
+    // Only time the stages while a flight recording is running.
+    TimedOutputStream[] timers = null;
+    if (stageRecorder.isRecording()) {
+      timers = new TimedOutputStream[steps + 1];
+      currentOutputStream = timers[steps]
+          = new TimedOutputStream(currentOutputStream);
+    }
     for (int count = steps - 1; count >= 0; count--) {
       SingleTransform s = transforms.get(count);
       try {
@@ -104,10 +143,84 @@ class ContentTransformFactory {
             "Cannot instantiate document content transform: "
                 + s.ctor.getName(), e);
       }
+      if (timers != null) {
+        currentOutputStream = timers[count]
+            = new TimedOutputStream(currentOutputStream);
+      }
+    }
+    if (timers != null) {
+      timers[0].onClose = new StageEventRecorder(timers);
     }
     return currentOutputStream;
   }
 
+  /**
+   * Records the time spent in each stage once the pipeline is closed. The time
+   * in a stage excludes the time spent in the stages after it.
+   */
+  private class StageEventRecorder implements Runnable {
+    private final TimedOutputStream[] timers;
+
+    StageEventRecorder(TimedOutputStream[] timers) {
+      this.timers = timers;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < transforms.size(); i++) {
+        stageRecorder.recordStage(
+            transforms.get(i).ctor.getDeclaringClass().getName(),
+            timers[i].nanos - timers[i + 1].nanos);
+      }
+    }
+  }
+
+  /** Accumulates the time spent in the calls to the stream it wraps. */
+  private static class TimedOutputStream extends FastFilterOutputStream {
+    long nanos;
+    /** Run after the stream is first closed, or {@code null}. */
+    Runnable onClose;
+
+    TimedOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      try {
+        out.write(b, off, len);
+      } finally {
+        nanos += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long start = System.nanoTime();
+      try {
+        out.flush();
+      } finally {
+        nanos += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      long start = System.nanoTime();
+      try {
+        out.close();
+      } finally {
+        nanos += System.nanoTime() - start;
+        if (onClose != null) {
+          Runnable r = onClose;
+          onClose = null;
+          r.run();
+        }
+      }
+    }
+  }
+
   /**
    * Iterates over the chain of potential ContentType changes, returning the
    * calculated ContentType at the end of the chain.
@@ -72,6 +72,8 @@ public class CustomFormatter extends Formatter {
     String threadName;
     if (record.getThreadID() == Thread.currentThread().getId()) {
       threadName = Thread.currentThread().getName();
+    } else if (AsyncLogHandler.getThreadName(record) != null) {
+      threadName = AsyncLogHandler.getThreadName(record);
     } else {
       threadName = "" + record.getThreadID();
     }
@@ -28,8 +28,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.logging.Handler;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
 
 /**
  * Central creation of objects necessary for the dashboard.
@@ -96,6 +98,11 @@ class Dashboard {
         createAdminSecurityHandler(new DownloadDumpHandler(config,
             config.getFeedName().replace('_', '-'), statRpcMethod),
             config, sessionManager, secure)));
+    if (config.isServerMetricsEnabled()) {
+      // Not behind the admin security handler, so that it can be scraped.
+      addFilters(scope.createContext("/metrics", new MetricsHandler(
+          journal.getMetrics(), config.getServerMetricsHosts())));
+    }
     addFilters(scope.createContext("/",
         new RedirectHandler(dashboardContext.getPath())));
 
@@ -145,24 +152,50 @@ class Dashboard {
 
   static class CircularLogRpcMethod implements RpcHandler.RpcMethod,
       Closeable {
-    private final CircularBufferHandler circularLog
-        = new CircularBufferHandler();
+    private volatile AsyncLogHandler circularLog;
+    /** Whether {@link #circularLog} was installed by {@link #start}. */
+    private boolean installed;
 
     /**
-     * Installs a log handler; to uninstall handler, call {@link #close}.
+     * Uses the recent messages of the {@link AsyncLogHandler} configured on
+     * the root logger, or installs one if there is none; to uninstall the
+     * handler, call {@link #close}.
      */
-    public void start() {
-      LogManager.getLogManager().getLogger("").addHandler(circularLog);
+    public synchronized void start() {
+      if (circularLog != null) {
+        return;
+      }
+      Logger rootLogger = LogManager.getLogManager().getLogger("");
+      for (Handler handler : rootLogger.getHandlers()) {
+        if (handler instanceof AsyncLogHandler
+            && ((AsyncLogHandler) handler).keepsHistory()) {
+          circularLog = (AsyncLogHandler) handler;
+          installed = false;
+          return;
+        }
+      }
+      circularLog = new AsyncLogHandler(AsyncLogHandler.DEFAULT_CAPACITY,
+          AsyncLogHandler.DEFAULT_HISTORY_SIZE, new SimpleFormatter());
+      installed = true;
+      rootLogger.addHandler(circularLog);
     }
 
     @Override
     public Object run(List request) {
-      return circularLog.writeOut();
+      AsyncLogHandler log = circularLog;
+      return log == null ? "" : log.writeOut();
     }
 
     @Override
-    public void close() {
-      LogManager.getLogManager().getLogger("").removeHandler(circularLog);
+    public synchronized void close() {
+      if (circularLog == null) {
+        return;
+      }
+      if (installed) {
+        LogManager.getLogManager().getLogger("").removeHandler(circularLog);
+        circularLog.close();
+      }
+      circularLog = null;
     }
   }
 
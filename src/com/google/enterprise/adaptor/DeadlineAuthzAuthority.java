@@ -0,0 +1,127 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adapts an {@link AsyncAuthzAuthority} to {@link AuthzAuthority}, waiting
+ * for its decisions no longer than a deadline. {@code DocId}s not decided by
+ * the deadline are reported as {@link AuthzStatus#INDETERMINATE}.
+ */
+class DeadlineAuthzAuthority implements AuthzAuthority {
+  private static final Logger log
+      = Logger.getLogger(DeadlineAuthzAuthority.class.getName());
+
+  private final AsyncAuthzAuthority authority;
+  private final long timeoutMillis;
+
+  public DeadlineAuthzAuthority(AsyncAuthzAuthority authority,
+      long timeoutMillis) {
+    if (authority == null) {
+      throw new NullPointerException();
+    }
+    if (timeoutMillis < 0) {
+      throw new IllegalArgumentException("timeoutMillis must not be negative");
+    }
+    this.authority = authority;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @Override
+  public Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity userIdentity,
+      Collection<DocId> ids) throws IOException {
+    try {
+      return isUserAuthorizedBeforeDeadline(userIdentity, ids);
+    } catch (TimeoutException ex) {
+      return fillIndeterminate(ids, null);
+    }
+  }
+
+  /**
+   * Like {@link #isUserAuthorized}, except that missing the deadline is
+   * reported with a {@link TimeoutException} instead of responding {@link
+   * AuthzStatus#INDETERMINATE}, so that callers can tell it apart from the
+   * adaptor deciding {@code INDETERMINATE}.
+   */
+  Map<DocId, AuthzStatus> isUserAuthorizedBeforeDeadline(
+      AuthnIdentity userIdentity, Collection<DocId> ids)
+      throws IOException, TimeoutException {
+    Future<Map<DocId, AuthzStatus>> future
+        = authority.isUserAuthorizedAsync(userIdentity, ids);
+    if (future == null) {
+      // The adaptor is buggy; callers deny access.
+      return null;
+    }
+    Map<DocId, AuthzStatus> statuses;
+    try {
+      statuses = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex) {
+      log.log(Level.WARNING, "Adaptor did not authorize {0} DocIds within {1} "
+          + "ms", new Object[] {ids.size(), timeoutMillis});
+      throw ex;
+    } catch (CancellationException ex) {
+      log.log(Level.FINE, "Authorization was cancelled", ex);
+      statuses = null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      statuses = null;
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new IOException(cause);
+      }
+    } finally {
+      // Stops the adaptor from working on decisions no one is waiting for.
+      // Has no effect if the future already completed.
+      future.cancel(true);
+    }
+    return fillIndeterminate(ids, statuses);
+  }
+
+  /**
+   * Returns {@code statuses} with {@link AuthzStatus#INDETERMINATE} for each
+   * of {@code ids} missing from it.
+   */
+  private static Map<DocId, AuthzStatus> fillIndeterminate(
+      Collection<DocId> ids, Map<DocId, AuthzStatus> statuses) {
+    if (statuses == null) {
+      statuses = Collections.emptyMap();
+    }
+    Map<DocId, AuthzStatus> result = new HashMap<DocId, AuthzStatus>();
+    for (DocId id : ids) {
+      AuthzStatus status = statuses.get(id);
+      result.put(id, status == null ? AuthzStatus.INDETERMINATE : status);
+    }
+    return Collections.unmodifiableMap(result);
+  }
+}
@@ -14,13 +14,24 @@
 
 package com.google.enterprise.adaptor;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,18 +49,56 @@ class DocIdSender extends AbstractDocIdPusher
   private final Journal journal;
   private final Config config;
   private final Adaptor adaptor;
+  /**
+   * Fingerprints of records sent during full pushes, or {@code null} if
+   * unchanged records should not be suppressed.
+   */
+  private final RecordFingerprintStore fingerprintStore;
+  /**
+   * Group memberships learned from pushed group definitions, or {@code null}
+   * if they are not needed for local authorization.
+   */
+  private final GroupMembershipGraph groupGraph;
+  /** Shares upload slots among full, incremental, and async pushes. */
+  private final FeedScheduler scheduler;
+  /** Limits the rate of uploads from all lanes. */
+  private final FeedRateLimiter rateLimiter;
+  /**
+   * Lane used for uploads made by the current thread. Threads that do not set
+   * a lane, such as adaptor threads pushing changes, use the incremental lane.
+   */
+  private final ThreadLocal<FeedScheduler.Lane> currentLane
+      = new ThreadLocal<FeedScheduler.Lane>();
   private final ExceptionHandler defaultErrorHandler
       = ExceptionHandlers.defaultHandler();
 
   public DocIdSender(GsaFeedFileMaker fileMaker, GsaFeedFileSender fileSender,
       FeedArchiver fileArchiver, Journal journal, Config config,
       Adaptor adaptor) {
+    this(fileMaker, fileSender, fileArchiver, journal, config, adaptor, null);
+  }
+
+  public DocIdSender(GsaFeedFileMaker fileMaker, GsaFeedFileSender fileSender,
+      FeedArchiver fileArchiver, Journal journal, Config config,
+      Adaptor adaptor, RecordFingerprintStore fingerprintStore) {
+    this(fileMaker, fileSender, fileArchiver, journal, config, adaptor,
+        fingerprintStore, null);
+  }
+
+  public DocIdSender(GsaFeedFileMaker fileMaker, GsaFeedFileSender fileSender,
+      FeedArchiver fileArchiver, Journal journal, Config config,
+      Adaptor adaptor, RecordFingerprintStore fingerprintStore,
+      GroupMembershipGraph groupGraph) {
     this.fileMaker = fileMaker;
     this.fileSender = fileSender;
     this.fileArchiver = fileArchiver;
     this.journal = journal;
     this.config = config;
     this.adaptor = adaptor;
+    this.fingerprintStore = fingerprintStore;
+    this.groupGraph = groupGraph;
+    this.scheduler = new FeedScheduler(config, journal);
+    this.rateLimiter = new FeedRateLimiter(config);
   }
 
   /**
@@ -61,12 +110,28 @@ class DocIdSender extends AbstractDocIdPusher
     if (handler == null) {
       throw new NullPointerException();
     }
+    FeedScheduler.Lane previousLane = setLane(FeedScheduler.Lane.FULL);
+    try {
+      pushFullDocIdsFromAdaptorInternal(handler);
+    } finally {
+      setLane(previousLane);
+    }
+  }
+
+  private void pushFullDocIdsFromAdaptorInternal(ExceptionHandler handler)
+      throws InterruptedException {
     log.info("Beginning getDocIds");
     journal.recordFullPushStarted();
+    DocIdPusher pusher = this;
+    FingerprintingPusher fingerprintingPusher = null;
+    if (fingerprintStore != null) {
+      fingerprintingPusher = startFingerprintingPusher(pusher);
+      pusher = fingerprintingPusher;
+    }
     for (int ntries = 1;; ntries++) {
       boolean keepGoing = true;
       try {
-        adaptor.getDocIds(this);
+        adaptor.getDocIds(pusher);
         break; // Success
       } catch (InterruptedException ex) {
         // Stop early.
@@ -89,10 +154,219 @@ class DocIdSender extends AbstractDocIdPusher
         return; // Bail
       }
     }
-    journal.recordFullPushSuccessful();
+    completeFullPush(fingerprintingPusher);
     log.info("Completed getDocIds");
   }
 
+  /**
+   * Lists each shard provided by {@link ShardedLister#getListingShards}, with
+   * up to {@code adaptor.fullListingParallelism} shards running concurrently.
+   * The records pushed by the shards are combined into shared feed files. Each
+   * shard is retried independently using {@code handler}. This method blocks
+   * until every shard completes or gives up.
+   */
+  public void pushFullDocIdsFromShardedLister(ShardedLister lister,
+      ExceptionHandler handler) throws InterruptedException {
+    if (lister == null || handler == null) {
+      throw new NullPointerException();
+    }
+    FeedScheduler.Lane previousLane = setLane(FeedScheduler.Lane.FULL);
+    try {
+      pushFullDocIdsFromShardedListerInternal(lister, handler);
+    } finally {
+      setLane(previousLane);
+    }
+  }
+
+  private void pushFullDocIdsFromShardedListerInternal(ShardedLister lister,
+      ExceptionHandler handler) throws InterruptedException {
+    log.info("Beginning getListingShards");
+    journal.recordFullPushStarted();
+    Collection<? extends ShardedLister.Shard> shards;
+    for (int ntries = 1;; ntries++) {
+      boolean keepGoing = true;
+      try {
+        shards = lister.getListingShards();
+        break; // Success
+      } catch (InterruptedException ex) {
+        // Stop early.
+        journal.recordFullPushInterrupted();
+        log.info("Interrupted. Aborted getListingShards");
+        throw ex;
+      } catch (Exception ex) {
+        log.log(Level.WARNING, "Exception during getListingShards", ex);
+        keepGoing = handler.handleException(ex, ntries);
+      } catch (Error t) {
+        // Stop early in case of Error
+        journal.recordFullPushFailed();
+        throw t;
+      }
+      if (keepGoing) {
+        log.log(Level.INFO, "Trying again... Number of attempts: {0}", ntries);
+      } else {
+        journal.recordFullPushFailed();
+        log.warning("Gave up. Failed getListingShards");
+        return; // Bail
+      }
+    }
+    Set<String> names = new LinkedHashSet<String>();
+    for (ShardedLister.Shard shard : shards) {
+      if (!names.add(shard.getName())) {
+        journal.recordFullPushFailed();
+        log.log(Level.WARNING, "Duplicate shard name: {0}", shard.getName());
+        return;
+      }
+    }
+    journal.recordListingShards(names);
+
+    DocIdPusher pusher = new MergingPusher();
+    FingerprintingPusher fingerprintingPusher = null;
+    if (fingerprintStore != null) {
+      fingerprintingPusher = startFingerprintingPusher(pusher);
+      pusher = fingerprintingPusher;
+    }
+    int parallelism = Math.max(1,
+        Math.min(config.getAdaptorFullListingParallelism(), shards.size()));
+    log.log(Level.INFO, "Listing {0} shards with parallelism {1}",
+        new Object[] {shards.size(), parallelism});
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+        new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("shard-lister-%d").build());
+    int numFailed = 0;
+    try {
+      List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      for (ShardedLister.Shard shard : shards) {
+        futures.add(executor.submit(new ShardListing(shard, pusher, handler)));
+      }
+      for (Future<Boolean> future : futures) {
+        try {
+          if (!future.get()) {
+            numFailed++;
+          }
+        } catch (ExecutionException ex) {
+          // Only unexpected failures escape ShardListing.
+          journal.recordFullPushFailed();
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          } else {
+            throw new RuntimeException(cause);
+          }
+        }
+      }
+    } catch (InterruptedException ex) {
+      // Stop early.
+      journal.recordFullPushInterrupted();
+      log.info("Interrupted. Aborted listing shards");
+      throw ex;
+    } finally {
+      executor.shutdownNow();
+    }
+    if (numFailed != 0) {
+      journal.recordFullPushFailed();
+      log.log(Level.WARNING, "Gave up. Failed listing {0} of {1} shards",
+          new Object[] {numFailed, shards.size()});
+      return;
+    }
+    completeFullPush(fingerprintingPusher);
+    log.info("Completed listing shards");
+  }
+
+  /**
+   * Sets the lane used for uploads by the current thread.
+   *
+   * @return the lane previously used by the current thread, or {@code null}
+   */
+  private FeedScheduler.Lane setLane(FeedScheduler.Lane lane) {
+    FeedScheduler.Lane previous = currentLane.get();
+    if (lane == null) {
+      currentLane.remove();
+    } else {
+      currentLane.set(lane);
+    }
+    return previous;
+  }
+
+  /** Waits for an upload slot in the current thread's lane. */
+  private FeedScheduler.Slot acquireUploadSlot() throws InterruptedException {
+    FeedScheduler.Lane lane = currentLane.get();
+    return scheduler.acquire(
+        lane == null ? FeedScheduler.Lane.INCREMENTAL : lane);
+  }
+
+  /**
+   * Waits as long as the feed rate limit requires before uploading a feed of
+   * {@code numItems} items.
+   */
+  private void throttle(int numItems) throws InterruptedException {
+    if (!rateLimiter.isLimited()) {
+      return;
+    }
+    long throttleMillis = rateLimiter.acquire(numItems);
+    if (throttleMillis > 0) {
+      journal.recordFeedThrottled(throttleMillis);
+    }
+  }
+
+  /**
+   * Informs the feed rate limit and the journal of the outcome of an upload of
+   * {@code numItems} items.
+   */
+  private void recordUpload(int numItems, long uploadStartNanos,
+      boolean sent) {
+    long uploadMillis = TimeUnit.NANOSECONDS.toMillis(
+        System.nanoTime() - uploadStartNanos);
+    rateLimiter.recordUpload(uploadMillis, sent);
+    journal.recordFeedUpload(numItems, uploadMillis, sent);
+  }
+
+  /**
+   * Provides an {@link AsyncDocIdSender.ItemPusher} whose uploads use the
+   * async lane.
+   */
+  AsyncDocIdSender.ItemPusher getAsyncItemPusher() {
+    return new AsyncDocIdSender.ItemPusher() {
+      @Override
+      public <T extends Item> T pushItems(Iterator<T> items,
+          ExceptionHandler handler) throws InterruptedException {
+        FeedScheduler.Lane previousLane = setLane(FeedScheduler.Lane.ASYNC);
+        try {
+          return DocIdSender.this.pushItems(items, handler);
+        } finally {
+          setLane(previousLane);
+        }
+      }
+    };
+  }
+
+  private FingerprintingPusher startFingerprintingPusher(DocIdPusher delegate) {
+    fingerprintStore.startFullPush();
+    return new FingerprintingPusher(delegate, fingerprintStore
+        .isRefreshDue(config.getFeedFingerprintRefreshInterval()));
+  }
+
+  /**
+   * Finishes a full push whose listing succeeded.
+   *
+   * @param fingerprintingPusher pusher used during the full push, or {@code
+   *     null} if fingerprinting is disabled
+   */
+  private void completeFullPush(FingerprintingPusher fingerprintingPusher)
+      throws InterruptedException {
+    if (fingerprintingPusher != null) {
+      try {
+        fingerprintingPusher.complete();
+      } catch (InterruptedException ex) {
+        journal.recordFullPushInterrupted();
+        log.info("Interrupted. Aborted deleting vanished DocIds");
+        throw ex;
+      }
+    }
+    journal.recordFullPushSuccessful();
+  }
+
   /**
    * Calls {@link Adaptor#getModifiedDocIds}. This method blocks until all
    * DocIds are sent or retrying failed.
@@ -102,6 +376,17 @@ class DocIdSender extends AbstractDocIdPusher
     if (handler == null) {
       throw new NullPointerException();
     }
+    FeedScheduler.Lane previousLane = setLane(FeedScheduler.Lane.INCREMENTAL);
+    try {
+      pushIncrementalDocIdsFromAdaptorInternal(lister, handler);
+    } finally {
+      setLane(previousLane);
+    }
+  }
+
+  private void pushIncrementalDocIdsFromAdaptorInternal(
+      PollingIncrementalLister lister, ExceptionHandler handler)
+      throws InterruptedException {
     log.info("Beginning getModifiedDocIds");
     journal.recordIncrementalPushStarted();
     for (int ntries = 1;; ntries++) {
@@ -206,11 +491,32 @@ class DocIdSender extends AbstractDocIdPusher
       }
       firstBatch = false;
       journal.recordDocIdPush(batch);
+      forgetDeletedRecords(batch);
     }
     log.info("Pushed items");
     return null;
   }
 
+  /**
+   * Drops the fingerprints of records sent as deletes, whichever kind of push
+   * sent them. Otherwise a document deleted by an incremental or asynchronous
+   * push would be skipped as unchanged if a later full push lists it again.
+   */
+  private void forgetDeletedRecords(List<? extends Item> items) {
+    if (fingerprintStore == null) {
+      return;
+    }
+    List<Record> deletes = new ArrayList<Record>();
+    for (Item item : items) {
+      if (item instanceof Record && ((Record) item).isToBeDeleted()) {
+        deletes.add((Record) item);
+      }
+    }
+    if (!deletes.isEmpty()) {
+      fingerprintStore.recordSent(deletes);
+    }
+  }
+
   public GroupPrincipal pushGroupDefinitions(
       Map<GroupPrincipal, ? extends Collection<Principal>> defs,
       boolean caseSensitive, ExceptionHandler handler) 
@@ -220,6 +526,11 @@ class DocIdSender extends AbstractDocIdPusher
                  + "markAllDocsAsPublic is true.");
       return null;
     }
+    if (groupGraph != null) {
+      // The definitions are the adaptor's view of the groups, even if sending
+      // them to the GSA fails.
+      groupGraph.update(defs, caseSensitive);
+    }
     return pushGroupDefinitionsInternal(defs, caseSensitive, handler);
   }
 
@@ -284,26 +595,48 @@ class DocIdSender extends AbstractDocIdPusher
     }
     boolean firstBatch = true;
     final int max = config.getFeedMaxUrls();
+    final int maxMembers = config.getFeedMaxGroupMembers();
+    final long maxBytes = config.getFeedMaxGroupBytes();
     Iterator<Map.Entry<GroupPrincipal, T>> defsIterator
         = defs.entrySet().iterator();
     List<Map.Entry<GroupPrincipal, T>> batch
         = new ArrayList<Map.Entry<GroupPrincipal, T>>();
+    Map.Entry<GroupPrincipal, T> nextGroup = null;
     int batchMemberCount;
-    while (defsIterator.hasNext()) {
+    long batchBytes;
+    while (nextGroup != null || defsIterator.hasNext()) {
       batch.clear();
       batchMemberCount = 0;
-      for (int j = 0; j < max; j++) {
-        if (!defsIterator.hasNext()) {
+      batchBytes = 0;
+      // Fill the batch until adding the next group would exceed a budget. A
+      // group that exceeds a budget on its own is sent by itself.
+      while (batch.size() < max) {
+        if (nextGroup == null) {
+          if (!defsIterator.hasNext()) {
+            break;
+          }
+          nextGroup = defsIterator.next();
+        }
+        int members = nextGroup.getValue().size();
+        long bytes = fileMaker.estimateGroupDefinitionLength(
+            nextGroup.getKey(), nextGroup.getValue());
+        if (!batch.isEmpty() && (batchMemberCount + members > maxMembers
+            || batchBytes + bytes > maxBytes)) {
           break;
         }
-        Map.Entry<GroupPrincipal, T> nextGroup = defsIterator.next();
-        batchMemberCount += nextGroup.getValue().size();
+        batchMemberCount += members;
+        batchBytes += bytes;
         batch.add(nextGroup);
+        nextGroup = null;
       }
-      log.log(Level.INFO, "Pushing batch of {0} groups", batch.size());
+      log.log(Level.INFO, "Pushing batch of {0} groups with {1} members",
+          new Object[] {batch.size(), batchMemberCount});
       GroupPrincipal failedId;
       try {
         failedId = pushSizedBatchOfGroups(batch, caseSensitive, handler);
+        if (failedId != null && batch.size() > 1) {
+          failedId = bisectFailedBatchOfGroups(batch, caseSensitive);
+        }
         if (failedId == null) {
           // TODO(myk): determine if it makes sense to count the include the
           // counts from a partial batch in our totals (if the batch fails).
@@ -341,22 +674,69 @@ class DocIdSender extends AbstractDocIdPusher
     return null;
   }
 
+  /**
+   * Finds the group that caused {@code defs} to fail by sending each half
+   * separately, and recursing into the first half that fails. Each send is
+   * attempted once, since the whole batch already exhausted its retries. The
+   * groups preceding the offending group are sent, but none after it.
+   *
+   * @return the first group that could not be sent, or {@code null} if both
+   *     halves were sent successfully
+   */
+  private <T extends Collection<Principal>> GroupPrincipal
+      bisectFailedBatchOfGroups(List<Map.Entry<GroupPrincipal, T>> defs,
+      boolean caseSensitive) throws InterruptedException {
+    while (defs.size() > 1) {
+      log.log(Level.INFO, "Bisecting failed batch of {0} groups", defs.size());
+      int mid = defs.size() / 2;
+      List<Map.Entry<GroupPrincipal, T>> first = defs.subList(0, mid);
+      List<Map.Entry<GroupPrincipal, T>> second
+          = defs.subList(mid, defs.size());
+      if (pushSizedBatchOfGroups(first, caseSensitive,
+          ExceptionHandlers.noRetryHandler()) != null) {
+        defs = first;
+      } else if (pushSizedBatchOfGroups(second, caseSensitive,
+          ExceptionHandlers.noRetryHandler()) != null) {
+        defs = second;
+      } else {
+        return null;
+      }
+    }
+    // The lone group in defs failed when it was last sent.
+    return defs.get(0).getKey();
+  }
+
   private <T extends Collection<Principal>> GroupPrincipal
       pushSizedBatchOfGroups(
       List<Map.Entry<GroupPrincipal, T>> defs,
       boolean caseSensitive, ExceptionHandler handler)
       throws InterruptedException {
     String feedSourceName = config.getFeedName();
+    FlightRecorderEvents.Event event = FlightRecorderEvents.FEED_PUSH.begin();
     String groupsDefXml
         = fileMaker.makeGroupDefinitionsXml(defs, caseSensitive);
     boolean keepGoing = true;
     boolean success = false;
+    long uploadNanos = 0;
+    int attempts = 0;
     log.log(Level.INFO, "pushing groups");
     for (int ntries = 1; keepGoing; ntries++) {
+      attempts = ntries;
       try {
         log.info("sending groups to GSA host name: " + config.getGsaHostname());
-        fileSender.sendGroups(feedSourceName,
-            groupsDefXml, config.isServerToUseCompression());
+        throttle(defs.size());
+        FeedScheduler.Slot slot = acquireUploadSlot();
+        long uploadStart = System.nanoTime();
+        boolean sent = false;
+        try {
+          fileSender.sendGroups(feedSourceName,
+              groupsDefXml, config.isServerToUseCompression());
+          sent = true;
+        } finally {
+          slot.release();
+          recordUpload(defs.size(), uploadStart, sent);
+          uploadNanos += System.nanoTime() - uploadStart;
+        }
         keepGoing = false;  // Sent.
         success = true;
       } catch (IOException ex) {
@@ -378,6 +758,8 @@ class DocIdSender extends AbstractDocIdPusher
       fileArchiver.saveFailedFeed(feedSourceName, groupsDefXml);
     }
     log.info("finished pushing batch of groups");
+    event.commit("groups", defs.size(), (long) groupsDefXml.length(),
+        uploadNanos, attempts - 1, success);
     return last;
   }
 
@@ -386,15 +768,30 @@ class DocIdSender extends AbstractDocIdPusher
                                          ExceptionHandler handler)
       throws InterruptedException {
     String feedSourceName = config.getFeedName();
+    FlightRecorderEvents.Event event = FlightRecorderEvents.FEED_PUSH.begin();
     String xmlFeedFile = fileMaker.makeMetadataAndUrlXml(feedSourceName, items);
     boolean keepGoing = true;
     boolean success = false;
+    long uploadNanos = 0;
+    int attempts = 0;
     log.log(Level.INFO, "Pushing batch of {0} items to GSA", items.size());
     for (int ntries = 1; keepGoing; ntries++) {
+      attempts = ntries;
       try {
         log.info("Sending items to GSA host: " + config.getGsaHostname());
-        fileSender.sendMetadataAndUrl(feedSourceName, xmlFeedFile,
-                                      config.isServerToUseCompression());
+        throttle(items.size());
+        FeedScheduler.Slot slot = acquireUploadSlot();
+        long uploadStart = System.nanoTime();
+        boolean sent = false;
+        try {
+          fileSender.sendMetadataAndUrl(feedSourceName, xmlFeedFile,
+                                        config.isServerToUseCompression());
+          sent = true;
+        } finally {
+          slot.release();
+          recordUpload(items.size(), uploadStart, sent);
+          uploadNanos += System.nanoTime() - uploadStart;
+        }
         keepGoing = false;  // Sent.
         success = true;
       } catch (IOException ex) {
@@ -413,9 +810,383 @@ class DocIdSender extends AbstractDocIdPusher
       fileArchiver.saveFailedFeed(feedSourceName, xmlFeedFile);
     }
     log.info("Finished pushing batch of items");
+    event.commit("metadata-and-url", items.size(),
+        (long) xmlFeedFile.length(), uploadNanos, attempts - 1, success);
     return success ? null : items.get(0);
   }
 
+  /**
+   * {@code DocIdPusher} provided to {@link Adaptor#getDocIds} when a {@link
+   * RecordFingerprintStore} is in use. It drops records that are identical to
+   * those sent during a previous full push, unless all records are to be sent
+   * during this push.
+   */
+  private class FingerprintingPusher extends AbstractDocIdPusher {
+    private final DocIdPusher delegate;
+    private final boolean refresh;
+    private final AtomicLong numUnchanged = new AtomicLong();
+    private final AtomicLong numSent = new AtomicLong();
+
+    public FingerprintingPusher(DocIdPusher delegate, boolean refresh) {
+      this.delegate = delegate;
+      this.refresh = refresh;
+      if (refresh) {
+        log.info("Sending all records during this full push");
+      }
+    }
+
+    @Override
+    public Record pushRecords(Iterable<Record> records,
+        ExceptionHandler handler) throws InterruptedException {
+      List<Record> changed = new ArrayList<Record>();
+      for (Record record : records) {
+        // Always call isUnchanged() so that the DocId is noted as present.
+        if (fingerprintStore.isUnchanged(record) && !refresh) {
+          numUnchanged.incrementAndGet();
+          continue;
+        }
+        changed.add(record);
+      }
+      if (changed.isEmpty()) {
+        return null;
+      }
+      Record failed = delegate.pushRecords(changed, handler);
+      int numPushed = (failed == null) ? changed.size()
+          : changed.indexOf(failed);
+      fingerprintStore.recordSent(changed.subList(0, numPushed));
+      numSent.addAndGet(numPushed);
+      return failed;
+    }
+
+    @Override
+    public DocId pushNamedResources(Map<DocId, Acl> resources,
+        ExceptionHandler handler) throws InterruptedException {
+      return delegate.pushNamedResources(resources, handler);
+    }
+
+    @Override
+    public GroupPrincipal pushGroupDefinitions(
+        Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+        boolean caseSensitive, ExceptionHandler handler)
+        throws InterruptedException {
+      return delegate.pushGroupDefinitions(defs, caseSensitive, handler);
+    }
+
+    /**
+     * Called once the full listing has completed successfully.
+     * Optionally deletes ids that were not listed and then updates the
+     * fingerprint store.
+     */
+    public void complete() throws InterruptedException {
+      log.log(Level.INFO, "Full push sent {0} records and skipped {1} "
+          + "unchanged records", new Object[] {numSent.get(),
+          numUnchanged.get()});
+      boolean deleteVanished = config.isFeedFingerprintDeleteVanished();
+      if (deleteVanished) {
+        List<Record> deletes = new ArrayList<Record>();
+        for (DocId id : fingerprintStore.getVanished()) {
+          deletes.add(new Record.Builder(id).setDeleteFromIndex(true).build());
+        }
+        if (!deletes.isEmpty()) {
+          log.log(Level.INFO, "Deleting {0} DocIds no longer listed",
+              deletes.size());
+          Record failed = DocIdSender.this.pushRecords(deletes, null);
+          int numPushed = (failed == null) ? deletes.size()
+              : deletes.indexOf(failed);
+          fingerprintStore.recordSent(deletes.subList(0, numPushed));
+        }
+      }
+      // Vanished ids that failed to be deleted are kept, so that deleting them
+      // is attempted again during the next full push.
+      fingerprintStore.completeFullPush(refresh, !deleteVanished);
+    }
+  }
+
+  /**
+   * Lists a single shard, retrying it with the full push {@link
+   * ExceptionHandler}. Returns whether the shard completed successfully.
+   */
+  private class ShardListing implements Callable<Boolean> {
+    private final ShardedLister.Shard shard;
+    private final DocIdPusher pusher;
+    private final ExceptionHandler handler;
+
+    public ShardListing(ShardedLister.Shard shard, DocIdPusher pusher,
+        ExceptionHandler handler) {
+      this.shard = shard;
+      this.pusher = new ShardPusher(shard.getName(), pusher);
+      this.handler = handler;
+    }
+
+    @Override
+    public Boolean call() {
+      FeedScheduler.Lane previousLane = setLane(FeedScheduler.Lane.FULL);
+      try {
+        return listShard();
+      } finally {
+        setLane(previousLane);
+      }
+    }
+
+    private boolean listShard() {
+      String name = shard.getName();
+      log.log(Level.INFO, "Beginning listing shard {0}", name);
+      for (int ntries = 1;; ntries++) {
+        journal.recordShardAttemptStarted(name);
+        boolean keepGoing = true;
+        try {
+          shard.getDocIds(pusher);
+          break; // Success
+        } catch (InterruptedException ex) {
+          journal.recordShardCompleted(name,
+              Journal.CompletionStatus.INTERRUPTION);
+          log.log(Level.INFO, "Interrupted. Aborted listing shard {0}", name);
+          return false;
+        } catch (Exception ex) {
+          log.log(Level.WARNING, "Exception while listing shard " + name, ex);
+          try {
+            keepGoing = handler.handleException(ex, ntries);
+          } catch (InterruptedException ex2) {
+            journal.recordShardCompleted(name,
+                Journal.CompletionStatus.INTERRUPTION);
+            log.log(Level.INFO, "Interrupted. Aborted listing shard {0}",
+                name);
+            return false;
+          }
+        } catch (Error t) {
+          journal.recordShardCompleted(name, Journal.CompletionStatus.FAILURE);
+          throw t;
+        }
+        if (keepGoing) {
+          log.log(Level.INFO, "Trying shard {0} again... Number of attempts: "
+              + "{1}", new Object[] {name, ntries});
+        } else {
+          journal.recordShardCompleted(name, Journal.CompletionStatus.FAILURE);
+          log.log(Level.WARNING, "Gave up. Failed listing shard {0}", name);
+          return false;
+        }
+      }
+      journal.recordShardCompleted(name, Journal.CompletionStatus.SUCCESS);
+      log.log(Level.INFO, "Completed listing shard {0}", name);
+      return true;
+    }
+  }
+
+  /**
+   * Counts the records successfully pushed by a shard.
+   */
+  private class ShardPusher extends AbstractDocIdPusher {
+    private final String name;
+    private final DocIdPusher delegate;
+
+    public ShardPusher(String name, DocIdPusher delegate) {
+      this.name = name;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Record pushRecords(Iterable<Record> records,
+        ExceptionHandler handler) throws InterruptedException {
+      List<Record> list = new ArrayList<Record>();
+      for (Record record : records) {
+        list.add(record);
+      }
+      Record failed = delegate.pushRecords(list, handler);
+      journal.recordShardRecordsPushed(name,
+          (failed == null) ? list.size() : list.indexOf(failed));
+      return failed;
+    }
+
+    @Override
+    public DocId pushNamedResources(Map<DocId, Acl> resources,
+        ExceptionHandler handler) throws InterruptedException {
+      return delegate.pushNamedResources(resources, handler);
+    }
+
+    @Override
+    public GroupPrincipal pushGroupDefinitions(
+        Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+        boolean caseSensitive, ExceptionHandler handler)
+        throws InterruptedException {
+      return delegate.pushGroupDefinitions(defs, caseSensitive, handler);
+    }
+  }
+
+  /**
+   * Pusher shared by concurrently-listed shards that combines the records they
+   * push into shared feed files. While one thread is sending, records pushed by
+   * other threads accumulate; the next thread to send includes all of them,
+   * much like group commit in a database. Only pushes that use the same {@link
+   * ExceptionHandler} are combined.
+   */
+  private class MergingPusher extends AbstractDocIdPusher {
+    private final List<PendingPush> pending = new ArrayList<PendingPush>();
+    /** Whether a thread is currently sending pending pushes. */
+    private boolean sending;
+
+    @Override
+    public Record pushRecords(Iterable<Record> records,
+        ExceptionHandler handler) throws InterruptedException {
+      PendingPush push = new PendingPush(records, handler);
+      if (push.records.isEmpty()) {
+        return null;
+      }
+      List<PendingPush> toSend = new ArrayList<PendingPush>();
+      synchronized (this) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        pending.add(push);
+        boolean interrupted = false;
+        while (sending && !push.done) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            if (pending.remove(push)) {
+              // No thread has started sending the push, so nothing was sent.
+              throw ex;
+            }
+            // Another thread is sending the push; its outcome still needs to
+            // be reported.
+            interrupted = true;
+          }
+        }
+        if (push.done) {
+          return getResult(push, interrupted);
+        }
+        sending = true;
+        for (Iterator<PendingPush> it = pending.iterator(); it.hasNext();) {
+          PendingPush p = it.next();
+          if (p.handler == handler) {
+            toSend.add(p);
+            it.remove();
+          }
+        }
+      }
+      boolean interrupted;
+      try {
+        interrupted = send(toSend, handler);
+      } finally {
+        synchronized (this) {
+          for (PendingPush p : toSend) {
+            if (!p.done) {
+              // send() failed unexpectedly.
+              p.failed = p.records.get(0);
+              p.done = true;
+            }
+          }
+          sending = false;
+          notifyAll();
+        }
+      }
+      return getResult(push, interrupted);
+    }
+
+    /**
+     * Returns the result of a push that is done for a thread that was
+     * interrupted if {@code interrupted} is {@code true}. As with {@link
+     * DocIdSender#pushItems}, the interruption is thrown if none of the push
+     * was sent, and otherwise kept for the caller to notice after learning
+     * what was sent.
+     */
+    private Record getResult(PendingPush push, boolean interrupted)
+        throws InterruptedException {
+      if (interrupted || Thread.interrupted()) {
+        if (push.failed == push.records.get(0)) {
+          throw new InterruptedException();
+        }
+        Thread.currentThread().interrupt();
+      }
+      return push.failed;
+    }
+
+    /**
+     * Sends all the records of {@code toSend} together and then determines the
+     * result of each push. Returns whether sending was interrupted.
+     */
+    private boolean send(List<PendingPush> toSend, ExceptionHandler handler) {
+      List<Record> all = new ArrayList<Record>();
+      for (PendingPush p : toSend) {
+        all.addAll(p.records);
+      }
+      log.log(Level.FINE, "Sending {0} records from {1} shard pushes",
+          new Object[] {all.size(), toSend.size()});
+      // Sent in batches here, rather than by pushItems(), so that the batch
+      // that was interrupted is known.
+      final int max = config.getFeedMaxUrls();
+      int failedIndex = all.size();
+      boolean interrupted = false;
+      for (int offset = 0; offset < all.size(); offset += max) {
+        List<Record> batch
+            = all.subList(offset, Math.min(offset + max, all.size()));
+        Record failed;
+        try {
+          failed = DocIdSender.this.pushRecords(batch, handler);
+        } catch (InterruptedException ex) {
+          // Nothing in this batch was sent, but earlier batches were.
+          failedIndex = offset;
+          interrupted = true;
+          break;
+        }
+        if (failed != null) {
+          // The same record may be pushed by more than one shard, so compare
+          // identity instead of using indexOf().
+          for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i) == failed) {
+              failedIndex = offset + i;
+              break;
+            }
+          }
+          break;
+        }
+      }
+      int start = 0;
+      synchronized (this) {
+        for (PendingPush p : toSend) {
+          int end = start + p.records.size();
+          if (failedIndex < end) {
+            p.failed = p.records.get(Math.max(0, failedIndex - start));
+          }
+          p.done = true;
+          start = end;
+        }
+      }
+      return interrupted;
+    }
+
+    @Override
+    public DocId pushNamedResources(Map<DocId, Acl> resources,
+        ExceptionHandler handler) throws InterruptedException {
+      return DocIdSender.this.pushNamedResources(resources, handler);
+    }
+
+    @Override
+    public GroupPrincipal pushGroupDefinitions(
+        Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+        boolean caseSensitive, ExceptionHandler handler)
+        throws InterruptedException {
+      return DocIdSender.this.pushGroupDefinitions(defs, caseSensitive,
+          handler);
+    }
+  }
+
+  /** A call to {@link MergingPusher#pushRecords} waiting to be sent. */
+  private static class PendingPush {
+    final List<Record> records = new ArrayList<Record>();
+    final ExceptionHandler handler;
+    /** Whether the push has been sent or given up on. */
+    boolean done;
+    /** First record that was not sent. Only set after done. */
+    Record failed;
+
+    PendingPush(Iterable<Record> records, ExceptionHandler handler) {
+      for (Record record : records) {
+        this.records.add(record);
+      }
+      this.handler = handler;
+    }
+  }
+
   /** Marker interface for an item that can exist in a feed. */
   interface Item {}
 
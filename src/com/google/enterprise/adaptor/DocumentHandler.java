@@ -26,6 +26,9 @@ import static java.util.Map.Entry;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -52,6 +55,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -142,18 +151,79 @@ class DocumentHandler implements HttpHandler {
     this.alwaysGiveAcl = provideAclsAndMetadata;
     this.gsaVersion = gsaVersion;
     this.gsaSupports204 = gsaVersion.isAtLeast("7.4.0-0");
-    initFullAccess(gsaHostname, fullAccessHosts);
-    initSkipCertAddresses(skipCertHosts);
+    Set<String> fullAccessNames = lowercase(fullAccessHosts);
+    fullAccessNames.add(gsaHostname.toLowerCase(Locale.ENGLISH));
+    List<String> hostnames = new ArrayList<String>();
+    for (String hostname : fullAccessNames) {
+      if (hostname.indexOf("/") <= 0) {
+        hostnames.add(hostname);
+      }
+    }
+    for (String hostname : skipCertHosts) {
+      if (hostname.indexOf("/") <= 0) {
+        hostnames.add(hostname);
+      }
+    }
+    Map<String, Future<InetAddress[]>> lookups = lookUpAll(hostnames);
+    initFullAccess(fullAccessNames, lookups);
+    initSkipCertAddresses(skipCertHosts, lookups);
+  }
+
+  /**
+   * Starts resolving all {@code hostnames} at once. Names that don't resolve
+   * take the full resolver timeout each, which adds up during startup when
+   * they are looked up one after another.
+   */
+  private static Map<String, Future<InetAddress[]>> lookUpAll(
+      List<String> hostnames) {
+    Map<String, Future<InetAddress[]>> lookups
+        = new HashMap<String, Future<InetAddress[]>>();
+    if (hostnames.isEmpty()) {
+      return lookups;
+    }
+    ExecutorService executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("resolve-%d")
+        .build());
+    try {
+      for (final String hostname : hostnames) {
+        if (lookups.containsKey(hostname)) {
+          continue;
+        }
+        lookups.put(hostname, executor.submit(new Callable<InetAddress[]>() {
+          @Override
+          public InetAddress[] call() throws UnknownHostException {
+            return InetAddress.getAllByName(hostname);
+          }
+        }));
+      }
+    } finally {
+      // Lets the threads exit once their lookups complete.
+      executor.shutdown();
+    }
+    return lookups;
+  }
+
+  private static InetAddress[] getAllByName(String hostname,
+      Map<String, Future<InetAddress[]>> lookups) throws UnknownHostException {
+    try {
+      return Uninterruptibles.getUninterruptibly(lookups.get(hostname));
+    } catch (ExecutionException ex) {
+      Throwables.propagateIfPossible(ex.getCause(),
+          UnknownHostException.class);
+      throw new RuntimeException(ex.getCause());
+    }
   }
 
-  private void initSkipCertAddresses(String[] skipCertCheckHosts) {
+  private void initSkipCertAddresses(String[] skipCertCheckHosts,
+      Map<String, Future<InetAddress[]>> lookups) {
     for (String hostname : skipCertCheckHosts) {
       try {
         if (hostname.indexOf("/") > 0) {
           log.log(Level.WARNING, "skipCertCheckHosts doesn't support "
               + "networks: " + hostname); 
         } else {
-          InetAddress[] ips = InetAddress.getAllByName(hostname);
+          InetAddress[] ips = getAllByName(hostname, lookups);
           skipCertAddresses.addAll(Arrays.asList(ips));
           log.log(Level.FINE, "skipCertCheckHosts IP added: {0}", ips);
         }
@@ -176,9 +246,8 @@ class DocumentHandler implements HttpHandler {
     return filtered;
   }
 
-  private void initFullAccess(String gsaHostname, String[] fullAccessHosts) {
-    Set<String> hosts = lowercase(fullAccessHosts);
-    hosts.add(gsaHostname.toLowerCase(Locale.ENGLISH));
+  private void initFullAccess(Set<String> hosts,
+      Map<String, Future<InetAddress[]>> lookups) {
     for (String hostname : hosts) {
       try {
         if (hostname.indexOf("/") > 0) {
@@ -189,7 +258,7 @@ class DocumentHandler implements HttpHandler {
           fullAccessRanges.add(new CidrAddress(address, maskLength));
         } else {
           fullAccessCommonNames.add(hostname);
-          InetAddress[] ips = InetAddress.getAllByName(hostname);
+          InetAddress[] ips = getAllByName(hostname, lookups);
           fullAccessAddresses.addAll(Arrays.asList(ips));
         }
       } catch (UnknownHostException ex) {
@@ -318,38 +387,76 @@ class DocumentHandler implements HttpHandler {
       DocId docId = docIdDecoder.decodeDocId(HttpExchanges.getRequestUri(ex));
       log.log(Level.FINE, "DocId: {0}", docId.getUniqueId());
 
-      if (!authzed(ex, docId)) {
-        return;
-      }
-
-      DocumentRequest request = new DocumentRequest(ex, docId);
-      DocumentResponse response
-          = new DocumentResponse(ex, docId, Thread.currentThread());
-      journal.recordRequestProcessingStart();
-      watchdog.processingStarting(headerTimeoutMillis);
+      FlightRecorderEvents.Event event
+          = FlightRecorderEvents.DOCUMENT_REQUEST.begin();
+      long[] phaseStarts = event.isRecording() ? new long[] {
+          System.nanoTime(), 0, 0} : null;
+      DocumentResponse response = null;
       try {
-        adaptor.getDocContent(request, response);
-      } catch (InterruptedException e) {
-        journal.recordRequestProcessingFailure();
-        throw new RuntimeException("Retriever interrupted: " + docId, e);
-      } catch (RuntimeException e) {
-        journal.recordRequestProcessingFailure();
-        throw new RuntimeException("Exception in retriever: " + docId, e);
-      } catch (IOException e) {
-        journal.recordRequestProcessingFailure();
-        throw new IOException("Exception in retriever: " + docId, e);
+        if (!authzed(ex, docId)) {
+          return;
+        }
+
+        DocumentRequest request = new DocumentRequest(ex, docId);
+        response = new DocumentResponse(ex, docId, Thread.currentThread());
+        if (phaseStarts != null) {
+          phaseStarts[1] = System.nanoTime();
+        }
+        journal.recordRequestProcessingStart();
+        watchdog.processingStarting(headerTimeoutMillis);
+        try {
+          adaptor.getDocContent(request, response);
+        } catch (InterruptedException e) {
+          journal.recordRequestProcessingFailure();
+          throw new RuntimeException("Retriever interrupted: " + docId, e);
+        } catch (RuntimeException e) {
+          journal.recordRequestProcessingFailure();
+          throw new RuntimeException("Exception in retriever: " + docId, e);
+        } catch (IOException e) {
+          journal.recordRequestProcessingFailure();
+          throw new IOException("Exception in retriever: " + docId, e);
+        } finally {
+          watchdog.processingCompleted();
+        }
+        journal.recordRequestProcessingEnd(response.getWrittenContentSize());
+
+        if (phaseStarts != null) {
+          phaseStarts[2] = System.nanoTime();
+        }
+        response.complete();
       } finally {
-        watchdog.processingCompleted();
+        if (phaseStarts != null) {
+          commitRequestEvent(event, ex, docId, response, phaseStarts);
+        }
       }
-      journal.recordRequestProcessingEnd(response.getWrittenContentSize());
-
-      response.complete();
     } else {
       HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_BAD_METHOD,
           Translation.HTTP_BAD_METHOD);
     }
   }
 
+  /**
+   * Records a {@link FlightRecorderEvents#DOCUMENT_REQUEST} event.
+   *
+   * @param phaseStarts start times of the authorization, retrieval and
+   *     completion phases, or zero for phases that were not reached
+   */
+  private static void commitRequestEvent(FlightRecorderEvents.Event event,
+      HttpExchange ex, DocId docId, DocumentResponse response,
+      long[] phaseStarts) {
+    long[] durations = new long[phaseStarts.length];
+    long end = System.nanoTime();
+    for (int i = phaseStarts.length - 1; i >= 0; i--) {
+      if (phaseStarts[i] != 0) {
+        durations[i] = end - phaseStarts[i];
+        end = phaseStarts[i];
+      }
+    }
+    event.commit(docId.getUniqueId(), ex.getResponseCode(),
+        response == null ? 0L : response.getWrittenContentSize(),
+        durations[0], durations[1], durations[2]);
+  }
+
   /**
    * Check authz of user to access document.  If adaptor.markAllDocsAsPublic is
    * configured, treat it as though the user is authzed (regardless of docId).
@@ -390,8 +497,17 @@ class DocumentHandler implements HttpHandler {
         identity = samlServiceProvider.getUserIdentity(ex);
       }
 
-      Map<DocId, AuthzStatus> authzMap = authzAuthority.isUserAuthorized(
-          identity, Collections.singletonList(docId));
+      Map<DocId, AuthzStatus> authzMap;
+      try {
+        authzMap = isUserAuthorized(identity, docId);
+      } catch (TimeoutException e) {
+        // The document may well exist, so don't claim that it doesn't.
+        log.log(Level.WARNING, "Adaptor did not authorize DocId ''{0}'' in "
+            + "time", docId);
+        HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_UNAVAILABLE,
+            Translation.HTTP_UNAVAILABLE_AUTHZ_TIMEOUT);
+        return false;
+      }
 
       AuthzStatus status = authzMap != null ? authzMap.get(docId) : null;
       if (status == null) {
@@ -421,6 +537,22 @@ class DocumentHandler implements HttpHandler {
     return true;
   }
 
+  /**
+   * Asks the adaptor whether {@code identity} may access {@code docId}.
+   *
+   * @throws TimeoutException if an asynchronous adaptor did not decide by its
+   *     deadline
+   */
+  private Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity identity,
+      DocId docId) throws IOException, TimeoutException {
+    List<DocId> ids = Collections.singletonList(docId);
+    if (authzAuthority instanceof DeadlineAuthzAuthority) {
+      return ((DeadlineAuthzAuthority) authzAuthority)
+          .isUserAuthorizedBeforeDeadline(identity, ids);
+    }
+    return authzAuthority.isUserAuthorized(identity, ids);
+  }
+
   /**
    * Format the GSA-specific metadata header value for crawl-time metadata.
    */
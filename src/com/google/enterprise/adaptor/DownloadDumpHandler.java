@@ -32,6 +32,8 @@ import java.net.HttpURLConnection;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
@@ -276,6 +278,28 @@ class DownloadDumpHandler implements HttpHandler {
       prettyPrintMap(writer, sMap);
     }
 
+    if (null != map.get("stats")) {
+      @SuppressWarnings("unchecked")
+      List<Map<String, Object>> statsList
+          = (List<Map<String, Object>>) map.get("stats");
+      for (Map<String, Object> stats : statsList) {
+        Object durations = stats.get("requestProcessingsDurationPercentiles");
+        Object sizes = stats.get("responseSizePercentiles");
+        if (durations == null && sizes == null) {
+          continue;
+        }
+        Object statData = stats.get("statData");
+        Map<String, Object> pMap = new LinkedHashMap<String, Object>();
+        pMap.put("period", statData instanceof List
+            ? ((List<?>) statData).size() + " x "
+                + stats.get("snapshotDuration") + " ms"
+            : "[unknown]");
+        pMap.put("responseTimePercentilesMs", durations);
+        pMap.put("responseSizePercentilesBytes", sizes);
+        prettyPrintMap(writer, pMap);
+      }
+    }
+
     writer.flush();
     zos.closeEntry();
   }
@@ -0,0 +1,217 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the rate of feed uploads to the GSA, in both feeds per second and
+ * records per second, using token buckets. Each bucket holds at most one
+ * second's worth of tokens, so short bursts are permitted after idle periods.
+ * A single feed larger than the bucket is permitted, but delays the feeds that
+ * follow it accordingly.
+ *
+ * <p>In adaptive mode, the configured rates are scaled down by half whenever
+ * an upload fails or takes longer than the latency target, and are gradually
+ * restored while uploads succeed quickly. This backs off while the GSA is
+ * struggling to keep up with its feed backlog. Adaptive mode only applies to
+ * limits that are configured; it has no effect if both rates are unlimited.
+ *
+ * <p>This class is thread-safe.
+ */
+class FeedRateLimiter {
+  private static final Logger log
+      = Logger.getLogger(FeedRateLimiter.class.getName());
+
+  /** Lowest fraction of the configured rates used in adaptive mode. */
+  static final double MIN_FACTOR = 1 / 64.;
+  /** Amount the factor is increased after each fast, successful upload. */
+  static final double FACTOR_INCREMENT = 0.1;
+
+  private final TokenBucket feeds;
+  private final TokenBucket records;
+  private final boolean adaptive;
+  private final long latencyTargetMillis;
+  private final RelativeTimeProvider timeProvider;
+  /** Fraction of the configured rates currently in effect. */
+  private double factor = 1;
+
+  /**
+   * @param feedsPerSecond maximum feed upload rate, or zero for no limit
+   * @param recordsPerSecond maximum record upload rate, or zero for no limit
+   * @param adaptive whether to back off when uploads are slow or fail
+   * @param latencyTargetMillis upload duration considered slow
+   */
+  public FeedRateLimiter(double feedsPerSecond, double recordsPerSecond,
+      boolean adaptive, long latencyTargetMillis,
+      RelativeTimeProvider timeProvider) {
+    if (timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (feedsPerSecond < 0 || recordsPerSecond < 0) {
+      throw new IllegalArgumentException("rates must not be negative");
+    }
+    this.timeProvider = timeProvider;
+    long now = now();
+    this.feeds = feedsPerSecond == 0 ? null
+        : new TokenBucket(feedsPerSecond, now);
+    this.records = recordsPerSecond == 0 ? null
+        : new TokenBucket(recordsPerSecond, now);
+    this.adaptive = adaptive;
+    this.latencyTargetMillis = latencyTargetMillis;
+  }
+
+  public FeedRateLimiter(Config config) {
+    this(config.getFeedMaxFeedsPerSecond(),
+        config.getFeedMaxRecordsPerSecond(), config.isFeedAdaptiveRateLimit(),
+        config.getFeedAdaptiveLatencyTargetMillis(),
+        new SystemRelativeTimeProvider());
+  }
+
+  /** Whether any limit is configured. */
+  public boolean isLimited() {
+    return feeds != null || records != null;
+  }
+
+  /**
+   * Blocks until a feed containing {@code numRecords} records may be
+   * uploaded.
+   *
+   * @return the number of milliseconds spent waiting
+   */
+  public long acquire(int numRecords) throws InterruptedException {
+    long waitMillis = reserve(numRecords);
+    if (waitMillis > 0) {
+      log.log(Level.FINE, "Throttling feed upload for {0} ms", waitMillis);
+      sleep(waitMillis);
+    }
+    return waitMillis;
+  }
+
+  /**
+   * Reserves permission to upload a feed with {@code numRecords} records,
+   * without waiting.
+   *
+   * @return the number of milliseconds to wait before uploading
+   */
+  synchronized long reserve(int numRecords) {
+    long now = now();
+    long waitMillis = 0;
+    if (feeds != null) {
+      waitMillis = Math.max(waitMillis, feeds.reserve(1, now));
+    }
+    if (records != null) {
+      waitMillis = Math.max(waitMillis, records.reserve(numRecords, now));
+    }
+    return waitMillis;
+  }
+
+  /**
+   * Notes the outcome of an upload, for adaptive mode.
+   *
+   * @param latencyMillis how long the upload took
+   * @param success whether the upload succeeded
+   */
+  public synchronized void recordUpload(long latencyMillis, boolean success) {
+    if (!adaptive || !isLimited()) {
+      return;
+    }
+    double newFactor;
+    if (!success || latencyMillis > latencyTargetMillis) {
+      newFactor = Math.max(MIN_FACTOR, factor / 2);
+    } else {
+      newFactor = Math.min(1, factor + FACTOR_INCREMENT);
+    }
+    if (newFactor == factor) {
+      return;
+    }
+    if (newFactor < factor) {
+      log.log(Level.INFO, "Reducing feed upload rate to {0}% of configured "
+          + "rate", Math.round(newFactor * 100));
+    }
+    factor = newFactor;
+    long now = now();
+    if (feeds != null) {
+      feeds.setFactor(factor, now);
+    }
+    if (records != null) {
+      records.setFactor(factor, now);
+    }
+  }
+
+  /** Fraction of the configured rates currently in effect. */
+  synchronized double getFactor() {
+    return factor;
+  }
+
+  void sleep(long millis) throws InterruptedException {
+    Thread.sleep(millis);
+  }
+
+  private long now() {
+    return timeProvider.relativeTime(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Token bucket that lets a request proceed immediately and instead makes
+   * later requests wait for the tokens it borrowed.
+   */
+  private static class TokenBucket {
+    private final double configuredPerMilli;
+    private double permitsPerMilli;
+    /** Tokens saved up while idle, at most one second's worth. */
+    private double stored;
+    /** Time at which the next request may proceed. */
+    private long nextFree;
+
+    TokenBucket(double permitsPerSecond, long now) {
+      this.configuredPerMilli = permitsPerSecond / 1000;
+      this.permitsPerMilli = configuredPerMilli;
+      this.stored = maxStored();
+      this.nextFree = now;
+    }
+
+    private double maxStored() {
+      return Math.max(1, permitsPerMilli * 1000);
+    }
+
+    /** Adds the tokens that accumulated since the bucket was last used. */
+    private void refill(long now) {
+      if (now > nextFree) {
+        stored = Math.min(maxStored(),
+            stored + (now - nextFree) * permitsPerMilli);
+        nextFree = now;
+      }
+    }
+
+    /** Returns how long the caller must wait before using its permits. */
+    long reserve(double permits, long now) {
+      refill(now);
+      long waitMillis = nextFree - now;
+      double fromStored = Math.min(permits, stored);
+      stored -= fromStored;
+      nextFree += (long) Math.ceil((permits - fromStored) / permitsPerMilli);
+      return waitMillis;
+    }
+
+    void setFactor(double factor, long now) {
+      refill(now);
+      permitsPerMilli = configuredPerMilli * factor;
+      stored = Math.min(stored, maxStored());
+    }
+  }
+}
@@ -0,0 +1,178 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+/**
+ * Shares a fixed number of feed upload slots among {@link Lane}s, so that
+ * small, latency-sensitive feeds are not stuck behind the bulk feeds of a full
+ * push.
+ *
+ * <p>Slots are granted using stride scheduling: each lane receives slots in
+ * proportion to its weight while it has waiting uploads, and ties go to the
+ * higher-priority lane. A lane that was idle does not accumulate credit, so it
+ * cannot monopolize the slots when it becomes busy again. A lane with a
+ * non-zero weight is never starved.
+ *
+ * <p>This class is thread-safe.
+ */
+class FeedScheduler {
+  /**
+   * Source of a feed upload, in decreasing order of priority.
+   */
+  enum Lane {
+    /** Items queued with {@link AsyncDocIdPusher}. */
+    ASYNC,
+    /**
+     * Incremental pushes and pushes made directly by the adaptor outside of a
+     * full push.
+     */
+    INCREMENTAL,
+    /** Full pushes. */
+    FULL,
+  }
+
+  /** Amount added to a lane's pass for each slot, when its weight is one. */
+  private static final long STRIDE_ONE = 1 << 20;
+
+  private final Journal journal;
+  private final TimeProvider timeProvider;
+  private final long[] strides = new long[Lane.values().length];
+  /** Virtual time at which each lane is next due a slot. */
+  private final long[] passes = new long[Lane.values().length];
+  /** Number of threads waiting for a slot in each lane. */
+  private final int[] waiting = new int[Lane.values().length];
+  private int available;
+  /** Pass of the lane most recently granted a slot. */
+  private long virtualTime;
+
+  /**
+   * @param slots number of uploads that may be in progress at once
+   * @param weights relative share of slots for each lane, indexed by ordinal
+   */
+  public FeedScheduler(int slots, int[] weights, Journal journal,
+      TimeProvider timeProvider) {
+    if (journal == null || timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (slots < 1) {
+      throw new IllegalArgumentException("slots must be positive");
+    }
+    if (weights.length != strides.length) {
+      throw new IllegalArgumentException("Need a weight for each lane");
+    }
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] < 1) {
+        throw new IllegalArgumentException("weights must be positive");
+      }
+      strides[i] = STRIDE_ONE / weights[i];
+    }
+    this.available = slots;
+    this.journal = journal;
+    this.timeProvider = timeProvider;
+  }
+
+  public FeedScheduler(Config config, Journal journal) {
+    this(config.getFeedUploadSlots(), new int[] {
+          config.getFeedAsyncLaneWeight(),
+          config.getFeedIncrementalLaneWeight(),
+          config.getFeedFullLaneWeight(),
+        }, journal, new SystemTimeProvider());
+  }
+
+  /**
+   * Blocks until an upload slot is granted to {@code lane}. The returned slot
+   * must be released once the upload completes, whether or not it succeeded.
+   */
+  public Slot acquire(Lane lane) throws InterruptedException {
+    int i = lane.ordinal();
+    long queuedAt = timeProvider.currentTimeMillis();
+    journal.recordFeedLaneQueued(lane);
+    synchronized (this) {
+      if (waiting[i] == 0) {
+        // Don't let a lane build up credit while it is idle.
+        passes[i] = Math.max(passes[i], virtualTime);
+      }
+      waiting[i]++;
+      try {
+        while (available == 0 || nextLane() != i) {
+          wait();
+        }
+      } catch (InterruptedException ex) {
+        waiting[i]--;
+        // This thread may have been the one chosen to proceed.
+        notifyAll();
+        journal.recordFeedLaneAbandoned(lane);
+        throw ex;
+      }
+      waiting[i]--;
+      available--;
+      virtualTime = passes[i];
+      passes[i] += strides[i];
+      if (available > 0) {
+        notifyAll();
+      }
+    }
+    long grantedAt = timeProvider.currentTimeMillis();
+    journal.recordFeedLaneStarted(lane, grantedAt - queuedAt);
+    return new Slot(lane, grantedAt);
+  }
+
+  /**
+   * Returns the index of the waiting lane due the next slot, or -1 if no lane
+   * is waiting.
+   */
+  private int nextLane() {
+    int next = -1;
+    for (int i = 0; i < waiting.length; i++) {
+      if (waiting[i] == 0) {
+        continue;
+      }
+      if (next == -1 || passes[i] < passes[next]) {
+        next = i;
+      }
+    }
+    return next;
+  }
+
+  private synchronized void release() {
+    available++;
+    notifyAll();
+  }
+
+  /** An upload slot granted by {@link #acquire}. */
+  class Slot {
+    private final Lane lane;
+    private final long grantedAt;
+    private boolean released;
+
+    private Slot(Lane lane, long grantedAt) {
+      this.lane = lane;
+      this.grantedAt = grantedAt;
+    }
+
+    /** Returns the slot to the scheduler. Extra calls are ignored. */
+    public void release() {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      journal.recordFeedLaneFinished(lane,
+          timeProvider.currentTimeMillis() - grantedAt);
+      FeedScheduler.this.release();
+    }
+  }
+}
@@ -0,0 +1,327 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Custom Java Flight Recorder events, so that recordings can relate GC pauses
+ * and lock contention to the documents, feeds and transforms being processed
+ * at the time.
+ *
+ * <p>The library targets Java versions without the {@code jdk.jfr} API, so
+ * the event types are defined at runtime with {@code jdk.jfr.EventFactory}
+ * through reflection when running on Java 11 or later, and events are silently
+ * discarded otherwise. Whether a recording is running is tracked with a
+ * {@code jdk.jfr.FlightRecorderListener}, so while nothing is recording,
+ * {@link EventType#begin} only reads a volatile field and returns a shared
+ * no-op event. Which events are kept while recording is controlled by the
+ * recording's settings, like any other event; they are enabled by default.
+ *
+ * <p>This class is thread-safe.
+ */
+final class FlightRecorderEvents {
+  private static final Logger log
+      = Logger.getLogger(FlightRecorderEvents.class.getName());
+
+  /** Whether a recording is running. Maintained by {@link Bridge}. */
+  private static volatile boolean recording;
+
+  /** Access to the {@code jdk.jfr} API, or {@code null} if unavailable. */
+  private static final Bridge bridge = Bridge.create();
+
+  static final EventType DOCUMENT_REQUEST = new EventType("DocumentRequest",
+      "Document Request", "Serving of a document to the GSA or a user",
+      new Field("docId", "DocId", String.class, null),
+      new Field("status", "HTTP Status", int.class, null),
+      new Field("bytes", "Content Size", long.class, Unit.BYTES),
+      new Field("authzDuration", "Authorization Time", long.class, Unit.NANOS),
+      new Field("retrievalDuration", "Retrieval Time", long.class,
+          Unit.NANOS),
+      new Field("completionDuration", "Completion Time", long.class,
+          Unit.NANOS));
+
+  static final EventType FEED_PUSH = new EventType("FeedPush", "Feed Push",
+      "Upload of a batch of records or groups to the GSA",
+      new Field("feedType", "Feed Type", String.class, null),
+      new Field("batchSize", "Batch Size", int.class, null),
+      new Field("xmlLength", "XML Characters", long.class, null),
+      new Field("uploadDuration", "Upload Time", long.class, Unit.NANOS),
+      new Field("retries", "Retries", int.class, null),
+      new Field("success", "Success", boolean.class, null));
+
+  static final EventType TRANSFORM = new EventType("Transform",
+      "Transform Stage", "Time spent in one stage of a transform pipeline",
+      new Field("pipeline", "Pipeline", String.class, null),
+      new Field("stage", "Stage", String.class, null),
+      new Field("stageDuration", "Stage Time", long.class, Unit.NANOS));
+
+  static final EventType WATCHDOG_INTERRUPT = new EventType(
+      "WatchdogInterrupt", "Watchdog Interrupt",
+      "Interruption of a thread that exceeded its time limit",
+      new Field("interruptedThread", "Interrupted Thread", Thread.class, null),
+      new Field("timeoutMillis", "Timeout", long.class, Unit.MILLIS));
+
+  private static final Event NO_OP_EVENT = new Event();
+
+  private FlightRecorderEvents() {}
+
+  /** Whether events are currently being recorded. */
+  static boolean isRecording() {
+    return recording;
+  }
+
+  private enum Unit {
+    BYTES("jdk.jfr.DataAmount", "BYTES"),
+    NANOS("jdk.jfr.Timespan", "NANOSECONDS"),
+    MILLIS("jdk.jfr.Timespan", "MILLISECONDS"),
+    ;
+
+    final String annotation;
+    final String value;
+
+    private Unit(String annotation, String value) {
+      this.annotation = annotation;
+      this.value = value;
+    }
+  }
+
+  /** Description of a field of an {@link EventType}. */
+  private static class Field {
+    final String name;
+    final String label;
+    final Class<?> type;
+    final Unit unit;
+
+    Field(String name, String label, Class<?> type, Unit unit) {
+      this.name = name;
+      this.label = label;
+      this.type = type;
+      this.unit = unit;
+    }
+  }
+
+  /** A kind of event, with a fixed list of fields. */
+  static final class EventType {
+    private final String name;
+    private final int numFields;
+    /** The {@code jdk.jfr.EventFactory}, or {@code null} if unavailable. */
+    private final Object factory;
+
+    private EventType(String name, String label, String description,
+        Field... fields) {
+      this.name = FlightRecorderEvents.class.getPackage().getName() + "."
+          + name;
+      this.numFields = fields.length;
+      Object factory = null;
+      if (bridge != null) {
+        try {
+          factory = bridge.createFactory(this.name, label, description, fields);
+        } catch (Exception ex) {
+          log.log(Level.FINE, "Could not define flight recorder event "
+              + this.name, ex);
+        }
+      }
+      this.factory = factory;
+    }
+
+    /**
+     * Starts timing an event, which is recorded when {@link Event#commit} is
+     * called. Returns a no-op event if nothing is recording.
+     */
+    public Event begin() {
+      if (!recording || factory == null) {
+        return NO_OP_EVENT;
+      }
+      try {
+        Object event = bridge.newEvent.invoke(factory);
+        bridge.begin.invoke(event);
+        return new RecordingEvent(this, event);
+      } catch (Exception ex) {
+        log.log(Level.FINE, "Could not create flight recorder event " + name,
+            ex);
+        return NO_OP_EVENT;
+      }
+    }
+  }
+
+  /** An event being timed. The default implementation discards it. */
+  static class Event {
+    /** Whether this event will be recorded when committed. */
+    public boolean isRecording() {
+      return false;
+    }
+
+    /**
+     * Ends timing the event and records it with {@code values}, in the order
+     * of the fields of its {@link EventType}.
+     */
+    public void commit(Object... values) {}
+  }
+
+  private static class RecordingEvent extends Event {
+    private final EventType type;
+    private final Object event;
+
+    RecordingEvent(EventType type, Object event) {
+      this.type = type;
+      this.event = event;
+    }
+
+    @Override
+    public boolean isRecording() {
+      return true;
+    }
+
+    @Override
+    public void commit(Object... values) {
+      if (values.length != type.numFields) {
+        throw new IllegalArgumentException("Expected " + type.numFields
+            + " values for " + type.name);
+      }
+      try {
+        for (int i = 0; i < values.length; i++) {
+          bridge.set.invoke(event, i, values[i]);
+        }
+        bridge.commit.invoke(event);
+      } catch (Exception ex) {
+        log.log(Level.FINE, "Could not commit flight recorder event "
+            + type.name, ex);
+      }
+    }
+  }
+
+  /** Reflective access to the parts of {@code jdk.jfr} that are needed. */
+  private static class Bridge {
+    private final Method createFactory;
+    private final Constructor<?> newAnnotation;
+    private final Constructor<?> newValueDescriptor;
+    private final Method getFlightRecorder;
+    private final Method getRecordings;
+    private final Method getState;
+    final Method newEvent;
+    final Method begin;
+    final Method set;
+    final Method commit;
+
+    private Bridge() throws Exception {
+      Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+      Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+      Class<?> event = Class.forName("jdk.jfr.Event");
+      Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+      Class<?> listener = Class.forName("jdk.jfr.FlightRecorderListener");
+      createFactory = eventFactory.getMethod("create", List.class, List.class);
+      newAnnotation = annotationElement.getConstructor(Class.class,
+          Object.class);
+      newValueDescriptor = valueDescriptor.getConstructor(Class.class,
+          String.class, List.class);
+      getFlightRecorder = flightRecorder.getMethod("getFlightRecorder");
+      getRecordings = flightRecorder.getMethod("getRecordings");
+      getState = Class.forName("jdk.jfr.Recording").getMethod("getState");
+      newEvent = eventFactory.getMethod("newEvent");
+      begin = event.getMethod("begin");
+      set = event.getMethod("set", int.class, Object.class);
+      commit = event.getMethod("commit");
+
+      Object proxy = Proxy.newProxyInstance(listener.getClassLoader(),
+          new Class<?>[] {listener}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if ("equals".equals(name)) {
+                return proxy == args[0];
+              } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+              } else if ("toString".equals(name)) {
+                return "FlightRecorderEvents listener";
+              }
+              // recorderInitialized() or recordingStateChanged()
+              updateRecording();
+              return null;
+            }
+          });
+      // Calls recorderInitialized() immediately if the recorder is already
+      // running, so recordings started on the command line are noticed.
+      flightRecorder.getMethod("addListener", listener).invoke(null, proxy);
+    }
+
+    static Bridge create() {
+      try {
+        return new Bridge();
+      } catch (ClassNotFoundException ex) {
+        log.log(Level.FINE, "Flight recorder events are not supported by "
+            + "this Java version");
+      } catch (Exception ex) {
+        log.log(Level.FINE, "Could not set up flight recorder events", ex);
+      }
+      return null;
+    }
+
+    private void updateRecording() {
+      boolean running = false;
+      try {
+        Object recorder = getFlightRecorder.invoke(null);
+        for (Object r : (List<?>) getRecordings.invoke(recorder)) {
+          if ("RUNNING".equals(String.valueOf(getState.invoke(r)))) {
+            running = true;
+            break;
+          }
+        }
+      } catch (Exception ex) {
+        log.log(Level.FINE, "Could not determine flight recorder state", ex);
+      }
+      recording = running;
+    }
+
+    Object createFactory(String name, String label, String description,
+        Field[] fields) throws Exception {
+      List<Object> annotations = new ArrayList<Object>();
+      annotations.add(annotation("jdk.jfr.Name", name));
+      annotations.add(annotation("jdk.jfr.Label", label));
+      annotations.add(annotation("jdk.jfr.Description", description));
+      annotations.add(annotation("jdk.jfr.Category",
+          new String[] {"GSA Adaptor"}));
+      List<Object> descriptors = new ArrayList<Object>();
+      for (Field field : fields) {
+        List<Object> fieldAnnotations = new ArrayList<Object>();
+        fieldAnnotations.add(annotation("jdk.jfr.Label", field.label));
+        if (field.unit != null) {
+          fieldAnnotations.add(
+              annotation(field.unit.annotation, field.unit.value));
+        }
+        descriptors.add(newValueDescriptor.newInstance(field.type, field.name,
+            Collections.unmodifiableList(fieldAnnotations)));
+      }
+      return createFactory.invoke(null, annotations, descriptors);
+    }
+
+    private Object annotation(String className, Object value)
+        throws Exception {
+      Class<? extends Annotation> type
+          = Class.forName(className).asSubclass(Annotation.class);
+      return newAnnotation.newInstance(type, value);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates how many times each string was added, and tracks the most
+ * frequent strings, using a fixed amount of memory.
+ *
+ * <p>Counts are kept in a count-min sketch of {@code depth} rows of
+ * {@code width} counters. An estimate is never less than the true count, and
+ * exceeds it by at most {@code e / width} times the total number of additions
+ * with probability {@code 1 - e^-depth}. With the defaults of 5 rows of 32768
+ * counters, which use 1.25 MiB, the excess is at most 0.0083% of the total
+ * with 99.3% probability.
+ *
+ * <p>The most frequent strings are tracked by keeping the {@code topK}
+ * strings with the highest estimates seen so far. A string whose true count
+ * exceeds that of the {@code topK}-th most frequent string by more than the
+ * error bound above is reliably included.
+ *
+ * <p>This class is not thread-safe.
+ */
+class FrequencySketch {
+  static final int DEFAULT_DEPTH = 5;
+  static final int DEFAULT_WIDTH = 1 << 15;
+  static final int DEFAULT_TOP_K = 20;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final long[][] counters;
+  private final int topK;
+  /** Estimated counts of the most frequent strings. */
+  private final Map<String, Long> top;
+  private long total;
+
+  public FrequencySketch() {
+    this(DEFAULT_DEPTH, DEFAULT_WIDTH, DEFAULT_TOP_K);
+  }
+
+  /**
+   * @param depth number of rows of counters
+   * @param width number of counters in each row
+   * @param topK number of most frequent strings to track
+   */
+  public FrequencySketch(int depth, int width, int topK) {
+    if (depth < 1 || width < 1 || topK < 0) {
+      throw new IllegalArgumentException("invalid sketch dimensions");
+    }
+    this.counters = new long[depth][width];
+    this.topK = topK;
+    this.top = new HashMap<String, Long>(topK * 2);
+  }
+
+  /**
+   * Upper bound, relative to {@link #getTotal}, on how much an estimate
+   * exceeds the true count with probability {@link #confidence}.
+   */
+  public double relativeError() {
+    return Math.E / counters[0].length;
+  }
+
+  /** Probability that an estimate is within {@link #relativeError}. */
+  public double confidence() {
+    return 1 - Math.exp(-counters.length);
+  }
+
+  /**
+   * Counts one occurrence of {@code value}.
+   *
+   * @return the estimated count of {@code value}, including this occurrence
+   */
+  public long add(String value) {
+    total++;
+    long estimate = Long.MAX_VALUE;
+    byte[] hash = HASH.hashString(value).asBytes();
+    long h1 = toLong(hash, 0);
+    long h2 = toLong(hash, 8);
+    for (int i = 0; i < counters.length; i++) {
+      int index = index(h1, h2, i);
+      estimate = Math.min(estimate, ++counters[i][index]);
+    }
+    updateTop(value, estimate);
+    return estimate;
+  }
+
+  /** Returns the estimated number of times {@code value} was added. */
+  public long estimate(String value) {
+    long estimate = Long.MAX_VALUE;
+    byte[] hash = HASH.hashString(value).asBytes();
+    long h1 = toLong(hash, 0);
+    long h2 = toLong(hash, 8);
+    for (int i = 0; i < counters.length; i++) {
+      estimate = Math.min(estimate, counters[i][index(h1, h2, i)]);
+    }
+    return estimate;
+  }
+
+  /** Returns the number of additions. */
+  public long getTotal() {
+    return total;
+  }
+
+  /**
+   * Returns the most frequent strings and their estimated counts, most
+   * frequent first.
+   */
+  public Map<String, Long> getTop() {
+    List<Map.Entry<String, Long>> entries
+        = new ArrayList<Map.Entry<String, Long>>(top.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+      @Override
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+        int result = b.getValue().compareTo(a.getValue());
+        return result != 0 ? result : a.getKey().compareTo(b.getKey());
+      }
+    });
+    Map<String, Long> sorted = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, Long> entry : entries) {
+      sorted.put(entry.getKey(), entry.getValue());
+    }
+    return sorted;
+  }
+
+  private void updateTop(String value, long estimate) {
+    if (topK == 0) {
+      return;
+    }
+    if (top.containsKey(value) || top.size() < topK) {
+      top.put(value, estimate);
+      return;
+    }
+    // topK is small, so a linear scan is cheaper than maintaining a heap
+    // that would need updating on every addition.
+    String minKey = null;
+    long minEstimate = Long.MAX_VALUE;
+    for (Map.Entry<String, Long> entry : top.entrySet()) {
+      if (entry.getValue() < minEstimate) {
+        minKey = entry.getKey();
+        minEstimate = entry.getValue();
+      }
+    }
+    if (estimate > minEstimate) {
+      top.remove(minKey);
+      top.put(value, estimate);
+    }
+  }
+
+  /** Reads eight bytes of a hash code as an independent 64-bit hash. */
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset + 7; i >= offset; i--) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+
+  /** Picks the counter in {@code row} using double hashing. */
+  private int index(long h1, long h2, int row) {
+    long combined = h1 + row * h2;
+    return (int) ((combined & Long.MAX_VALUE) % counters[row].length);
+  }
+}
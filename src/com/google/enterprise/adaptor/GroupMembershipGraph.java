@@ -0,0 +1,313 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Nested group memberships known from the group definitions an adaptor
+ * pushes, used to expand a user's groups to every group they transitively
+ * belong to. This lets local authorization, such as {@link
+ * Acl#isAuthorizedBatch}, honor ACLs that name a parent group of one of the
+ * user's groups.
+ *
+ * <p>Every principal is numbered when first seen and each group's members are
+ * stored as an array of numbers. Each push of a group replaces the members
+ * previously known for that group. Lookups use an immutable snapshot that
+ * stores the groups containing each principal as number ranges of a single
+ * array. The snapshot is rebuilt by the first lookup after groups change, so
+ * pushing many groups in a row does not rebuild it for each push.
+ *
+ * <p>Members of case-insensitive groups match principals regardless of case,
+ * as the GSA does. This class is thread-safe.
+ */
+class GroupMembershipGraph {
+  private static final Logger log
+      = Logger.getLogger(GroupMembershipGraph.class.getName());
+
+  /**
+   * Number of each principal, keyed by {@link #exactKey} or {@link
+   * #foldedKey} depending on the case sensitivity of the groups it is a
+   * member of. Groups are also numbered by their exact key.
+   */
+  private final Map<Object, Integer> ids = new HashMap<Object, Integer>();
+  /** Group with each number, or {@code null} if it is not a group. */
+  private GroupPrincipal[] groups = new GroupPrincipal[16];
+  /**
+   * Numbers of the members of the group with each number, or {@code null} if
+   * the group's members are unknown.
+   */
+  private int[][] members = new int[16][];
+  /** Number of groups whose members are known. */
+  private int groupCount;
+  /** Whether {@link #snapshot} is out of date. */
+  private boolean changed;
+  private Snapshot snapshot = new Snapshot(groups, members, new int[0], 0);
+
+  /**
+   * Record the members of {@code defs}' groups, replacing any members
+   * previously recorded for those groups.
+   */
+  public void update(Map<GroupPrincipal, ? extends Collection<Principal>> defs,
+      boolean caseSensitive) {
+    int knownGroups;
+    int principalCount;
+    synchronized (this) {
+      for (Map.Entry<GroupPrincipal, ? extends Collection<Principal>> me
+          : defs.entrySet()) {
+        int groupId = id(me.getKey());
+        Collection<Principal> groupMembers = me.getValue();
+        int[] memberIds = new int[groupMembers.size()];
+        int i = 0;
+        for (Principal member : groupMembers) {
+          memberIds[i++]
+              = id(caseSensitive ? exactKey(member) : foldedKey(member));
+        }
+        if (members[groupId] == null) {
+          groupCount++;
+        }
+        members[groupId] = memberIds;
+      }
+      changed = true;
+      knownGroups = groupCount;
+      principalCount = ids.size();
+    }
+    log.log(Level.FINE, "Group graph has {0} groups and {1} principals",
+        new Object[] {knownGroups, principalCount});
+  }
+
+  /** Returns the number of {@code key}, assigning one if necessary. */
+  private int id(Object key) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = ids.size();
+      ids.put(key, id);
+      if (id == groups.length) {
+        groups = Arrays.copyOf(groups, id * 2);
+        members = Arrays.copyOf(members, id * 2);
+      }
+      groups[id] = key instanceof GroupPrincipal ? (GroupPrincipal) key : null;
+    }
+    return id;
+  }
+
+  /** Number of groups whose members are known. */
+  public synchronized int getGroupCount() {
+    return groupCount;
+  }
+
+  /**
+   * Returns {@code groups} together with every group that {@code user} or
+   * one of {@code groups} belongs to, directly or through other groups.
+   */
+  public Set<GroupPrincipal> expand(UserPrincipal user,
+      Collection<GroupPrincipal> groups) {
+    Snapshot current;
+    int[] start = new int[(groups.size() + 1) * 2];
+    int numStart = 0;
+    synchronized (this) {
+      if (changed) {
+        snapshot = createSnapshot();
+        changed = false;
+      }
+      current = snapshot;
+      numStart = lookUp(user, start, numStart);
+      for (GroupPrincipal group : groups) {
+        numStart = lookUp(group, start, numStart);
+      }
+    }
+    return current.expand(groups, start, numStart);
+  }
+
+  private Snapshot createSnapshot() {
+    int size = ids.size();
+    // A group can be a member by its exact name, or by its folded name in
+    // case-insensitive groups.
+    int[] folded = new int[size];
+    Arrays.fill(folded, -1);
+    for (int id = 0; id < size; id++) {
+      if (groups[id] != null) {
+        Integer foldedId = ids.get(foldedKey(groups[id]));
+        if (foldedId != null) {
+          folded[id] = foldedId;
+        }
+      }
+    }
+    return new Snapshot(groups, members, folded, size);
+  }
+
+  /**
+   * Adds the numbers of {@code principal}, by exact and folded key, to
+   * {@code found}.
+   */
+  private int lookUp(Principal principal, int[] found, int numFound) {
+    Integer id = ids.get(exactKey(principal));
+    if (id != null) {
+      found[numFound++] = id;
+    }
+    id = ids.get(foldedKey(principal));
+    if (id != null) {
+      found[numFound++] = id;
+    }
+    return numFound;
+  }
+
+  /**
+   * Returns an identity like {@code identity}, but with its groups expanded
+   * by {@link #expand}. Returns {@code identity} itself if there is nothing
+   * to add.
+   */
+  public AuthnIdentity expand(AuthnIdentity identity) {
+    Collection<GroupPrincipal> groups = identity.getGroups();
+    if (groups == null) {
+      groups = new HashSet<GroupPrincipal>();
+    }
+    Set<GroupPrincipal> expanded = expand(identity.getUser(), groups);
+    if (expanded.size() == groups.size()) {
+      return identity;
+    }
+    return new AuthnIdentityImpl.Builder(identity.getUser())
+        .setPassword(identity.getPassword()).setGroups(expanded).build();
+  }
+
+  private static Object exactKey(Principal principal) {
+    return principal;
+  }
+
+  private static Object foldedKey(Principal principal) {
+    return new FoldedKey(principal);
+  }
+
+  /**
+   * Immutable inverse of the membership lists: the groups directly
+   * containing each numbered principal.
+   */
+  private static class Snapshot {
+    /** Group with each number, or {@code null} if it is not a group. */
+    final GroupPrincipal[] groups;
+    /**
+     * Start of the parents of each principal in {@link #parents}; the
+     * parents of principal {@code i} end at {@code offsets[i + 1]}.
+     */
+    final int[] offsets;
+    /** Numbers of the groups that directly contain each principal. */
+    final int[] parents;
+    /** Number of the folded key of each group, or -1 if there is none. */
+    final int[] folded;
+
+    Snapshot(GroupPrincipal[] groups, int[][] members, int[] folded,
+        int size) {
+      this.groups = Arrays.copyOf(groups, size);
+      this.folded = folded;
+      this.offsets = new int[size + 1];
+      for (int group = 0; group < size; group++) {
+        if (members[group] != null) {
+          for (int member : members[group]) {
+            offsets[member + 1]++;
+          }
+        }
+      }
+      for (int i = 0; i < size; i++) {
+        offsets[i + 1] += offsets[i];
+      }
+      this.parents = new int[offsets[size]];
+      int[] next = Arrays.copyOf(offsets, size);
+      for (int group = 0; group < size; group++) {
+        if (members[group] != null) {
+          for (int member : members[group]) {
+            parents[next[member]++] = group;
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns {@code startGroups} plus the groups that contain any of the
+     * first {@code numStart} numbers of {@code start}.
+     */
+    Set<GroupPrincipal> expand(Collection<GroupPrincipal> startGroups,
+        int[] start, int numStart) {
+      Set<GroupPrincipal> result = new HashSet<GroupPrincipal>(startGroups);
+      if (parents.length == 0) {
+        return result;
+      }
+      BitSet visited = new BitSet(groups.length);
+      int[] queue = new int[groups.length];
+      int tail = 0;
+      for (int i = 0; i < numStart; i++) {
+        tail = enqueue(start[i], visited, queue, tail);
+      }
+      for (int head = 0; head < tail; head++) {
+        int id = queue[head];
+        for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+          int parent = parents[i];
+          result.add(groups[parent]);
+          tail = enqueue(parent, visited, queue, tail);
+          if (folded[parent] != -1) {
+            tail = enqueue(folded[parent], visited, queue, tail);
+          }
+        }
+      }
+      return result;
+    }
+
+    private static int enqueue(int id, BitSet visited, int[] queue,
+        int tail) {
+      if (visited.get(id)) {
+        return tail;
+      }
+      visited.set(id);
+      queue[tail] = id;
+      return tail + 1;
+    }
+  }
+
+  /**
+   * Case-insensitive form of a principal that, unlike {@link
+   * Principal.CaseFoldedKey}, distinguishes users from groups.
+   */
+  private static final class FoldedKey {
+    private final boolean group;
+    private final Principal.CaseFoldedKey key;
+
+    FoldedKey(Principal principal) {
+      this.group = principal.isGroup();
+      this.key = principal.caseFolded();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FoldedKey)) {
+        return false;
+      }
+      FoldedKey other = (FoldedKey) o;
+      return group == other.group && key.compareTo(other.key) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new Object[] {
+          group, key.namespace, key.domain, key.plainName});
+    }
+  }
+}
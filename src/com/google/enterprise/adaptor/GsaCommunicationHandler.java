@@ -15,7 +15,10 @@
 package com.google.enterprise.adaptor;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil;
 
 import com.sun.net.httpserver.BasicAuthenticator;
 import com.sun.net.httpserver.Filter;
@@ -28,6 +31,7 @@ import com.sun.net.httpserver.HttpsServer;
 import org.opensaml.DefaultBootstrap;
 import org.opensaml.xml.ConfigurationException;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -54,6 +58,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -114,10 +121,27 @@ public final class GsaCommunicationHandler {
    * purpose and is commonly used in conjunction with {@link #scheduleExecutor}.
    */
   private ExecutorService backgroundExecutor;
+  /** Executor for evaluating batch authorization requests in chunks. */
+  private ExecutorService authzExecutor;
+  /**
+   * Executor for the independent parts of {@link #setup} and {@link #start}.
+   * It lives from setup until start completes, so slow tasks can overlap with
+   * {@code Adaptor.init()}.
+   */
+  private ExecutorService startupExecutor;
+  /** OpenSAML bootstrap started by setup, or {@code null} if not secure. */
+  private Future<?> samlBootstrap;
   private DocIdCodec docIdCodec;
   private DocIdCodec heartbeatCodec;
   private DocIdSender docIdSender;
+  private RecordFingerprintStore fingerprintStore;
+  private GsaFeedFileArchiver fileArchiver;
   private AsyncDocIdSender asyncDocIdSender;
+  private AclFingerprintCache aclFingerprintCache;
+  /** Nested group memberships, or {@code null} if groups are not expanded. */
+  private GroupMembershipGraph groupGraph;
+  /** Client for resolving SAML artifacts, or {@code null} if not secure. */
+  private HttpClientAdapter samlHttpClient;
   private HttpServerScope dashboardScope;
   private Dashboard dashboard;
   private SensitiveValueCodec secureValueCodec;
@@ -135,7 +159,8 @@ public final class GsaCommunicationHandler {
     this.adaptor = adaptor;
     this.config = config;
 
-    journal = new Journal(config.isJournalReducedMem());
+    journal = new Journal(config.isJournalReducedMem(),
+        config.isJournalApproximateCounts());
   }
 
   /**
@@ -167,25 +192,52 @@ public final class GsaCommunicationHandler {
           "Both servers must be HttpServers or both HttpsServers");
     }
 
-    boolean secure = server instanceof HttpsServer;
+    final boolean secure = server instanceof HttpsServer;
     if (secure != config.isServerSecure()) {
       config.setValue("server.secure", "" + secure);
     }
-    keyPair = null;
-    try {
-      keyPair = getKeyPair(config.getServerKeyAlias());
-    } catch (IOException ex) {
-      // The exception is only fatal if we are in secure mode.
-      if (secure) {
-        throw ex;
-      }
-    } catch (RuntimeException ex) {
-      // The exception is only fatal if we are in secure mode.
-      if (secure) {
-        throw ex;
-      }
+    long setupBeginNanos = System.nanoTime();
+    startupExecutor = createStartupExecutor();
+    if (secure) {
+      // Only needed once start() is called; runs during Adaptor.init().
+      samlBootstrap = startupExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          long startNanos = System.nanoTime();
+          bootstrapOpenSaml();
+          try {
+            OpenSamlUtil.warmUp();
+          } catch (IOException ex) {
+            log.log(Level.WARNING, "Failed to warm up SAML processing", ex);
+          }
+          logStartupPhase("SAML bootstrap", startNanos);
+        }
+      });
     }
-    secureValueCodec = new SensitiveValueCodec(keyPair);
+    final String keyAlias = config.getServerKeyAlias();
+    Future<KeyPair> keyPairLoader = startupExecutor.submit(
+        new Callable<KeyPair>() {
+          @Override
+          public KeyPair call() throws IOException {
+            long startNanos = System.nanoTime();
+            try {
+              return getKeyPair(keyAlias);
+            } catch (IOException ex) {
+              // The exception is only fatal if we are in secure mode.
+              if (secure) {
+                throw ex;
+              }
+            } catch (RuntimeException ex) {
+              // The exception is only fatal if we are in secure mode.
+              if (secure) {
+                throw ex;
+              }
+            } finally {
+              logStartupPhase("key store", startNanos);
+            }
+            return null;
+          }
+        });
 
     int port = server.getAddress().getPort();
     if (port != config.getServerPort()) {
@@ -234,19 +286,37 @@ public final class GsaCommunicationHandler {
         config.isFeedNoRecrawlBitEnabled().isOverriden,
         config.isFeedNoRecrawlBitEnabled().value,
         comments);
-    GsaFeedFileArchiver fileArchiver =
-        new GsaFeedFileArchiver(config.getFeedArchiveDirectory());
+    fileArchiver = new GsaFeedFileArchiver(config);
+    String fingerprintFile = config.getFeedFingerprintFile();
+    if (!"".equals(fingerprintFile.trim())) {
+      fingerprintStore = new RecordFingerprintStore(new File(fingerprintFile));
+      fingerprintStore.load();
+    }
+    if (config.isAdaptorExpandNestedGroups()) {
+      groupGraph = new GroupMembershipGraph();
+    }
     docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
-        config, adaptor);
-    asyncDocIdSender = new AsyncDocIdSender(docIdSender,
+        config, adaptor, fingerprintStore, groupGraph);
+    if (config.getFeedAclDedupCacheSize() > 0) {
+      aclFingerprintCache = new AclFingerprintCache(
+          config.getFeedAclDedupCacheSize(),
+          TimeUnit.MINUTES.toMillis(config.getFeedAclDedupTtlMinutes()),
+          new SystemRelativeTimeProvider());
+    }
+    asyncDocIdSender = new AsyncDocIdSender(docIdSender.getAsyncItemPusher(),
         config.getFeedMaxUrls() /* batch size */,
         5 /* max latency */, TimeUnit.MINUTES,
-        config.getAsyncDocIdSenderQueueSize());
+        config.getAsyncDocIdSenderQueueSize(), aclFingerprintCache);
+
+    keyPair = getStartupResult(keyPairLoader, IOException.class);
+    secureValueCodec = new SensitiveValueCodec(keyPair);
 
     // Could be done during start(), but then we would have to save
     // dashboardServer and contextPrefix.
     dashboardScope = new HttpServerScope(dashboardServer, contextPrefix);
 
+    logStartupPhase("setup", setupBeginNanos);
+
     // We are about to start the Adaptor, so anything available through
     // AdaptorContext or other means must be initialized at this point. Any
     // reference to 'adaptor' before this point must be done very carefully to
@@ -264,6 +334,45 @@ public final class GsaCommunicationHandler {
     // Since the Adaptor has been started, we can now issue other calls to it.
     // Usages of 'adaptor' are completely safe after this point.
     adaptorContext.freeze();
+    long startBeginNanos = System.nanoTime();
+    if (startupExecutor == null) {
+      // Restarting after stop(), without a new setup().
+      startupExecutor = createStartupExecutor();
+    }
+
+    // Transforms are loaded by reflection, which can be slow. Their
+    // configuration is only final once Adaptor.init() has completed.
+    Future<MetadataTransformPipeline> metadataTransformLoader
+        = startupExecutor.submit(new Callable<MetadataTransformPipeline>() {
+          @Override
+          public MetadataTransformPipeline call() {
+            long startNanos = System.nanoTime();
+            try {
+              return createMetadataTransformPipeline();
+            } finally {
+              logStartupPhase("metadata transforms", startNanos);
+            }
+          }
+        });
+    Future<ContentTransformFactory> contentTransformLoader
+        = startupExecutor.submit(new Callable<ContentTransformFactory>() {
+          @Override
+          public ContentTransformFactory call() {
+            long startNanos = System.nanoTime();
+            try {
+              return createContentTransformFactory();
+            } finally {
+              logStartupPhase("content transforms", startNanos);
+            }
+          }
+        });
+
+    AuthzAuthority authzAuthority = adaptorContext.authzAuthority;
+    if (adaptorContext.asyncAuthzAuthority != null) {
+      authzAuthority = new DeadlineAuthzAuthority(
+          adaptorContext.asyncAuthzAuthority,
+          config.getAdaptorAuthzTimeoutMillis());
+    }
 
     // Since we are white-listing particular keys for auto-update, things aren't
     // ready enough to expose to adaptors.
@@ -274,7 +383,7 @@ public final class GsaCommunicationHandler {
 
     SamlServiceProvider samlServiceProvider = null;
     if (config.isServerSecure()) {
-      bootstrapOpenSaml();
+      getStartupResult(samlBootstrap, RuntimeException.class);
       SamlMetadata metadata = new SamlMetadata(config.getServerHostname(),
           config.getServerPort(), config.getGsaHostname(),
           config.getGsaSamlEntityId(), config.getServerSamlEntityId());
@@ -290,14 +399,39 @@ public final class GsaCommunicationHandler {
         log.config("Adaptor-based authentication not supported");
       }
       Principal.DomainFormat dmfmt = config.getDomainFormat();
-      samlServiceProvider
-          = new SamlServiceProvider(sessionManager, metadata, keyPair, dmfmt);
+      SessionTokenCodec tokenCodec = null;
+      SessionManager.HttpExchangeClientStore tokenStore = null;
+      if (config.isServerStatelessSessions()) {
+        if (keyPair == null) {
+          throw new IllegalStateException(
+              "server.statelessSessions requires server.secure=true");
+        }
+        log.config("Using stateless sessions");
+        tokenCodec = new SessionTokenCodec(secureValueCodec);
+        tokenStore = new SessionManager.HttpExchangeClientStore(
+            "authn_" + config.getServerPort(), true);
+      }
+      samlHttpClient = new HttpClientAdapter(
+          config.getSamlClientConnectTimeoutMillis(),
+          config.getSamlClientReadTimeoutMillis(),
+          config.getSamlClientMaxConnectionsPerHost());
+      samlServiceProvider = new SamlServiceProvider(sessionManager, metadata,
+          keyPair, samlHttpClient, dmfmt, tokenCodec, tokenStore,
+          TimeUnit.MINUTES.toMillis(
+              config.getServerStatelessSessionLifetimeMinutes()), groupGraph);
       addFilters(scope.createContext("/samlassertionconsumer",
           samlServiceProvider.getAssertionConsumer()));
-      if (adaptorContext.authzAuthority != null) {
+      if (authzAuthority != null) {
         log.config("Adaptor-based authorization supported");
+        authzExecutor = Executors.newFixedThreadPool(
+            Math.max(1, config.getAdaptorAuthzParallelism()),
+            new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("authz-%d")
+            .build());
         addFilters(scope.createContext("/saml-authz", new SamlBatchAuthzHandler(
-            adaptorContext.authzAuthority, docIdCodec, metadata, dmfmt)));
+            authzAuthority, docIdCodec, metadata, dmfmt, groupGraph,
+            authzExecutor, config.getAdaptorAuthzChunkSize(),
+            config.getAdaptorAuthzTimeoutMillis())));
       } else {
         log.config("Adaptor-based authorization not supported");
       }
@@ -305,7 +439,7 @@ public final class GsaCommunicationHandler {
     scheduleExecutor = Executors.newSingleThreadScheduledExecutor(
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("schedule")
         .build());
-    Watchdog watchdog = new Watchdog(scheduleExecutor);
+    final Watchdog watchdog = new Watchdog(scheduleExecutor);
 
     // The cachedThreadPool implementation created here is considerably better
     // than using ThreadPoolExecutor. ThreadPoolExecutor does not create threads
@@ -315,13 +449,16 @@ public final class GsaCommunicationHandler {
         .setNameFormat("background-%d")
         .build());
     backgroundExecutor.execute(waiter.runnable(asyncDocIdSender.worker()));
+    long docHandlerStartNanos = System.nanoTime();
     DocumentHandler docHandler = new DocumentHandler(
-        docIdCodec, docIdCodec, journal, adaptor, adaptorContext.authzAuthority,
+        docIdCodec, docIdCodec, journal, adaptor, authzAuthority,
         config.getGsaHostname(),
         config.getServerFullAccessHosts(),
         config.getServerSkipCertCheckHosts(),
-        samlServiceProvider, createMetadataTransformPipeline(),
-        aclTransform, createContentTransformFactory(),
+        samlServiceProvider,
+        getStartupResult(metadataTransformLoader, RuntimeException.class),
+        aclTransform,
+        getStartupResult(contentTransformLoader, RuntimeException.class),
         config.isServerToUseCompression(), watchdog,
         asyncDocIdSender,
         config.doesGsaAcceptDocControlsHeader(),
@@ -331,12 +468,14 @@ public final class GsaCommunicationHandler {
         config.getScoringType(),
         config.requireHttpBasicAuthn(),
         new GsaVersion(config.getGsaVersion()));
+    logStartupPhase("document handler", docHandlerStartNanos);
     String handlerPath = config.getServerBaseUri().getPath()
         + config.getServerDocIdPath();
     HttpContext docContext
         = addFilters(scope.createContext(handlerPath, docHandler));
+    final Watchdog heartbeatWatchdog = new Watchdog(scheduleExecutor);
     HeartbeatHandler heartbeatHandler = new HeartbeatHandler(heartbeatCodec,
-        docIdCodec, docHandler, new Watchdog(scheduleExecutor),
+        docIdCodec, docHandler, heartbeatWatchdog,
         config.getAdaptorHeartbeatTimeoutMillis());
     String heartbeatPath = config.getServerBaseUri().getPath()
         + config.getServerHeartbeatPath();
@@ -368,7 +507,8 @@ public final class GsaCommunicationHandler {
       log.info("Disabling calls to getDocIds and getModifiedDocIds");
     } else {
       docIdFullPusher = new OneAtATimeRunnable(
-          new PushRunnable(adaptorContext.fullExceptionHandler),
+          new PushRunnable(adaptorContext.shardedLister,
+              adaptorContext.fullExceptionHandler),
           new AlreadyRunningRunnable());
       sendDocIdsFuture = scheduler.schedule(
           config.getAdaptorFullListingSchedule(),
@@ -393,9 +533,165 @@ public final class GsaCommunicationHandler {
       }
     }
 
+    registerMetrics(watchdog, heartbeatWatchdog);
     dashboard = new Dashboard(config, this, journal, sessionManager,
         secureValueCodec, adaptor, adaptorContext.statusSources, shutdownHook);
     dashboard.start(dashboardScope);
+
+    startupExecutor.shutdown();
+    startupExecutor = null;
+    logStartupPhase("start", startBeginNanos);
+  }
+
+  private static ExecutorService createStartupExecutor() {
+    return Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true)
+        .setNameFormat("startup-%d")
+        .build());
+  }
+
+  /**
+   * Waits for a task on {@link #startupExecutor}, throwing its failure as if it
+   * had run on the calling thread.
+   */
+  private static <T, X extends Exception> T getStartupResult(Future<T> task,
+      Class<X> declaredType) throws X {
+    try {
+      return Uninterruptibles.getUninterruptibly(task);
+    } catch (ExecutionException ex) {
+      Throwables.propagateIfPossible(ex.getCause(), declaredType);
+      throw new RuntimeException(ex.getCause());
+    }
+  }
+
+  private static void logStartupPhase(String phase, long startNanos) {
+    log.log(Level.INFO, "Startup phase {0} took {1} ms", new Object[] {phase,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)});
+  }
+
+  /**
+   * Registers metrics of the components created by {@link #setup} and
+   * {@link #start} with the journal's metrics. All are read without locking.
+   */
+  private void registerMetrics(final Watchdog watchdog,
+      final Watchdog heartbeatWatchdog) {
+    Metrics metrics = journal.getMetrics();
+    Executor executor = scope.getHttpServer().getExecutor();
+    if (executor instanceof InstrumentedThreadPoolExecutor) {
+      final InstrumentedThreadPoolExecutor serverExecutor
+          = (InstrumentedThreadPoolExecutor) executor;
+      metrics.gauge("adaptor_server_queued_requests",
+          "Requests waiting for a worker thread.", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return serverExecutor.getQueuedTaskCount();
+            }
+          });
+      metrics.gauge("adaptor_server_active_threads",
+          "Worker threads processing requests.", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return serverExecutor.getRunningTaskCount();
+            }
+          });
+      metrics.counter("adaptor_server_rejected_requests_total",
+          "Requests aborted because the request queue was full.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return serverExecutor.getRejectedTaskCount();
+            }
+          });
+    }
+    final AsyncDocIdSender asyncSender = asyncDocIdSender;
+    metrics.gauge("adaptor_async_queue_depth",
+        "Items waiting to be sent by the asynchronous pusher.",
+        new Metrics.Gauge() {
+          @Override
+          public long getValue() {
+            return asyncSender.getQueueDepth();
+          }
+        });
+    metrics.counter("adaptor_async_dropped_total",
+        "Items dropped because the asynchronous pusher's queue was full.",
+        new Metrics.Gauge() {
+          @Override
+          public long getValue() {
+            return asyncSender.getDroppedCount();
+          }
+        });
+    final AclFingerprintCache aclCache = aclFingerprintCache;
+    if (aclCache != null) {
+      metrics.counter("adaptor_acl_dedup_hits_total",
+          "Named resource ACLs not pushed because they were unchanged.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return aclCache.getHits();
+            }
+          });
+      metrics.counter("adaptor_acl_dedup_misses_total",
+          "Named resource ACLs pushed because they were new or changed.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return aclCache.getMisses();
+            }
+          });
+    }
+    final HttpClientAdapter samlClient = samlHttpClient;
+    if (samlClient != null) {
+      metrics.gauge("adaptor_saml_client_active_connections",
+          "Connections to the GSA in use for resolving SAML artifacts.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return samlClient.getActiveExchanges();
+            }
+          });
+      metrics.counter("adaptor_saml_client_requests_total",
+          "Requests sent to the GSA for resolving SAML artifacts.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return samlClient.getExchangeCount();
+            }
+          });
+      metrics.counter("adaptor_saml_client_failures_total",
+          "Failed or rejected requests for resolving SAML artifacts.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return samlClient.getFailureCount();
+            }
+          });
+      metrics.counter("adaptor_saml_client_rejected_total",
+          "Requests for resolving SAML artifacts not sent because too many "
+          + "connections to the GSA were in use.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return samlClient.getRejectedCount();
+            }
+          });
+      metrics.counter("adaptor_saml_client_request_milliseconds_total",
+          "Time spent waiting for the GSA to resolve SAML artifacts.",
+          new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+              return samlClient.getExchangeMillis();
+            }
+          });
+    }
+    metrics.counter("adaptor_watchdog_timeouts_total",
+        "Requests interrupted for exceeding their time limit.",
+        new Metrics.Gauge() {
+          @Override
+          public long getValue() {
+            return watchdog.getTimeoutCount()
+                + heartbeatWatchdog.getTimeoutCount();
+          }
+        });
   }
 
   void tryToPutVersionIntoConfig() throws IOException {
@@ -680,6 +976,11 @@ public final class GsaCommunicationHandler {
       scope = new HttpServerScope(
           scope.getHttpServer(), scope.getContextPrefix());
     }
+    if (startupExecutor != null) {
+      // start() was never called.
+      startupExecutor.shutdownNow();
+      startupExecutor = null;
+    }
     if (scheduleExecutor != null) {
       // Post-Adaptor.init() resources need to be stopped.
       dashboardScope.close();
@@ -694,6 +995,11 @@ public final class GsaCommunicationHandler {
         backgroundExecutor = null;
       }
 
+      if (authzExecutor != null) {
+        authzExecutor.shutdownNow();
+        authzExecutor = null;
+      }
+
       scheduler = null;
       sendDocIdsFuture = null;
 
@@ -737,6 +1043,18 @@ public final class GsaCommunicationHandler {
     sessionManager = null;
     docIdCodec = null;
     docIdSender = null;
+    aclFingerprintCache = null;
+    groupGraph = null;
+    samlHttpClient = null;
+    samlBootstrap = null;
+    if (fingerprintStore != null) {
+      fingerprintStore.close();
+      fingerprintStore = null;
+    }
+    if (fileArchiver != null) {
+      fileArchiver.close();
+      fileArchiver = null;
+    }
     adaptorContext = null;
   }
 
@@ -833,19 +1151,28 @@ public final class GsaCommunicationHandler {
   }
 
   /**
-   * Runnable that calls {@link DocIdSender#pushDocIds}.
+   * Runnable that calls {@link DocIdSender#pushFullDocIdsFromAdaptor}, or
+   * {@link DocIdSender#pushFullDocIdsFromShardedLister} if the adaptor
+   * registered a {@link ShardedLister}.
    */
   private class PushRunnable implements Runnable {
+    private final ShardedLister shardedLister;
     private final ExceptionHandler handler;
 
-    public PushRunnable(ExceptionHandler handler) {
+    public PushRunnable(ShardedLister shardedLister,
+        ExceptionHandler handler) {
+      this.shardedLister = shardedLister;
       this.handler = handler;
     }
 
     @Override
     public void run() {
       try {
-        docIdSender.pushFullDocIdsFromAdaptor(handler);
+        if (shardedLister == null) {
+          docIdSender.pushFullDocIdsFromAdaptor(handler);
+        } else {
+          docIdSender.pushFullDocIdsFromShardedLister(shardedLister, handler);
+        }
       } catch (InterruptedException ex) {
         Thread.currentThread().interrupt();
       } catch (Exception t) {
@@ -934,8 +1261,10 @@ public final class GsaCommunicationHandler {
     private final List<StatusSource> statusSources
         = new ArrayList<StatusSource>();
     private PollingIncrementalLister pollingIncrementalLister;
+    private ShardedLister shardedLister;
     private AuthnAuthority authnAuthority;
     private AuthzAuthority authzAuthority;
+    private AsyncAuthzAuthority asyncAuthzAuthority;
 
     private synchronized void freeze() {
       mutable = false;
@@ -1044,6 +1373,14 @@ public final class GsaCommunicationHandler {
       pollingIncrementalLister = lister;
     }
 
+    @Override
+    public synchronized void setShardedLister(ShardedLister lister) {
+      if (!mutable) {
+        throw new IllegalStateException("After init()");
+      }
+      shardedLister = lister;
+    }
+
     @Override
     public synchronized void setAuthnAuthority(AuthnAuthority authnAuthority) {
       if (!mutable) {
@@ -1059,5 +1396,14 @@ public final class GsaCommunicationHandler {
       }
       this.authzAuthority = authzAuthority;
     }
+
+    @Override
+    public synchronized void setAsyncAuthzAuthority(
+        AsyncAuthzAuthority authzAuthority) {
+      if (!mutable) {
+        throw new IllegalStateException("After init()");
+      }
+      this.asyncAuthzAuthority = authzAuthority;
+    }
   }
 }
@@ -15,38 +15,157 @@
 package com.google.enterprise.adaptor;
 
 import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.io.Files;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Takes an XML feed file destined for the GSA and makes a copy in the
  * configured feed archive directory.  The feed archive directory is
  * specified using the {@code feed.archiveDirectory} configuration property.
+ *
+ * <p>Feeds are queued and written by a background thread, so archiving does
+ * not slow down pushes. If the queue is full, the feed is not archived and a
+ * warning is logged.
+ *
+ * <p>Feeds are appended to gzip-compressed segment files named
+ * {@code feeds-<time>-<n>.xml.gz}, each holding one gzip member per feed, so
+ * a segment can be decompressed with standard tools. A new segment is started
+ * when the current one reaches the configured size or is a day old. Each
+ * segment has an index file with the same name ending in {@code .idx}, with
+ * one tab-separated line per feed giving the feed's offset and compressed
+ * length within the segment, the time it was archived, and its name. Feeds
+ * that failed to be sent have names starting with {@code FAILED-}. Use
+ * {@link #listArchivedFeeds} to read the archive.
+ *
+ * <p>Whenever a segment is started, the oldest segments are deleted while the
+ * archive is larger than the configured maximum size or they were last
+ * written longer ago than the configured maximum age. A segment was last
+ * written no later than when the segment after it was started, which is the
+ * time in that segment's name.
  */
 public class GsaFeedFileArchiver implements FeedArchiver {
   private static final Logger log =
       Logger.getLogger(GsaFeedFileArchiver.class.getName());
 
   private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+  static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  static final int DEFAULT_QUEUE_SIZE = 16;
+  /** Age at which a segment is closed, so that old feeds can be expired. */
+  static final long MAX_SEGMENT_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final String SEGMENT_PREFIX = "feeds-";
+  private static final String SEGMENT_SUFFIX = ".xml.gz";
+  private static final String INDEX_SUFFIX = ".idx";
+  /** Marks the end of the queue when closing. */
+  private static final QueuedFeed CLOSE = new QueuedFeed(null, null, 0);
+
   private final File archiveDir;
-  
+  private final long segmentSize;
+  private final long maxSize;
+  private final long maxAgeMillis;
+  private final TimeProvider timeProvider;
+  private final BlockingQueue<QueuedFeed> queue;
+  private final AtomicLong dropped = new AtomicLong();
+  private Thread writerThread;
+  private boolean closed;
+  /** Only accessed by the writer thread. */
+  private Segment segment;
+  /** Only accessed by the writer thread. */
+  private int segmentSequence;
+
   public GsaFeedFileArchiver(String archiveDirectory) {
-    this.archiveDir = Strings.isNullOrEmpty(archiveDirectory) 
+    this(archiveDirectory, DEFAULT_SEGMENT_SIZE, 0, 0, DEFAULT_QUEUE_SIZE,
+        new SystemTimeProvider());
+  }
+
+  public GsaFeedFileArchiver(Config config) {
+    this(config.getFeedArchiveDirectory(), config.getFeedArchiveSegmentSize(),
+        config.getFeedArchiveMaxSize(),
+        TimeUnit.DAYS.toMillis(config.getFeedArchiveMaxAgeDays()),
+        config.getFeedArchiveQueueSize(), new SystemTimeProvider());
+  }
+
+  /**
+   * @param archiveDirectory directory to archive feeds in, or empty to not
+   *     archive feeds
+   * @param segmentSize compressed size at which a new segment is started
+   * @param maxSize total size of segments above which the oldest are
+   *     deleted, or zero for no limit
+   * @param maxAgeMillis age after which segments are deleted, or zero for no
+   *     limit
+   * @param queueSize number of feeds that may wait to be written
+   */
+  GsaFeedFileArchiver(String archiveDirectory, long segmentSize, long maxSize,
+      long maxAgeMillis, int queueSize, TimeProvider timeProvider) {
+    if (timeProvider == null) {
+      throw new NullPointerException();
+    }
+    if (segmentSize < 1 || maxSize < 0 || maxAgeMillis < 0 || queueSize < 1) {
+      throw new IllegalArgumentException("invalid archive limits");
+    }
+    this.archiveDir = Strings.isNullOrEmpty(archiveDirectory)
         ? null : new File(archiveDirectory);
+    this.segmentSize = segmentSize;
+    this.maxSize = maxSize;
+    this.maxAgeMillis = maxAgeMillis;
+    this.timeProvider = timeProvider;
+    this.queue = new ArrayBlockingQueue<QueuedFeed>(queueSize);
   }
 
   public void saveFeed(String feedName, String feedXml) {
-    if (archiveDir != null) {
-      try {
-        File file = File.createTempFile(feedName + "-", ".xml", archiveDir);
-        Files.write(feedXml, file, CHARSET_UTF8);
-      } catch (IOException e) {
-        log.log(Level.WARNING, "failed to archive feed file", e);
+    if (archiveDir == null) {
+      return;
+    }
+    QueuedFeed feed
+        = new QueuedFeed(feedName, feedXml, timeProvider.currentTimeMillis());
+    synchronized (this) {
+      if (closed) {
+        log.log(Level.WARNING, "Archiver closed; not archiving feed {0}",
+            feedName);
+        return;
+      }
+      if (writerThread == null) {
+        writerThread = new Thread(new WriterRunnable(), "feed-archiver");
+        writerThread.setDaemon(true);
+        writerThread.start();
+      }
+      if (!queue.offer(feed)) {
+        dropped.incrementAndGet();
+        log.log(Level.WARNING, "Feed archive queue full; not archiving feed "
+            + "{0}", feedName);
       }
     }
   }
@@ -54,4 +173,358 @@ public class GsaFeedFileArchiver implements FeedArchiver {
   public void saveFailedFeed(String feedName, String feedXml) {
     saveFeed("FAILED-" + feedName, feedXml);
   }
+
+  /** Returns the number of feeds not archived because the queue was full. */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Writes any queued feeds and stops the background writer. Feeds saved
+   * afterwards are not archived.
+   */
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      thread = writerThread;
+    }
+    if (thread == null) {
+      return;
+    }
+    boolean interrupted = false;
+    boolean queued = false;
+    while (thread.isAlive()) {
+      try {
+        if (!queued) {
+          queue.put(CLOSE);
+          queued = true;
+        }
+        thread.join();
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private class WriterRunnable implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          QueuedFeed feed = queue.take();
+          if (feed == CLOSE) {
+            break;
+          }
+          try {
+            write(feed);
+          } catch (IOException ex) {
+            log.log(Level.WARNING, "failed to archive feed file", ex);
+            closeSegment();
+          }
+        }
+      } catch (InterruptedException ex) {
+        log.log(Level.FINE, "Feed archiver shutting down", ex);
+      } finally {
+        closeSegment();
+      }
+    }
+  }
+
+  private void write(QueuedFeed feed) throws IOException {
+    if (segment != null && (segment.out.getCount() >= segmentSize
+        || feed.time - segment.created >= MAX_SEGMENT_AGE_MILLIS)) {
+      closeSegment();
+    }
+    if (segment == null) {
+      segment = openSegment(feed.time);
+      deleteExpiredSegments(feed.time);
+    }
+    long offset = segment.out.getCount();
+    OutputStream gzip = new GZIPOutputStream(
+        new NonClosingOutputStream(segment.out));
+    gzip.write(feed.xml.getBytes(CHARSET_UTF8));
+    gzip.close();
+    segment.out.flush();
+    // Only index the feed once its data is on disk, so the index never refers
+    // to a partially-written feed.
+    segment.index.write(offset + "\t" + (segment.out.getCount() - offset)
+        + "\t" + feed.time + "\t" + feed.name + "\n");
+    segment.index.flush();
+  }
+
+  private Segment openSegment(long now) throws IOException {
+    String time = createTimeFormat().format(new Date(now));
+    File file;
+    do {
+      String name = String.format("%s%s-%04d", SEGMENT_PREFIX, time,
+          segmentSequence++);
+      file = new File(archiveDir, name + SEGMENT_SUFFIX);
+    } while (file.exists());
+    return new Segment(file, indexFile(file), now);
+  }
+
+  private void closeSegment() {
+    if (segment == null) {
+      return;
+    }
+    try {
+      segment.close();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "failed to close feed archive segment", ex);
+    }
+    segment = null;
+  }
+
+  /** Deletes the oldest segments, other than the current one, as needed. */
+  private void deleteExpiredSegments(long now) {
+    if (maxSize == 0 && maxAgeMillis == 0) {
+      return;
+    }
+    List<File> segments = listSegments(archiveDir);
+    long total = 0;
+    for (File file : segments) {
+      total += file.length();
+    }
+    for (int i = 0; i < segments.size(); i++) {
+      File file = segments.get(i);
+      if (file.equals(segment.file)) {
+        continue;
+      }
+      boolean tooBig = maxSize != 0 && total > maxSize;
+      // Uses the archiver's own clock rather than the file system's, via the
+      // time the next segment was started. The current segment is the newest,
+      // so any other segment has a next one.
+      boolean tooOld = false;
+      if (maxAgeMillis != 0 && i + 1 < segments.size()) {
+        long lastWritten = getStartTime(segments.get(i + 1));
+        tooOld = lastWritten != -1 && now - lastWritten > maxAgeMillis;
+      }
+      if (!tooBig && !tooOld) {
+        continue;
+      }
+      long length = file.length();
+      if (!file.delete()) {
+        log.log(Level.WARNING, "Unable to delete feed archive segment {0}",
+            file);
+        continue;
+      }
+      indexFile(file).delete();
+      total -= length;
+      log.log(Level.FINE, "Deleted feed archive segment {0}", file);
+    }
+  }
+
+  /** Returns the segments in {@code dir}, oldest first. */
+  private static List<File> listSegments(File dir) {
+    File[] files = dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX)
+            && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    // Names start with the time the segment was created.
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+
+  private static SimpleDateFormat createTimeFormat() {
+    SimpleDateFormat format
+        = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.ENGLISH);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format;
+  }
+
+  /**
+   * Returns the time a segment was started, from its name, or {@code -1} if
+   * the name does not contain one.
+   */
+  private static long getStartTime(File segmentFile) {
+    String name = segmentFile.getName();
+    int end = name.indexOf('-', SEGMENT_PREFIX.length());
+    if (end == -1) {
+      return -1;
+    }
+    try {
+      return createTimeFormat().parse(
+          name.substring(SEGMENT_PREFIX.length(), end)).getTime();
+    } catch (ParseException ex) {
+      return -1;
+    }
+  }
+
+  private static File indexFile(File segmentFile) {
+    String name = segmentFile.getName();
+    return new File(segmentFile.getParentFile(),
+        name.substring(0, name.length() - SEGMENT_SUFFIX.length())
+        + INDEX_SUFFIX);
+  }
+
+  /**
+   * Returns the feeds archived in {@code archiveDirectory}, oldest first.
+   * Index entries for feeds that were not completely written, such as after
+   * a crash, are skipped.
+   */
+  public static List<ArchivedFeed> listArchivedFeeds(File archiveDirectory)
+      throws IOException {
+    List<ArchivedFeed> feeds = new ArrayList<ArchivedFeed>();
+    for (File file : listSegments(archiveDirectory)) {
+      File index = indexFile(file);
+      if (!index.exists()) {
+        log.log(Level.WARNING, "Missing index for feed archive segment {0}",
+            file);
+        continue;
+      }
+      long segmentLength = file.length();
+      for (String line : Files.readLines(index, CHARSET_UTF8)) {
+        String[] parts = line.split("\t", 4);
+        if (parts.length != 4) {
+          continue;
+        }
+        ArchivedFeed feed;
+        try {
+          feed = new ArchivedFeed(file, Long.parseLong(parts[0]),
+              Integer.parseInt(parts[1]), Long.parseLong(parts[2]), parts[3]);
+        } catch (NumberFormatException ex) {
+          continue;
+        }
+        if (feed.offset + feed.length <= segmentLength) {
+          feeds.add(feed);
+        }
+      }
+    }
+    return feeds;
+  }
+
+  /** A feed stored in the archive. */
+  public static final class ArchivedFeed {
+    private final File segment;
+    private final long offset;
+    private final int length;
+    private final long time;
+    private final String name;
+
+    ArchivedFeed(File segment, long offset, int length, long time,
+        String name) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.time = time;
+      this.name = name;
+    }
+
+    /**
+     * Returns the name the feed was saved with, starting with
+     * {@code FAILED-} if it could not be sent.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /** Returns whether the feed could not be sent. */
+    public boolean isFailed() {
+      return name.startsWith("FAILED-");
+    }
+
+    /** Returns when the feed was archived, in milliseconds since epoch. */
+    public long getTime() {
+      return time;
+    }
+
+    /** Reads and decompresses the feed's XML. */
+    public String readXml() throws IOException {
+      byte[] compressed = new byte[length];
+      InputStream in = new FileInputStream(segment);
+      try {
+        ByteStreams.skipFully(in, offset);
+        ByteStreams.readFully(in, compressed);
+      } finally {
+        in.close();
+      }
+      InputStreamReader reader = new InputStreamReader(new GZIPInputStream(
+          new ByteArrayInputStream(compressed)), CHARSET_UTF8);
+      try {
+        return CharStreams.toString(reader);
+      } finally {
+        reader.close();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "ArchivedFeed(" + name + "," + segment.getName() + "@" + offset
+          + ")";
+    }
+  }
+
+  private static class QueuedFeed {
+    final String name;
+    final String xml;
+    final long time;
+
+    QueuedFeed(String name, String xml, long time) {
+      this.name = name;
+      this.xml = xml;
+      this.time = time;
+    }
+  }
+
+  private static class Segment {
+    final File file;
+    final CountingOutputStream out;
+    final Writer index;
+    final long created;
+
+    Segment(File file, File indexFile, long created) throws IOException {
+      this.file = file;
+      this.out = new CountingOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        this.index = new OutputStreamWriter(
+            new FileOutputStream(indexFile), CHARSET_UTF8);
+      } catch (IOException ex) {
+        out.close();
+        throw ex;
+      }
+      this.created = created;
+    }
+
+    void close() throws IOException {
+      try {
+        out.close();
+      } finally {
+        index.close();
+      }
+    }
+  }
+
+  /**
+   * Lets a gzip member be finished, and its deflater released, without
+   * closing the segment.
+   */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
 }
@@ -19,7 +19,9 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Text;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DateFormat;
@@ -62,6 +64,15 @@ class GsaFeedFileMaker {
         }
       };
 
+  /** Length of a group definition, excluding its principals' names. */
+  private static final int MEMBERSHIP_OVERHEAD = ("<membership>\n"
+      + "<principal namespace=\"\" scope=\"GROUP\"></principal>\n"
+      + "<members>\n</members>\n</membership>\n").length();
+  /** Length of a group member, excluding its name and namespace. */
+  private static final int MEMBER_OVERHEAD = ("<principal case-sensitivity-"
+      + "type=\"EVERYTHING_CASE_INSENSITIVE\" namespace=\"\" scope=\"GROUP\">"
+      + "</principal>\n").length();
+
   private final DocIdEncoder idEncoder;
   private final AclTransform aclTransform;
   private final boolean separateClosingRecordTagWorkaround;
@@ -336,83 +347,134 @@ class GsaFeedFileMaker {
     }
   }
 
-  /** Creates single group definition of group principal key and members. */
-  private void constructSingleMembership(Document doc, Element root,
+  /** Writes single group definition of group principal key and members. */
+  private void writeSingleMembership(Writer out,
       GroupPrincipal groupPrincipal, Collection<Principal> members,
-      boolean caseSensitiveMembers) {
+      boolean caseSensitiveMembers) throws IOException {
     groupPrincipal = aclTransform.transform(groupPrincipal);
     members = new TreeSet<Principal>(aclTransform.transform(members));
-    Element groupWithDef = doc.createElement("membership");
-    root.appendChild(groupWithDef);
-    Element groupKey = doc.createElement("principal");
-    groupWithDef.appendChild(groupKey);
-    groupKey.setAttribute("namespace", groupPrincipal.getNamespace());
-    groupKey.setAttribute("scope", "GROUP");
-    groupKey.appendChild(doc.createTextNode(groupPrincipal.getName()));
-    Element groupDef = doc.createElement("members");
-    groupWithDef.appendChild(groupDef);
+    out.write("<membership>\n<principal namespace=\"");
+    writeEscaped(out, groupPrincipal.getNamespace(), true);
+    out.write("\" scope=\"GROUP\">");
+    writeEscaped(out, groupPrincipal.getName(), false);
+    out.write("</principal>\n");
+    if (members.isEmpty()) {
+      out.write("<members/>\n</membership>\n");
+      return;
+    }
+    out.write("<members>\n");
+    String caseSensitivity = caseSensitiveMembers
+        ? "EVERYTHING_CASE_SENSITIVE" : "EVERYTHING_CASE_INSENSITIVE";
     for (Principal member : members) {
-      Element groupDefElement = doc.createElement("principal");
-      groupDefElement.setAttribute("namespace", member.getNamespace());
-      String scope = member.isUser() ? "USER" : "GROUP";
-      groupDefElement.setAttribute("scope", scope);
-      if (caseSensitiveMembers) {
-        groupDefElement.setAttribute(
-            "case-sensitivity-type", "EVERYTHING_CASE_SENSITIVE");
-      } else {
-        groupDefElement.setAttribute(
-            "case-sensitivity-type", "EVERYTHING_CASE_INSENSITIVE");
-      }
-      groupDefElement.appendChild(doc.createTextNode(member.getName()));
-      groupDef.appendChild(groupDefElement);
+      out.write("<principal case-sensitivity-type=\"");
+      out.write(caseSensitivity);
+      out.write("\" namespace=\"");
+      writeEscaped(out, member.getNamespace(), true);
+      out.write(member.isUser() ? "\" scope=\"USER\">" : "\" scope=\"GROUP\">");
+      writeEscaped(out, member.getName(), false);
+      out.write("</principal>\n");
     }
+    out.write("</members>\n</membership>\n");
   }
 
-  /** Adds all the groups' definitions into body. */
-  private <T extends Collection<Principal>> void
-      constructGroupDefinitionsFileBody(Document doc, Element root,
-      Collection<Map.Entry<GroupPrincipal, T>> items,
-      boolean caseSensitiveMembers) {
-    for (Map.Entry<GroupPrincipal, T> group : items) {
-      constructSingleMembership(doc, root, group.getKey(), group.getValue(),
-          caseSensitiveMembers);
+  /**
+   * Writes {@code s} as XML character data, escaping the same characters as
+   * the DOM serializer used for the other feeds.
+   */
+  private static void writeEscaped(Writer out, String s, boolean attribute)
+      throws IOException {
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      String escaped;
+      char c = s.charAt(i);
+      switch (c) {
+        case '&':
+          escaped = "&amp;";
+          break;
+        case '<':
+          escaped = "&lt;";
+          break;
+        case '>':
+          escaped = "&gt;";
+          break;
+        case '"':
+          escaped = attribute ? "&quot;" : null;
+          break;
+        case '\r':
+          escaped = "&#13;";
+          break;
+        case '\n':
+          escaped = attribute ? "&#10;" : null;
+          break;
+        case '\t':
+          escaped = attribute ? "&#9;" : null;
+          break;
+        default:
+          escaped = null;
+          break;
+      }
+      if (escaped != null) {
+        out.write(s, start, i - start);
+        out.write(escaped);
+        start = i + 1;
+      }
     }
+    out.write(s, start, s.length() - start);
   }
 
-  /** Puts all groups' definitions into document. */
-  private <T extends Collection<Principal>> void
-      constructGroupDefinitionsFeedFile(Document doc,
-      Collection<Map.Entry<GroupPrincipal, T>> items,
-      boolean caseSensitiveMembers) {
-    Element root = doc.createElement("xmlgroups");
-    doc.appendChild(root);
+  // This and all the methods it calls with things from 'items' requires the
+  // parameter T even though ? would normally suffice. See comment in
+  // DocIdSender to learn about the Java limitation causing the need for T.
+  /**
+   * Writes feed file with groups and their definitions to {@code out}, one
+   * group at a time. Unlike the other feeds, no DOM is built, so memory use
+   * does not grow with the number of members.
+   */
+  public <T extends Collection<Principal>> void writeGroupDefinitionsXml(
+      Writer out, Collection<Map.Entry<GroupPrincipal, T>> items,
+      boolean caseSensitiveMembers) throws IOException {
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"
+        + "\n<!DOCTYPE xmlgroups PUBLIC \"-//Google//DTD GSA Feeds//EN\" \"\">"
+        + "\n<xmlgroups>\n");
     for (String commentString : commentsForFeed) {
-      Comment comment = doc.createComment(commentString);
-      root.appendChild(comment);
+      out.write("<!--");
+      out.write(commentString);
+      out.write("-->\n");
     }
-    constructGroupDefinitionsFileBody(doc, root, items, caseSensitiveMembers);
+    for (Map.Entry<GroupPrincipal, T> group : items) {
+      writeSingleMembership(out, group.getKey(), group.getValue(),
+          caseSensitiveMembers);
+    }
+    out.write("</xmlgroups>\n");
   }
 
-  // This and all the methods it calls with things from 'items' requires the
-  // parameter T even though ? would normally suffice. See comment in
-  // DocIdSender to learn about the Java limitation causing the need for T.
   /** Makes feed file with groups and their definitions. */
   public <T extends Collection<Principal>> String makeGroupDefinitionsXml(
       Collection<Map.Entry<GroupPrincipal, T>> items,
       boolean caseSensitiveMembers) {
+    StringWriter sw = new StringWriter();
     try {
-      DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
-      DocumentBuilder docBuilder = dbfac.newDocumentBuilder();
-      Document doc = docBuilder.newDocument();
-      constructGroupDefinitionsFeedFile(doc, items, caseSensitiveMembers);
-      String xmlString = documentToString(doc); 
-      return xmlString;
-    } catch (TransformerConfigurationException tce) {
-      throw new IllegalStateException(tce);
-    } catch (TransformerException te) {
-      throw new IllegalStateException(te);
-    } catch (ParserConfigurationException pce) {
-      throw new IllegalStateException(pce);
+      writeGroupDefinitionsXml(sw, items, caseSensitiveMembers);
+    } catch (IOException ex) {
+      // StringWriter does not throw IOException.
+      throw new IllegalStateException(ex);
+    }
+    return sw.toString();
+  }
+
+  /**
+   * Estimates the number of characters the definition of {@code group} adds
+   * to a group definitions feed file, without escaping or transforming the
+   * principals. Used to size batches before making the feed file.
+   */
+  public long estimateGroupDefinitionLength(GroupPrincipal group,
+      Collection<Principal> members) {
+    long length = MEMBERSHIP_OVERHEAD + group.getNamespace().length()
+        + group.getName().length();
+    for (Principal member : members) {
+      length += MEMBER_OVERHEAD + member.getNamespace().length()
+          + member.getName().length();
     }
+    return length;
   }
 }
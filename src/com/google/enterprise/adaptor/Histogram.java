@@ -0,0 +1,126 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.Arrays;
+
+/**
+ * Counts non-negative values in log-linear buckets, to estimate percentiles
+ * using a small, fixed amount of memory.
+ *
+ * <p>Values below {@code 2^SUB_BUCKET_BITS} are counted exactly. Larger
+ * values share a bucket with values that have the same {@code
+ * SUB_BUCKET_BITS} most significant bits, so each bucket spans at most 1/16th
+ * of its values, in the style of HdrHistogram. Percentiles are reported as the
+ * largest value of the bucket they fall in, so they overstate the true value
+ * by less than 6.25%. Values larger than {@link #MAX_VALUE} are counted as
+ * {@code MAX_VALUE}.
+ *
+ * <p>Recording does not allocate. Histograms may be merged with {@link
+ * #add}. This class is not thread-safe.
+ */
+class Histogram implements Cloneable {
+  /** Number of significant bits kept for each value. */
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int HALF_SUB_BUCKET_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+  /** Largest value that is counted distinctly, about 35 years in ms. */
+  static final long MAX_VALUE = (1L << 40) - 1;
+  private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+  private int[] counts = new int[BUCKET_COUNT];
+  private long totalCount;
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    counts[bucketIndex(value)]++;
+    totalCount++;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * Returns the value that {@code percentile} percent of the recorded values
+   * are less than or equal to, to within the bucket resolution, or zero if
+   * nothing was recorded.
+   *
+   * @param percentile between 0 and 100
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be from 0 to 100");
+    }
+    if (totalCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return highestValueInBucket(i);
+      }
+    }
+    throw new AssertionError();
+  }
+
+  /** Adds the values recorded in {@code other} to this histogram. */
+  public void add(Histogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+  }
+
+  @Override
+  public Histogram clone() {
+    Histogram histogram;
+    try {
+      histogram = (Histogram) super.clone();
+    } catch (CloneNotSupportedException ex) {
+      throw new AssertionError();
+    }
+    histogram.counts = counts.clone();
+    return histogram;
+  }
+
+  private static int bucketIndex(long value) {
+    if (value < 2 * HALF_SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // Drop all but the SUB_BUCKET_BITS most significant bits.
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+  }
+
+  private static long highestValueInBucket(int index) {
+    if (index < 2 * HALF_SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+    long mantissa = index - shift * HALF_SUB_BUCKET_COUNT;
+    return ((mantissa + 1) << shift) - 1;
+  }
+}
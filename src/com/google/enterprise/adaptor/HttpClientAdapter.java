@@ -1,17 +1,3 @@
-// Copyright 2011 Google Inc. All Rights Reserved.
-//
-// Licensed under the Apache License, Version 2.0 (the "License");
-// you may not use this file except in compliance with the License.
-// You may obtain a copy of the License at
-//
-//      http://www.apache.org/licenses/LICENSE-2.0
-//
-// Unless required by applicable law or agreed to in writing, software
-// distributed under the License is distributed on an "AS IS" BASIS,
-// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-// See the License for the specific language governing permissions and
-// limitations under the License.
-
 package com.google.enterprise.adaptor;
 
 import com.google.common.collect.ListMultimap;
@@ -29,13 +15,79 @@ import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * Allows communicating with HTTP servers.
+ *
+ * <p>Connections are kept alive and reused by {@link HttpURLConnection}'s
+ * connection cache, which holds up to {@code http.maxConnections} idle
+ * connections per host. For a connection to be reused, the response must be
+ * read completely, which {@link HttpExchange#close} takes care of. All HTTPS
+ * connections use the same {@link SSLSocketFactory}, so that TLS sessions are
+ * resumed instead of performing a full handshake for each new connection.
+ *
+ * <p>This class is thread-safe.
  */
 class HttpClientAdapter implements HttpClientInterface {
+  private static final Logger log
+      = Logger.getLogger(HttpClientAdapter.class.getName());
   private static final String POST_ENCODING = "UTF-8";
 
+  /** Timeout for establishing a connection, or 0 to wait indefinitely. */
+  private final int connectTimeoutMillis;
+  /** Timeout for reading from a connection, or 0 to wait indefinitely. */
+  private final int readTimeoutMillis;
+  /** Maximum concurrent exchanges with each host, or 0 for no limit. */
+  private final int maxConnectionsPerHost;
+  private final SSLSocketFactory sslSocketFactory;
+  /** Permits for exchanges with each host, keyed by scheme, host and port. */
+  private final ConcurrentMap<String, Semaphore> hostPermits
+      = new ConcurrentHashMap<String, Semaphore>();
+  private final AtomicInteger activeExchanges = new AtomicInteger();
+  private final AtomicLong exchangeCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong exchangeMillis = new AtomicLong();
+
+  public HttpClientAdapter() {
+    this(0, 0, 0);
+  }
+
+  /**
+   * @param connectTimeoutMillis timeout for establishing a connection, or 0
+   *     to wait indefinitely
+   * @param readTimeoutMillis timeout for reading from a connection, or 0 to
+   *     wait indefinitely
+   * @param maxConnectionsPerHost maximum number of concurrent exchanges with
+   *     each host, or 0 for no limit. Exchanges wait up to {@code
+   *     connectTimeoutMillis} for one of the others to complete
+   */
+  public HttpClientAdapter(int connectTimeoutMillis, int readTimeoutMillis,
+      int maxConnectionsPerHost) {
+    if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+      throw new IllegalArgumentException("timeouts must not be negative");
+    }
+    if (maxConnectionsPerHost < 0) {
+      throw new IllegalArgumentException(
+          "maxConnectionsPerHost must not be negative");
+    }
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    this.sslSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+  }
+
   @Override
   public HttpExchange postExchange(URL url,
                                    ListMultimap<String, String> parameters) {
@@ -52,7 +104,52 @@ class HttpClientAdapter implements HttpClientInterface {
     return exchange;
   }
 
-  private static class ClientExchange implements HttpExchange {
+  /** Number of exchanges currently in progress. */
+  public int getActiveExchanges() {
+    return activeExchanges.get();
+  }
+
+  /** Number of exchanges that sent a request. */
+  public long getExchangeCount() {
+    return exchangeCount.get();
+  }
+
+  /**
+   * Number of exchanges that failed with an exception or an HTTP error
+   * status, including rejected exchanges.
+   */
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /**
+   * Number of exchanges not attempted because {@code maxConnectionsPerHost}
+   * exchanges with the host were already in progress.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /** Total time spent waiting for responses, in milliseconds. */
+  public long getExchangeMillis() {
+    return exchangeMillis.get();
+  }
+
+  private Semaphore getPermits(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+    Semaphore permits = hostPermits.get(key);
+    if (permits == null) {
+      permits = new Semaphore(maxConnectionsPerHost);
+      Semaphore existing = hostPermits.putIfAbsent(key, permits);
+      if (existing != null) {
+        permits = existing;
+      }
+    }
+    return permits;
+  }
+
+  private class ClientExchange implements HttpExchange {
     private final URL url;
     private final String method;
     private final HttpURLConnection conn;
@@ -61,6 +158,9 @@ class HttpClientAdapter implements HttpClientInterface {
     // Alternates between key and value
     private List<String> parameters = new ArrayList<String>();
     private boolean connected = false;
+    /** Permits held while the exchange is in progress, or {@code null}. */
+    private Semaphore permits;
+    private boolean active;
 
     public ClientExchange(URL url, String method) {
       this.url = url;
@@ -72,6 +172,11 @@ class HttpClientAdapter implements HttpClientInterface {
       }
       conn.setDoOutput(true);
       conn.setDoInput(true);
+      conn.setConnectTimeout(connectTimeoutMillis);
+      conn.setReadTimeout(readTimeoutMillis);
+      if (conn instanceof HttpsURLConnection) {
+        ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+      }
     }
 
     @Override
@@ -161,17 +266,74 @@ class HttpClientAdapter implements HttpClientInterface {
         String formData = sb.substring(0, sb.length() - 1);
         setRequestBody(formData.getBytes(Charset.forName("UTF-8")));
       }
-      conn.connect();
-      connected = true;
-      OutputStream os = conn.getOutputStream();
+      acquire();
+      long startNanos = System.nanoTime();
+      boolean succeeded = false;
       try {
-        if (requestBody != null) {
-          os.write(requestBody);
+        conn.connect();
+        connected = true;
+        OutputStream os = conn.getOutputStream();
+        try {
+          if (requestBody != null) {
+            os.write(requestBody);
+          }
+        } finally {
+          os.close();
         }
+        int status = conn.getResponseCode();
+        succeeded = status < HttpURLConnection.HTTP_BAD_REQUEST;
+        return status;
       } finally {
-        os.close();
+        exchangeCount.incrementAndGet();
+        exchangeMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(
+            System.nanoTime() - startNanos));
+        if (!succeeded) {
+          failureCount.incrementAndGet();
+        }
+      }
+    }
+
+    /**
+     * Waits for the exchange to be allowed to proceed, given the limit on
+     * concurrent exchanges with the host.
+     */
+    private void acquire() throws IOException {
+      if (active) {
+        throw new IllegalStateException("Exchange already performed");
+      }
+      if (maxConnectionsPerHost > 0) {
+        Semaphore hostPermits = getPermits(url);
+        try {
+          if (connectTimeoutMillis == 0) {
+            hostPermits.acquire();
+          } else if (!hostPermits.tryAcquire(connectTimeoutMillis,
+              TimeUnit.MILLISECONDS)) {
+            rejectedCount.incrementAndGet();
+            failureCount.incrementAndGet();
+            throw new IOException("Too many concurrent connections to "
+                + url.getHost());
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for a connection to "
+              + url.getHost(), ex);
+        }
+        permits = hostPermits;
+      }
+      active = true;
+      activeExchanges.incrementAndGet();
+    }
+
+    private void release() {
+      if (!active) {
+        return;
+      }
+      active = false;
+      activeExchanges.decrementAndGet();
+      if (permits != null) {
+        permits.release();
+        permits = null;
       }
-      return conn.getResponseCode();
     }
 
     @Override
@@ -226,14 +388,42 @@ class HttpClientAdapter implements HttpClientInterface {
       }
     }
 
+    /**
+     * Reads any remainder of the response, so that the connection can be
+     * reused, and allows other exchanges with the host to proceed.
+     */
     @Override
     public void close() {
-      if (connected) {
+      try {
+        if (connected) {
+          InputStream is;
+          try {
+            is = conn.getInputStream();
+          } catch (IOException ex) {
+            // Error responses are read from the error stream instead.
+            is = conn.getErrorStream();
+          }
+          if (is != null) {
+            drain(is);
+          }
+        }
+      } finally {
+        release();
+      }
+    }
+
+    private void drain(InputStream is) {
+      try {
         try {
-          conn.getInputStream().close();
-        } catch (IOException ex) {
-          // Ignore.
+          byte[] buf = new byte[1024];
+          while (is.read(buf) != -1) {
+            // Discard.
+          }
+        } finally {
+          is.close();
         }
+      } catch (IOException ex) {
+        log.log(Level.FINE, "Unable to read remainder of response", ex);
       }
     }
   }
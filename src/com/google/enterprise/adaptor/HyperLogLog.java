@@ -0,0 +1,112 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Estimates the number of distinct strings added to it, using a fixed amount
+ * of memory regardless of how many strings are added.
+ *
+ * <p>This is the HyperLogLog algorithm of Flajolet et al. with 64-bit hashes,
+ * using linear counting for small cardinalities. With {@code 2^precision}
+ * registers the relative standard error of {@link #cardinality} is about
+ * {@code 1.04 / sqrt(2^precision)}; with the default precision of 14, that is
+ * 0.81% using 16 KiB. Estimates are within three standard errors, 2.4%, with
+ * over 99% probability.
+ *
+ * <p>This class is not thread-safe.
+ */
+class HyperLogLog {
+  /** Number of index bits used by default. */
+  static final int DEFAULT_PRECISION = 14;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final int precision;
+  /** Highest observed rank for each register. */
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * @param precision number of hash bits used to choose a register, between
+   *     4 and 18 inclusive
+   */
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 18) {
+      throw new IllegalArgumentException("precision must be from 4 to 18");
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  /** Relative standard error of {@link #cardinality}. */
+  public double standardError() {
+    return 1.04 / Math.sqrt(registers.length);
+  }
+
+  public void add(String value) {
+    addHash(HASH.hashString(value).asLong());
+  }
+
+  void addHash(long hash) {
+    int index = (int) (hash >>> (64 - precision));
+    // Set a sentinel bit so the rank is at most 64 - precision + 1.
+    long remaining = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  /** Returns the estimated number of distinct values added. */
+  public long cardinality() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte rank : registers) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // Linear counting is more accurate for small cardinalities.
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Adds all the values added to {@code other} to this sketch. Both sketches
+   * must have the same precision.
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("precisions differ");
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ThreadPoolExecutor} that keeps its own counts of queued and running
+ * tasks in atomic variables. The equivalent methods of {@code
+ * ThreadPoolExecutor} take the pool's lock, which would make anything polling
+ * them, like a metrics scrape, contend with the threads submitting work.
+ */
+class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+
+  public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+      long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue,
+      final RejectedExecutionHandler handler) {
+    super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+    setRejectedExecutionHandler(new RejectedExecutionHandler() {
+      @Override
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        queued.decrementAndGet();
+        rejected.incrementAndGet();
+        handler.rejectedExecution(r, executor);
+      }
+    });
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    // Counted before handing off, so a worker never sees it uncounted.
+    queued.incrementAndGet();
+    super.execute(command);
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r) {
+    queued.decrementAndGet();
+    running.incrementAndGet();
+    super.beforeExecute(t, r);
+  }
+
+  @Override
+  protected void afterExecute(Runnable r, Throwable t) {
+    super.afterExecute(r, t);
+    running.decrementAndGet();
+  }
+
+  /** Returns the number of tasks waiting for a thread. */
+  public int getQueuedTaskCount() {
+    return queued.get();
+  }
+
+  /** Returns the number of threads running tasks. */
+  public int getRunningTaskCount() {
+    return running.get();
+  }
+
+  /** Returns the number of tasks the pool had no room to queue. */
+  public long getRejectedTaskCount() {
+    return rejected.get();
+  }
+}
@@ -16,8 +16,11 @@ package com.google.enterprise.adaptor;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +44,20 @@ class Journal {
   private Map<GroupPrincipal, Integer> groupMembersPushed;
   private long totalGroupMemberPushes; // Sum of values in groupMembersPushed.
 
+  /**
+   * Estimates of the unique counts, used instead of the maps above when
+   * counting approximately. Otherwise {@code null}.
+   */
+  private final HyperLogLog uniqueDocIdsPushed;
+  private final HyperLogLog uniqueGsaRequests;
+  private final HyperLogLog uniqueNonGsaRequests;
+  private final HyperLogLog uniqueGroupsPushed;
+  /**
+   * Most frequently requested documents by the GSA, when counting
+   * approximately. Otherwise {@code null}.
+   */
+  private final FrequencySketch gsaRequestFrequency;
+
   private final TimeProvider timeProvider;
   private final long startedAt;
   /**
@@ -68,6 +85,19 @@ class Journal {
   /** Date in milliseconds. */
   private long lastSuccessfulFullPushEnd;
   private CompletionStatus lastFullPushStatus = CompletionStatus.SUCCESS;
+  /**
+   * Progress of each shard of the current or most recent sharded full push, in
+   * the order provided by the {@link ShardedLister}.
+   */
+  private Map<String, ShardProgress> shardProgress
+      = new LinkedHashMap<String, ShardProgress>();
+
+  /** Feed upload statistics, indexed by {@link FeedScheduler.Lane}. */
+  private final FeedLaneStats[] feedLaneStats
+      = new FeedLaneStats[FeedScheduler.Lane.values().length];
+
+  /** Total time feed uploads were held back by the rate limit. */
+  private long totalFeedThrottleDuration;
 
   private long currentIncrementalPushStart;
   private long lastSuccessfulIncrementalPushStart;
@@ -79,6 +109,22 @@ class Journal {
   private long lastSuccessfulGroupPushEnd;
   private CompletionStatus lastGroupPushStatus = CompletionStatus.SUCCESS;
 
+  /**
+   * Lock-free counterparts of some of the statistics above, which can be read
+   * without contending with the threads recording them.
+   */
+  private final Metrics metrics = new Metrics();
+  private final Metrics.Counter gsaRequestsMetric;
+  private final Metrics.Counter nonGsaRequestsMetric;
+  private final Metrics.Counter requestProcessingsMetric;
+  private final Metrics.Counter requestProcessingFailuresMetric;
+  private final Metrics.Distribution requestDurationsMetric;
+  private final Metrics.Distribution responseSizesMetric;
+  private final Metrics.Counter feedUploadsMetric;
+  private final Metrics.Counter feedUploadFailuresMetric;
+  private final Metrics.Distribution feedBatchSizesMetric;
+  private final Metrics.Distribution feedUploadDurationsMetric;
+
   enum CompletionStatus {
     SUCCESS,
     INTERRUPTION,
@@ -90,7 +136,19 @@ class Journal {
    *     of some statistics being disabled
    */
   public Journal(boolean reducedMem) {
-    this(reducedMem, new SystemTimeProvider());
+    this(reducedMem, false);
+  }
+
+  /**
+   * @param reducedMem whether to use a fixed amount of memory, at the expense
+   *     of some statistics being disabled
+   * @param approximateCounts whether to estimate the statistics disabled by
+   *     {@code reducedMem} using a fixed amount of memory, instead of
+   *     disabling or counting them exactly. Takes precedence over
+   *     {@code reducedMem}
+   */
+  public Journal(boolean reducedMem, boolean approximateCounts) {
+    this(reducedMem, approximateCounts, new SystemTimeProvider());
   }
 
   /**
@@ -101,6 +159,11 @@ class Journal {
   }
 
   protected Journal(boolean reducedMem, TimeProvider timeProvider) {
+    this(reducedMem, false, timeProvider);
+  }
+
+  protected Journal(boolean reducedMem, boolean approximateCounts,
+      TimeProvider timeProvider) {
     this.timeProvider = timeProvider;
     this.startedAt = timeProvider.currentTimeMillis();
     this.timeResolution = determineTimeResolution();
@@ -113,7 +176,25 @@ class Journal {
       new Stats(48, 1000 * 60 * 30, time), /* one day, half-hour granularity */
     };
     this.dayStatsByHalfHour = this.timeStats[this.timeStats.length - 1];
-    if (reducedMem) {
+    for (FeedScheduler.Lane lane : FeedScheduler.Lane.values()) {
+      feedLaneStats[lane.ordinal()] = new FeedLaneStats(lane);
+    }
+    if (approximateCounts) {
+      // About 1.3 MB in total; see HyperLogLog and FrequencySketch for the
+      // error bounds.
+      uniqueDocIdsPushed = new HyperLogLog();
+      uniqueGsaRequests = new HyperLogLog();
+      uniqueNonGsaRequests = new HyperLogLog();
+      uniqueGroupsPushed = new HyperLogLog();
+      gsaRequestFrequency = new FrequencySketch();
+    } else {
+      uniqueDocIdsPushed = null;
+      uniqueGsaRequests = null;
+      uniqueNonGsaRequests = null;
+      uniqueGroupsPushed = null;
+      gsaRequestFrequency = null;
+    }
+    if (reducedMem || approximateCounts) {
       timesPushed = new NegSizeFakeMap<DocId, Integer>();
       timesGsaRequested = new NegSizeFakeMap<DocId, Integer>();
       timesNonGsaRequested = new NegSizeFakeMap<DocId, Integer>();
@@ -126,6 +207,42 @@ class Journal {
       timesGroupPushed = new HashMap<GroupPrincipal, Integer>();
       groupMembersPushed = new HashMap<GroupPrincipal, Integer>();
     }
+    gsaRequestsMetric = metrics.counter("adaptor_gsa_requests_total",
+        "Document requests from the GSA.");
+    nonGsaRequestsMetric = metrics.counter("adaptor_non_gsa_requests_total",
+        "Document requests from clients other than the GSA.");
+    requestProcessingsMetric = metrics.counter("adaptor_requests_total",
+        "Document requests processed, including failures.");
+    requestProcessingFailuresMetric = metrics.counter(
+        "adaptor_request_failures_total",
+        "Document requests whose processing failed.");
+    requestDurationsMetric = metrics.distribution(
+        "adaptor_request_duration_seconds",
+        "Time spent processing document requests.", 1000,
+        5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000);
+    responseSizesMetric = metrics.distribution("adaptor_response_size_bytes",
+        "Size of document responses.", 1,
+        1 << 10, 10 << 10, 100 << 10, 1 << 20, 10 << 20, 100 << 20, 1 << 30);
+    feedUploadsMetric = metrics.counter("adaptor_feed_uploads_total",
+        "Feed upload attempts, including failures.");
+    feedUploadFailuresMetric = metrics.counter(
+        "adaptor_feed_upload_failures_total",
+        "Feed upload attempts that failed.");
+    feedBatchSizesMetric = metrics.distribution("adaptor_feed_batch_size",
+        "Number of records or groups in each feed upload attempt.", 1,
+        1, 10, 50, 100, 500, 1000, 5000, 10000, 50000);
+    feedUploadDurationsMetric = metrics.distribution(
+        "adaptor_feed_upload_duration_seconds",
+        "Time spent uploading feeds to the GSA.", 1000,
+        50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000);
+  }
+
+  /**
+   * Returns the lock-free metrics maintained by this journal. Other components
+   * may register additional metrics with it.
+   */
+  Metrics getMetrics() {
+    return metrics;
   }
 
   synchronized void recordDocIdPush(List<? extends DocIdSender.Item> pushed) {
@@ -133,6 +250,9 @@ class Journal {
       if (item instanceof DocIdPusher.Record) {
         DocIdPusher.Record record = (DocIdPusher.Record) item;
         increment(timesPushed, record.getDocId());
+        if (uniqueDocIdsPushed != null) {
+          uniqueDocIdsPushed.add(record.getDocId().getUniqueId());
+        }
       } else if (item instanceof DocIdSender.AclItem) {
         // Don't record any information.
       } else {
@@ -152,6 +272,9 @@ class Journal {
     for (Map.Entry<GroupPrincipal, T> item : pushed) {
       groupIncrement(timesGroupPushed, item.getKey(), 1);
       groupIncrement(groupMembersPushed, item.getKey(), item.getValue().size());
+      if (uniqueGroupsPushed != null) {
+        uniqueGroupsPushed.add(item.getKey().toString());
+      }
       numberOfGroupsPushed++;
       numberOfMembersPushed += item.getValue().size();
     }
@@ -226,8 +349,13 @@ class Journal {
 
   void recordGsaContentRequest(DocId docId) {
     long time = timeProvider.currentTimeMillis();
+    gsaRequestsMetric.increment();
     synchronized (this) {
       increment(timesGsaRequested, docId);
+      if (uniqueGsaRequests != null) {
+        uniqueGsaRequests.add(docId.getUniqueId());
+        gsaRequestFrequency.add(docId.getUniqueId());
+      }
       totalGsaRequests++;
       for (Stats stats : timeStats) {
         Stat stat = stats.getCurrentStat(time);
@@ -236,9 +364,15 @@ class Journal {
     }
   }
 
-  synchronized void recordNonGsaContentRequest(DocId requested) {
-    increment(timesNonGsaRequested, requested); 
-    totalNonGsaRequests++;
+  void recordNonGsaContentRequest(DocId requested) {
+    nonGsaRequestsMetric.increment();
+    synchronized (this) {
+      increment(timesNonGsaRequested, requested);
+      if (uniqueNonGsaRequests != null) {
+        uniqueNonGsaRequests.add(requested.getUniqueId());
+      }
+      totalNonGsaRequests++;
+    }
   }
 
   /**
@@ -259,6 +393,9 @@ class Journal {
 
   private void recordRequestProcessingEnd(long responseSize, long time) {
     long duration = endDuration(requestProcessingStart, time);
+    requestProcessingsMetric.increment();
+    requestDurationsMetric.observe(duration);
+    responseSizesMetric.observe(responseSize);
     synchronized (this) {
       for (Stats stats : timeStats) {
         Stat stat = stats.getCurrentStat(time);
@@ -267,6 +404,8 @@ class Journal {
         stat.requestProcessingsMaxDuration = Math.max(
             stat.requestProcessingsMaxDuration, duration);
         stat.requestProcessingsThroughput += responseSize;
+        stat.requestProcessingsDurations.record(duration);
+        stat.responseSizes.record(responseSize);
       }
     }
   }
@@ -277,6 +416,7 @@ class Journal {
    */
   void recordRequestProcessingFailure() {
     long time = timeProvider.currentTimeMillis();
+    requestProcessingFailuresMetric.increment();
     synchronized (this) {
       recordRequestProcessingEnd(0, time);
       for (Stats stats : timeStats) {
@@ -379,6 +519,126 @@ class Journal {
     return lastFullPushStatus;
   }
 
+  /**
+   * Record the shards that make up the current full push, forgetting the
+   * shards of any previous full push.
+   */
+  synchronized void recordListingShards(Collection<String> names) {
+    shardProgress.clear();
+    for (String name : names) {
+      shardProgress.put(name, new ShardProgress(name));
+    }
+  }
+
+  /**
+   * Record that an attempt to list the named shard has started.
+   */
+  void recordShardAttemptStarted(String name) {
+    long time = timeProvider.currentTimeMillis();
+    synchronized (this) {
+      ShardProgress progress = getShardProgress(name);
+      if (progress.attempts == 0) {
+        progress.startTime = time;
+      }
+      progress.attempts++;
+      progress.status = null;
+    }
+  }
+
+  /**
+   * Record that the named shard successfully pushed {@code count} records.
+   */
+  synchronized void recordShardRecordsPushed(String name, int count) {
+    getShardProgress(name).recordsPushed += count;
+  }
+
+  /**
+   * Record that the named shard will not be retried, because it completed
+   * successfully, failed, or was interrupted.
+   */
+  void recordShardCompleted(String name, CompletionStatus status) {
+    long time = timeProvider.currentTimeMillis();
+    synchronized (this) {
+      ShardProgress progress = getShardProgress(name);
+      progress.status = status;
+      progress.endTime = time;
+    }
+  }
+
+  private ShardProgress getShardProgress(String name) {
+    ShardProgress progress = shardProgress.get(name);
+    if (progress == null) {
+      throw new IllegalArgumentException("Unknown shard: " + name);
+    }
+    return progress;
+  }
+
+  /**
+   * Record that a feed upload was held back for {@code throttleMillis} by the
+   * feed rate limit.
+   */
+  synchronized void recordFeedThrottled(long throttleMillis) {
+    long time = timeProvider.currentTimeMillis();
+    totalFeedThrottleDuration += throttleMillis;
+    for (Stats stats : timeStats) {
+      Stat stat = stats.getCurrentStat(time);
+      stat.feedThrottleDuration += throttleMillis;
+    }
+  }
+
+  /**
+   * Record an attempt to upload a feed of {@code numItems} records or groups,
+   * which took {@code durationMillis}.
+   */
+  void recordFeedUpload(int numItems, long durationMillis, boolean success) {
+    feedUploadsMetric.increment();
+    if (!success) {
+      feedUploadFailuresMetric.increment();
+    }
+    feedBatchSizesMetric.observe(numItems);
+    feedUploadDurationsMetric.observe(durationMillis);
+  }
+
+  /**
+   * Record that a feed upload is waiting for a slot in {@code lane}.
+   */
+  synchronized void recordFeedLaneQueued(FeedScheduler.Lane lane) {
+    feedLaneStats[lane.ordinal()].queueDepth++;
+  }
+
+  /**
+   * Record that a feed upload gave up waiting for a slot in {@code lane}.
+   */
+  synchronized void recordFeedLaneAbandoned(FeedScheduler.Lane lane) {
+    feedLaneStats[lane.ordinal()].queueDepth--;
+  }
+
+  /**
+   * Record that a feed upload in {@code lane} was granted a slot after waiting
+   * {@code waitMillis}.
+   */
+  synchronized void recordFeedLaneStarted(FeedScheduler.Lane lane,
+      long waitMillis) {
+    FeedLaneStats stats = feedLaneStats[lane.ordinal()];
+    stats.queueDepth--;
+    stats.uploading++;
+    stats.uploads++;
+    stats.waitDurationSum += waitMillis;
+    stats.maxWaitDuration = Math.max(stats.maxWaitDuration, waitMillis);
+  }
+
+  /**
+   * Record that a feed upload in {@code lane} released its slot after
+   * {@code uploadMillis}.
+   */
+  synchronized void recordFeedLaneFinished(FeedScheduler.Lane lane,
+      long uploadMillis) {
+    FeedLaneStats stats = feedLaneStats[lane.ordinal()];
+    stats.uploading--;
+    stats.uploadDurationSum += uploadMillis;
+    stats.maxUploadDuration = Math.max(stats.maxUploadDuration, uploadMillis);
+  }
+
   /**
    * Record that an incremental push has started.
    */
@@ -497,6 +757,13 @@ class Journal {
     final long numTotalGsaRequests;
     final long numUniqueNonGsaRequests;
     final long numTotalNonGsaRequests;
+    /** Whether the numUnique* counts are estimates. */
+    final boolean uniqueCountsApproximate;
+    /**
+     * Estimated request counts of the documents most requested by the GSA,
+     * most requested first. Empty unless counts are approximate.
+     */
+    final Map<String, Long> topGsaRequests;
     final long whenStarted;
     final long currentTime;
     final long timeResolution;
@@ -509,18 +776,32 @@ class Journal {
     final long lastSuccessfulGroupPushStart;
     final long lastSuccessfulGroupPushEnd;
     final long currentGroupPushStart;
+    final long totalFeedThrottleDuration;
+    final List<ShardProgress> shardProgress;
+    final FeedLaneStats[] feedLaneStats;
     final Stats[] timeStats;
 
     @VisibleForTesting
     JournalSnapshot(Journal journal, long currentTime, Stats[] timeStatsClone) {
-      this.numUniqueDocIdsPushed = journal.timesPushed.size();
+      this.uniqueCountsApproximate = journal.gsaRequestFrequency != null;
+      if (uniqueCountsApproximate) {
+        this.numUniqueDocIdsPushed = journal.uniqueDocIdsPushed.cardinality();
+        this.numUniqueGroupsPushed = journal.uniqueGroupsPushed.cardinality();
+        this.numUniqueGsaRequests = journal.uniqueGsaRequests.cardinality();
+        this.numUniqueNonGsaRequests
+            = journal.uniqueNonGsaRequests.cardinality();
+        this.topGsaRequests = journal.gsaRequestFrequency.getTop();
+      } else {
+        this.numUniqueDocIdsPushed = journal.timesPushed.size();
+        this.numUniqueGroupsPushed = journal.timesGroupPushed.size();
+        this.numUniqueGsaRequests = journal.timesGsaRequested.size();
+        this.numUniqueNonGsaRequests = journal.timesNonGsaRequested.size();
+        this.topGsaRequests = Collections.emptyMap();
+      }
       this.numTotalDocIdsPushed = journal.totalPushes;
-      this.numUniqueGroupsPushed = journal.timesGroupPushed.size();
       this.numTotalGroupsPushed = journal.totalGroupPushes;
       this.numTotalGroupMembersPushed = journal.totalGroupMemberPushes;
-      this.numUniqueGsaRequests = journal.timesGsaRequested.size();
       this.numTotalGsaRequests = journal.totalGsaRequests;
-      this.numUniqueNonGsaRequests = journal.timesNonGsaRequested.size();
       this.numTotalNonGsaRequests = journal.totalNonGsaRequests;
       this.timeResolution = journal.timeResolution;
       this.lastSuccessfulFullPushStart = journal.lastSuccessfulFullPushStart;
@@ -534,6 +815,17 @@ class Journal {
       this.lastSuccessfulGroupPushStart = journal.lastSuccessfulGroupPushStart;
       this.lastSuccessfulGroupPushEnd = journal.lastSuccessfulGroupPushEnd;
       this.currentGroupPushStart = journal.currentGroupPushStart;
+      this.totalFeedThrottleDuration = journal.totalFeedThrottleDuration;
+      List<ShardProgress> shardProgressClone
+          = new ArrayList<ShardProgress>(journal.shardProgress.size());
+      for (ShardProgress progress : journal.shardProgress.values()) {
+        shardProgressClone.add(progress.clone());
+      }
+      this.shardProgress = shardProgressClone;
+      this.feedLaneStats = new FeedLaneStats[journal.feedLaneStats.length];
+      for (int i = 0; i < feedLaneStats.length; i++) {
+        this.feedLaneStats[i] = journal.feedLaneStats[i].clone();
+      }
       this.whenStarted = journal.startedAt;
       this.currentTime = currentTime;
       this.timeStats = timeStatsClone;
@@ -661,6 +953,18 @@ class Journal {
      * Sum of number of members in all groups pushed by the adaptor.
      */
     long membersPushed;
+    /**
+     * Time feed uploads were held back by the feed rate limit.
+     */
+    long feedThrottleDuration;
+    /**
+     * Distribution of response processing durations, in milliseconds.
+     */
+    Histogram requestProcessingsDurations = new Histogram();
+    /**
+     * Distribution of response sizes, in bytes.
+     */
+    Histogram responseSizes = new Histogram();
 
     public Stat() {
       reset();
@@ -678,11 +982,84 @@ class Journal {
       gsaRetrievedDocument = false;
       groupsPushed = 0;
       membersPushed = 0;
+      feedThrottleDuration = 0;
+      requestProcessingsDurations.reset();
+      responseSizes.reset();
     }
 
     public Stat clone() {
+      Stat statClone;
+      try {
+        statClone = (Stat) super.clone();
+      } catch (CloneNotSupportedException ex) {
+        throw new AssertionError();
+      }
+      statClone.requestProcessingsDurations
+          = requestProcessingsDurations.clone();
+      statClone.responseSizes = responseSizes.clone();
+      return statClone;
+    }
+  }
+
+  /**
+   * Progress of a single {@link ShardedLister.Shard} during a full push.
+   */
+  static class ShardProgress implements Cloneable {
+    final String name;
+    /**
+     * How the shard completed, or {@code null} if it is pending or running.
+     */
+    CompletionStatus status;
+    /** Number of times listing the shard has been started. */
+    int attempts;
+    /** Records pushed by the shard, over all attempts. */
+    long recordsPushed;
+    /** Date in milliseconds the first attempt started. */
+    long startTime;
+    /** Date in milliseconds the shard completed. */
+    long endTime;
+
+    ShardProgress(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public ShardProgress clone() {
+      try {
+        return (ShardProgress) super.clone();
+      } catch (CloneNotSupportedException ex) {
+        throw new AssertionError();
+      }
+    }
+  }
+
+  /**
+   * Feed upload statistics for a single {@link FeedScheduler.Lane}, since the
+   * program started.
+   */
+  static class FeedLaneStats implements Cloneable {
+    final FeedScheduler.Lane lane;
+    /** Number of uploads currently waiting for a slot. */
+    int queueDepth;
+    /** Number of uploads currently holding a slot. */
+    int uploading;
+    /** Number of uploads granted a slot. */
+    long uploads;
+    /** Total time spent waiting for a slot, in milliseconds. */
+    long waitDurationSum;
+    long maxWaitDuration;
+    /** Total time slots were held, in milliseconds. */
+    long uploadDurationSum;
+    long maxUploadDuration;
+
+    FeedLaneStats(FeedScheduler.Lane lane) {
+      this.lane = lane;
+    }
+
+    @Override
+    public FeedLaneStats clone() {
       try {
-        return (Stat) super.clone();
+        return (FeedLaneStats) super.clone();
       } catch (CloneNotSupportedException ex) {
         throw new AssertionError();
       }
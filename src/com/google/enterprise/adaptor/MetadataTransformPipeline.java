@@ -66,11 +66,18 @@ class MetadataTransformPipeline {
 
     for (int i = 0; i < transformList.size(); i++) {
       MetadataTransform transform = transformList.get(i);
+      FlightRecorderEvents.Event event
+          = FlightRecorderEvents.TRANSFORM.begin();
+      long start = event.isRecording() ? System.nanoTime() : 0;
       try {
         transform.transform(metadataInTransit, paramsInTransit);
       } catch (RuntimeException e) {
         throw new RuntimeException(
             "Exception during transform " + names.get(i), e);
+      } finally {
+        if (event.isRecording()) {
+          event.commit("metadata", names.get(i), System.nanoTime() - start);
+        }
       }
     }
 
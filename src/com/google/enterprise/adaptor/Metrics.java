@@ -0,0 +1,295 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of named counters, gauges and histograms that can be written out in
+ * the Prometheus text exposition format.
+ *
+ * <p>All values are kept in atomic variables or read through {@link Gauge}s
+ * that must not block, so writing out the metrics never contends with the
+ * threads updating them. As a consequence, the values written out are not a
+ * consistent snapshot; for example, the sum of a histogram may include an
+ * observation that its buckets do not yet.
+ *
+ * <p>This class is thread-safe.
+ */
+class Metrics {
+  /** Content type of {@link #writeTo}'s output. */
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final Pattern VALID_NAME
+      = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+  /** Metrics by name, so that output is in a stable order. */
+  private final ConcurrentMap<String, Metric> metrics
+      = new ConcurrentSkipListMap<String, Metric>();
+
+  /**
+   * Returns the counter named {@code name}, creating it if necessary.
+   *
+   * @throws IllegalArgumentException if a different kind of metric is already
+   *     registered with the name
+   */
+  public Counter counter(String name, String help) {
+    return register(new CounterMetric(name, help, new Counter())).counter;
+  }
+
+  /**
+   * Registers a counter whose value is read from {@code value}, which must
+   * never decrease. Replaces any counter previously registered this way with
+   * the name, so that restarted components can register again.
+   */
+  public void counter(String name, String help, Gauge value) {
+    register(new GaugeMetric(name, help, "counter", value));
+  }
+
+  /**
+   * Registers a gauge whose value is read from {@code value}. Replaces any
+   * gauge previously registered with the name.
+   */
+  public void gauge(String name, String help, Gauge value) {
+    register(new GaugeMetric(name, help, "gauge", value));
+  }
+
+  /**
+   * Returns the histogram named {@code name}, creating it if necessary.
+   * Observations are recorded in integral units, such as milliseconds, and
+   * divided by {@code scale} when written out, so that they can be reported in
+   * base units, such as seconds.
+   *
+   * @param upperBounds inclusive upper bounds of the buckets, in increasing
+   *     order, in the units of the observations
+   */
+  public Distribution distribution(String name, String help, double scale,
+      long... upperBounds) {
+    return register(new DistributionMetric(name, help,
+        new Distribution(scale, upperBounds))).distribution;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Metric> T register(T metric) {
+    while (true) {
+      Metric existing = metrics.putIfAbsent(metric.name, metric);
+      if (existing == null) {
+        return metric;
+      }
+      if (existing.getClass() != metric.getClass()
+          || !existing.type.equals(metric.type)) {
+        throw new IllegalArgumentException(
+            "Metric already registered: " + metric.name);
+      }
+      if (!(metric instanceof GaugeMetric)) {
+        return (T) existing;
+      }
+      if (metrics.replace(metric.name, existing, metric)) {
+        return metric;
+      }
+    }
+  }
+
+  /** Writes all metrics in the Prometheus text exposition format. */
+  public void writeTo(Writer writer) throws IOException {
+    for (Metric metric : metrics.values()) {
+      writer.write("# HELP ");
+      writer.write(metric.name);
+      writer.write(' ');
+      writer.write(escapeHelp(metric.help));
+      writer.write("\n# TYPE ");
+      writer.write(metric.name);
+      writer.write(' ');
+      writer.write(metric.type);
+      writer.write('\n');
+      metric.writeSamples(writer);
+    }
+  }
+
+  private static String escapeHelp(String help) {
+    return help.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+
+  private static String format(long value, double scale) {
+    if (scale == 1) {
+      return Long.toString(value);
+    }
+    return Double.toString(value / scale);
+  }
+
+  /** Source of a value that can be read without blocking. */
+  interface Gauge {
+    long getValue();
+  }
+
+  /** Monotonically increasing count. */
+  static final class Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+      value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+      if (delta < 0) {
+        throw new IllegalArgumentException("counters must not decrease");
+      }
+      value.addAndGet(delta);
+    }
+
+    public long get() {
+      return value.get();
+    }
+  }
+
+  /** Counts of observations in fixed buckets, plus their sum. */
+  static final class Distribution {
+    private final double scale;
+    private final long[] upperBounds;
+    /** Non-cumulative counts; the last is for values above all bounds. */
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+
+    Distribution(double scale, long[] upperBounds) {
+      if (!(scale > 0)) {
+        throw new IllegalArgumentException("scale must be positive");
+      }
+      for (int i = 1; i < upperBounds.length; i++) {
+        if (upperBounds[i] <= upperBounds[i - 1]) {
+          throw new IllegalArgumentException("bounds must be increasing");
+        }
+      }
+      this.scale = scale;
+      this.upperBounds = upperBounds.clone();
+      this.counts = new AtomicLongArray(upperBounds.length + 1);
+    }
+
+    public void observe(long value) {
+      int index = 0;
+      while (index < upperBounds.length && value > upperBounds[index]) {
+        index++;
+      }
+      counts.incrementAndGet(index);
+      sum.addAndGet(value);
+    }
+
+    public long getCount() {
+      long total = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        total += counts.get(i);
+      }
+      return total;
+    }
+
+    public long getSum() {
+      return sum.get();
+    }
+  }
+
+  private abstract static class Metric {
+    final String name;
+    final String help;
+    final String type;
+
+    Metric(String name, String help, String type) {
+      if (!VALID_NAME.matcher(name).matches()) {
+        throw new IllegalArgumentException("Invalid metric name: " + name);
+      }
+      if (help == null) {
+        throw new NullPointerException();
+      }
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    abstract void writeSamples(Writer writer) throws IOException;
+
+    void writeSample(Writer writer, String suffix, String labels,
+        String value) throws IOException {
+      writer.write(name);
+      writer.write(suffix);
+      writer.write(labels);
+      writer.write(' ');
+      writer.write(value);
+      writer.write('\n');
+    }
+  }
+
+  private static class CounterMetric extends Metric {
+    final Counter counter;
+
+    CounterMetric(String name, String help, Counter counter) {
+      super(name, help, "counter");
+      this.counter = counter;
+    }
+
+    @Override
+    void writeSamples(Writer writer) throws IOException {
+      writeSample(writer, "", "", Long.toString(counter.get()));
+    }
+  }
+
+  private static class GaugeMetric extends Metric {
+    final Gauge gauge;
+
+    GaugeMetric(String name, String help, String type, Gauge gauge) {
+      super(name, help, type);
+      if (gauge == null) {
+        throw new NullPointerException();
+      }
+      this.gauge = gauge;
+    }
+
+    @Override
+    void writeSamples(Writer writer) throws IOException {
+      writeSample(writer, "", "", Long.toString(gauge.getValue()));
+    }
+  }
+
+  private static class DistributionMetric extends Metric {
+    final Distribution distribution;
+
+    DistributionMetric(String name, String help, Distribution distribution) {
+      super(name, help, "histogram");
+      this.distribution = distribution;
+    }
+
+    @Override
+    void writeSamples(Writer writer) throws IOException {
+      Distribution d = distribution;
+      // Buckets are cumulative in the exposition format.
+      long cumulative = 0;
+      for (int i = 0; i < d.upperBounds.length; i++) {
+        cumulative += d.counts.get(i);
+        writeSample(writer, "_bucket",
+            "{le=\"" + format(d.upperBounds[i], d.scale) + "\"}",
+            Long.toString(cumulative));
+      }
+      cumulative += d.counts.get(d.upperBounds.length);
+      writeSample(writer, "_bucket", "{le=\"+Inf\"}",
+          Long.toString(cumulative));
+      writeSample(writer, "_sum", "", format(d.getSum(), d.scale));
+      // Use the buckets' total so that _count agrees with the +Inf bucket.
+      writeSample(writer, "_count", "", Long.toString(cumulative));
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves {@link Metrics} in the Prometheus text format. Requests are not
+ * authenticated, but may be restricted to a set of hosts.
+ */
+class MetricsHandler implements HttpHandler {
+  private static final Logger log
+      = Logger.getLogger(MetricsHandler.class.getName());
+
+  private final Charset charset = Charset.forName("UTF-8");
+  private final Metrics metrics;
+  private final Set<InetAddress> allowedAddresses = new HashSet<InetAddress>();
+  private final List<CidrAddress> allowedRanges = new ArrayList<CidrAddress>();
+  /** Whether any host may read the metrics. */
+  private final boolean allowAll;
+
+  /**
+   * @param allowedHosts hostnames, IPs and CIDR ranges allowed to read the
+   *     metrics; if there are none, any host is allowed
+   */
+  public MetricsHandler(Metrics metrics, String[] allowedHosts) {
+    if (metrics == null) {
+      throw new NullPointerException();
+    }
+    this.metrics = metrics;
+    boolean anyHosts = false;
+    for (String hostname : allowedHosts) {
+      hostname = hostname.trim();
+      if ("".equals(hostname)) {
+        continue;
+      }
+      anyHosts = true;
+      try {
+        int index = hostname.indexOf("/");
+        if (index > 0) {
+          InetAddress address
+              = InetAddress.getByName(hostname.substring(0, index));
+          int maskLength = Integer.parseInt(hostname.substring(index + 1));
+          allowedRanges.add(new CidrAddress(address, maskLength));
+        } else {
+          allowedAddresses.addAll(
+              Arrays.asList(InetAddress.getAllByName(hostname)));
+        }
+      } catch (UnknownHostException ex) {
+        log.log(Level.WARNING, "Could not resolve hostname. Not adding it to "
+            + "list of IPs allowed to read metrics: " + hostname, ex);
+      }
+    }
+    // Hosts that fail to resolve still restrict access, rather than
+    // accidentally opening it to everyone.
+    this.allowAll = !anyHosts;
+  }
+
+  @Override
+  public void handle(HttpExchange ex) throws IOException {
+    String method = ex.getRequestMethod();
+    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+      HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_BAD_METHOD,
+          Translation.HTTP_BAD_METHOD);
+      return;
+    }
+    if (!ex.getRequestURI().getPath().equals(ex.getHttpContext().getPath())) {
+      HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_NOT_FOUND,
+          Translation.HTTP_NOT_FOUND);
+      return;
+    }
+    if (!isAllowed(ex.getRemoteAddress().getAddress())) {
+      log.log(Level.FINE, "Denying metrics to {0}", ex.getRemoteAddress());
+      HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_FORBIDDEN,
+          Translation.HTTP_FORBIDDEN);
+      return;
+    }
+    if ("HEAD".equals(method)) {
+      HttpExchanges.respondToHead(ex, HttpURLConnection.HTTP_OK,
+          Metrics.CONTENT_TYPE);
+      return;
+    }
+    StringWriter writer = new StringWriter();
+    metrics.writeTo(writer);
+    HttpExchanges.respond(ex, HttpURLConnection.HTTP_OK, Metrics.CONTENT_TYPE,
+        writer.toString().getBytes(charset));
+  }
+
+  private boolean isAllowed(InetAddress addr) {
+    if (allowAll || allowedAddresses.contains(addr)) {
+      return true;
+    }
+    for (CidrAddress range : allowedRanges) {
+      if (range.isInRange(addr)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
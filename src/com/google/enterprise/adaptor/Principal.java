@@ -15,6 +15,7 @@
 package com.google.enterprise.adaptor;
 
 import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * Represents either a user or a group.
@@ -22,8 +23,17 @@ import java.util.Arrays;
 public abstract class Principal implements Comparable<Principal> {
   public static final String DEFAULT_NAMESPACE = "Default";
 
+  /** Locale used for case insensitivity related operations. */
+  private static final Locale CASE_LOCALE = Locale.ENGLISH;
+
   private final String name;
   private final String namespace;
+  // The following are computed lazily, since many principals are never
+  // compared. They are immutable, so racing threads may each compute them
+  // without harm.
+  private volatile ParsedPrincipal parsed;
+  private volatile CaseFoldedKey caseFolded;
+  private volatile int hash;
 
   /** The name is trimmed because GSA trims principal names.
    *  An empty name results in IllegalArgumentException.  */
@@ -70,8 +80,14 @@ public abstract class Principal implements Comparable<Principal> {
 
   @Override
   public int hashCode() {
-    return Arrays.hashCode(new Object[]{ isUser(), parse().domain,
-        parse().plainName, namespace });
+    int h = hash;
+    if (h == 0) {
+      ParsedPrincipal p = parse();
+      h = Arrays.hashCode(new Object[]{ isUser(), p.domain, p.plainName,
+          namespace });
+      hash = h;
+    }
+    return h;
   }
 
   @Override
@@ -96,16 +112,31 @@ public abstract class Principal implements Comparable<Principal> {
     }
     // OK, same namespace and same type
 
-    int domainCmp = parse().domain.compareTo(other.parse().domain);
+    ParsedPrincipal p1 = parse();
+    ParsedPrincipal p2 = other.parse();
+    int domainCmp = p1.domain.compareTo(p2.domain);
     if (0 != domainCmp) {
       return domainCmp;
     }
     // OK, same domain
 
-    return parse().plainName.compareTo(other.parse().plainName);
+    return p1.plainName.compareTo(p2.plainName);
   }
 
+  /**
+   * Returns the name split into its domain and plain name. The result is
+   * computed once and shared, which is safe because it is immutable.
+   */
   ParsedPrincipal parse() {
+    ParsedPrincipal p = parsed;
+    if (p == null) {
+      p = doParse();
+      parsed = p;
+    }
+    return p;
+  }
+
+  private ParsedPrincipal doParse() {
     for (int i = 0; i < name.length(); i++) {
       char c = name.charAt(i);
       switch (c) {
@@ -126,6 +157,49 @@ public abstract class Principal implements Comparable<Principal> {
         namespace);
   }
 
+  /** Returns the lowercase namespace, domain and plain name. */
+  CaseFoldedKey caseFolded() {
+    CaseFoldedKey key = caseFolded;
+    if (key == null) {
+      ParsedPrincipal p = parse();
+      key = new CaseFoldedKey(namespace.toLowerCase(CASE_LOCALE),
+          p.domain.toLowerCase(CASE_LOCALE),
+          p.plainName.toLowerCase(CASE_LOCALE));
+      caseFolded = key;
+    }
+    return key;
+  }
+
+  /**
+   * Lowercase components of a principal, for case-insensitive comparisons.
+   * Sorts by namespace, then domain, then plain name, and does not
+   * differentiate between users and groups.
+   */
+  static final class CaseFoldedKey implements Comparable<CaseFoldedKey> {
+    final String namespace;
+    final String domain;
+    final String plainName;
+
+    CaseFoldedKey(String namespace, String domain, String plainName) {
+      this.namespace = namespace;
+      this.domain = domain;
+      this.plainName = plainName;
+    }
+
+    @Override
+    public int compareTo(CaseFoldedKey other) {
+      int nscmp = namespace.compareTo(other.namespace);
+      if (0 != nscmp) {
+        return nscmp;
+      }
+      int dcmp = domain.compareTo(other.domain);
+      if (0 != dcmp) {
+        return dcmp;
+      }
+      return plainName.compareTo(other.plainName);
+    }
+  }
+
   static enum DomainFormat {
     NONE,
     DNS,
@@ -0,0 +1,53 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Pool of canonical {@link Principal} instances, so that an adaptor building
+ * many ACLs that mention the same principals can share one instance of each
+ * instead of keeping millions of identical copies. Principals are immutable,
+ * so sharing them is safe. The pool holds its principals weakly; principals no
+ * longer used by any ACL are garbage collected.
+ *
+ * <p>Two principals that are {@link Principal#equals equal} may still have
+ * differently spelled names, such as {@code DOMAIN\name} and {@code
+ * name@DOMAIN}. Such a principal is returned as-is rather than replaced by a
+ * differently spelled one.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class PrincipalInterner {
+  private final Interner<Principal> interner = Interners.newWeakInterner();
+
+  /**
+   * Returns the canonical instance equal to {@code principal}, which becomes
+   * the canonical instance if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  public <P extends Principal> P intern(P principal) {
+    Principal canonical = interner.intern(principal);
+    // equals() ignores the spelling of the domain, so keep the original if
+    // the spellings differ.
+    if (!canonical.getName().equals(principal.getName())) {
+      return principal;
+    }
+    // Equal principals are of the same class, since equals() compares
+    // isUser().
+    return (P) canonical;
+  }
+}
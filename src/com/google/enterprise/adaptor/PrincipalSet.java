@@ -0,0 +1,202 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted set of principals, stored as a sorted array instead of
+ * the tree of entries a {@link java.util.TreeSet} would use. It behaves like
+ * an unmodifiable {@code TreeSet} with the same comparator: iteration is in
+ * sorted order, {@link #contains} uses the comparator, and of several
+ * elements that compare equal only the first one added is kept.
+ *
+ * <p>The hash code is computed once, when the set is created.
+ */
+final class PrincipalSet<P extends Principal> extends AbstractSet<P> {
+  private static final PrincipalSet<Principal> EMPTY
+      = new PrincipalSet<Principal>(new Principal[0], null);
+
+  private final Principal[] elements;
+  /** Ordering of elements, or {@code null} for their natural ordering. */
+  private final Comparator<? super P> comparator;
+  private final int hash;
+
+  private PrincipalSet(Principal[] sortedElements,
+      Comparator<? super P> comparator) {
+    this.elements = sortedElements;
+    this.comparator = comparator;
+    int h = 0;
+    for (Principal p : sortedElements) {
+      h += p.hashCode();
+    }
+    this.hash = h;
+  }
+
+  /**
+   * Returns a set of {@code principals} ordered by {@code comparator}, or by
+   * their natural ordering if {@code comparator} is {@code null}.
+   *
+   * @throws NullPointerException if {@code principals} contains {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  static <P extends Principal> PrincipalSet<P> of(
+      Collection<? extends P> principals, Comparator<? super P> comparator) {
+    if (principals instanceof PrincipalSet
+        && sameComparator(((PrincipalSet) principals).comparator, comparator)) {
+      return (PrincipalSet<P>) principals;
+    }
+    if (principals.isEmpty() && comparator == null) {
+      return (PrincipalSet<P>) EMPTY;
+    }
+    Principal[] sorted = principals.toArray(new Principal[principals.size()]);
+    for (Principal p : sorted) {
+      if (p == null) {
+        throw new NullPointerException("Entries in set may not be null");
+      }
+    }
+    // The sort is stable, so the first of equal elements stays first.
+    Arrays.sort(sorted, (Comparator<Principal>) comparator);
+    int size = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (size == 0 || compare(comparator, sorted[size - 1], sorted[i]) != 0) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    if (size != sorted.length) {
+      sorted = Arrays.copyOf(sorted, size);
+    }
+    return new PrincipalSet<P>(sorted, comparator);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int compare(Comparator<?> comparator, Principal a,
+      Principal b) {
+    return comparator == null ? a.compareTo(b)
+        : ((Comparator<Principal>) comparator).compare(a, b);
+  }
+
+  private static boolean sameComparator(Comparator<?> a, Comparator<?> b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  @Override
+  public int size() {
+    return elements.length;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof Principal)) {
+      return false;
+    }
+    Principal target = (Principal) o;
+    int low = 0;
+    int high = elements.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(comparator, elements[mid], target);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Iterator<P> iterator() {
+    return new Iterator<P>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < elements.length;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public P next() {
+        if (next >= elements.length) {
+          throw new NoSuchElementException();
+        }
+        return (P) elements[next++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public Object[] toArray() {
+    return elements.clone();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (o instanceof PrincipalSet) {
+      PrincipalSet<?> other = (PrincipalSet<?>) o;
+      if (comparator == null && other.comparator == null) {
+        // Natural ordering agrees with equals, so equal sets have equal
+        // hashes and identical sorted arrays.
+        return hash == other.hash
+            && Arrays.equals(elements, other.elements);
+      }
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * Returns whether {@code other} has the same ordering and exactly the same
+   * elements, spelled the same way. Unlike {@link #equals}, principals that
+   * are equal but whose names are spelled differently, or that only compare
+   * equal ignoring case, do not match.
+   */
+  boolean isIdentical(PrincipalSet<?> other) {
+    if (this == other) {
+      return true;
+    }
+    if (hash != other.hash || elements.length != other.elements.length
+        || !sameComparator(comparator, other.comparator)) {
+      return false;
+    }
+    for (int i = 0; i < elements.length; i++) {
+      if (!elements[i].equals(other.elements[i])
+          || !elements[i].getName().equals(other.elements[i].getName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,354 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent fingerprints of the {@link DocIdPusher.Record}s sent during full
+ * pushes, keyed by {@link DocId}. It permits skipping records that have not
+ * changed since they were last sent and discovering documents that
+ * disappeared from the full listing.
+ *
+ * <p>The store is kept in memory and backed by an append-only log file. Each
+ * change is appended to the file as it happens and the file is compacted at
+ * the end of each successful full push. A partially-written entry at the end
+ * of the file (for example, due to a crash) is ignored when loading.
+ *
+ * <p>This class is thread-safe.
+ */
+class RecordFingerprintStore {
+  private static final Logger log
+      = Logger.getLogger(RecordFingerprintStore.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int MAGIC = 0x46505331; // "FPS1"
+  private static final byte PUT = 'P';
+  private static final byte REMOVE = 'R';
+  private static final byte PUSH_COMPLETED = 'C';
+
+  private final File file;
+  private final Map<DocId, Entry> entries = new HashMap<DocId, Entry>();
+  /** Number of the full push in progress, used to find vanished ids. */
+  private int currentPush;
+  /** Successful full pushes since all records were last sent. */
+  private int pushesSinceRefresh;
+  private DataOutputStream out;
+
+  /**
+   * @param file backing log file; it is created if it does not exist
+   */
+  public RecordFingerprintStore(File file) {
+    if (file == null) {
+      throw new NullPointerException();
+    }
+    this.file = file;
+  }
+
+  /**
+   * Reads the backing file into memory and prepares it for appending. If the
+   * file is unreadable, the store starts out empty, which simply causes all
+   * records to be sent during the next full push.
+   */
+  public synchronized void load() throws IOException {
+    entries.clear();
+    pushesSinceRefresh = 0;
+    try {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      try {
+        readLog(in);
+      } finally {
+        in.close();
+      }
+    } catch (FileNotFoundException ex) {
+      log.log(Level.FINE, "No fingerprint file {0}; starting empty", file);
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Could not read fingerprint file " + file
+          + "; all records will be sent during the next full push", ex);
+      entries.clear();
+      pushesSinceRefresh = 0;
+    }
+    log.log(Level.CONFIG, "Loaded {0} record fingerprints from {1}",
+        new Object[] {entries.size(), file});
+    compact();
+  }
+
+  private void readLog(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a fingerprint file");
+    }
+    try {
+      while (true) {
+        byte type = in.readByte();
+        if (type == PUT) {
+          long fingerprint = in.readLong();
+          DocId id = readDocId(in);
+          entries.put(id, new Entry(fingerprint, currentPush));
+        } else if (type == REMOVE) {
+          entries.remove(readDocId(in));
+        } else if (type == PUSH_COMPLETED) {
+          pushesSinceRefresh = in.readInt();
+        } else {
+          throw new IOException("Unknown entry type: " + type);
+        }
+      }
+    } catch (EOFException ex) {
+      // Done. Any partial entry at the end of the log is dropped.
+    }
+  }
+
+  private static DocId readDocId(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new DocId(new String(bytes, UTF8));
+  }
+
+  private static void writeDocId(DataOutputStream out, DocId id)
+      throws IOException {
+    byte[] bytes = id.getUniqueId().getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Marks the beginning of a full push. */
+  public synchronized void startFullPush() {
+    currentPush++;
+  }
+
+  /**
+   * Returns whether all records should be sent during the current full push,
+   * because {@code refreshInterval} successful full pushes have completed
+   * since the last time everything was sent. A {@code refreshInterval} less
+   * than one disables periodic refreshes.
+   */
+  public synchronized boolean isRefreshDue(int refreshInterval) {
+    return refreshInterval > 0 && pushesSinceRefresh + 1 >= refreshInterval;
+  }
+
+  /**
+   * Returns {@code true} if {@code record} is identical to the last record
+   * sent for its {@code DocId}. Either way, the {@code DocId} is noted as being
+   * part of the current full push.
+   */
+  public synchronized boolean isUnchanged(DocIdPusher.Record record) {
+    Entry entry = entries.get(record.getDocId());
+    if (entry == null) {
+      return false;
+    }
+    entry.lastSeenPush = currentPush;
+    return !record.isToBeDeleted() && entry.fingerprint == fingerprint(record);
+  }
+
+  /**
+   * Remember that {@code records} were successfully sent to the GSA.
+   */
+  public synchronized void recordSent(
+      List<? extends DocIdPusher.Record> records) {
+    for (DocIdPusher.Record record : records) {
+      DocId id = record.getDocId();
+      if (record.isToBeDeleted()) {
+        if (entries.remove(id) != null) {
+          append(REMOVE, 0, id);
+        }
+      } else {
+        long fingerprint = fingerprint(record);
+        entries.put(id, new Entry(fingerprint, currentPush));
+        append(PUT, fingerprint, id);
+      }
+    }
+    if (out != null) {
+      try {
+        out.flush();
+      } catch (IOException ex) {
+        log.log(Level.WARNING, "Failed to append to fingerprint file", ex);
+        close();
+      }
+    }
+  }
+
+  /**
+   * Appends an entry to the backing file. If appending fails, the file is left
+   * alone until the next compaction, which rewrites it from memory.
+   */
+  private void append(byte type, long fingerprint, DocId id) {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.writeByte(type);
+      if (type == PUT) {
+        out.writeLong(fingerprint);
+      }
+      writeDocId(out, id);
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to append to fingerprint file", ex);
+      close();
+    }
+  }
+
+  /**
+   * Returns the {@code DocId}s that were not seen during the current full
+   * push. They remain in the store until they are sent as deletes with {@link
+   * #recordSent}.
+   */
+  public synchronized List<DocId> getVanished() {
+    List<DocId> vanished = new ArrayList<DocId>();
+    for (Map.Entry<DocId, Entry> me : entries.entrySet()) {
+      if (me.getValue().lastSeenPush != currentPush) {
+        vanished.add(me.getKey());
+      }
+    }
+    return vanished;
+  }
+
+  /**
+   * Marks the successful completion of the current full push and compacts the
+   * backing file.
+   *
+   * @param refreshed whether all records were sent during the push
+   * @param forgetVanished whether to drop ids not seen during the push
+   */
+  public synchronized void completeFullPush(boolean refreshed,
+      boolean forgetVanished) {
+    if (forgetVanished) {
+      for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+        if (it.next().lastSeenPush != currentPush) {
+          it.remove();
+        }
+      }
+    }
+    pushesSinceRefresh = refreshed ? 0 : pushesSinceRefresh + 1;
+    try {
+      compact();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to compact fingerprint file", ex);
+    }
+  }
+
+  /** Number of fingerprints currently stored. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized void close() {
+    if (out == null) {
+      return;
+    }
+    try {
+      out.close();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to close fingerprint file", ex);
+    }
+    out = null;
+  }
+
+  /**
+   * Rewrites the backing file to contain only the current entries and opens
+   * it for appending.
+   */
+  private void compact() throws IOException {
+    close();
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream tmpOut = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      tmpOut.writeInt(MAGIC);
+      tmpOut.writeByte(PUSH_COMPLETED);
+      tmpOut.writeInt(pushesSinceRefresh);
+      for (Map.Entry<DocId, Entry> me : entries.entrySet()) {
+        tmpOut.writeByte(PUT);
+        tmpOut.writeLong(me.getValue().fingerprint);
+        writeDocId(tmpOut, me.getKey());
+      }
+    } finally {
+      tmpOut.close();
+    }
+    // File.renameTo() does not replace existing files on all platforms.
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new IOException("Could not replace " + file + " with " + tmp);
+    }
+    out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file, true)));
+  }
+
+  /**
+   * Computes a hash of all the fields of {@code record} that are sent to the
+   * GSA, other than the {@code DocId} itself.
+   */
+  static long fingerprint(DocIdPusher.Record record) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putBoolean(record.isToBeDeleted());
+    hasher.putBoolean(record.isToBeCrawledImmediately());
+    hasher.putBoolean(record.isToBeCrawledOnce());
+    hasher.putBoolean(record.isToBeLocked());
+    hasher.putLong(record.getLastModified() == null
+        ? Long.MIN_VALUE : record.getLastModified().getTime());
+    URI link = record.getResultLink();
+    putString(hasher, link == null ? null : link.toString());
+    Metadata metadata = record.getMetadata();
+    if (metadata == null) {
+      hasher.putInt(-1);
+    } else {
+      // Metadata iterates in sorted order, so the hash is stable.
+      for (Map.Entry<String, String> me : metadata) {
+        putString(hasher, me.getKey());
+        putString(hasher, me.getValue());
+      }
+    }
+    return hasher.hash().asLong();
+  }
+
+  /** Adds a length-prefixed string, so that adjacent strings can't collide. */
+  private static void putString(Hasher hasher, String s) {
+    if (s == null) {
+      hasher.putInt(-1);
+      return;
+    }
+    hasher.putInt(s.length());
+    hasher.putString(s);
+  }
+
+  private static class Entry {
+    final long fingerprint;
+    int lastSeenPush;
+
+    Entry(long fingerprint, int lastSeenPush) {
+      this.fingerprint = fingerprint;
+      this.lastSeenPush = lastSeenPush;
+    }
+  }
+}
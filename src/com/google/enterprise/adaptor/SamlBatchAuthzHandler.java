@@ -14,9 +14,10 @@
 
 package com.google.enterprise.adaptor;
 
+import com.google.common.base.Throwables;
 import com.google.enterprise.adaptor.secmgr.saml.Group;
 import com.google.enterprise.adaptor.secmgr.saml.HTTPSOAP11MultiContextDecoder;
-import com.google.enterprise.adaptor.secmgr.saml.HTTPSOAP11MultiContextEncoder;
+import com.google.enterprise.adaptor.secmgr.saml.HTTPSOAP11StreamingEncoder;
 import com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil;
 import com.google.enterprise.adaptor.secmgr.saml.SecmgrCredential;
 import com.sun.net.httpserver.HttpExchange;
@@ -37,6 +38,7 @@ import org.opensaml.saml2.core.StatusCode;
 import org.opensaml.saml2.core.Subject;
 import org.opensaml.ws.message.decoder.MessageDecodingException;
 import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HTTPOutTransport;
 import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.security.SecurityException;
 
@@ -44,12 +46,23 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,14 +78,63 @@ class SamlBatchAuthzHandler implements HttpHandler {
   private final SamlMetadata metadata;
   private DocIdDecoder docIdDecoder;
   private final Principal.DomainFormat domainFormat;
+  /** Nested group memberships, or {@code null} to not expand groups. */
+  private final GroupMembershipGraph groupGraph;
+  /**
+   * Executor for evaluating chunks of a batch concurrently, or {@code null}
+   * to evaluate each batch with a single call on the request thread.
+   */
+  private final ExecutorService executor;
+  /** Maximum number of documents authorized with a single call. */
+  private final int chunkSize;
+  /** Time allowed for the adaptor to make all decisions for a batch. */
+  private final long timeoutNanos;
 
   public SamlBatchAuthzHandler(AuthzAuthority authzAuthority,
       DocIdDecoder docIdDecoder, SamlMetadata samlMetadata,
       Principal.DomainFormat dmfmt) {
+    this(authzAuthority, docIdDecoder, samlMetadata, dmfmt, null);
+  }
+
+  /**
+   * @param groupGraph nested group memberships used to expand the groups of
+   *     the user being authorized, or {@code null}
+   */
+  public SamlBatchAuthzHandler(AuthzAuthority authzAuthority,
+      DocIdDecoder docIdDecoder, SamlMetadata samlMetadata,
+      Principal.DomainFormat dmfmt, GroupMembershipGraph groupGraph) {
+    this(authzAuthority, docIdDecoder, samlMetadata, dmfmt, groupGraph, null,
+        0, 0);
+  }
+
+  /**
+   * Creates a handler that splits large batches into chunks that are
+   * authorized concurrently. Documents whose chunk is not authorized within
+   * {@code timeoutMillis} are reported as indeterminate.
+   *
+   * @param groupGraph nested group memberships used to expand the groups of
+   *     the user being authorized, or {@code null}
+   * @param executor executor for authorizing chunks, or {@code null} to
+   *     authorize each batch with a single call and no time limit
+   * @param chunkSize maximum number of documents in a chunk, or zero to not
+   *     split batches
+   * @param timeoutMillis time allowed for authorizing a batch
+   */
+  public SamlBatchAuthzHandler(AuthzAuthority authzAuthority,
+      DocIdDecoder docIdDecoder, SamlMetadata samlMetadata,
+      Principal.DomainFormat dmfmt, GroupMembershipGraph groupGraph,
+      ExecutorService executor, int chunkSize, long timeoutMillis) {
+    if (chunkSize < 0) {
+      throw new IllegalArgumentException("chunkSize must not be negative");
+    }
     this.authzAuthority = authzAuthority;
     this.docIdDecoder = docIdDecoder;
     this.metadata = samlMetadata;
     this.domainFormat = dmfmt;
+    this.groupGraph = groupGraph;
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
   }
 
   @Override
@@ -95,9 +157,10 @@ class SamlBatchAuthzHandler implements HttpHandler {
         new HttpExchangeOutTransportAdapter(ex));
 
     // Decode request.
-    HTTPSOAP11MultiContextDecoder decoder = new HTTPSOAP11MultiContextDecoder();
+    HTTPSOAP11MultiContextDecoder decoder
+        = new HTTPSOAP11MultiContextDecoder(OpenSamlUtil.getParserPool());
     List<AuthzDecisionQuery> queries = new ArrayList<AuthzDecisionQuery>();
-    while (true) {
+    do {
       try {
         decoder.decode(context);
       } catch (MessageDecodingException e) {
@@ -110,17 +173,14 @@ class SamlBatchAuthzHandler implements HttpHandler {
         HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_BAD_REQUEST,
             Translation.HTTP_BAD_REQUEST_SECURITY_ERROR);
         return;
-      } catch (IndexOutOfBoundsException e) {
-        // Normal indication that there are no more messages to decode.
-        break;
       }
       queries.add(context.getInboundSAMLMessage());
-    }
+    } while (decoder.hasMoreMessages());
 
-    // Figure out if the user is authorized.
-    List<Response> responses;
+    // Start figuring out if the user is authorized.
+    AuthzBatch batch;
     try {
-      responses = processQueries(queries, HttpExchanges.getRequestUri(ex));
+      batch = startAuthz(queries, HttpExchanges.getRequestUri(ex));
     } catch (TranslationIllegalArgumentException e) {
       log.log(Level.INFO, "Error processing queries", e);
       HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_BAD_REQUEST,
@@ -128,29 +188,29 @@ class SamlBatchAuthzHandler implements HttpHandler {
       return;
     }
 
-    // Encode response.
-    HTTPSOAP11MultiContextEncoder encoder = new HTTPSOAP11MultiContextEncoder();
-    for (Response resp : responses) {
-      context.setOutboundSAMLMessage(resp);
-      try {
+    // Encode each response as soon as its decision is known.
+    DateTime now = new DateTime();
+    HTTPSOAP11StreamingEncoder encoder = new HTTPSOAP11StreamingEncoder();
+    try {
+      for (AuthzDecisionQuery query : queries) {
+        context.setOutboundSAMLMessage(
+            createResponse(query, batch.getStatus(query), now));
         encoder.encode(context);
-      } catch (MessageEncodingException e) {
-        throw new IOException(e);
       }
-    }
-    try {
-      encoder.finish();
+      encoder.finish(
+          (HTTPOutTransport) context.getOutboundMessageTransport());
     } catch (MessageEncodingException e) {
       throw new IOException(e);
+    } finally {
+      batch.cancel();
     }
     ex.getResponseBody().flush();
     ex.getResponseBody().close();
     ex.close();
   }
 
-  private List<Response> processQueries(List<AuthzDecisionQuery> queries,
-                                        URI requestUri) {
-    DateTime now = new DateTime();
+  private AuthzBatch startAuthz(List<AuthzDecisionQuery> queries,
+                                URI requestUri) {
     // Convert URIs into DocIds, but maintain a mapping of the relationship to
     // later determine the relationship of query to response.
     Map<AuthzDecisionQuery, DocId> docIds
@@ -196,7 +256,7 @@ class SamlBatchAuthzHandler implements HttpHandler {
       }
     }
 
-    // Ask the Adaptor if the user is allowed.
+    // Determine who the user is.
     AuthnIdentity identity = null;
     if (identityFromSecmgrCred == null) {
       identity =
@@ -210,11 +270,149 @@ class SamlBatchAuthzHandler implements HttpHandler {
       }
       identity = identityFromSecmgrCred;
     }
+    if (groupGraph != null) {
+      identity = groupGraph.expand(identity);
+    }
     log.info(identity.toString());
-    docIds = Collections.unmodifiableMap(docIds);
+    return new AuthzBatch(identity, docIds);
+  }
+
+  /**
+   * Authorization decisions for the documents of a batch. The documents are
+   * split into chunks that are authorized concurrently, if there is an
+   * executor.
+   */
+  private class AuthzBatch {
+    private final Map<AuthzDecisionQuery, DocId> docIds;
+    /** Chunk containing each document. */
+    private final Map<DocId, Future<Map<DocId, AuthzStatus>>> chunks
+        = new HashMap<DocId, Future<Map<DocId, AuthzStatus>>>();
+    private final long deadlineNanos;
+    private boolean timedOut;
+
+    AuthzBatch(final AuthnIdentity identity,
+        Map<AuthzDecisionQuery, DocId> docIds) {
+      this.docIds = docIds;
+      this.deadlineNanos = System.nanoTime() + timeoutNanos;
+      List<DocId> distinct
+          = new ArrayList<DocId>(new LinkedHashSet<DocId>(docIds.values()));
+      int size = (executor == null || chunkSize == 0)
+          ? Math.max(1, distinct.size()) : chunkSize;
+      for (int i = 0; i < distinct.size(); i += size) {
+        final List<DocId> chunk = Collections.unmodifiableList(
+            distinct.subList(i, Math.min(distinct.size(), i + size)));
+        FutureTask<Map<DocId, AuthzStatus>> task
+            = new FutureTask<Map<DocId, AuthzStatus>>(
+                new Callable<Map<DocId, AuthzStatus>>() {
+                  @Override
+                  public Map<DocId, AuthzStatus> call()
+                      throws TimeoutException {
+                    return authorize(identity, chunk);
+                  }
+                });
+        for (DocId docId : chunk) {
+          chunks.put(docId, task);
+        }
+        if (executor == null) {
+          task.run();
+          continue;
+        }
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+          log.log(Level.FINE, "Authorizing chunk on request thread", ex);
+          task.run();
+        }
+      }
+    }
+
+    /**
+     * Returns the decision for {@code query}, waiting for it if necessary.
+     * Returns {@link AuthzStatus#INDETERMINATE} if the decision was not made
+     * before the deadline.
+     */
+    AuthzStatus getStatus(AuthzDecisionQuery query) {
+      DocId docId = docIds.get(query);
+      if (docId == null) {
+        // URL doesn't belong to adaptor
+        return AuthzStatus.INDETERMINATE;
+      }
+      Future<Map<DocId, AuthzStatus>> chunk = chunks.get(docId);
+      Map<DocId, AuthzStatus> statuses;
+      try {
+        if (executor == null) {
+          statuses = chunk.get();
+        } else {
+          statuses = chunk.get(deadlineNanos - System.nanoTime(),
+              TimeUnit.NANOSECONDS);
+        }
+      } catch (TimeoutException ex) {
+        chunk.cancel(true);
+        noteTimedOut();
+        return AuthzStatus.INDETERMINATE;
+      } catch (CancellationException ex) {
+        return AuthzStatus.INDETERMINATE;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return AuthzStatus.INDETERMINATE;
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof TimeoutException) {
+          // The adaptor missed its own deadline for this chunk.
+          noteTimedOut();
+          return AuthzStatus.INDETERMINATE;
+        }
+        // authorize() only lets Errors escape otherwise.
+        Throwables.propagateIfPossible(cause);
+        throw new IllegalStateException(cause);
+      }
+      AuthzStatus status = statuses.get(docId);
+      // INDETERMINATE means that the document doesn't exist, so the GSA must
+      // have an old copy of some file. It isn't safe to do anything but DENY.
+
+      // null means that the adaptor threw an exception or is buggy. The only
+      // safe thing to do is DENY.
+      if (status == null || status == AuthzStatus.INDETERMINATE) {
+        status = AuthzStatus.DENY;
+      }
+      return status;
+    }
+
+    private void noteTimedOut() {
+      if (!timedOut) {
+        timedOut = true;
+        log.log(Level.WARNING, "Adaptor did not authorize all {0} "
+            + "documents in time; responding indeterminate for the rest",
+            docIds.size());
+      }
+    }
+
+    /** Stops authorizing chunks whose decisions are no longer needed. */
+    void cancel() {
+      for (Future<Map<DocId, AuthzStatus>> chunk : chunks.values()) {
+        chunk.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Ask the Adaptor if the user is allowed to see {@code docIds}.
+   *
+   * @throws TimeoutException if an asynchronous adaptor did not decide by its
+   *     deadline
+   */
+  private Map<DocId, AuthzStatus> authorize(AuthnIdentity identity,
+      Collection<DocId> docIds) throws TimeoutException {
     Map<DocId, AuthzStatus> statuses;
     try {
-      statuses = authzAuthority.isUserAuthorized(identity, docIds.values());
+      if (authzAuthority instanceof DeadlineAuthzAuthority) {
+        statuses = ((DeadlineAuthzAuthority) authzAuthority)
+            .isUserAuthorizedBeforeDeadline(identity, docIds);
+      } else {
+        statuses = authzAuthority.isUserAuthorized(identity, docIds);
+      }
+    } catch (TimeoutException e) {
+      throw e;
     } catch (Exception e) {
       log.log(Level.WARNING, "Exception while satisfying Authn query", e);
       statuses = null;
@@ -222,31 +420,9 @@ class SamlBatchAuthzHandler implements HttpHandler {
     if (statuses == null) {
       statuses = Collections.emptyMap();
     }
-
-    // For each query, build a SAML response based on Adaptor's response.
-    List<Response> result = new ArrayList<Response>(queries.size());
-    for (AuthzDecisionQuery query : queries) {
-      AuthzStatus status;
-      DocId docId = docIds.get(query);
-      if (docId == null) {
-        // URL doesn't belong to adaptor
-        status = AuthzStatus.INDETERMINATE;
-      } else {
-        status = statuses.get(docId);
-        // INDETERMINATE means that the document doesn't exist, so the GSA must
-        // have an old copy of some file. It isn't safe to do anything but DENY.
-
-        // null means that the adaptor threw an exception or is buggy. The only
-        // safe thing to do is DENY.
-        if (status == null || status == AuthzStatus.INDETERMINATE) {
-          status = AuthzStatus.DENY;
-        }
-      }
-      result.add(createResponse(query, status, now));
-    }
-    return result;
+    return statuses;
   }
-  
+
   private AuthnIdentity extractCredInfo(AuthzDecisionQuery query) {
     AuthnIdentity identity = null;
     Extensions extensions = query.getExtensions();
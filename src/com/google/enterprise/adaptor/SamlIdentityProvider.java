@@ -82,19 +82,27 @@ import java.util.logging.Logger;
 class SamlIdentityProvider {
   private static final Logger log
       = Logger.getLogger(SamlIdentityProvider.class.getName());
-  private static final VelocityEngine velocityEngine;
-
-  static {
-    velocityEngine = new VelocityEngine();
-    velocityEngine.addProperty("resource.loader", "classloader");
-    velocityEngine.addProperty("classloader.resource.loader.class",
-        ClasspathResourceLoader.class.getName());
-    velocityEngine.addProperty("runtime.log.logsystem.class",
-        JdkLogChute.class.getName());
-    try {
-      velocityEngine.init();
-    } catch (Exception ex) {
-      throw new RuntimeException(ex);
+
+  /**
+   * Holds the engine used for the POST binding template. Initializing Velocity
+   * is slow and most adaptors never act as an IdP, so it is deferred until the
+   * first response is sent.
+   */
+  private static class VelocityHolder {
+    private static final VelocityEngine velocityEngine;
+
+    static {
+      velocityEngine = new VelocityEngine();
+      velocityEngine.addProperty("resource.loader", "classloader");
+      velocityEngine.addProperty("classloader.resource.loader.class",
+          ClasspathResourceLoader.class.getName());
+      velocityEngine.addProperty("runtime.log.logsystem.class",
+          JdkLogChute.class.getName());
+      try {
+        velocityEngine.init();
+      } catch (Exception ex) {
+        throw new RuntimeException(ex);
+      }
     }
   }
 
@@ -135,7 +143,8 @@ class SamlIdentityProvider {
           + responseBinding);
     }
     try {
-      new HTTPPostEncoder(velocityEngine, "/templates/saml2-post-binding.vm")
+      new HTTPPostEncoder(VelocityHolder.velocityEngine,
+          "/templates/saml2-post-binding.vm")
           .encode(context);
     } catch (MessageEncodingException e) {
       throw new IOException("Failed to encode SAML response", e);
@@ -303,6 +312,7 @@ class SamlIdentityProvider {
      * @param requestUri the URI the client used to make the request
      */
     public RequestUriRedirectDeflateDecoder(URI requestUri) {
+      super(OpenSamlUtil.getParserPool());
       try {
         // Remove query parameters from URI.
         requestUri = new URI(requestUri.getScheme(), requestUri.getAuthority(),
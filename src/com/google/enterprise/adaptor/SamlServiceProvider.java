@@ -53,6 +53,11 @@ class SamlServiceProvider {
 
   private static final Logger log = Logger.getLogger(
       SamlServiceProvider.class.getName());
+  /**
+   * Longest session token to send as a cookie. Browsers commonly limit
+   * cookies to 4096 bytes, including the name and attributes.
+   */
+  private static final int MAX_TOKEN_LENGTH = 3900;
 
   /**
    * Manager that handles keeping track of users attempting to authenticate.
@@ -70,6 +75,20 @@ class SamlServiceProvider {
   private final AssertionConsumerHandler assertionConsumer
       = new AssertionConsumerHandler();
   private final Principal.DomainFormat domainFormat;
+  /**
+   * Codec for stateless session tokens, or {@code null} if authenticated
+   * identities are kept in {@link #sessionManager}.
+   */
+  private final SessionTokenCodec tokenCodec;
+  /** Storage for communicating session tokens with the client. */
+  private final SessionManager.ClientStore<HttpExchange> tokenStore;
+  /** Maximum lifetime of session tokens, in milliseconds. */
+  private final long tokenLifetimeMillis;
+  /**
+   * Nested group memberships used to expand the groups of users once they
+   * authenticate, or {@code null}.
+   */
+  private final GroupMembershipGraph groupGraph;
 
   /**
    * @param sessionManager manager for storing session state, like authn
@@ -80,17 +99,60 @@ class SamlServiceProvider {
    */
   public SamlServiceProvider(SessionManager<HttpExchange> sessionManager,
       SamlMetadata metadata, KeyPair key, Principal.DomainFormat dmfmt) {
-    this(sessionManager, metadata, key, new HttpClientAdapter(), dmfmt);
+    this(sessionManager, metadata, key, new HttpClientAdapter(), dmfmt,
+        null, null, 0, null);
+  }
+
+  /**
+   * Creates a provider that optionally gives authenticated users a session
+   * token instead of remembering their identity in {@code sessionManager}.
+   * The session manager is still used for authentication attempts that are
+   * in progress.
+   *
+   * @param tokenCodec codec for session tokens, or {@code null} to keep
+   *     identities in {@code sessionManager}
+   * @param tokenStore storage for communicating tokens with the client, or
+   *     {@code null} if {@code tokenCodec} is {@code null}
+   * @param tokenLifetimeMillis maximum lifetime of a token, in milliseconds
+   * @param groupGraph nested group memberships used to expand the groups of
+   *     authenticated users, or {@code null}
+   */
+  public SamlServiceProvider(SessionManager<HttpExchange> sessionManager,
+      SamlMetadata metadata, KeyPair key, Principal.DomainFormat dmfmt,
+      SessionTokenCodec tokenCodec,
+      SessionManager.ClientStore<HttpExchange> tokenStore,
+      long tokenLifetimeMillis, GroupMembershipGraph groupGraph) {
+    this(sessionManager, metadata, key, new HttpClientAdapter(), dmfmt,
+        tokenCodec, tokenStore, tokenLifetimeMillis, groupGraph);
   }
 
   @VisibleForTesting
   SamlServiceProvider(SessionManager<HttpExchange> sessionManager,
       SamlMetadata metadata, KeyPair key, HttpClientInterface httpClient
       , Principal.DomainFormat dmfmt) {
+    this(sessionManager, metadata, key, httpClient, dmfmt, null, null, 0,
+        null);
+  }
+
+  /**
+   * Creates a provider like the public constructor does, but that resolves
+   * SAML artifacts with {@code httpClient}.
+   *
+   * @param httpClient client for resolving artifacts with the GSA
+   */
+  SamlServiceProvider(SessionManager<HttpExchange> sessionManager,
+      SamlMetadata metadata, KeyPair key, HttpClientInterface httpClient,
+      Principal.DomainFormat dmfmt, SessionTokenCodec tokenCodec,
+      SessionManager.ClientStore<HttpExchange> tokenStore,
+      long tokenLifetimeMillis, GroupMembershipGraph groupGraph) {
     if (metadata == null || sessionManager == null || httpClient == null
         || dmfmt == null) {
       throw new NullPointerException();
     }
+    if ((tokenCodec == null) != (tokenStore == null)) {
+      throw new IllegalArgumentException(
+          "tokenCodec and tokenStore must be provided together");
+    }
     this.sessionManager = sessionManager;
     this.metadata = metadata;
     this.cred = (key == null) ? null
@@ -98,6 +160,10 @@ class SamlServiceProvider {
             key.getPrivate());
     this.httpClient = httpClient;
     this.domainFormat = dmfmt;
+    this.tokenCodec = tokenCodec;
+    this.tokenStore = tokenStore;
+    this.tokenLifetimeMillis = tokenLifetimeMillis;
+    this.groupGraph = groupGraph;
   }
 
   /**
@@ -116,6 +182,15 @@ class SamlServiceProvider {
    *     currently authenticated
    */
   public AuthnIdentity getUserIdentity(HttpExchange ex) {
+    if (tokenCodec != null) {
+      String token = tokenStore.retrieve(ex);
+      if (token != null) {
+        AuthnIdentity identity = tokenCodec.decode(token);
+        if (identity != null) {
+          return identity;
+        }
+      }
+    }
     Session session = sessionManager.getSession(ex, false);
     if (session == null) {
       return null;
@@ -216,6 +291,9 @@ class SamlServiceProvider {
           authnState);
 
       if (authnSuccess) {
+        if (tokenCodec != null) {
+          issueToken(ex, session, authnState);
+        }
         HttpExchanges.sendRedirect(ex, origUri); 
       } else {
         HttpExchanges.cannedRespond(ex, HttpURLConnection.HTTP_FORBIDDEN,
@@ -223,6 +301,35 @@ class SamlServiceProvider {
       }
     }
 
+    /**
+     * Hand the authenticated identity to the client as a session token, so
+     * that it no longer needs to be kept in the session.
+     */
+    private void issueToken(HttpExchange ex, Session session,
+        AuthnState authnState) {
+      if (authnState.getIdentity().getPassword() != null) {
+        // Tokens never carry passwords, so that they don't end up stored in
+        // browsers.
+        log.log(Level.FINE, "Keeping the identity of {0} in memory, since it "
+            + "has a password", authnState.getIdentity().getUser());
+        return;
+      }
+      long expirationTimeMillis = Math.min(authnState.getExpirationTimeMillis(),
+          tokenCodec.getTimeProvider().currentTimeMillis()
+          + tokenLifetimeMillis);
+      String token
+          = tokenCodec.encode(authnState.getIdentity(), expirationTimeMillis);
+      if (token.length() > MAX_TOKEN_LENGTH) {
+        log.log(Level.WARNING, "Session token for {0} is {1} characters, "
+            + "which is too long for a cookie. Keeping the identity in memory "
+            + "instead", new Object[] {authnState.getIdentity().getUser(),
+            token.length()});
+        return;
+      }
+      tokenStore.store(ex, token);
+      session.removeAttribute(SESSION_STATE_ATTR_NAME);
+    }
+
     private boolean consumeAssertion(SamlClient client, Response samlResponse,
                                      String recipient, AuthnState authnState) {
       if (samlResponse == null) {
@@ -303,6 +410,9 @@ class SamlServiceProvider {
           .Builder(new UserPrincipal(bestUsername, userNamespace))
           .setGroups(groups)
           .setPassword(password).build();
+      if (groupGraph != null) {
+        identity = groupGraph.expand(identity);
+      }
       authnState.authenticated(identity, expirationTime);
       return true;
     }
@@ -390,5 +500,9 @@ class SamlServiceProvider {
     public AuthnIdentity getIdentity() {
       return identity;
     }
+
+    public long getExpirationTimeMillis() {
+      return expirationTimeMillis;
+    }
   }
 }
@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -201,6 +202,35 @@ class SensitiveValueCodec implements SensitiveValueDecoder {
     }
   }
 
+  /**
+   * Derive a symmetric key from the private encrypting key. The same {@code
+   * purpose} always produces the same key, so adaptors sharing a keystore
+   * derive the same keys; different purposes produce unrelated keys.
+   *
+   * @param purpose label that distinguishes keys used for different things
+   * @return 32 bytes of key material
+   * @throws IllegalStateException if no encrypting key was provided, or its
+   *     private key cannot be encoded
+   */
+  byte[] deriveKey(String purpose) {
+    if (encryptingKey == null) {
+      throw new IllegalStateException("No key provided to derive keys from");
+    }
+    byte[] secret = encryptingKey.getPrivate().getEncoded();
+    if (secret == null) {
+      throw new IllegalStateException("Private key does not support encoding");
+    }
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+      return mac.doFinal(purpose.getBytes(CHARSET));
+    } catch (NoSuchAlgorithmException ex) {
+      throw new AssertionError(ex);
+    } catch (InvalidKeyException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
   /**
    * Beware that the provided Cipher will be modified as part of decryption.
    */
@@ -14,16 +14,15 @@
 
 package com.google.enterprise.adaptor;
 
+import com.google.common.collect.MapMaker;
 import com.sun.net.httpserver.HttpExchange;
 
 import java.security.SecureRandom;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
 import java.util.Random;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.bind.DatatypeConverter;
 
 /**
@@ -32,17 +31,20 @@ import javax.xml.bind.DatatypeConverter;
  * old sessions as it creates a new session, so it is fine with keeping a
  * session around for days past its expiration time if no new sessions are being
  * created.
+ *
+ * <p>Looking up a session does not lock. Cleanup is done by at most one thread
+ * at a time, without blocking other threads that use the manager.
  */
 class SessionManager<E> {
   private final TimeProvider timeProvider;
   private final ClientStore<E> clientStore;
-  private final Map<String, Session> sessions = new HashMap<String, Session>();
-  private final Map<String, Long> lastAccess = new HashMap<String, Long>();
+  private final ConcurrentMap<String, Entry> sessions
+      = new ConcurrentHashMap<String, Entry>();
   /** Lifetime of sessions, in milliseconds. */
   private final long sessionLifetime;
   /** Maximum frequency to check for expired sessions, in milliseconds. */
   private final long cleanupFrequency;
-  private long nextCleanup;
+  private final AtomicLong nextCleanup = new AtomicLong();
   private final Random random = new SecureRandom();
 
   /**
@@ -77,74 +79,58 @@ class SessionManager<E> {
       return create ? createSession(clientState) : null;
     }
 
-    synchronized (this) {
-      // Check for expiration now.
-      cleanupIfExpiredSession(value);
-      Session session = sessions.get(value);
-      if (session != null) {
-        updateLastAccess(value);
-        return session;
+    Entry entry = sessions.get(value);
+    if (entry != null) {
+      long currentTime = timeProvider.currentTimeMillis();
+      if (!entry.isExpired(currentTime)) {
+        entry.lastAccess = currentTime;
+        return entry.session;
       }
-
-      // Could not find session specified. Assume it expired.
-      return create ? createSession(clientState) : null;
+      sessions.remove(value, entry);
     }
+
+    // Could not find session specified. Assume it expired.
+    return create ? createSession(clientState) : null;
   }
 
-  protected synchronized Session createSession(E clientState) {
+  protected Session createSession(E clientState) {
     cleanupExpiredSessions();
-    Session session = new HashMapSession();
+    Entry entry = new Entry(new HashMapSession(),
+        timeProvider.currentTimeMillis());
     String id = generateRandomIdentifier();
-    sessions.put(id, session);
+    sessions.put(id, entry);
     clientStore.store(clientState, id);
-    updateLastAccess(id);
-    return session;
+    return entry.session;
   }
 
-  protected synchronized void updateLastAccess(String id) {
-    lastAccess.put(id, timeProvider.currentTimeMillis());
-  }
-
-  protected synchronized void cleanupExpiredSessions() {
+  /**
+   * Remove expired sessions, if it has been at least {@code cleanupFrequency}
+   * since the last cleanup. If another thread is already cleaning up, this
+   * returns immediately. Sessions are removed one at a time while other threads
+   * continue to use the manager.
+   */
+  protected void cleanupExpiredSessions() {
     long currentTime = timeProvider.currentTimeMillis();
-    if (nextCleanup > currentTime) {
+    long scheduled = nextCleanup.get();
+    if (scheduled > currentTime) {
       return;
     }
-
-    List<String> toRemove = new LinkedList<String>();
-    long lastAccessLimit = currentTime - sessionLifetime;
-    for (Map.Entry<String, Long> me : lastAccess.entrySet()) {
-      if (lastAccessLimit > me.getValue()) {
-        toRemove.add(me.getKey());
-      }
-    }
-
-    for (String id : toRemove) {
-      sessions.remove(id);
-      lastAccess.remove(id);
-    }
-
-    nextCleanup = currentTime + cleanupFrequency;
-  }
-
-  protected synchronized void cleanupIfExpiredSession(String id) {
-    Long lastAccessForId = lastAccess.get(id);
-    if (lastAccessForId == null) {
+    if (!nextCleanup.compareAndSet(scheduled, currentTime + cleanupFrequency)) {
+      // Another thread is doing the cleanup.
       return;
     }
 
-    long currentTime = timeProvider.currentTimeMillis();
-    long lastAccessLimit = currentTime - sessionLifetime;
-    if (lastAccessLimit > lastAccessForId) {
-      sessions.remove(id);
-      lastAccess.remove(id);
+    for (Iterator<Entry> it = sessions.values().iterator(); it.hasNext();) {
+      if (it.next().isExpired(currentTime)) {
+        it.remove();
+      }
     }
   }
 
   /**
    * Generate a secure, random, 128-bit, base64-encoded identifier.
    */
-  synchronized String generateRandomIdentifier() {
+  String generateRandomIdentifier() {
     byte[] rawId = new byte[16];
     random.nextBytes(rawId);
     return DatatypeConverter.printBase64Binary(rawId);
@@ -154,6 +140,22 @@ class SessionManager<E> {
     return sessions.size();
   }
 
+  /** A session and the last time it was used. */
+  private class Entry {
+    final Session session;
+    /** Time of last access, in milliseconds. */
+    volatile long lastAccess;
+
+    Entry(Session session, long lastAccess) {
+      this.session = session;
+      this.lastAccess = lastAccess;
+    }
+
+    boolean isExpired(long currentTime) {
+      return currentTime - sessionLifetime > lastAccess;
+    }
+  }
+
   /** A single-value storage per client. */
   public static interface ClientStore<E> {
     /** Returns the previously-stored value or {@code null}. */
@@ -168,8 +170,9 @@ class SessionManager<E> {
 
     private final String cookieName;
     private final boolean secure;
-    private Map<HttpExchange, String> exchangeCookieMap
-        = Collections.synchronizedMap(new WeakHashMap<HttpExchange, String>());
+    /** Values stored during an exchange, so they can be retrieved later. */
+    private final ConcurrentMap<HttpExchange, String> exchangeCookieMap
+        = new MapMaker().weakKeys().makeMap();
 
     public HttpExchangeClientStore() {
       this("sessid");
@@ -217,7 +220,7 @@ class SessionManager<E> {
     @Override
     public void store(HttpExchange ex, String value) {
       exchangeCookieMap.put(ex, value);
-      ex.getResponseHeaders().set("Set-Cookie", cookieName + "=" + value
+      ex.getResponseHeaders().add("Set-Cookie", cookieName + "=" + value
           + "; Path=/; HttpOnly" + (secure ? "; Secure" : ""));
     }
   }
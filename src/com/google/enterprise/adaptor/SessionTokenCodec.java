@@ -0,0 +1,217 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Encodes an {@link AuthnIdentity} and its expiration time into a string that
+ * can be handed to the client, for example as a cookie, in place of keeping
+ * the identity in a {@link SessionManager}. Any adaptor with the same key
+ * material can decode the token, so users do not need to authenticate again
+ * with each adaptor behind a load balancer.
+ *
+ * <p>Tokens are compressed, encrypted with AES-CBC and then authenticated with
+ * HMAC-SHA256. The keys are derived from the adaptor's private key using
+ * {@link SensitiveValueCodec#deriveKey}. Only the user, groups and expiration
+ * time are encoded; the user's password is never included, so decoded
+ * identities have no password.
+ *
+ * <p>This class is thread-safe.
+ */
+class SessionTokenCodec {
+  private static final Logger log
+      = Logger.getLogger(SessionTokenCodec.class.getName());
+
+  private static final byte VERSION = 2;
+  private static final int IV_LENGTH = 16;
+  private static final int MAC_LENGTH = 32;
+  private static final String CIPHER = "AES/CBC/PKCS5Padding";
+  private static final String MAC = "HmacSHA256";
+
+  private final SecretKeySpec encryptionKey;
+  private final SecretKeySpec macKey;
+  private final TimeProvider timeProvider;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * @param codec codec holding the adaptor's key pair
+   * @throws IllegalStateException if {@code codec} has no key pair
+   */
+  public SessionTokenCodec(SensitiveValueCodec codec) {
+    this(codec, new SystemTimeProvider());
+  }
+
+  SessionTokenCodec(SensitiveValueCodec codec, TimeProvider timeProvider) {
+    if (codec == null || timeProvider == null) {
+      throw new NullPointerException();
+    }
+    this.encryptionKey = new SecretKeySpec(
+        Arrays.copyOf(codec.deriveKey("session-token-encryption"), 16), "AES");
+    this.macKey = new SecretKeySpec(
+        codec.deriveKey("session-token-mac"), MAC);
+    this.timeProvider = timeProvider;
+  }
+
+  /** Returns the clock that token expiration times are checked against. */
+  TimeProvider getTimeProvider() {
+    return timeProvider;
+  }
+
+  /**
+   * Produce a token for {@code identity} that is valid until {@code
+   * expirationTimeMillis}. The identity's password is not included.
+   */
+  public String encode(AuthnIdentity identity, long expirationTimeMillis) {
+    byte[] plaintext;
+    try {
+      plaintext = serialize(identity, expirationTimeMillis);
+    } catch (IOException ex) {
+      // Only using in-memory streams.
+      throw new AssertionError(ex);
+    }
+    byte[] iv = new byte[IV_LENGTH];
+    synchronized (random) {
+      random.nextBytes(iv);
+    }
+    byte[] token;
+    try {
+      Cipher cipher = Cipher.getInstance(CIPHER);
+      cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new IvParameterSpec(iv));
+      byte[] ciphertext = cipher.doFinal(plaintext);
+      token = new byte[1 + IV_LENGTH + ciphertext.length + MAC_LENGTH];
+      token[0] = VERSION;
+      System.arraycopy(iv, 0, token, 1, IV_LENGTH);
+      System.arraycopy(ciphertext, 0, token, 1 + IV_LENGTH, ciphertext.length);
+      byte[] mac = computeMac(token, token.length - MAC_LENGTH);
+      System.arraycopy(mac, 0, token, token.length - MAC_LENGTH, MAC_LENGTH);
+    } catch (GeneralSecurityException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return DatatypeConverter.printBase64Binary(token);
+  }
+
+  /**
+   * Recover the identity from a token produced by {@link #encode}.
+   *
+   * @return the identity, or {@code null} if the token is malformed, has been
+   *     tampered with, was produced with a different key, or has expired
+   */
+  public AuthnIdentity decode(String encoded) {
+    byte[] token;
+    try {
+      token = DatatypeConverter.parseBase64Binary(encoded);
+    } catch (IllegalArgumentException ex) {
+      log.log(Level.FINE, "Session token is not base64", ex);
+      return null;
+    }
+    if (token.length < 1 + IV_LENGTH + MAC_LENGTH || token[0] != VERSION) {
+      log.fine("Session token is malformed");
+      return null;
+    }
+    int macOffset = token.length - MAC_LENGTH;
+    byte[] plaintext;
+    try {
+      byte[] expectedMac = computeMac(token, macOffset);
+      byte[] actualMac = Arrays.copyOfRange(token, macOffset, token.length);
+      if (!MessageDigest.isEqual(expectedMac, actualMac)) {
+        log.fine("Session token failed verification");
+        return null;
+      }
+      Cipher cipher = Cipher.getInstance(CIPHER);
+      cipher.init(Cipher.DECRYPT_MODE, encryptionKey,
+          new IvParameterSpec(token, 1, IV_LENGTH));
+      plaintext = cipher.doFinal(token, 1 + IV_LENGTH,
+          macOffset - 1 - IV_LENGTH);
+    } catch (GeneralSecurityException ex) {
+      // The MAC matched, so the token was produced with our key.
+      throw new IllegalStateException(ex);
+    }
+    try {
+      return deserialize(plaintext);
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Could not read verified session token", ex);
+      return null;
+    }
+  }
+
+  private byte[] computeMac(byte[] bytes, int length)
+      throws GeneralSecurityException {
+    Mac mac = Mac.getInstance(MAC);
+    mac.init(macKey);
+    mac.update(bytes, 0, length);
+    return mac.doFinal();
+  }
+
+  private static byte[] serialize(AuthnIdentity identity,
+      long expirationTimeMillis) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out
+        = new DataOutputStream(new DeflaterOutputStream(baos));
+    out.writeLong(expirationTimeMillis);
+    out.writeUTF(identity.getUser().getName());
+    out.writeUTF(identity.getUser().getNamespace());
+    Set<GroupPrincipal> groups = identity.getGroups();
+    out.writeInt(groups == null ? -1 : groups.size());
+    if (groups != null) {
+      for (GroupPrincipal group : groups) {
+        out.writeUTF(group.getName());
+        out.writeUTF(group.getNamespace());
+      }
+    }
+    out.close();
+    return baos.toByteArray();
+  }
+
+  private AuthnIdentity deserialize(byte[] bytes) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new InflaterInputStream(new ByteArrayInputStream(bytes)));
+    long expirationTimeMillis = in.readLong();
+    if (timeProvider.currentTimeMillis() > expirationTimeMillis) {
+      log.fine("Session token has expired");
+      return null;
+    }
+    UserPrincipal user = new UserPrincipal(in.readUTF(), in.readUTF());
+    int numGroups = in.readInt();
+    Set<GroupPrincipal> groups = null;
+    if (numGroups >= 0) {
+      groups = new HashSet<GroupPrincipal>();
+      for (int i = 0; i < numGroups; i++) {
+        groups.add(new GroupPrincipal(in.readUTF(), in.readUTF()));
+      }
+    }
+    return new AuthnIdentityImpl.Builder(user).setGroups(groups).build();
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Interface for adaptors whose full listing can be split into independent
+ * pieces, such as separate sites, databases, or top-level folders. When
+ * registered with {@link AdaptorContext#setShardedLister}, it is used in place
+ * of {@link Adaptor#getDocIds} for full pushes.
+ *
+ * <p>The library lists up to {@code adaptor.fullListingParallelism} shards
+ * concurrently. Records pushed by the shards are combined into shared feed
+ * files, so many small shards do not cause many small feeds. Each shard is
+ * retried independently using the full push {@link ExceptionHandler}; a shard
+ * that fails does not cause other shards to be listed again. The full push is
+ * considered successful only when every shard succeeds. Progress of each shard
+ * is displayed on the dashboard.
+ */
+public interface ShardedLister {
+  /**
+   * Provides the shards that make up the complete listing of the repository.
+   * This is called once at the beginning of each full push. Each shard should
+   * have a unique name.
+   *
+   * @return shards to list; may be empty if there are no documents
+   * @throws IOException on failure determining the shards
+   * @throws InterruptedException may percolate from IO calls
+   */
+  public Collection<? extends Shard> getListingShards() throws IOException,
+      InterruptedException;
+
+  /**
+   * A piece of the full listing. Implementations must be thread-safe, since
+   * different shards are listed concurrently.
+   */
+  public interface Shard {
+    /**
+     * A short, human-readable name for the shard, used in logs and on the
+     * dashboard.
+     * @return name of the shard
+     */
+    public String getName();
+
+    /**
+     * Pushes all the {@code DocId}s within this shard, just as {@link
+     * Adaptor#getDocIds} does for the whole repository. If this method throws
+     * an exception, the full push {@link ExceptionHandler} determines whether
+     * the shard is listed again.
+     *
+     * @param pusher convenience reference to pusher
+     * @throws IOException on failure getting doc ids
+     * @throws InterruptedException may percolate from IO calls
+     */
+    public void getDocIds(DocIdPusher pusher) throws IOException,
+        InterruptedException;
+  }
+}
@@ -80,6 +80,8 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
       simple.put("numTotalNonGsaRequests", journalSnap.numTotalNonGsaRequests);
       simple.put("numUniqueNonGsaRequests",
                  journalSnap.numUniqueNonGsaRequests);
+      simple.put("uniqueCountsApproximate",
+                 journalSnap.uniqueCountsApproximate);
       simple.put("timeResolution", journalSnap.timeResolution);
       simple.put("lastSuccessfulFullPushStart",
                  journalSnap.lastSuccessfulFullPushStart);
@@ -97,6 +99,8 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
       simple.put("lastSuccessfulGroupPushEnd",
                  journalSnap.lastSuccessfulGroupPushEnd);
       simple.put("currentGroupPushStart", journalSnap.currentGroupPushStart);
+      simple.put("totalFeedThrottleDuration",
+                 journalSnap.totalFeedThrottleDuration);
       simple.put("whenStarted", journalSnap.whenStarted);
       map.put("simpleStats", simple);
     }
@@ -134,14 +138,69 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
           time += stats.snapshotDurationMs;
         }
         stat.put("statData", statData);
+        Histogram durations = new Histogram();
+        Histogram sizes = new Histogram();
+        for (Journal.Stat s : stats.stats) {
+          durations.add(s.requestProcessingsDurations);
+          sizes.add(s.responseSizes);
+        }
+        stat.put("requestProcessingsDurationPercentiles",
+            getPercentiles(durations));
+        stat.put("responseSizePercentiles", getPercentiles(sizes));
         statsList.add(stat);
       }
       map.put("stats", statsList);
     }
 
+    {
+      List<Object> shardList = new ArrayList<Object>();
+      for (Journal.ShardProgress progress : journalSnap.shardProgress) {
+        shardList.add(getShardStat(progress));
+      }
+      map.put("shardStats", shardList);
+    }
+
+    {
+      List<Object> topList = new ArrayList<Object>();
+      for (Map.Entry<String, Long> entry
+          : journalSnap.topGsaRequests.entrySet()) {
+        Map<String, Object> requestMap = new TreeMap<String, Object>();
+        requestMap.put("docId", entry.getKey());
+        requestMap.put("count", entry.getValue());
+        topList.add(requestMap);
+      }
+      map.put("topGsaRequests", topList);
+    }
+
+    {
+      List<Object> laneList = new ArrayList<Object>();
+      for (Journal.FeedLaneStats stats : journalSnap.feedLaneStats) {
+        Map<String, Object> laneMap = new TreeMap<String, Object>();
+        laneMap.put("lane", stats.lane.name());
+        laneMap.put("queueDepth", stats.queueDepth);
+        laneMap.put("uploading", stats.uploading);
+        laneMap.put("uploads", stats.uploads);
+        laneMap.put("waitDurationSum", stats.waitDurationSum);
+        laneMap.put("maxWaitDuration", stats.maxWaitDuration);
+        laneMap.put("uploadDurationSum", stats.uploadDurationSum);
+        laneMap.put("maxUploadDuration", stats.maxUploadDuration);
+        laneList.add(laneMap);
+      }
+      map.put("feedLaneStats", laneList);
+    }
+
     return map;
   }
 
+  /** Returns the 50th, 95th and 99th percentiles of {@code histogram}. */
+  private Map<String, Object> getPercentiles(Histogram histogram) {
+    Map<String, Object> percentiles = new TreeMap<String, Object>();
+    percentiles.put("p50", histogram.getValueAtPercentile(50));
+    percentiles.put("p95", histogram.getValueAtPercentile(95));
+    percentiles.put("p99", histogram.getValueAtPercentile(99));
+    return percentiles;
+  }
+
   private Map<String, Object> getStat(Journal.Stat stat, long time) {
     Map<String, Object> statMap = new TreeMap<String, Object>();
     statMap.put("time", time);
@@ -154,9 +213,29 @@ class StatRpcMethod implements RpcHandler.RpcMethod {
                 stat.requestProcessingsThroughput);
     statMap.put("groupsPushed", stat.groupsPushed);
     statMap.put("membersPushed", stat.membersPushed);
+    statMap.put("feedThrottleDuration", stat.feedThrottleDuration);
     return statMap;
   }
 
+  private Map<String, Object> getShardStat(Journal.ShardProgress progress) {
+    String state;
+    if (progress.status != null) {
+      state = progress.status.name();
+    } else if (progress.attempts == 0) {
+      state = "PENDING";
+    } else {
+      state = "RUNNING";
+    }
+    Map<String, Object> shardMap = new TreeMap<String, Object>();
+    shardMap.put("name", progress.name);
+    shardMap.put("state", state);
+    shardMap.put("attempts", progress.attempts);
+    shardMap.put("recordsPushed", progress.recordsPushed);
+    shardMap.put("startTime", progress.startTime);
+    shardMap.put("endTime", progress.endTime);
+    return shardMap;
+  }
+
   private String getAdaptorLibraryVersion(Locale locale) {
     String version = this.getClass().getPackage().getImplementationVersion();
     return version == null
@@ -39,6 +39,7 @@ enum Translation {
   HTTP_BAD_METHOD,
   HTTP_CONFLICT_INVALID_HEADER,
   HTTP_INTERNAL_ERROR,
+  HTTP_UNAVAILABLE_AUTHZ_TIMEOUT,
   STATS_CONFIG_NONE,
   STATS_VERSION_UNKNOWN,
   STATUS_CRAWLING,
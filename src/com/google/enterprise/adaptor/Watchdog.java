@@ -20,6 +20,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Calls Thread.interrupt() when a thread takes too long to complete a task.
@@ -39,6 +40,8 @@ class Watchdog {
   private final ScheduledExecutorService executor;
   private final ConcurrentMap<Thread, FutureInfo> inProcess
       = new ConcurrentHashMap<Thread, FutureInfo>();
+  /** Number of threads interrupted for taking too long. */
+  private final AtomicLong timeouts = new AtomicLong();
 
   /**
    * @param executor executor to schedule tasks
@@ -63,7 +66,8 @@ class Watchdog {
           + "thread");
     }
     AtomicBoolean interruptNeeded = new AtomicBoolean(true);
-    Runnable task = new Interrupter(thread, interruptNeeded);
+    Runnable task
+        = new Interrupter(thread, interruptNeeded, timeouts, timeout);
     Future<?> future = executor.schedule(task, timeout, TimeUnit.MILLISECONDS);
     FutureInfo info = new FutureInfo(future, interruptNeeded);
     if (inProcess.putIfAbsent(thread, info) != null) {
@@ -102,6 +106,11 @@ class Watchdog {
     }
   }
 
+  /** Returns the number of threads interrupted for taking too long. */
+  public long getTimeoutCount() {
+    return timeouts.get();
+  }
+
   private static class Interrupter implements Runnable {
     private final Thread thread;
     /**
@@ -109,10 +118,15 @@ class Watchdog {
      * must be cleared after the thread has been interrupted.
      */
     private AtomicBoolean interruptNeeded;
+    private final AtomicLong timeouts;
+    private final long timeout;
 
-    public Interrupter(Thread thread, AtomicBoolean interruptNeeded) {
+    public Interrupter(Thread thread, AtomicBoolean interruptNeeded,
+        AtomicLong timeouts, long timeout) {
       this.thread = thread;
       this.interruptNeeded = interruptNeeded;
+      this.timeouts = timeouts;
+      this.timeout = timeout;
     }
 
     public void run() {
@@ -122,6 +136,9 @@ class Watchdog {
         if (interruptNeeded.get()) {
           thread.interrupt();
           interruptNeeded.set(false);
+          timeouts.incrementAndGet();
+          FlightRecorderEvents.WATCHDOG_INTERRUPT.begin()
+              .commit(thread, timeout);
         }
       }
     }
@@ -514,6 +514,11 @@ abstract class WrapperAdaptor implements Adaptor {
       context.setPollingIncrementalLister(lister);
     }
 
+    @Override
+    public void setShardedLister(ShardedLister lister) {
+      context.setShardedLister(lister);
+    }
+
     @Override
     public void setAuthnAuthority(AuthnAuthority authnAuthority) {
       context.setAuthnAuthority(authnAuthority);
@@ -523,5 +528,10 @@ abstract class WrapperAdaptor implements Adaptor {
     public void setAuthzAuthority(AuthzAuthority authzAuthority) {
       context.setAuthzAuthority(authzAuthority);
     }
+
+    @Override
+    public void setAsyncAuthzAuthority(AsyncAuthzAuthority authzAuthority) {
+      context.setAsyncAuthzAuthority(authzAuthority);
+    }
   }
 }
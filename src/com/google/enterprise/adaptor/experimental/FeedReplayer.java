@@ -0,0 +1,216 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.experimental;
+
+import com.google.enterprise.adaptor.GsaFeedFileArchiver;
+import com.google.enterprise.adaptor.GsaFeedFileArchiver.ArchivedFeed;
+import com.google.enterprise.adaptor.GsaFeedFileSender;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays feeds archived by {@link GsaFeedFileArchiver} against a feed
+ * acceptor, such as {@link Sim}, to reproduce the push load of a production
+ * adaptor offline.
+ *
+ * <p>Feeds are sent in the order they were archived. With a speed of 1 they
+ * are spaced as they originally were; a speed of 10 replays ten times faster,
+ * and a speed of 0 sends them as fast as possible. Feeds are sent by a pool of
+ * threads so that a slow response does not delay the feeds scheduled after
+ * it. Group definition feeds are skipped, as are feeds that originally failed
+ * unless requested.
+ *
+ * <p>Usage: {@code FeedReplayer [--host=localhost] [--speed=1] [--threads=4]
+ * [--includeFailed] archiveDirectory}
+ */
+public class FeedReplayer {
+  private static final Logger log
+      = Logger.getLogger(FeedReplayer.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final Pattern DATASOURCE
+      = Pattern.compile("<datasource>([^<]*)</datasource>");
+  private static final Pattern FEEDTYPE
+      = Pattern.compile("<feedtype>([^<]*)</feedtype>");
+
+  /** Sends one feed. */
+  interface FeedSender {
+    void send(String datasource, String feedtype, String xml)
+        throws IOException;
+  }
+
+  private final FeedSender sender;
+  private final double speed;
+  private final int threads;
+  private final boolean includeFailed;
+  private final LoadStats stats = new LoadStats();
+
+  /**
+   * @param sender where to send feeds
+   * @param speed how many times faster than originally to send feeds, or
+   *     zero to send them as fast as possible
+   * @param threads number of feeds that may be sent concurrently
+   * @param includeFailed whether to send feeds that originally failed
+   */
+  FeedReplayer(FeedSender sender, double speed, int threads,
+      boolean includeFailed) {
+    if (sender == null) {
+      throw new NullPointerException();
+    }
+    if (speed < 0 || threads < 1) {
+      throw new IllegalArgumentException("invalid speed or thread count");
+    }
+    this.sender = sender;
+    this.speed = speed;
+    this.threads = threads;
+    this.includeFailed = includeFailed;
+  }
+
+  /**
+   * Sends {@code feeds} and waits for them all to complete.
+   *
+   * @return throughput and latency of the sent feeds
+   */
+  LoadStats.Snapshot replay(List<ArchivedFeed> feeds)
+      throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long startNanos = System.nanoTime();
+      long firstTime = feeds.isEmpty() ? 0 : feeds.get(0).getTime();
+      for (final ArchivedFeed feed : feeds) {
+        if (feed.isFailed() && !includeFailed) {
+          continue;
+        }
+        if (speed > 0) {
+          long dueNanos = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(
+              feed.getTime() - firstTime) / speed);
+          long waitNanos = dueNanos - System.nanoTime();
+          if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+          }
+        }
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            send(feed);
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    return stats.snapshotAndReset();
+  }
+
+  private void send(ArchivedFeed feed) {
+    String xml;
+    try {
+      xml = feed.readXml();
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Unable to read " + feed, ex);
+      return;
+    }
+    String datasource = extract(DATASOURCE, xml);
+    String feedtype = extract(FEEDTYPE, xml);
+    if (datasource == null || feedtype == null) {
+      log.log(Level.FINE, "Skipping {0}, which is not a content feed", feed);
+      return;
+    }
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      sender.send(datasource, feedtype, xml);
+      success = true;
+    } catch (IOException ex) {
+      log.log(Level.WARNING, "Failed to send " + feed, ex);
+    } finally {
+      stats.record(System.nanoTime() - start, xml.getBytes(UTF8).length,
+          success);
+    }
+  }
+
+  /** Returns the first group matched by {@code pattern}, or {@code null}. */
+  static String extract(Pattern pattern, String xml) {
+    Matcher matcher = pattern.matcher(xml);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /** Sends feeds with a {@link GsaFeedFileSender}. */
+  private static class GsaFeedSender implements FeedSender {
+    private final GsaFeedFileSender sender;
+
+    GsaFeedSender(String host) {
+      this.sender = new GsaFeedFileSender(host, false, UTF8);
+    }
+
+    @Override
+    public void send(String datasource, String feedtype, String xml)
+        throws IOException {
+      if ("full".equals(feedtype)) {
+        sender.sendFull(datasource, xml, false);
+      } else if ("incremental".equals(feedtype)) {
+        sender.sendIncremental(datasource, xml, false);
+      } else {
+        sender.sendMetadataAndUrl(datasource, xml, false);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String host = "localhost";
+    double speed = 1;
+    int threads = 4;
+    boolean includeFailed = false;
+    String directory = null;
+    for (String arg : args) {
+      if (arg.startsWith("--host=")) {
+        host = arg.substring("--host=".length());
+      } else if (arg.startsWith("--speed=")) {
+        speed = Double.parseDouble(arg.substring("--speed=".length()));
+      } else if (arg.startsWith("--threads=")) {
+        threads = Integer.parseInt(arg.substring("--threads=".length()));
+      } else if (arg.equals("--includeFailed")) {
+        includeFailed = true;
+      } else if (!arg.startsWith("--") && directory == null) {
+        directory = arg;
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+    if (directory == null) {
+      System.err.println("Usage: FeedReplayer [--host=localhost] [--speed=1] "
+          + "[--threads=4] [--includeFailed] archiveDirectory");
+      System.exit(1);
+    }
+    List<ArchivedFeed> feeds
+        = GsaFeedFileArchiver.listArchivedFeeds(new File(directory));
+    log.log(Level.INFO, "Replaying {0} archived feeds to {1}",
+        new Object[] {feeds.size(), host});
+    LoadStats.Snapshot result = new FeedReplayer(new GsaFeedSender(host),
+        speed, threads, includeFailed).replay(feeds);
+    log.log(Level.INFO, "Replayed {0}", result);
+  }
+}
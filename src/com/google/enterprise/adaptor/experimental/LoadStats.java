@@ -0,0 +1,139 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.experimental;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts requests made by a load-generation tool and summarizes their
+ * throughput and latency percentiles. Latencies are kept exactly until the
+ * next {@link #snapshotAndReset}, so report intervals should be short enough
+ * for the number of requests made in each to fit in memory.
+ *
+ * <p>This class is thread-safe.
+ */
+class LoadStats {
+  private long[] latencies = new long[1024];
+  private int count;
+  private long failures;
+  private long bytes;
+  private long intervalStart;
+
+  LoadStats() {
+    intervalStart = System.nanoTime();
+  }
+
+  /**
+   * @param latencyNanos how long the request took
+   * @param numBytes size of the request or response body
+   * @param success whether the request succeeded
+   */
+  public synchronized void record(long latencyNanos, long numBytes,
+      boolean success) {
+    if (count == latencies.length) {
+      latencies = Arrays.copyOf(latencies, count * 2);
+    }
+    latencies[count++] = latencyNanos;
+    bytes += numBytes;
+    if (!success) {
+      failures++;
+    }
+  }
+
+  /** Returns the requests recorded since the last call, and forgets them. */
+  public Snapshot snapshotAndReset() {
+    long[] values;
+    long numFailures;
+    long numBytes;
+    long elapsed;
+    synchronized (this) {
+      long now = System.nanoTime();
+      values = Arrays.copyOf(latencies, count);
+      numFailures = failures;
+      numBytes = bytes;
+      elapsed = now - intervalStart;
+      count = 0;
+      failures = 0;
+      bytes = 0;
+      intervalStart = now;
+    }
+    Arrays.sort(values);
+    return new Snapshot(values, numFailures, numBytes, elapsed);
+  }
+
+  /** Requests recorded during one interval. */
+  static class Snapshot {
+    private final long[] sortedLatencies;
+    private final long failures;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    Snapshot(long[] sortedLatencies, long failures, long bytes,
+        long elapsedNanos) {
+      this.sortedLatencies = sortedLatencies;
+      this.failures = failures;
+      this.bytes = bytes;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getCount() {
+      return sortedLatencies.length;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Returns the smallest latency, in nanoseconds, that at least
+     * {@code percentile} percent of requests did not exceed, or zero if there
+     * were no requests.
+     */
+    public long getLatencyPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("percentile out of range");
+      }
+      if (sortedLatencies.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile / 100 * sortedLatencies.length);
+      return sortedLatencies[Math.max(0, rank - 1)];
+    }
+
+    /** Returns requests per second during the interval. */
+    public double getRate() {
+      if (elapsedNanos <= 0) {
+        return 0;
+      }
+      return getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH, "%d requests (%d failed) in %.1f s: "
+          + "%.1f/s, %.1f KiB/s; latency ms p50=%.1f p90=%.1f p99=%.1f "
+          + "max=%.1f", getCount(), failures, elapsedNanos / 1e9, getRate(),
+          bytes / 1024. / Math.max(elapsedNanos / 1e9, 1e-9),
+          getLatencyPercentile(50) / 1e6, getLatencyPercentile(90) / 1e6,
+          getLatencyPercentile(99) / 1e6, getLatencyPercentile(100) / 1e6);
+    }
+  }
+}
@@ -43,11 +43,15 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
@@ -55,7 +59,16 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
-/** Accepts adaptor feeds and issues requests for documents. */
+/**
+ * Accepts adaptor feeds and issues requests for documents.
+ *
+ * <p>By default every URL is crawled every 20 seconds and its content is
+ * kept. With {@code --crawlQps=N}, URLs are instead fetched round-robin at
+ * {@code N} requests per second by {@code --crawlThreads} threads, content is
+ * discarded, and throughput and latency percentiles are logged every
+ * {@code --reportSeconds} seconds. Together with {@link FeedReplayer} this
+ * makes an offline load test of an adaptor.
+ */
 public class Sim implements Runnable {
   private static Logger log
       = Logger.getLogger(Sim.class.getName());
@@ -70,20 +83,84 @@ public class Sim implements Runnable {
   }
 
   private Index index = new Index(); // contains contents and metadata
+  private final int crawlThreads;
+  private final double crawlQps;
+  private final int reportSeconds;
+  private final AtomicLong feedsAccepted = new AtomicLong();
+  private final AtomicLong recordsAccepted = new AtomicLong();
+  private final AtomicLong feedBytesAccepted = new AtomicLong();
+  private HttpServer feedServer;
+
+  public Sim() {
+    this(0, 0, 0);
+  }
+
+  /**
+   * @param crawlThreads number of threads fetching URLs in load mode
+   * @param crawlQps requests per second in load mode, or zero for the
+   *     periodic crawler
+   * @param reportSeconds interval between load mode reports
+   */
+  public Sim(int crawlThreads, double crawlQps, int reportSeconds) {
+    if (crawlQps < 0) {
+      throw new IllegalArgumentException("crawlQps must not be negative");
+    }
+    if (crawlQps > 0 && (crawlThreads < 1 || reportSeconds < 1)) {
+      throw new IllegalArgumentException(
+          "crawlThreads and reportSeconds must be positive");
+    }
+    this.crawlThreads = crawlThreads;
+    this.crawlQps = crawlQps;
+    this.reportSeconds = reportSeconds;
+  }
 
-  private void startFeedAcceptor() throws IOException {
+  void startFeedAcceptor() throws IOException {
     log.info("starting feed acceptor");
     HttpServer server = HttpServer.create();
     int useDefaultBacklog = -1;
     server.bind(new InetSocketAddress(19900), useDefaultBacklog);
     server.createContext("/xmlfeed", new FeedAcceptor());
     server.start();
+    feedServer = server;
     log.info("started feed acceptor");
   }
 
+  void stopFeedAcceptor() {
+    if (feedServer != null) {
+      feedServer.stop(0);
+      feedServer = null;
+    }
+  }
+
+  /** Number of feeds accepted so far. */
+  long getFeedsAccepted() {
+    return feedsAccepted.get();
+  }
+
+  /** Number of records in the feeds accepted so far. */
+  long getRecordsAccepted() {
+    return recordsAccepted.get();
+  }
+
+  /** Size of the feeds accepted so far, in bytes of uncompressed XML. */
+  long getFeedBytesAccepted() {
+    return feedBytesAccepted.get();
+  }
+
+  /** Returns a copy of the distinct URLs accepted so far. */
+  List<URL> getUrls() {
+    synchronized (index.urls) {
+      return new ArrayList<URL>(index.urls);
+    }
+  }
+
   private void startCrawler() {
     log.info("starting crawler");
-    new Thread(new Crawler()).start();
+    if (crawlQps > 0) {
+      new LoadCrawler().start();
+    } else {
+      new Thread(new Crawler()).start();
+    }
     log.info("started crawler");
   }
 
@@ -99,7 +176,23 @@ public class Sim implements Runnable {
   }
 
   public static void main(String args[]) {
-    new Sim().run(); 
+    int crawlThreads = 8;
+    double crawlQps = 0;
+    int reportSeconds = 10;
+    for (String arg : args) {
+      if (arg.startsWith("--crawlThreads=")) {
+        crawlThreads = Integer.parseInt(
+            arg.substring("--crawlThreads=".length()));
+      } else if (arg.startsWith("--crawlQps=")) {
+        crawlQps = Double.parseDouble(arg.substring("--crawlQps=".length()));
+      } else if (arg.startsWith("--reportSeconds=")) {
+        reportSeconds = Integer.parseInt(
+            arg.substring("--reportSeconds=".length()));
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+    new Sim(crawlThreads, crawlQps, reportSeconds).run();
   }
 
 
@@ -212,6 +305,120 @@ public class Sim implements Runnable {
     }
   }
 
+  /**
+   * Fetches URLs round-robin at a target rate from several threads, and
+   * periodically logs the throughput and latency achieved. Content is
+   * counted and discarded.
+   */
+  private class LoadCrawler {
+    private final long intervalNanos
+        = (long) (TimeUnit.SECONDS.toNanos(1) / crawlQps);
+    private final LoadStats stats = new LoadStats();
+    private final AtomicLong position = new AtomicLong();
+    private volatile List<URL> urls = new ArrayList<URL>();
+    /** Time at which the next request may start. */
+    private long nextSlot = System.nanoTime();
+
+    void start() {
+      for (int i = 0; i < crawlThreads; i++) {
+        new Thread(new Runnable() {
+          @Override
+          public void run() {
+            fetchLoop();
+          }
+        }, "load-crawler-" + i).start();
+      }
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          reportLoop();
+        }
+      }, "load-reporter").start();
+    }
+
+    private void refreshUrls() {
+      synchronized (index.urls) {
+        if (urls.size() != index.urls.size()) {
+          urls = new ArrayList<URL>(index.urls);
+        }
+      }
+    }
+
+    private void reportLoop() {
+      try {
+        while (true) {
+          refreshUrls();
+          Thread.sleep(TimeUnit.SECONDS.toMillis(reportSeconds));
+          log.log(Level.INFO, "crawled {0} of {1} urls",
+              new Object[] {stats.snapshotAndReset(), urls.size()});
+        }
+      } catch (InterruptedException ex) {
+        log.info("load reporter interrupted");
+      }
+    }
+
+    /**
+     * Reserves the next request slot, without letting unused slots
+     * accumulate into a burst.
+     *
+     * @return nanoseconds to wait before making the request
+     */
+    private synchronized long reserveSlot() {
+      long now = System.nanoTime();
+      if (nextSlot < now) {
+        nextSlot = now;
+      }
+      long wait = nextSlot - now;
+      nextSlot += intervalNanos;
+      return wait;
+    }
+
+    private void fetchLoop() {
+      try {
+        while (true) {
+          List<URL> current = urls;
+          if (current.isEmpty()) {
+            Thread.sleep(1000);
+            refreshUrls();
+            continue;
+          }
+          TimeUnit.NANOSECONDS.sleep(reserveSlot());
+          int i = (int) (position.getAndIncrement() % current.size());
+          fetch(current.get(i), stats);
+        }
+      } catch (InterruptedException ex) {
+        log.info("load crawler interrupted");
+      }
+    }
+  }
+
+  /** Fetches {@code url}, discarding its content, and records the outcome. */
+  static void fetch(URL url, LoadStats stats) {
+    long start = System.nanoTime();
+    long bytes = 0;
+    boolean success = false;
+    try {
+      HttpURLConnection con = (HttpURLConnection) url.openConnection();
+      InputStream in = con.getResponseCode() < 400
+          ? con.getInputStream() : con.getErrorStream();
+      if (in != null) {
+        try {
+          byte[] buffer = new byte[8192];
+          for (int read; (read = in.read(buffer)) != -1;) {
+            bytes += read;
+          }
+        } finally {
+          in.close();
+        }
+      }
+      success = con.getResponseCode() < 400;
+    } catch (IOException ie) {
+      log.log(Level.FINE, "failed getting: " + url, ie);
+    } finally {
+      stats.record(System.nanoTime() - start, bytes, success);
+    }
+  }
+
   private void processMultipartPost(HttpExchange ex) throws IOException {
     InputStream inStream = ex.getRequestBody();
     String encoding = ex.getRequestHeaders().getFirst("Content-encoding");
@@ -251,6 +458,9 @@ public class Sim implements Runnable {
     synchronized (index.urls) {
       index.urls.addAll(tmpUrls);
     }
+    feedsAccepted.incrementAndGet();
+    recordsAccepted.addAndGet(tmpUrls.size());
+    feedBytesAccepted.addAndGet(xml.getBytes(UTF8).length);
   }
 
   static String extractFeedFromMultipartPost(
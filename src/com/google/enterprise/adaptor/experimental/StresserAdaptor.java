@@ -82,6 +82,8 @@ public class StresserAdaptor extends AbstractAdaptor {
 
   private int userCount;
   private int totalNumberOfFiles;
+  private boolean pushAllDocIds;
+  private static final int PUSH_BATCH_SIZE = 10000;
 
   // pre-computed format string to be used in making up url
   private String padByLength[];
@@ -89,17 +91,36 @@ public class StresserAdaptor extends AbstractAdaptor {
   private static void initDictionary() throws Exception {
 
     // prepare the dictionary
-    Scanner sc = new Scanner(new File(DICTIONARY_FILE));
     int word = 0;
-    while (sc.hasNext()) {
-      dictionary[word++] = sc.next();
+    File file = new File(DICTIONARY_FILE);
+    if (file.exists()) {
+      Scanner sc = new Scanner(file);
+      while (sc.hasNext() && word < NUMBER_OF_WORDS) {
+        dictionary[word++] = sc.next();
+      }
+      sc.close();
+    } else {
+      log.log(Level.INFO, "{0} not found; using generated words",
+          DICTIONARY_FILE);
+    }
+    // Fill any remainder with made-up words, so that content is always
+    // generated the same way.
+    Random wordRand = new Random(word);
+    for (; word < NUMBER_OF_WORDS; word++) {
+      char[] letters = new char[3 + wordRand.nextInt(8)];
+      for (int i = 0; i < letters.length; i++) {
+        letters[i] = (char) ('a' + wordRand.nextInt(26));
+      }
+      dictionary[word] = new String(letters);
     }
-    sc.close();
   }
 
   @Override
   public void initConfig(Config config) {
     config.addKey("adaptor.branches", null);
+    // Push the id of every file, instead of only the root folder and letting
+    // the GSA discover the rest by crawling, to measure full push throughput.
+    config.addKey("adaptor.pushAllDocIds", "false");
   }
 
   @Override
@@ -134,17 +155,56 @@ public class StresserAdaptor extends AbstractAdaptor {
       padByLength[i] = padByLength[i - 1] + "x";
     }
 
+    pushAllDocIds
+        = Boolean.parseBoolean(config.getValue("adaptor.pushAllDocIds"));
+
     initDictionary();
   }
 
+  /** Returns the number of files, which excludes folders. */
+  public int getTotalNumberOfFiles() {
+    return totalNumberOfFiles;
+  }
+
   @Override
   public void getDocIds(DocIdPusher pusher) throws InterruptedException {
     log.info("Calling getDocIds()...");
-    List<DocId> rootDocId = Arrays.asList(new DocId(""));
-    pusher.pushDocIds(rootDocId);
+    if (pushAllDocIds) {
+      List<DocId> batch = new ArrayList<DocId>(PUSH_BATCH_SIZE);
+      pushFiles(pusher, "", 0, batch);
+      if (!batch.isEmpty()) {
+        pusher.pushDocIds(batch);
+      }
+    } else {
+      List<DocId> rootDocId = Arrays.asList(new DocId(""));
+      pusher.pushDocIds(rootDocId);
+    }
     log.info("returning from getDocIds().");
   }
 
+  /**
+   * Pushes the files below the folder {@code prefix} at {@code level}, naming
+   * them as {@link #makeSubfolders} and {@link #makeFiles} do.
+   */
+  private void pushFiles(DocIdPusher pusher, String prefix, int level,
+      List<DocId> batch) throws InterruptedException {
+    int count = branches.get(level);
+    if (level == depth - 1) {
+      for (int i = 0; i < count; ++i) {
+        batch.add(new DocId(prefix + i));
+        if (batch.size() == PUSH_BATCH_SIZE) {
+          pusher.pushDocIds(batch);
+          batch.clear();
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < count; ++i) {
+      pushFiles(pusher, prefix + i + padByLength[level + 1] + "/", level + 1,
+          batch);
+    }
+  }
+
   @Override
   public void getDocContent(Request req, Response resp) throws IOException {
     DocId id = req.getDocId();
@@ -328,7 +388,7 @@ public class StresserAdaptor extends AbstractAdaptor {
 
   private boolean isSpecialFile(String docId) {
     int hashcode = docId.hashCode();
-    int mod = this.totalNumberOfFiles / this.specialFileCount;
+    int mod = Math.max(1, this.totalNumberOfFiles / this.specialFileCount);
     int result = hashcode % mod;
     if (result < 0) {
       result += mod;
@@ -339,7 +399,7 @@ public class StresserAdaptor extends AbstractAdaptor {
 
   private boolean isPublicFile(String docId) {
     int hashcode = docId.hashCode();
-    int mod = this.totalNumberOfFiles / this.publicFileCount;
+    int mod = Math.max(1, this.totalNumberOfFiles / this.publicFileCount);
     int result = hashcode % mod;
     if (result < 0) {
       result += mod;
@@ -0,0 +1,397 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.experimental;
+
+import com.google.enterprise.adaptor.Adaptor;
+import com.google.enterprise.adaptor.Application;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the end-to-end throughput of an adaptor against an in-process
+ * {@link Sim}.
+ *
+ * <p>The adaptor, by default a {@link StresserAdaptor} that pushes every one
+ * of its ids, is started with {@link Application#main} and pushes to the
+ * simulator's feed acceptor. Once the simulator has accepted the expected
+ * number of records, a fixed number of client threads retrieve the accepted
+ * URLs round-robin for a fixed time. The report gives records and feed bytes
+ * per second for the full push, documents and bytes per second and latency
+ * percentiles for retrieval, and the heap high-water mark and garbage
+ * collection time of each phase.
+ *
+ * <p>Heap use is the sum of the peak use of each heap memory pool, so it is
+ * an upper bound on the true high-water mark. Because everything runs in one
+ * JVM, the simulator's own allocation is included.
+ *
+ * <p>Usage: {@code ThroughputBenchmark [--adaptor=class] [--branches=10,10,10]
+ * [--expectedRecords=N] [--clients=8] [--retrievalSeconds=30]
+ * [--pushTimeoutSeconds=600] [--output=file] [-Dkey=value...]}. The
+ * {@code -D} arguments are passed to the adaptor, and
+ * {@code --expectedRecords} is required for adaptors other than
+ * {@link StresserAdaptor}.
+ */
+public class ThroughputBenchmark {
+  private static final Logger log
+      = Logger.getLogger(ThroughputBenchmark.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Adaptor adaptor;
+  private final String[] adaptorArgs;
+  private final long expectedRecords;
+  private final int clients;
+  private final long retrievalSeconds;
+  private final long pushTimeoutSeconds;
+
+  /**
+   * @param adaptor adaptor to benchmark
+   * @param adaptorArgs arguments for {@link Application#main}
+   * @param expectedRecords number of records in a full push, or zero to ask a
+   *     {@link StresserAdaptor} once it has started
+   * @param clients number of threads retrieving documents
+   * @param retrievalSeconds how long to retrieve documents
+   * @param pushTimeoutSeconds how long to wait for the full push
+   */
+  ThroughputBenchmark(Adaptor adaptor, String[] adaptorArgs,
+      long expectedRecords, int clients, long retrievalSeconds,
+      long pushTimeoutSeconds) {
+    if (adaptor == null || adaptorArgs == null) {
+      throw new NullPointerException();
+    }
+    if (expectedRecords == 0 && !(adaptor instanceof StresserAdaptor)) {
+      throw new IllegalArgumentException(
+          "expectedRecords is required for " + adaptor.getClass().getName());
+    }
+    if (expectedRecords < 0 || clients < 1 || retrievalSeconds < 1
+        || pushTimeoutSeconds < 1) {
+      throw new IllegalArgumentException(
+          "counts and durations must be positive");
+    }
+    this.adaptor = adaptor;
+    this.adaptorArgs = adaptorArgs.clone();
+    this.expectedRecords = expectedRecords;
+    this.clients = clients;
+    this.retrievalSeconds = retrievalSeconds;
+    this.pushTimeoutSeconds = pushTimeoutSeconds;
+  }
+
+  Report run() throws IOException, InterruptedException {
+    Report report = new Report();
+    report.adaptor = adaptor.getClass().getName();
+    Sim sim = new Sim();
+    sim.startFeedAcceptor();
+    try {
+      JvmUsage jvm = new JvmUsage();
+      long start = System.nanoTime();
+      Application app = Application.main(adaptor, adaptorArgs);
+      try {
+        report.startupSeconds = secondsSince(start);
+        long records = expectedRecords != 0 ? expectedRecords
+            : ((StresserAdaptor) adaptor).getTotalNumberOfFiles();
+        log.log(Level.INFO, "Waiting for {0} records", records);
+        awaitRecords(sim, records, start);
+        report.push = new PushPhase(sim, secondsSince(start), jvm.sample());
+        log.log(Level.INFO, "Push finished; retrieving with {0} clients",
+            clients);
+
+        jvm = new JvmUsage();
+        LoadStats.Snapshot snapshot = retrieve(sim.getUrls());
+        report.retrieval
+            = new RetrievalPhase(clients, snapshot, jvm.sample());
+      } finally {
+        app.stop(3, TimeUnit.SECONDS);
+      }
+    } finally {
+      sim.stopFeedAcceptor();
+    }
+    return report;
+  }
+
+  private void awaitRecords(Sim sim, long records, long start)
+      throws InterruptedException {
+    long deadline = start + TimeUnit.SECONDS.toNanos(pushTimeoutSeconds);
+    while (sim.getRecordsAccepted() < records) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Only " + sim.getRecordsAccepted()
+            + " of " + records + " records were pushed within "
+            + pushTimeoutSeconds + " seconds");
+      }
+      Thread.sleep(50);
+    }
+  }
+
+  /** Fetches {@code urls} round-robin from several threads. */
+  private LoadStats.Snapshot retrieve(final List<URL> urls)
+      throws InterruptedException {
+    if (urls.isEmpty()) {
+      throw new IllegalStateException("No URLs were pushed");
+    }
+    final LoadStats stats = new LoadStats();
+    final AtomicLong position = new AtomicLong();
+    final long deadline
+        = System.nanoTime() + TimeUnit.SECONDS.toNanos(retrievalSeconds);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < clients; i++) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (System.nanoTime() < deadline) {
+            int i = (int) (position.getAndIncrement() % urls.size());
+            Sim.fetch(urls.get(i), stats);
+          }
+        }
+      }, "throughput-client-" + i);
+      threads.add(thread);
+    }
+    stats.snapshotAndReset();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return stats.snapshotAndReset();
+  }
+
+  private static double secondsSince(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1e9;
+  }
+
+  private static double perSecond(double amount, double seconds) {
+    return seconds > 0 ? amount / seconds : 0;
+  }
+
+  /** Measures heap and garbage collection from its creation. */
+  static class JvmUsage {
+    private final long gcCount;
+    private final long gcMillis;
+
+    JvmUsage() {
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          pool.resetPeakUsage();
+        }
+      }
+      long[] gc = gcTotals();
+      gcCount = gc[0];
+      gcMillis = gc[1];
+    }
+
+    /** Returns usage since creation. */
+    Usage sample() {
+      Usage usage = new Usage();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          usage.heapPeakBytes += pool.getPeakUsage().getUsed();
+        }
+      }
+      long[] gc = gcTotals();
+      usage.gcCount = gc[0] - gcCount;
+      usage.gcMillis = gc[1] - gcMillis;
+      return usage;
+    }
+
+    private static long[] gcTotals() {
+      long count = 0;
+      long millis = 0;
+      for (GarbageCollectorMXBean gc
+          : ManagementFactory.getGarbageCollectorMXBeans()) {
+        // -1 means the value is unavailable.
+        count += Math.max(0, gc.getCollectionCount());
+        millis += Math.max(0, gc.getCollectionTime());
+      }
+      return new long[] {count, millis};
+    }
+  }
+
+  /** Heap and garbage collection during one phase. */
+  static class Usage {
+    long heapPeakBytes;
+    long gcCount;
+    long gcMillis;
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH,
+          "heap peak %.1f MiB, %d collections taking %d ms",
+          heapPeakBytes / 1024. / 1024, gcCount, gcMillis);
+    }
+  }
+
+  /** Results of the full push. */
+  static class PushPhase {
+    final long feeds;
+    final long records;
+    final long feedBytes;
+    final double seconds;
+    final double recordsPerSecond;
+    final double feedBytesPerSecond;
+    final Usage jvm;
+
+    PushPhase(Sim sim, double seconds, Usage jvm) {
+      this.feeds = sim.getFeedsAccepted();
+      this.records = sim.getRecordsAccepted();
+      this.feedBytes = sim.getFeedBytesAccepted();
+      this.seconds = seconds;
+      this.recordsPerSecond = perSecond(records, seconds);
+      this.feedBytesPerSecond = perSecond(feedBytes, seconds);
+      this.jvm = jvm;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH,
+          "%d records in %d feeds in %.1f s: %.1f records/s, %.1f KiB/s; %s",
+          records, feeds, seconds, recordsPerSecond,
+          feedBytesPerSecond / 1024, jvm);
+    }
+  }
+
+  /** Results of retrieving documents. */
+  static class RetrievalPhase {
+    final int clients;
+    final long docs;
+    final long failures;
+    final double docsPerSecond;
+    final double bytesPerSecond;
+    final double latencyMillisP50;
+    final double latencyMillisP90;
+    final double latencyMillisP99;
+    final double latencyMillisMax;
+    final Usage jvm;
+
+    RetrievalPhase(int clients, LoadStats.Snapshot snapshot, Usage jvm) {
+      this.clients = clients;
+      this.docs = snapshot.getCount();
+      this.failures = snapshot.getFailures();
+      this.docsPerSecond = snapshot.getRate();
+      this.bytesPerSecond = docs == 0 ? 0
+          : snapshot.getBytes() * docsPerSecond / docs;
+      this.latencyMillisP50 = snapshot.getLatencyPercentile(50) / 1e6;
+      this.latencyMillisP90 = snapshot.getLatencyPercentile(90) / 1e6;
+      this.latencyMillisP99 = snapshot.getLatencyPercentile(99) / 1e6;
+      this.latencyMillisMax = snapshot.getLatencyPercentile(100) / 1e6;
+      this.jvm = jvm;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH, "%d docs (%d failed) with %d "
+          + "clients: %.1f docs/s, %.1f KiB/s; latency ms p50=%.1f p90=%.1f "
+          + "p99=%.1f max=%.1f; %s", docs, failures, clients, docsPerSecond,
+          bytesPerSecond / 1024, latencyMillisP50, latencyMillisP90,
+          latencyMillisP99, latencyMillisMax, jvm);
+    }
+  }
+
+  /** Results of a run, written as JSON with {@code --output}. */
+  static class Report {
+    String adaptor;
+    double startupSeconds;
+    PushPhase push;
+    RetrievalPhase retrieval;
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH,
+          "%s%n  startup: %.1f s%n  push: %s%n  retrieval: %s",
+          adaptor, startupSeconds, push, retrieval);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String adaptorClass = StresserAdaptor.class.getName();
+    String branches = "10,10,10,10";
+    long expectedRecords = 0;
+    int clients = 8;
+    long retrievalSeconds = 30;
+    long pushTimeoutSeconds = 600;
+    String output = null;
+    List<String> adaptorArgs = new ArrayList<String>();
+    for (String arg : args) {
+      if (arg.startsWith("--adaptor=")) {
+        adaptorClass = arg.substring("--adaptor=".length());
+      } else if (arg.startsWith("--branches=")) {
+        branches = arg.substring("--branches=".length());
+      } else if (arg.startsWith("--expectedRecords=")) {
+        expectedRecords = Long.parseLong(
+            arg.substring("--expectedRecords=".length()));
+      } else if (arg.startsWith("--clients=")) {
+        clients = Integer.parseInt(arg.substring("--clients=".length()));
+      } else if (arg.startsWith("--retrievalSeconds=")) {
+        retrievalSeconds = Long.parseLong(
+            arg.substring("--retrievalSeconds=".length()));
+      } else if (arg.startsWith("--pushTimeoutSeconds=")) {
+        pushTimeoutSeconds = Long.parseLong(
+            arg.substring("--pushTimeoutSeconds=".length()));
+      } else if (arg.startsWith("--output=")) {
+        output = arg.substring("--output=".length());
+      } else if (arg.startsWith("-D")) {
+        adaptorArgs.add(arg);
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+    Adaptor adaptor = (Adaptor) Class.forName(adaptorClass).newInstance();
+    // Sim accepts feeds on localhost, so there is no GSA to ask its version.
+    List<String> defaults = new ArrayList<String>();
+    defaults.add("-Dgsa.hostname=localhost");
+    defaults.add("-Dgsa.version=7.2.0-0");
+    if (adaptor instanceof StresserAdaptor) {
+      defaults.add("-Dadaptor.branches=" + branches);
+      defaults.add("-Dadaptor.pushAllDocIds=true");
+    }
+    // Later arguments take precedence.
+    adaptorArgs.addAll(0, defaults);
+    // Logging each accepted URL would dominate the push.
+    Logger.getLogger(Sim.class.getName()).setLevel(Level.WARNING);
+
+    Report report = new ThroughputBenchmark(adaptor,
+        adaptorArgs.toArray(new String[adaptorArgs.size()]), expectedRecords,
+        clients, retrievalSeconds, pushTimeoutSeconds).run();
+    System.out.println(report);
+    if (output != null) {
+      Gson gson = new GsonBuilder().setPrettyPrinting().create();
+      Writer writer
+          = new OutputStreamWriter(new FileOutputStream(output), UTF8);
+      try {
+        gson.toJson(report, writer);
+      } finally {
+        writer.close();
+      }
+      log.log(Level.INFO, "Wrote report to {0}",
+          new File(output).getAbsolutePath());
+    }
+  }
+}
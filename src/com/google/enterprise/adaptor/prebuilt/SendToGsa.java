@@ -17,7 +17,6 @@ package com.google.enterprise.adaptor.prebuilt;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
-import com.google.enterprise.adaptor.GsaFeedFileArchiver;
 import com.google.enterprise.adaptor.GsaFeedFileSender;
 import com.google.enterprise.adaptor.InvalidConfigurationException;
 import com.google.enterprise.adaptor.Principal;
@@ -132,7 +131,6 @@ class SendToGsa {
   @VisibleForTesting
   String createFeedFile() {
     Config c = config;
-    final GsaFeedFileArchiver saver = new GsaFeedFileArchiver(c.feeddirectory);
     final SimpleGsaFeedFileMaker maker;
     if ("web".equals(c.feedtype)) {
       SimpleGsaFeedFileMaker.MetadataAndUrl metaMaker
@@ -158,10 +156,25 @@ class SendToGsa {
       throw new AssertionError("invalid feedtype: " + c.feedtype);
     }
     String feed = maker.toXmlString();
-    saver.saveFeed("send2gsa", feed);
+    saveFeed(feed, c.feeddirectory);
     return feed;
   }
 
+  /**
+   * Writes {@code feed} to a plain XML file in {@code directory}, so that it
+   * can be read after the program exits. Unlike the adaptors' {@link
+   * com.google.enterprise.adaptor.GsaFeedFileArchiver}, this one-shot
+   * program does not need compressed, rolling archive segments.
+   */
+  private static void saveFeed(String feed, String directory) {
+    try {
+      File file = File.createTempFile("send2gsa-", ".xml", new File(directory));
+      Files.write(feed, file, Charset.forName("UTF-8"));
+    } catch (IOException e) {
+      log.log(Level.WARNING, "failed to save feed file", e);
+    }
+  }
+
   private void setMakerAttributes(SimpleGsaFeedFileMaker maker, Config c) {
     if (c.aclpublic) {
       maker.setPublicAcl();
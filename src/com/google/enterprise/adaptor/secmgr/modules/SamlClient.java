@@ -14,6 +14,7 @@
 
 package com.google.enterprise.adaptor.secmgr.modules;
 
+import static com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil.getParserPool;
 import static com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil.initializeLocalEntity;
 import static com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil.initializePeerEntity;
 import static com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil.makeAction;
@@ -37,6 +38,7 @@ import com.google.enterprise.adaptor.secmgr.saml.HTTPSOAP11MultiContextDecoder;
 import com.google.enterprise.adaptor.secmgr.saml.HTTPSOAP11MultiContextEncoder;
 import com.google.enterprise.adaptor.secmgr.saml.HttpExchangeToInTransport;
 import com.google.enterprise.adaptor.secmgr.saml.HttpExchangeToOutTransport;
+import com.google.enterprise.adaptor.secmgr.saml.OpenSamlUtil;
 import com.google.enterprise.adaptor.secmgr.saml.SamlLogUtil;
 
 import org.joda.time.DateTime;
@@ -69,8 +71,11 @@ import org.opensaml.ws.message.encoder.MessageEncoder;
 import org.opensaml.ws.message.encoder.MessageEncodingException;
 import org.opensaml.ws.transport.http.HTTPInTransport;
 import org.opensaml.ws.transport.http.HTTPOutTransport;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.util.Pair;
+import org.w3c.dom.Element;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -323,6 +328,8 @@ public class SamlClient {
     // Encode the request.
     HttpExchange exchange =
         httpClient.postExchange(new URL(context.getPeerEntityEndpoint().getLocation()), null);
+    // Closing the exchange only after the response is decoded lets its
+    // connection be reused.
     try {
       HttpExchangeToOutTransport out = new HttpExchangeToOutTransport(exchange);
       try {
@@ -332,28 +339,28 @@ public class SamlClient {
       } finally {
         out.finish();
       }
-    } finally {
-      exchange.close();
-    }
 
-    if (timeout != -1) {
-       exchange.setTimeout(timeout);
-    }
+      if (timeout != -1) {
+         exchange.setTimeout(timeout);
+      }
 
-    // Do HTTP exchange.
-    int status = exchange.exchange();
-    if (status != HttpURLConnection.HTTP_OK) {
-      LOGGER.warning("Incorrect HTTP status: " + status);
-      return null;
-    }
+      // Do HTTP exchange.
+      int status = exchange.exchange();
+      if (status != HttpURLConnection.HTTP_OK) {
+        LOGGER.warning("Incorrect HTTP status: " + status);
+        return null;
+      }
 
-    // Decode the response.
-    context.setInboundMessageTransport(new HttpExchangeToInTransport(exchange));
-    try {
-      runDecoder(new HTTPSOAP11Decoder(), context);
-    } catch (IOException e) {
-      LOGGER.warning("IOException: " + e.getMessage());
-      return null;
+      // Decode the response.
+      context.setInboundMessageTransport(new HttpExchangeToInTransport(exchange));
+      try {
+        runDecoder(new HTTPSOAP11Decoder(getParserPool()), context);
+      } catch (IOException e) {
+        LOGGER.warning("IOException: " + e.getMessage());
+        return null;
+      }
+    } finally {
+      exchange.close();
     }
 
     // Return the decoded response.
@@ -392,7 +399,7 @@ public class SamlClient {
       // Decode the response
       HttpExchangeToInTransport in = new HttpExchangeToInTransport(exchange);
       context.setInboundMessageTransport(in);
-      runDecoder(new HTTPSOAP11Decoder(), context);
+      runDecoder(new HTTPSOAP11Decoder(getParserPool()), context);
 
     } finally {
       exchange.close();
@@ -455,7 +462,8 @@ public class SamlClient {
       // Decode the responses
       HttpExchangeToInTransport in = new HttpExchangeToInTransport(exchange);
       context.setInboundMessageTransport(in);
-      HTTPSOAP11MultiContextDecoder decoder = new HTTPSOAP11MultiContextDecoder();
+      HTTPSOAP11MultiContextDecoder decoder =
+          new HTTPSOAP11MultiContextDecoder(getParserPool());
 
       AuthzResult.Builder builder = AuthzResult.builder(urlStrings);
       while (true) {
@@ -582,6 +590,15 @@ public class SamlClient {
       super();
     }
 
+    @Override
+    protected Element marshallMessage(XMLObject message) throws MessageEncodingException {
+      try {
+        return OpenSamlUtil.marshallXmlObject(message);
+      } catch (MarshallingException e) {
+        throw new MessageEncodingException("Error marshalling message", e);
+      }
+    }
+
     @Override
     protected String buildRedirectURL(@SuppressWarnings("rawtypes") SAMLMessageContext context,
         String endpointUrl, String message)
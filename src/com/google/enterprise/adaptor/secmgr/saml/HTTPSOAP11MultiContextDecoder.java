@@ -68,6 +68,14 @@ public class HTTPSOAP11MultiContextDecoder extends BaseSAML2MessageDecoder {
     super(pool);
   }
 
+  /**
+   * Whether another message is available to decode. This is always {@code
+   * true} before the first message has been decoded.
+   */
+  public boolean hasMoreMessages() {
+    return soapMessage == null || thisChild < soapBodyChildren.size();
+  }
+
   public String getBindingURI() {
     return SAMLConstants.SAML2_SOAP11_BINDING_URI;
   }
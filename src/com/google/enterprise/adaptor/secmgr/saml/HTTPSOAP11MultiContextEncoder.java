@@ -26,7 +26,9 @@ import org.opensaml.ws.soap.soap11.Body;
 import org.opensaml.ws.soap.soap11.Envelope;
 import org.opensaml.ws.transport.http.HTTPOutTransport;
 import org.opensaml.ws.transport.http.HTTPTransportUtils;
+import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.util.XMLHelper;
 import org.w3c.dom.Element;
 
@@ -124,6 +126,17 @@ public class HTTPSOAP11MultiContextEncoder extends BaseSAML2MessageEncoder {
     }
   }
 
+  /** Marshalls into a document from the shared parser pool. */
+  @Override
+  protected Element marshallMessage(XMLObject message)
+      throws MessageEncodingException {
+    try {
+      return OpenSamlUtil.marshallXmlObject(message);
+    } catch (MarshallingException e) {
+      throw new MessageEncodingException("Error marshalling message", e);
+    }
+  }
+
   /**
    * Builds the SOAP message to be encoded.
    */
@@ -0,0 +1,170 @@
+// Copyright 2016 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.secmgr.saml;
+
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.binding.encoding.BaseSAML2MessageEncoder;
+import org.opensaml.ws.message.MessageContext;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HTTPOutTransport;
+import org.opensaml.ws.transport.http.HTTPTransportUtils;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.MarshallingException;
+import org.w3c.dom.Element;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSOutput;
+import org.w3c.dom.ls.LSSerializer;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+/**
+ * SAML 2.0 SOAP 1.1 over HTTP binding encoder that writes each message to the
+ * client as soon as it is encoded, instead of building the whole envelope
+ * before writing it like {@link HTTPSOAP11MultiContextEncoder}. The output is
+ * the same as that of {@code HTTPSOAP11MultiContextEncoder}.
+ *
+ * <p>Call {@link #encode} for each message, then {@link #finish}.
+ */
+public class HTTPSOAP11StreamingEncoder extends BaseSAML2MessageEncoder {
+  private static final String ENVELOPE_START
+      = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<soap11:Envelope xmlns:soap11=\"" + SAMLConstants.SOAP11ENV_NS + "\">"
+      + "<soap11:Body>";
+  private static final String ENVELOPE_END
+      = "</soap11:Body></soap11:Envelope>";
+
+  /** Class logger. */
+  private static final Logger log
+      = Logger.getLogger(HTTPSOAP11StreamingEncoder.class.getName());
+
+  private Writer out;
+  private LSSerializer serializer;
+  private LSOutput output;
+
+  public String getBindingURI() {
+    return SAMLConstants.SAML2_SOAP11_BINDING_URI;
+  }
+
+  public boolean providesMessageConfidentiality(MessageContext messageContext) {
+    return messageContext.getOutboundMessageTransport().isConfidential();
+  }
+
+  public boolean providesMessageIntegrity(MessageContext messageContext) {
+    return messageContext.getOutboundMessageTransport().isIntegrityProtected();
+  }
+
+  @Override
+  protected void doEncode(MessageContext messageContext)
+      throws MessageEncodingException {
+    if (!(messageContext instanceof SAMLMessageContext<?, ?, ?>)) {
+      throw new MessageEncodingException(
+          "Invalid message context type, this encoder only supports "
+          + "SAMLMessageContext");
+    }
+    @SuppressWarnings("unchecked")
+    SAMLMessageContext<SAMLObject, SAMLObject, SAMLObject> samlMsgCtx =
+        (SAMLMessageContext<SAMLObject, SAMLObject, SAMLObject>) messageContext;
+    SAMLObject samlMessage = samlMsgCtx.getOutboundSAMLMessage();
+    if (samlMessage == null) {
+      throw new MessageEncodingException(
+          "No outbound SAML message contained in message context");
+    }
+    if (out == null) {
+      if (!(messageContext.getOutboundMessageTransport()
+            instanceof HTTPOutTransport)) {
+        throw new MessageEncodingException("Invalid outbound message "
+            + "transport type, this encoder only supports HTTPOutTransport");
+      }
+      start((HTTPOutTransport) messageContext.getOutboundMessageTransport());
+    }
+
+    signMessage(samlMsgCtx);
+    log.fine("Writing SAML message to the SOAP message's body");
+    try {
+      writeElement(marshallMessage(samlMessage));
+      out.flush();
+    } catch (IOException e) {
+      throw new MessageEncodingException(
+          "Unable to write message content to outbound stream", e);
+    }
+  }
+
+  /**
+   * Completes the SOAP message. If no messages were encoded, {@code
+   * outTransport} receives an empty SOAP body.
+   */
+  public void finish(HTTPOutTransport outTransport)
+      throws MessageEncodingException {
+    try {
+      if (out == null) {
+        start(outTransport);
+      }
+      out.write(ENVELOPE_END);
+      out.flush();
+    } catch (IOException e) {
+      throw new MessageEncodingException(
+          "Unable to write message content to outbound stream", e);
+    }
+  }
+
+  /** Marshalls into a document from the shared parser pool. */
+  @Override
+  protected Element marshallMessage(XMLObject message)
+      throws MessageEncodingException {
+    try {
+      return OpenSamlUtil.marshallXmlObject(message);
+    } catch (MarshallingException e) {
+      throw new MessageEncodingException("Error marshalling message", e);
+    }
+  }
+
+  /** Writes {@code element} without an XML declaration. */
+  private void writeElement(Element element) {
+    if (serializer == null) {
+      DOMImplementationLS domImpl = (DOMImplementationLS)
+          element.getOwnerDocument().getImplementation();
+      serializer = domImpl.createLSSerializer();
+      serializer.getDomConfig().setParameter("xml-declaration", false);
+      output = domImpl.createLSOutput();
+      output.setCharacterStream(out);
+    }
+    serializer.write(element, output);
+  }
+
+  private void start(HTTPOutTransport outTransport)
+      throws MessageEncodingException {
+    HTTPTransportUtils.addNoCacheHeaders(outTransport);
+    HTTPTransportUtils.setUTF8Encoding(outTransport);
+    HTTPTransportUtils.setContentType(outTransport, "text/xml");
+    outTransport.setHeader("SOAPAction",
+        "http://www.oasis-open.org/committees/security");
+    try {
+      out = new OutputStreamWriter(outTransport.getOutgoingStream(), "UTF-8");
+      out.write(ENVELOPE_START);
+    } catch (UnsupportedEncodingException e) {
+      throw new MessageEncodingException(
+          "JVM does not support required UTF-8 encoding");
+    } catch (IOException e) {
+      throw new MessageEncodingException(
+          "Unable to write message content to outbound stream", e);
+    }
+  }
+}
@@ -15,8 +15,11 @@
 package com.google.enterprise.adaptor.secmgr.saml;
 
 import static org.opensaml.common.xml.SAMLConstants.SAML20P_NS;
+import static org.opensaml.common.xml.SAMLConstants.SAML20_NS;
+import static org.opensaml.common.xml.SAMLConstants.SOAP11ENV_NS;
 
 import com.google.common.collect.Lists;
+import com.google.enterprise.adaptor.secmgr.common.XmlUtil;
 
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
@@ -81,12 +84,15 @@ import org.opensaml.ws.security.SecurityPolicyResolver;
 import org.opensaml.ws.security.SecurityPolicyRule;
 import org.opensaml.ws.security.provider.BasicSecurityPolicy;
 import org.opensaml.ws.security.provider.StaticSecurityPolicyResolver;
+import org.opensaml.ws.soap.soap11.Envelope;
 import org.opensaml.xml.ConfigurationException;
 import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.XMLObjectBuilderFactory;
 import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.io.UnmarshallingException;
 import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.CriteriaSet;
 import org.opensaml.xml.security.SecurityException;
 import org.opensaml.xml.security.SecurityHelper;
@@ -102,10 +108,12 @@ import org.opensaml.xml.security.keyinfo.provider.InlineX509DataProvider;
 import org.opensaml.xml.security.keyinfo.provider.RSAKeyValueProvider;
 import org.opensaml.xml.security.trust.TrustEngine;
 import org.opensaml.xml.signature.KeyInfo;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.security.KeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -114,6 +122,7 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.Immutable;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.namespace.QName;
 
 /**
@@ -867,6 +876,92 @@ public final class OpenSamlUtil {
     return idGenerator.generateIdentifier();
   }
 
+  /*
+   * XML parsing
+   */
+
+  /** Maximum number of idle document builders kept by {@link #parserPool}. */
+  private static final int PARSER_POOL_SIZE = 50;
+
+  /** Number of document builders created by {@link #warmUp}. */
+  private static final int WARM_UP_BUILDERS = 4;
+
+  /**
+   * Parser pool shared by all decoders. Creating a pool per decoder also
+   * creates a DocumentBuilderFactory and DocumentBuilder per message.
+   */
+  private static final BasicParserPool parserPool = makeParserPool();
+
+  private static BasicParserPool makeParserPool() {
+    BasicParserPool pool = new BasicParserPool();
+    pool.setMaxPoolSize(PARSER_POOL_SIZE);
+    return pool;
+  }
+
+  /**
+   * Get the parser pool to use for decoding messages.  The pool is
+   * thread-safe.
+   *
+   * @return The shared parser pool.
+   */
+  public static ParserPool getParserPool() {
+    return parserPool;
+  }
+
+  /**
+   * Prepare document builders in the shared parser pool and run a SOAP
+   * authorization query and response through parsing, unmarshalling,
+   * marshalling and serialization, so that the first messages after startup
+   * don't pay for class loading and parser setup.
+   *
+   * @throws IOException if the sample message can't be processed.
+   */
+  public static void warmUp() throws IOException {
+    try {
+      List<DocumentBuilder> builders = Lists.newArrayList();
+      for (int i = 0; i < WARM_UP_BUILDERS; i++) {
+        builders.add(parserPool.getBuilder());
+      }
+      for (DocumentBuilder builder : builders) {
+        parserPool.returnBuilder(builder);
+      }
+
+      Document document = parserPool.parse(new StringReader(WARM_UP_MESSAGE));
+      Envelope envelope = (Envelope) unmarshallXmlObject(document.getDocumentElement());
+      AuthzDecisionQuery query
+          = (AuthzDecisionQuery) envelope.getBody().getUnknownXMLObjects().get(0);
+      DateTime now = new DateTime();
+      String issuer = query.getIssuer().getValue();
+      Assertion assertion = makeAssertion(issuer, now,
+          makeSubject(query.getSubject().getNameID().getValue()), null,
+          makeAuthzDecisionStatement(query.getResource(), DecisionTypeEnumeration.PERMIT,
+              makeAction(Action.HTTP_GET_ACTION, Action.GHPP_NS_URI)));
+      Response response = makeResponse(issuer, now, makeStatus(StatusCode.SUCCESS_URI), query,
+          assertion);
+      XmlUtil.getInstance().buildXmlString(marshallXmlObject(response).getOwnerDocument());
+    } catch (XMLParserException e) {
+      throw new IOException(e);
+    } catch (UnmarshallingException e) {
+      throw new IOException(e);
+    } catch (MarshallingException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static final String WARM_UP_MESSAGE
+      = "<soap11:Envelope xmlns:soap11=\"" + SOAP11ENV_NS + "\">"
+      + "<soap11:Body>"
+      + "<samlp:AuthzDecisionQuery ID=\"warmup\" IssueInstant=\"2016-01-01T00:00:00Z\""
+      + " Version=\"2.0\" Resource=\"http://localhost/warmup\""
+      + " xmlns:saml=\"" + SAML20_NS + "\" xmlns:samlp=\"" + SAML20P_NS + "\">"
+      + "<saml:Issuer>warmup</saml:Issuer>"
+      + "<saml:Subject><saml:NameID>warmup</saml:NameID></saml:Subject>"
+      + "<saml:Action Namespace=\"" + Action.GHPP_NS_URI + "\">" + Action.HTTP_GET_ACTION
+      + "</saml:Action>"
+      + "</samlp:AuthzDecisionQuery>"
+      + "</soap11:Body>"
+      + "</soap11:Envelope>";
+
   /*
    * Context and codecs
    */
@@ -955,7 +1050,7 @@ public final class OpenSamlUtil {
   public static ObservableMetadataProvider getMetadataFromFile(File file)
       throws MetadataProviderException {
     FilesystemMetadataProvider provider = new FilesystemMetadataProvider(file);
-    provider.setParserPool(new BasicParserPool());
+    provider.setParserPool(parserPool);
     // Causes null-pointer errors in OpenSAML code:
     //provider.setRequireValidMetadata(true);
     return provider;
@@ -1072,7 +1167,16 @@ public final class OpenSamlUtil {
    * @throws MarshallingException if unable to convert object.
    */
   public static Element marshallXmlObject(XMLObject xmlObject) throws MarshallingException {
-    return Configuration.getMarshallerFactory().getMarshaller(xmlObject).marshall(xmlObject);
+    Document document;
+    try {
+      // The marshaller would otherwise look up a new DocumentBuilderFactory
+      // for every object.
+      document = parserPool.newDocument();
+    } catch (XMLParserException e) {
+      throw new MarshallingException("Unable to create document", e);
+    }
+    return Configuration.getMarshallerFactory().getMarshaller(xmlObject)
+        .marshall(xmlObject, document);
   }
 
   /**
@@ -1094,7 +1198,7 @@ public final class OpenSamlUtil {
    */
   public static SAMLArtifactMap makeArtifactMap(int artifactLifetime) {
     return new BasicSAMLArtifactMap(
-        new BasicParserPool(),
+        parserPool,
         new MapBasedStorageService<String, SAMLArtifactMapEntry>(),
         artifactLifetime);
   }
@@ -0,0 +1,151 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Test cases for {@link AclFingerprintCache}. */
+public class AclFingerprintCacheTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockRelativeTimeProvider timeProvider
+      = new MockRelativeTimeProvider();
+  private final Acl acl = new Acl.Builder()
+      .setPermitUsers(users("alice", "bob"))
+      .setDenyGroups(groups("eng"))
+      .setInheritFrom(new DocId("parent")).build();
+
+  @Test
+  public void testInvalidSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new AclFingerprintCache(0, 0, timeProvider);
+  }
+
+  @Test
+  public void testUnchangedAfterPush() {
+    AclFingerprintCache cache = new AclFingerprintCache(10, 0, timeProvider);
+    DocIdSender.AclItem item = new DocIdSender.AclItem(new DocId("1"), "f",
+        acl);
+    assertFalse(cache.isUnchanged(item));
+    cache.recordPushed(item);
+    assertTrue(cache.isUnchanged(item));
+    assertTrue(cache.isUnchanged(new DocIdSender.AclItem(new DocId("1"), "f",
+        new Acl.Builder(acl).build())));
+    assertFalse(cache.isUnchanged(new DocIdSender.AclItem(new DocId("1"),
+        null, acl)));
+    assertFalse(cache.isUnchanged(new DocIdSender.AclItem(new DocId("2"), "f",
+        acl)));
+    assertEquals(2, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void testChangedAcl() {
+    AclFingerprintCache cache = new AclFingerprintCache(10, 0, timeProvider);
+    DocId id = new DocId("1");
+    cache.recordPushed(new DocIdSender.AclItem(id, "f", acl));
+    assertFalse(cache.isUnchanged(new DocIdSender.AclItem(id, "f",
+        new Acl.Builder(acl)
+            .setPermitUsers(users("alice")).build())));
+    assertFalse(cache.isUnchanged(new DocIdSender.AclItem(id, "f",
+        new Acl.Builder(acl)
+            .setInheritanceType(Acl.InheritanceType.PARENT_OVERRIDES)
+            .build())));
+    // The same principal as a group instead of a user is a different ACL.
+    assertFalse(cache.isUnchanged(new DocIdSender.AclItem(id, "f",
+        new Acl.Builder(acl)
+            .setPermitUsers(users("alice"))
+            .setPermitGroups(groups("bob")).build())));
+  }
+
+  @Test
+  public void testFingerprintIgnoresOrder() {
+    Acl reordered = new Acl.Builder(acl)
+        .setPermitUsers(users("bob", "alice")).build();
+    assertEquals(AclFingerprintCache.fingerprint(acl),
+        AclFingerprintCache.fingerprint(reordered));
+  }
+
+  @Test
+  public void testExpiry() {
+    AclFingerprintCache cache
+        = new AclFingerprintCache(10, 1000, timeProvider);
+    DocIdSender.AclItem item = new DocIdSender.AclItem(new DocId("1"), "f",
+        acl);
+    cache.recordPushed(item);
+    timeProvider.time = 999;
+    assertTrue(cache.isUnchanged(item));
+    timeProvider.time = 1000;
+    assertFalse(cache.isUnchanged(item));
+    cache.recordPushed(item);
+    assertTrue(cache.isUnchanged(item));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    AclFingerprintCache cache = new AclFingerprintCache(2, 0, timeProvider);
+    DocIdSender.AclItem item1 = new DocIdSender.AclItem(new DocId("1"), "f",
+        acl);
+    DocIdSender.AclItem item2 = new DocIdSender.AclItem(new DocId("2"), "f",
+        acl);
+    DocIdSender.AclItem item3 = new DocIdSender.AclItem(new DocId("3"), "f",
+        acl);
+    cache.recordPushed(item1);
+    cache.recordPushed(item2);
+    assertTrue(cache.isUnchanged(item1));
+    cache.recordPushed(item3);
+    assertEquals(2, cache.size());
+    assertTrue(cache.isUnchanged(item1));
+    assertFalse(cache.isUnchanged(item2));
+    assertTrue(cache.isUnchanged(item3));
+  }
+
+  private static Set<UserPrincipal> users(String... names) {
+    Set<UserPrincipal> set = new LinkedHashSet<UserPrincipal>();
+    for (String n : names) {
+      set.add(new UserPrincipal(n));
+    }
+    return set;
+  }
+
+  private static Set<GroupPrincipal> groups(String... names) {
+    Set<GroupPrincipal> set = new LinkedHashSet<GroupPrincipal>();
+    for (String n : names) {
+      set.add(new GroupPrincipal(n));
+    }
+    return set;
+  }
+
+  private static class MockRelativeTimeProvider
+      implements RelativeTimeProvider {
+    long time;
+
+    @Override
+    public long relativeTime(TimeUnit timeUnit) {
+      return timeUnit.convert(time, TimeUnit.MILLISECONDS);
+    }
+  }
+}
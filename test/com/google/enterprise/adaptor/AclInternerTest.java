@@ -0,0 +1,72 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/** Test cases for {@link AclInterner}. */
+public class AclInternerTest {
+  private final AclInterner interner = new AclInterner();
+
+  private static Acl.Builder builder(String group, String user) {
+    return new Acl.Builder()
+        .setPermitGroups(Arrays.asList(new GroupPrincipal(group)))
+        .setDenyUsers(Arrays.asList(new UserPrincipal(user)))
+        .setInheritFrom(new DocId("parent"));
+  }
+
+  @Test
+  public void testEqualAclsShared() {
+    Acl acl = builder("eng", "bob").build();
+    assertSame(acl, interner.intern(acl));
+    assertSame(acl, interner.intern(builder("eng", "bob").build()));
+  }
+
+  @Test
+  public void testSetsShared() {
+    Acl acl1 = interner.intern(builder("eng", "bob").build());
+    Acl acl2 = interner.intern(builder("eng", "alice").build());
+    assertNotSame(acl1, acl2);
+    assertSame(acl1.getPermitGroups(), acl2.getPermitGroups());
+    assertEquals(builder("eng", "alice").build(), acl2);
+  }
+
+  @Test
+  public void testDifferentSpellingNotShared() {
+    Acl acl = interner.intern(builder("dom\\eng", "bob").build());
+    Acl respelled = builder("eng@dom", "bob").build();
+    assertEquals(acl, respelled);
+    Acl result = interner.intern(respelled);
+    assertNotSame(acl, result);
+    assertEquals("eng@dom",
+        result.getPermitGroups().iterator().next().getName());
+  }
+
+  @Test
+  public void testDifferentCaseNotShared() {
+    Acl acl = interner.intern(
+        builder("Eng", "bob").setEverythingCaseInsensitive().build());
+    Acl lower = builder("eng", "bob").setEverythingCaseInsensitive().build();
+    assertEquals(acl, lower);
+    assertEquals("eng", interner.intern(lower).getPermitGroups().iterator()
+        .next().getName());
+  }
+}
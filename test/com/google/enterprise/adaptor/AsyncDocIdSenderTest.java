@@ -76,6 +76,8 @@ public class AsyncDocIdSenderTest {
     // Instead, it should simply be dropped.
     assertFalse(sender.asyncPushItem(
         new DocIdPusher.Record.Builder(new DocId("4")).build()));
+    assertEquals(3, sender.getQueueDepth());
+    assertEquals(1, sender.getDroppedCount());
     Thread workerThread = new Thread(sender.worker());
     workerThread.start();
 
@@ -83,6 +85,7 @@ public class AsyncDocIdSenderTest {
     workerThread.interrupt();
     workerThread.join();
     assertEquals(golden, pusher.getItems());
+    assertEquals(0, sender.getQueueDepth());
   }
 
   @Test(timeout = 100)
@@ -155,6 +158,58 @@ public class AsyncDocIdSenderTest {
     verifyPushedItems(sender, golden);
   }
 
+  @Test
+  public void testUnchangedAclSkipped() throws Exception {
+    AclFingerprintCache cache = new AclFingerprintCache(10, 0,
+        new SystemRelativeTimeProvider());
+    AsyncDocIdSender sender = new AsyncDocIdSender(pusher, 3, 1,
+        TimeUnit.SECONDS, 3, cache);
+    DocId docId = new DocId("1");
+    Acl acl = new Acl.Builder().setInheritFrom(new DocId("2")).build();
+    DocIdSender.AclItem item = new DocIdSender.AclItem(docId, "frag", acl);
+    assertTrue(sender.asyncPushItem(item));
+    verifyPushedItems(sender, Arrays.asList(item));
+
+    // Already pushed, so accepted without being queued.
+    assertTrue(sender.asyncPushItem(
+        new DocIdSender.AclItem(docId, "frag", acl)));
+    assertEquals(0, sender.getQueueDepth());
+    assertEquals(1, cache.getHits());
+
+    // A different fragment or ACL is queued.
+    DocIdSender.AclItem otherFragment
+        = new DocIdSender.AclItem(docId, "other", acl);
+    DocIdSender.AclItem changed = new DocIdSender.AclItem(docId, "frag",
+        new Acl.Builder().setInheritFrom(new DocId("3")).build());
+    assertTrue(sender.asyncPushItem(otherFragment));
+    assertTrue(sender.asyncPushItem(changed));
+    assertEquals(2, sender.getQueueDepth());
+    verifyPushedItems(sender, Arrays.asList(item, otherFragment, changed));
+  }
+
+  @Test
+  public void testFailedAclNotRemembered() throws Exception {
+    AclFingerprintCache cache = new AclFingerprintCache(10, 0,
+        new SystemRelativeTimeProvider());
+    final DocIdSender.AclItem item = new DocIdSender.AclItem(new DocId("1"),
+        "frag", new Acl.Builder().setInheritFrom(new DocId("2")).build());
+    AsyncDocIdSender.ItemPusher failingPusher
+        = new AsyncDocIdSender.ItemPusher() {
+          @Override
+          public <T extends DocIdSender.Item> T pushItems(Iterator<T> items,
+              ExceptionHandler handler) {
+            return items.next();
+          }
+        };
+    AsyncDocIdSender sender = new AsyncDocIdSender(failingPusher, 3, 1,
+        TimeUnit.SECONDS, 3, cache);
+    sender.asyncPushItem(item);
+    verifyPushedItems(sender, Arrays.<DocIdSender.Item>asList());
+    assertEquals(0, cache.size());
+    assertTrue(sender.asyncPushItem(item));
+    assertEquals(1, sender.getQueueDepth());
+  }
+
   private void verifyPushedItems(AsyncDocIdSender sender,
       List<? extends DocIdSender.Item> expected) throws Exception {
     final Runnable worker = sender.worker();
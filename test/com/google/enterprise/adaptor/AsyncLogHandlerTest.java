@@ -0,0 +1,155 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Test cases for {@link AsyncLogHandler}.
+ */
+public class AsyncLogHandlerTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final RecordingHandler target = new RecordingHandler();
+  private final Formatter formatter = new Formatter() {
+    @Override
+    public String format(LogRecord record) {
+      return record.getMessage() + "\n";
+    }
+  };
+  private AsyncLogHandler handler;
+
+  @After
+  public void tearDown() {
+    target.release.countDown();
+    if (handler != null) {
+      handler.close();
+    }
+  }
+
+  @Test
+  public void testInvalidCapacity() {
+    thrown.expect(IllegalArgumentException.class);
+    new AsyncLogHandler(0, 0, null);
+  }
+
+  @Test
+  public void testMissingFormatter() {
+    thrown.expect(NullPointerException.class);
+    new AsyncLogHandler(1, 1, null);
+  }
+
+  @Test
+  public void testPublish() throws Exception {
+    target.release.countDown();
+    handler = new AsyncLogHandler(16, 2, formatter, target);
+    for (int i = 0; i < 10; i++) {
+      handler.publish(new LogRecord(Level.INFO, "message " + i));
+    }
+    // Only the most recent messages are kept.
+    assertEquals("message 8\nmessage 9\n", handler.writeOut());
+    handler.flush();
+    assertEquals(10, target.messages.size());
+    assertEquals("message 0", target.messages.get(0));
+    assertEquals(Thread.currentThread().getName(), target.threadNames.get(0));
+    assertEquals(0, handler.getDroppedCount());
+  }
+
+  @Test
+  public void testLevel() throws Exception {
+    target.release.countDown();
+    handler = new AsyncLogHandler(4, 2, formatter, target);
+    handler.setLevel(Level.INFO);
+    handler.publish(new LogRecord(Level.FINE, "fine"));
+    handler.publish(new LogRecord(Level.WARNING, "warning"));
+    assertEquals("warning\n", handler.writeOut());
+  }
+
+  @Test
+  public void testDropsWhenFull() throws Exception {
+    handler = new AsyncLogHandler(4, 10, formatter, target);
+    handler.publish(new LogRecord(Level.INFO, "first"));
+    // Wait for the background thread to block while writing the first record,
+    // which still takes up room until it is written.
+    target.started.await();
+    for (int i = 0; i < 5; i++) {
+      handler.publish(new LogRecord(Level.INFO, "message " + i));
+    }
+    assertEquals(2, handler.getDroppedCount());
+    target.release.countDown();
+    handler.close();
+    assertEquals(Arrays.asList("first", "message 0", "message 1", "message 2",
+        "2 log messages were dropped because they were logged faster than "
+        + "they could be written"), target.messages);
+    assertTrue(target.closed);
+  }
+
+  @Test
+  public void testPublishAfterClose() throws Exception {
+    target.release.countDown();
+    handler = new AsyncLogHandler(4, 2, formatter, target);
+    handler.close();
+    handler.publish(new LogRecord(Level.INFO, "late"));
+    assertEquals(Collections.emptyList(), target.messages);
+  }
+
+  private static class RecordingHandler extends Handler {
+    final List<String> messages
+        = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> threadNames
+        = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    volatile boolean closed;
+
+    @Override
+    public void publish(LogRecord record) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      messages.add(new SimpleFormatter().formatMessage(record));
+      threadNames.add(AsyncLogHandler.getThreadName(record));
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ContentTransformFactory}.
+ */
+public class ContentTransformFactoryTest {
+  private static final long SLEEP_MILLIS = 50;
+
+  private final MockStageRecorder recorder = new MockStageRecorder();
+
+  private static List<Map<String, String>> configs(Class<?>... classes) {
+    List<Map<String, String>> configs = new ArrayList<Map<String, String>>();
+    for (Class<?> clazz : classes) {
+      configs.add(Collections.singletonMap("class", clazz.getName()));
+    }
+    return configs;
+  }
+
+  @Test
+  public void testStagesTimedWhileRecording() throws Exception {
+    recorder.recording = true;
+    ContentTransformFactory factory = new ContentTransformFactory(
+        configs(PassThrough.class, Sleep.class), recorder);
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    OutputStream pipeline
+        = factory.createPipeline(original, "text/plain", new Metadata());
+    pipeline.write("content".getBytes("UTF-8"));
+    assertEquals(0, recorder.stages.size());
+    pipeline.close();
+    // Closing again does not record the stages again.
+    pipeline.close();
+    assertEquals("content", original.toString("UTF-8"));
+
+    assertEquals(2, recorder.stages.size());
+    assertEquals(PassThrough.class.getName(), recorder.stages.get(0));
+    assertEquals(Sleep.class.getName(), recorder.stages.get(1));
+    long sleepNanos = TimeUnit.MILLISECONDS.toNanos(SLEEP_MILLIS);
+    // The time of the first stage excludes the time of the second.
+    assertTrue(recorder.nanos.get(0) < sleepNanos);
+    assertTrue(recorder.nanos.get(1) >= sleepNanos);
+  }
+
+  @Test
+  public void testStagesNotTimedWhenNotRecording() throws Exception {
+    ContentTransformFactory factory = new ContentTransformFactory(
+        configs(PassThrough.class, Sleep.class), recorder);
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    OutputStream pipeline
+        = factory.createPipeline(original, "text/plain", new Metadata());
+    pipeline.write("content".getBytes("UTF-8"));
+    pipeline.close();
+    assertEquals("content", original.toString("UTF-8"));
+    assertEquals(0, recorder.stages.size());
+  }
+
+  private static class MockStageRecorder
+      implements ContentTransformFactory.StageRecorder {
+    boolean recording;
+    final List<String> stages = new ArrayList<String>();
+    final List<Long> nanos = new ArrayList<Long>();
+
+    @Override
+    public boolean isRecording() {
+      return recording;
+    }
+
+    @Override
+    public void recordStage(String stage, long nanos) {
+      this.stages.add(stage);
+      this.nanos.add(nanos);
+    }
+  }
+
+  private static class PassThrough extends ContentTransform {
+    public PassThrough(Map<String, String> config, Metadata metadata,
+        String contentType, OutputStream originalStream) {
+      super(config, metadata, contentType, originalStream);
+    }
+  }
+
+  private static class Sleep extends ContentTransform {
+    public Sleep(Map<String, String> config, Metadata metadata,
+        String contentType, OutputStream originalStream) {
+      super(config, metadata, contentType, originalStream);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        Thread.sleep(SLEEP_MILLIS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      super.write(b, off, len);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -29,6 +30,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
 
 /**
  * Test cases for {@link Dashboard}.
@@ -56,6 +58,34 @@ public class DashboardTest {
     }
   }
 
+  @Test
+  public void testLogRpcMethodUsesConfiguredHandler() {
+    Logger logger = Logger.getLogger("");
+    AsyncLogHandler configured = new AsyncLogHandler(
+        AsyncLogHandler.DEFAULT_CAPACITY, AsyncLogHandler.DEFAULT_HISTORY_SIZE,
+        new SimpleFormatter());
+    logger.addHandler(configured);
+    try {
+      int handlerCount = logger.getHandlers().length;
+      Dashboard.CircularLogRpcMethod method
+          = new Dashboard.CircularLogRpcMethod();
+      method.start();
+      try {
+        assertEquals(handlerCount, logger.getHandlers().length);
+        logger.info("Configured");
+        String str = (String) method.run(null);
+        assertTrue(str.replaceAll("\r\n", "\n").endsWith("Configured\n"));
+      } finally {
+        method.close();
+      }
+      // The configured handler is left in place.
+      assertTrue(Arrays.asList(logger.getHandlers()).contains(configured));
+    } finally {
+      logger.removeHandler(configured);
+      configured.close();
+    }
+  }
+
   @Test
   public void testConfigRpcMethod() {
     Map<String, String> golden = new HashMap<String, String>();
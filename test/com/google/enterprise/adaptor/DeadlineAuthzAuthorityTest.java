@@ -0,0 +1,167 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+/** Test cases for {@link DeadlineAuthzAuthority}. */
+public class DeadlineAuthzAuthorityTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final List<DocId> ids
+      = Arrays.asList(new DocId("1"), new DocId("2"));
+
+  @Test
+  public void testNegativeTimeout() {
+    thrown.expect(IllegalArgumentException.class);
+    new DeadlineAuthzAuthority(new MockAsyncAuthzAuthority(null), -1);
+  }
+
+  @Test
+  public void testAllDecided() throws Exception {
+    Map<DocId, AuthzStatus> statuses = new HashMap<DocId, AuthzStatus>();
+    statuses.put(new DocId("1"), AuthzStatus.PERMIT);
+    statuses.put(new DocId("2"), AuthzStatus.DENY);
+    MockAsyncAuthzAuthority async = new MockAsyncAuthzAuthority(
+        completed(statuses));
+    AuthzAuthority authz = new DeadlineAuthzAuthority(async, 1000);
+    assertEquals(statuses, authz.isUserAuthorized(null, ids));
+    assertEquals(ids, async.ids);
+  }
+
+  @Test
+  public void testMissingIdsIndeterminate() throws Exception {
+    AuthzAuthority authz = new DeadlineAuthzAuthority(
+        new MockAsyncAuthzAuthority(completed(Collections.singletonMap(
+            new DocId("1"), AuthzStatus.PERMIT))), 1000);
+    Map<DocId, AuthzStatus> golden = new HashMap<DocId, AuthzStatus>();
+    golden.put(new DocId("1"), AuthzStatus.PERMIT);
+    golden.put(new DocId("2"), AuthzStatus.INDETERMINATE);
+    assertEquals(golden, authz.isUserAuthorized(null, ids));
+  }
+
+  @Test
+  public void testDeadlineCancels() throws Exception {
+    FutureTask<Map<DocId, AuthzStatus>> never
+        = new FutureTask<Map<DocId, AuthzStatus>>(
+            new Callable<Map<DocId, AuthzStatus>>() {
+              @Override
+              public Map<DocId, AuthzStatus> call() {
+                throw new AssertionError();
+              }
+            });
+    AuthzAuthority authz = new DeadlineAuthzAuthority(
+        new MockAsyncAuthzAuthority(never), 10);
+    Map<DocId, AuthzStatus> golden = new HashMap<DocId, AuthzStatus>();
+    golden.put(new DocId("1"), AuthzStatus.INDETERMINATE);
+    golden.put(new DocId("2"), AuthzStatus.INDETERMINATE);
+    assertEquals(golden, authz.isUserAuthorized(null, ids));
+    assertTrue(never.isCancelled());
+  }
+
+  @Test
+  public void testDeadlineDistinguishable() throws Exception {
+    FutureTask<Map<DocId, AuthzStatus>> never
+        = new FutureTask<Map<DocId, AuthzStatus>>(
+            new Callable<Map<DocId, AuthzStatus>>() {
+              @Override
+              public Map<DocId, AuthzStatus> call() {
+                throw new AssertionError();
+              }
+            });
+    DeadlineAuthzAuthority authz = new DeadlineAuthzAuthority(
+        new MockAsyncAuthzAuthority(never), 10);
+    thrown.expect(TimeoutException.class);
+    try {
+      authz.isUserAuthorizedBeforeDeadline(null, ids);
+    } finally {
+      assertTrue(never.isCancelled());
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    FutureTask<Map<DocId, AuthzStatus>> failed
+        = new FutureTask<Map<DocId, AuthzStatus>>(
+            new Callable<Map<DocId, AuthzStatus>>() {
+              @Override
+              public Map<DocId, AuthzStatus> call() throws IOException {
+                throw new IOException("backend down");
+              }
+            });
+    failed.run();
+    AuthzAuthority authz = new DeadlineAuthzAuthority(
+        new MockAsyncAuthzAuthority(failed), 1000);
+    thrown.expect(IOException.class);
+    thrown.expectMessage("backend down");
+    authz.isUserAuthorized(null, ids);
+  }
+
+  @Test
+  public void testNullFuture() throws Exception {
+    AuthzAuthority authz = new DeadlineAuthzAuthority(
+        new MockAsyncAuthzAuthority(null), 1000);
+    assertNull(authz.isUserAuthorized(null, ids));
+  }
+
+  private static Future<Map<DocId, AuthzStatus>> completed(
+      final Map<DocId, AuthzStatus> statuses) {
+    FutureTask<Map<DocId, AuthzStatus>> future
+        = new FutureTask<Map<DocId, AuthzStatus>>(
+            new Callable<Map<DocId, AuthzStatus>>() {
+              @Override
+              public Map<DocId, AuthzStatus> call() {
+                return statuses;
+              }
+            });
+    future.run();
+    return future;
+  }
+
+  private static class MockAsyncAuthzAuthority implements AsyncAuthzAuthority {
+    private final Future<Map<DocId, AuthzStatus>> future;
+    private Collection<DocId> ids;
+
+    public MockAsyncAuthzAuthority(Future<Map<DocId, AuthzStatus>> future) {
+      this.future = future;
+    }
+
+    @Override
+    public Future<Map<DocId, AuthzStatus>> isUserAuthorizedAsync(
+        AuthnIdentity userIdentity, Collection<DocId> ids) {
+      this.ids = ids;
+      return future;
+    }
+  }
+}
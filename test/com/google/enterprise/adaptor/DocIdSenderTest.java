@@ -15,6 +15,7 @@
 package com.google.enterprise.adaptor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -23,6 +24,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -31,10 +33,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Test cases for {@link DocIdSender}.
@@ -54,8 +62,13 @@ public class DocIdSenderTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   @Before
   public void setup() {
+    // Some tests intentionally leave the thread interrupted.
+    Thread.interrupted();
     config.setValue("gsa.hostname", "localhost");
     config.setValue("gsa.version", "7.2.0-8");
   }
@@ -414,6 +427,169 @@ public class DocIdSenderTest {
     assertTrue(fileArchiver.failedFeeds.isEmpty());
   }
 
+  @Test
+  public void testPushGroupsUpdatesGroupGraph() throws Exception {
+    GroupMembershipGraph graph = new GroupMembershipGraph();
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, null, graph);
+    Map<GroupPrincipal, Collection<Principal>> groups
+        = new TreeMap<GroupPrincipal, Collection<Principal>>();
+    groups.put(new GroupPrincipal("g1"),
+        Arrays.asList(new UserPrincipal("u1"), new GroupPrincipal("g2")));
+    groups.put(new GroupPrincipal("g2"),
+        Arrays.<Principal>asList(new UserPrincipal("u2")));
+
+    assertNull(docIdSender.pushGroupDefinitions(groups, true, null));
+    assertEquals(2, graph.getGroupCount());
+    assertEquals(new HashSet<GroupPrincipal>(Arrays.asList(
+        new GroupPrincipal("g1"), new GroupPrincipal("g2"))),
+        graph.expand(new UserPrincipal("u2"),
+            Collections.<GroupPrincipal>emptySet()));
+  }
+
+  @Test
+  public void testPushGroupsBatchedByMembers() throws Exception {
+    Map<GroupPrincipal, Collection<Principal>> groups
+        = new TreeMap<GroupPrincipal, Collection<Principal>>();
+    groups.put(new GroupPrincipal("g1"),
+        Arrays.<Principal>asList(new UserPrincipal("u1"),
+          new UserPrincipal("u2")));
+    groups.put(new GroupPrincipal("g2"),
+        Arrays.<Principal>asList(new UserPrincipal("u1"),
+          new UserPrincipal("u2"), new UserPrincipal("u3"),
+          new UserPrincipal("u4")));
+    groups.put(new GroupPrincipal("g3"),
+        Arrays.<Principal>asList(new UserPrincipal("u1")));
+    groups.put(new GroupPrincipal("g4"), Arrays.<Principal>asList());
+    groups.put(new GroupPrincipal("g5"),
+        Arrays.<Principal>asList(new UserPrincipal("u1")));
+
+    config.setValue("feed.maxGroupMembers", "3");
+    assertNull(docIdSender.pushGroupDefinitions(groups, false, null));
+
+    // The group that is too large by itself is sent alone.
+    assertEquals(Arrays.asList(new List[] {
+          Arrays.asList(new GroupPrincipal("g1")),
+          Arrays.asList(new GroupPrincipal("g2")),
+          Arrays.asList(new GroupPrincipal("g3"), new GroupPrincipal("g4"),
+            new GroupPrincipal("g5")),
+        }), sentGroupNames(fileMaker));
+  }
+
+  @Test
+  public void testPushGroupsBatchedByBytes() throws Exception {
+    Map<GroupPrincipal, Collection<Principal>> groups
+        = new TreeMap<GroupPrincipal, Collection<Principal>>();
+    groups.put(new GroupPrincipal("g1"),
+        Arrays.<Principal>asList(new UserPrincipal("u1")));
+    groups.put(new GroupPrincipal("g2"),
+        Arrays.<Principal>asList(new UserPrincipal("u1")));
+    groups.put(new GroupPrincipal("g3"),
+        Arrays.<Principal>asList(new UserPrincipal("u1")));
+    long groupBytes = fileMaker.estimateGroupDefinitionLength(
+        new GroupPrincipal("g1"), groups.get(new GroupPrincipal("g1")));
+
+    config.setValue("feed.maxGroupBytes", "" + (2 * groupBytes));
+    assertNull(docIdSender.pushGroupDefinitions(groups, false, null));
+
+    assertEquals(Arrays.asList(new List[] {
+          Arrays.asList(new GroupPrincipal("g1"), new GroupPrincipal("g2")),
+          Arrays.asList(new GroupPrincipal("g3")),
+        }), sentGroupNames(fileMaker));
+  }
+
+  @Test
+  public void testPushGroupsBisectsFailedBatch() throws Exception {
+    GsaFeedFileMaker realMaker = new GsaFeedFileMaker(null,
+        new AclTransform(Arrays.<AclTransform.Rule>asList()));
+    final List<String> sent = new ArrayList<String>();
+    MockGsaFeedFileSender failingSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendGroups(String groupsource, String xmlString,
+          boolean useCompression) throws IOException {
+        if (xmlString.contains(">bad<")) {
+          throw new IOException("rejected");
+        }
+        sent.add(xmlString);
+      }
+    };
+    docIdSender = new DocIdSender(realMaker, failingSender, fileArchiver,
+        journal, config, adaptor);
+    Map<GroupPrincipal, Collection<Principal>> groups
+        = new TreeMap<GroupPrincipal, Collection<Principal>>();
+    for (int i = 0; i < 8; i++) {
+      groups.put(new GroupPrincipal("g" + i),
+          Arrays.<Principal>asList(new UserPrincipal(i == 5 ? "bad" : "u")));
+    }
+
+    assertEquals(new GroupPrincipal("g5"), docIdSender.pushGroupDefinitions(
+        groups, false, ExceptionHandlers.noRetryHandler()));
+
+    // g0-g3 are sent together and g4 alone; g6 and g7 are never sent.
+    assertEquals(2, sent.size());
+    assertTrue(sent.get(0).contains(">g0<"));
+    assertTrue(sent.get(0).contains(">g3<"));
+    assertFalse(sent.get(0).contains(">g4<"));
+    assertTrue(sent.get(1).contains(">g4<"));
+    assertFalse(sent.get(1).contains(">g3<"));
+    assertEquals(2, fileArchiver.feeds.size());
+    // The full batch, g4-g7, g4-g5, and g5 failed.
+    assertEquals(4, fileArchiver.failedFeeds.size());
+  }
+
+  @Test
+  public void testPushGroupsBisectTransientFailure() throws Exception {
+    final AtomicLong attempts = new AtomicLong();
+    MockGsaFeedFileSender flakySender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendGroups(String groupsource, String xmlString,
+          boolean useCompression) throws IOException {
+        if (attempts.incrementAndGet() == 1) {
+          throw new IOException("try again");
+        }
+        super.sendGroups(groupsource, xmlString, useCompression);
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, flakySender, fileArchiver,
+        journal, config, adaptor);
+    Map<GroupPrincipal, Collection<Principal>> groups
+        = new TreeMap<GroupPrincipal, Collection<Principal>>();
+    for (int i = 0; i < 3; i++) {
+      groups.put(new GroupPrincipal("g" + i),
+          Arrays.<Principal>asList(new UserPrincipal("u")));
+    }
+
+    assertNull(docIdSender.pushGroupDefinitions(
+        groups, false, ExceptionHandlers.noRetryHandler()));
+
+    // Both halves were sent once the whole batch failed.
+    assertEquals(Arrays.asList(new List[] {
+          Arrays.asList(new GroupPrincipal("g0"), new GroupPrincipal("g1"),
+            new GroupPrincipal("g2")),
+          Arrays.asList(new GroupPrincipal("g0")),
+          Arrays.asList(new GroupPrincipal("g1"), new GroupPrincipal("g2")),
+        }), sentGroupNames(fileMaker));
+    assertEquals(Arrays.asList("1", "2"), flakySender.xmlStrings);
+    assertEquals(Journal.CompletionStatus.SUCCESS,
+        journal.getLastGroupPushStatus());
+  }
+
+  /** Returns the names of the groups in each batch made by {@code maker}. */
+  @SuppressWarnings("unchecked")
+  private static List<List<GroupPrincipal>> sentGroupNames(
+      MockGsaFeedFileMaker maker) {
+    List<List<GroupPrincipal>> batches = new ArrayList<List<GroupPrincipal>>();
+    for (Object batch : maker.groupses) {
+      List<GroupPrincipal> names = new ArrayList<GroupPrincipal>();
+      for (Map.Entry<GroupPrincipal, ?> entry
+          : (List<Map.Entry<GroupPrincipal, ?>>) batch) {
+        names.add(entry.getKey());
+      }
+      batches.add(names);
+    }
+    return batches;
+  }
+
   @Test
   public void testNamedResources() throws Exception {
     config.setValue("feed.name", "testing");
@@ -483,6 +659,419 @@ public class DocIdSenderTest {
         Collections.singletonMap((DocId) null, Acl.EMPTY));
   }
 
+  @Test
+  public void testFullPushSkipsUnchangedRecords() throws Exception {
+    RecordFingerprintStore store = new RecordFingerprintStore(
+        temp.newFile("fingerprints"));
+    store.load();
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, store);
+    config.setValue("feed.fingerprintRefreshInterval", "0");
+    DocIdPusher.Record r0 = new DocIdPusher.Record.Builder(new DocId("0"))
+        .build();
+    DocIdPusher.Record r1 = new DocIdPusher.Record.Builder(new DocId("1"))
+        .build();
+    DocIdPusher.Record r1Modified = new DocIdPusher.Record.Builder(r1)
+        .setLastModified(new Date(1000)).build();
+    adaptor.pushItems = new ArrayList<List<DocIdPusher.Record>>();
+    adaptor.pushItems.add(Arrays.asList(r0, r1));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(Collections.singletonList(Arrays.asList(r0, r1)),
+        fileMaker.recordses);
+
+    adaptor.pushItems.clear();
+    adaptor.pushItems.add(Arrays.asList(r0, r1Modified));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(Arrays.asList(new List[] {
+      Arrays.asList(r0, r1), Arrays.asList(r1Modified),
+    }), fileMaker.recordses);
+
+    // Nothing changed, so nothing is sent.
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(2, fileMaker.recordses.size());
+    assertEquals(CompletionStatus.SUCCESS, journal.getLastFullPushStatus());
+
+    // Records pushed outside of full pushes are not filtered.
+    assertNull(docIdSender.pushRecords(Arrays.asList(r0)));
+    assertEquals(3, fileMaker.recordses.size());
+    store.close();
+  }
+
+  @Test
+  public void testDeletesOutsideFullPushForgetFingerprints()
+      throws Exception {
+    RecordFingerprintStore store = new RecordFingerprintStore(
+        temp.newFile("fingerprints"));
+    store.load();
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, store);
+    config.setValue("feed.fingerprintRefreshInterval", "0");
+    DocIdPusher.Record r0 = new DocIdPusher.Record.Builder(new DocId("0"))
+        .build();
+    DocIdPusher.Record r1 = new DocIdPusher.Record.Builder(new DocId("1"))
+        .build();
+    final DocIdPusher.Record r0Delete = new DocIdPusher.Record.Builder(r0)
+        .setDeleteFromIndex(true).build();
+    DocIdPusher.Record r1Delete = new DocIdPusher.Record.Builder(r1)
+        .setDeleteFromIndex(true).build();
+    adaptor.pushItems = new ArrayList<List<DocIdPusher.Record>>();
+    adaptor.pushItems.add(Arrays.asList(r0, r1));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(2, store.size());
+
+    docIdSender.pushIncrementalDocIdsFromAdaptor(
+        new PollingIncrementalLister() {
+          @Override
+          public void getModifiedDocIds(DocIdPusher pusher)
+              throws InterruptedException {
+            pusher.pushRecords(Collections.singletonList(r0Delete));
+          }
+        }, runtimeExceptionHandler);
+    assertNull(docIdSender.getAsyncItemPusher().pushItems(
+        Collections.singletonList(r1Delete).iterator(),
+        runtimeExceptionHandler));
+    assertEquals(0, store.size());
+
+    // Listed again unchanged after being deleted, so both are sent again.
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(Arrays.asList(new List[] {
+      Arrays.asList(r0, r1), Arrays.asList(r0Delete),
+      Arrays.asList(r1Delete), Arrays.asList(r0, r1),
+    }), fileMaker.recordses);
+    store.close();
+  }
+
+  @Test
+  public void testFullPushPeriodicRefresh() throws Exception {
+    RecordFingerprintStore store = new RecordFingerprintStore(
+        temp.newFile("fingerprints"));
+    store.load();
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, store);
+    config.setValue("feed.fingerprintRefreshInterval", "2");
+    DocIdPusher.Record r0 = new DocIdPusher.Record.Builder(new DocId("0"))
+        .build();
+    adaptor.pushItems = new ArrayList<List<DocIdPusher.Record>>();
+    adaptor.pushItems.add(Arrays.asList(r0));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    // The first push sends the record because it is new. The second and
+    // fourth pushes are refreshes and the third push is skipped.
+    assertEquals(3, fileMaker.recordses.size());
+    store.close();
+  }
+
+  @Test
+  public void testFullPushDeletesVanished() throws Exception {
+    RecordFingerprintStore store = new RecordFingerprintStore(
+        temp.newFile("fingerprints"));
+    store.load();
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, store);
+    config.setValue("feed.fingerprintRefreshInterval", "0");
+    config.setValue("feed.fingerprintDeleteVanished", "true");
+    DocIdPusher.Record r0 = new DocIdPusher.Record.Builder(new DocId("0"))
+        .build();
+    DocIdPusher.Record r1 = new DocIdPusher.Record.Builder(new DocId("1"))
+        .build();
+    adaptor.pushItems = new ArrayList<List<DocIdPusher.Record>>();
+    adaptor.pushItems.add(Arrays.asList(r0, r1));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+
+    adaptor.pushItems.clear();
+    adaptor.pushItems.add(Arrays.asList(r0));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(Arrays.asList(new List[] {
+      Arrays.asList(r0, r1),
+      Arrays.asList(new DocIdPusher.Record.Builder(new DocId("1"))
+          .setDeleteFromIndex(true).build()),
+    }), fileMaker.recordses);
+    assertEquals(1, store.size());
+
+    // Already deleted, so not deleted again.
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(2, fileMaker.recordses.size());
+    store.close();
+  }
+
+  @Test
+  public void testFullPushFailedBatchNotFingerprinted() throws Exception {
+    RecordFingerprintStore store = new RecordFingerprintStore(
+        temp.newFile("fingerprints"));
+    store.load();
+    fileSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendMetadataAndUrl(String datasource,
+          String xmlString, boolean useCompression) throws IOException {
+        if (xmlStrings.size() == 1) {
+          throw new IOException();
+        }
+        super.sendMetadataAndUrl(datasource, xmlString, useCompression);
+      }
+    };
+    final DocIdPusher.Record r0 = new DocIdPusher.Record.Builder(
+        new DocId("0")).build();
+    final DocIdPusher.Record r1 = new DocIdPusher.Record.Builder(
+        new DocId("1")).build();
+    MockAdaptor adaptor = new MockAdaptor() {
+      @Override
+      public void getDocIds(DocIdPusher pusher) throws InterruptedException {
+        assertEquals(r1, pusher.pushRecords(Arrays.asList(r0, r1),
+            new NeverRetryExceptionHandler()));
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, store);
+    config.setValue("feed.maxUrls", "1");
+    config.setValue("feed.fingerprintRefreshInterval", "0");
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    assertEquals(1, store.size());
+    store.startFullPush();
+    assertTrue(store.isUnchanged(r0));
+    assertFalse(store.isUnchanged(r1));
+    store.close();
+  }
+
+  @Test
+  public void testShardedFullPush() throws Exception {
+    MockShard[] shards = new MockShard[] {
+      new MockShard("s0", record("a"), record("b")),
+      new MockShard("s1", record("c")),
+      new MockShard("s2", record("d"), record("e")),
+    };
+    config.setValue("adaptor.fullListingParallelism", "2");
+    docIdSender.pushFullDocIdsFromShardedLister(new MockShardedLister(shards),
+        runtimeExceptionHandler);
+    assertEquals(CompletionStatus.SUCCESS, journal.getLastFullPushStatus());
+    Set<DocIdPusher.Record> sent = new HashSet<DocIdPusher.Record>();
+    for (List<? extends DocIdSender.Item> items : fileMaker.recordses) {
+      for (DocIdSender.Item item : items) {
+        sent.add((DocIdPusher.Record) item);
+      }
+    }
+    assertEquals(new HashSet<DocIdPusher.Record>(Arrays.asList(record("a"),
+        record("b"), record("c"), record("d"), record("e"))), sent);
+
+    List<Journal.ShardProgress> progress = journal.getSnapshot().shardProgress;
+    assertEquals(3, progress.size());
+    for (int i = 0; i < shards.length; i++) {
+      assertEquals(shards[i].getName(), progress.get(i).name);
+      assertEquals(CompletionStatus.SUCCESS, progress.get(i).status);
+      assertEquals(1, progress.get(i).attempts);
+      assertEquals(shards[i].records.size(), progress.get(i).recordsPushed);
+    }
+  }
+
+  @Test
+  public void testShardedFullPushMergesBatches() throws Exception {
+    final CountDownLatch firstSending = new CountDownLatch(1);
+    final CountDownLatch shardsWaiting = new CountDownLatch(2);
+    final List<Thread> waitingThreads = new ArrayList<Thread>();
+    MockShard[] shards = new MockShard[] {
+      new MockShard("first", record("a")),
+      new WaitingShard("second", firstSending, shardsWaiting, waitingThreads,
+          record("b")),
+      new WaitingShard("third", firstSending, shardsWaiting, waitingThreads,
+          record("c")),
+    };
+    fileSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendMetadataAndUrl(String datasource, String xmlString,
+          boolean useCompression) throws IOException {
+        if (datasources.isEmpty()) {
+          // Hold up the first feed until the other shards are waiting to send.
+          firstSending.countDown();
+          try {
+            shardsWaiting.await();
+            synchronized (waitingThreads) {
+              for (Thread thread : waitingThreads) {
+                while (thread.getState() != Thread.State.WAITING) {
+                  Thread.sleep(1);
+                }
+              }
+            }
+          } catch (InterruptedException ex) {
+            throw new IOException(ex);
+          }
+        }
+        super.sendMetadataAndUrl(datasource, xmlString, useCompression);
+      }
+    };
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor);
+    config.setValue("adaptor.fullListingParallelism", "3");
+    docIdSender.pushFullDocIdsFromShardedLister(new MockShardedLister(shards),
+        runtimeExceptionHandler);
+    assertEquals(CompletionStatus.SUCCESS, journal.getLastFullPushStatus());
+    assertEquals(2, fileMaker.recordses.size());
+    assertEquals(Arrays.asList(record("a")), fileMaker.recordses.get(0));
+    assertEquals(new HashSet<DocIdPusher.Record>(Arrays.asList(record("b"),
+        record("c"))),
+        new HashSet<DocIdSender.Item>(fileMaker.recordses.get(1)));
+  }
+
+  @Test
+  public void testShardedFullPushRetriesOnlyFailedShard() throws Exception {
+    MockShard flaky = new MockShard("flaky", record("a"));
+    flaky.failuresRemaining = 1;
+    MockShard stable = new MockShard("stable", record("b"));
+    ExceptionHandler tryTwice = new ExceptionHandler() {
+      @Override
+      public boolean handleException(Exception ex, int ntries) {
+        return ntries < 2;
+      }
+    };
+    docIdSender.pushFullDocIdsFromShardedLister(
+        new MockShardedLister(flaky, stable), tryTwice);
+    assertEquals(CompletionStatus.SUCCESS, journal.getLastFullPushStatus());
+    assertEquals(2, flaky.attempts);
+    assertEquals(1, stable.attempts);
+    List<Journal.ShardProgress> progress = journal.getSnapshot().shardProgress;
+    assertEquals(2, progress.get(0).attempts);
+    assertEquals(CompletionStatus.SUCCESS, progress.get(0).status);
+    assertEquals(1, progress.get(1).attempts);
+  }
+
+  @Test
+  public void testShardedFullPushShardGivesUp() throws Exception {
+    MockShard broken = new MockShard("broken", record("a"));
+    broken.failuresRemaining = Integer.MAX_VALUE;
+    MockShard stable = new MockShard("stable", record("b"));
+    NeverRetryExceptionHandler handler = new NeverRetryExceptionHandler();
+    docIdSender.pushFullDocIdsFromShardedLister(
+        new MockShardedLister(broken, stable), handler);
+    assertEquals(CompletionStatus.FAILURE, journal.getLastFullPushStatus());
+    assertEquals(1, handler.failed);
+    // The records of the other shard are still sent.
+    assertEquals(Arrays.asList(new List[] {
+      Arrays.asList(record("b")),
+    }), fileMaker.recordses);
+    List<Journal.ShardProgress> progress = journal.getSnapshot().shardProgress;
+    assertEquals(CompletionStatus.FAILURE, progress.get(0).status);
+    assertEquals(0, progress.get(0).recordsPushed);
+    assertEquals(CompletionStatus.SUCCESS, progress.get(1).status);
+    assertEquals(1, progress.get(1).recordsPushed);
+  }
+
+  @Test
+  public void testShardedFullPushHandlerRuntimeException() throws Exception {
+    MockShard broken = new MockShard("broken", record("a"));
+    broken.failuresRemaining = 1;
+    thrown.expect(RuntimeExceptionExceptionHandler.TriggeredException.class);
+    docIdSender.pushFullDocIdsFromShardedLister(
+        new MockShardedLister(broken), runtimeExceptionHandler);
+  }
+
+  @Test
+  public void testShardedFullPushInterruptedLaterBatch() throws Exception {
+    final AtomicLong batchCount = new AtomicLong();
+    fileSender = new MockGsaFeedFileSender() {
+      @Override
+      public void sendMetadataAndUrl(String datasource,
+                                     String xmlString, boolean useCompression)
+          throws IOException {
+        if (batchCount.incrementAndGet() == 1) {
+          Thread.currentThread().interrupt();
+        } else {
+          throw new IOException();
+        }
+      }
+    };
+    config.setValue("feed.maxUrls", "1");
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor);
+    final AtomicReference<DocIdPusher.Record> failed
+        = new AtomicReference<DocIdPusher.Record>();
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    MockShard shard = new MockShard("s0", record("a"), record("b")) {
+      @Override
+      public void getDocIds(DocIdPusher pusher) throws InterruptedException {
+        failed.set(pusher.pushRecords(records));
+        interrupted.set(Thread.interrupted());
+      }
+    };
+    docIdSender.pushFullDocIdsFromShardedLister(new MockShardedLister(shard),
+        runtimeExceptionHandler);
+    // The first batch was sent, so the failure is reported from the batch
+    // that was interrupted.
+    assertEquals(record("b"), failed.get());
+    assertTrue(interrupted.get());
+    assertEquals(1, journal.getSnapshot().shardProgress.get(0).recordsPushed);
+  }
+
+  @Test
+  public void testShardedFullPushDuplicateShardNames() throws Exception {
+    docIdSender.pushFullDocIdsFromShardedLister(new MockShardedLister(
+        new MockShard("same", record("a")), new MockShard("same")),
+        runtimeExceptionHandler);
+    assertEquals(CompletionStatus.FAILURE, journal.getLastFullPushStatus());
+    assertTrue(fileMaker.recordses.isEmpty());
+  }
+
+  @Test
+  public void testShardedFullPushFingerprinted() throws Exception {
+    RecordFingerprintStore store = new RecordFingerprintStore(
+        temp.newFile("fingerprints"));
+    store.load();
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor, store);
+    config.setValue("feed.fingerprintRefreshInterval", "0");
+    MockShardedLister lister = new MockShardedLister(
+        new MockShard("s0", record("a")), new MockShard("s1", record("b")));
+    docIdSender.pushFullDocIdsFromShardedLister(lister,
+        runtimeExceptionHandler);
+    docIdSender.pushFullDocIdsFromShardedLister(lister,
+        runtimeExceptionHandler);
+    assertEquals(CompletionStatus.SUCCESS, journal.getLastFullPushStatus());
+    int numSent = 0;
+    for (List<? extends DocIdSender.Item> items : fileMaker.recordses) {
+      numSent += items.size();
+    }
+    assertEquals(2, numSent);
+    assertEquals(2, store.size());
+    store.close();
+  }
+
+  @Test
+  public void testUploadLanes() throws Exception {
+    adaptor.pushItems = new ArrayList<List<DocIdPusher.Record>>();
+    adaptor.pushItems.add(Arrays.asList(record("a")));
+    docIdSender.pushFullDocIdsFromAdaptor(runtimeExceptionHandler);
+    docIdSender.pushDocIds(Arrays.asList(new DocId("b")));
+    docIdSender.getAsyncItemPusher().pushItems(
+        Arrays.asList(record("c"), record("d")).iterator(), null);
+    docIdSender.pushIncrementalDocIdsFromAdaptor(
+        new PollingIncrementalLister() {
+          @Override
+          public void getModifiedDocIds(DocIdPusher pusher)
+              throws InterruptedException {
+            pusher.pushDocIds(Arrays.asList(new DocId("e")));
+          }
+        }, runtimeExceptionHandler);
+    Journal.FeedLaneStats[] stats = journal.getSnapshot().feedLaneStats;
+    assertEquals(1, stats[FeedScheduler.Lane.ASYNC.ordinal()].uploads);
+    assertEquals(2, stats[FeedScheduler.Lane.INCREMENTAL.ordinal()].uploads);
+    assertEquals(1, stats[FeedScheduler.Lane.FULL.ordinal()].uploads);
+  }
+
+  @Test
+  public void testRateLimit() throws Exception {
+    config.setValue("feed.maxUrls", "1");
+    config.setValue("feed.maxFeedsPerSecond", "10");
+    docIdSender = new DocIdSender(fileMaker, fileSender, fileArchiver, journal,
+        config, adaptor);
+    List<DocId> ids = new ArrayList<DocId>();
+    for (int i = 0; i < 15; i++) {
+      ids.add(new DocId("" + i));
+    }
+    assertNull(docIdSender.pushDocIds(ids));
+    assertEquals(15, fileSender.xmlStrings.size());
+    // Only about 11 feeds are permitted by the burst allowance.
+    assertTrue(journal.getSnapshot().totalFeedThrottleDuration > 0);
+  }
+
   @Test
   public void testAclItemToString() {
     DocId id = new DocId("foxtrot");
@@ -591,6 +1180,81 @@ public class DocIdSenderTest {
     }
   }
 
+  private static DocIdPusher.Record record(String id) {
+    return new DocIdPusher.Record.Builder(new DocId(id)).build();
+  }
+
+  private static class MockShardedLister implements ShardedLister {
+    private final List<MockShard> shards;
+
+    public MockShardedLister(MockShard... shards) {
+      this.shards = Arrays.asList(shards);
+    }
+
+    @Override
+    public Collection<MockShard> getListingShards() {
+      return shards;
+    }
+  }
+
+  private static class MockShard implements ShardedLister.Shard {
+    private final String name;
+    final List<DocIdPusher.Record> records;
+    volatile int failuresRemaining;
+    volatile int attempts;
+
+    public MockShard(String name, DocIdPusher.Record... records) {
+      this.name = name;
+      this.records = Arrays.asList(records);
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void getDocIds(DocIdPusher pusher) throws IOException,
+        InterruptedException {
+      attempts++;
+      if (failuresRemaining > 0) {
+        failuresRemaining--;
+        throw new IOException("injected failure");
+      }
+      assertNull(pusher.pushRecords(records));
+    }
+  }
+
+  /**
+   * Shard that waits until another shard has begun sending before pushing its
+   * records.
+   */
+  private static class WaitingShard extends MockShard {
+    private final CountDownLatch sending;
+    private final CountDownLatch waiting;
+    private final List<Thread> waitingThreads;
+
+    public WaitingShard(String name, CountDownLatch sending,
+        CountDownLatch waiting, List<Thread> waitingThreads,
+        DocIdPusher.Record... records) {
+      super(name, records);
+      this.sending = sending;
+      this.waiting = waiting;
+      this.waitingThreads = waitingThreads;
+    }
+
+    @Override
+    public void getDocIds(DocIdPusher pusher) throws IOException,
+        InterruptedException {
+      sending.await();
+      synchronized (waitingThreads) {
+        waitingThreads.add(Thread.currentThread());
+      }
+      waiting.countDown();
+      super.getDocIds(pusher);
+    }
+  }
+
   private static class DocIdsMockAdaptor extends MockAdaptor {
     public List<List<DocIdPusher.Record>> pushItems;
     public int timesGetDocIdsCalled;
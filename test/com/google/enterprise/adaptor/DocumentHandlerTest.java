@@ -23,6 +23,7 @@ import static org.junit.Assert.fail;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -50,6 +51,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -235,6 +237,25 @@ public class DocumentHandlerTest {
     assertEquals(404, ex.getResponseCode());
   }
 
+  @Test
+  public void testSecurityAsyncTimeoutUnavailable() throws Exception {
+    AsyncAuthzAuthority asyncAuthority = new AsyncAuthzAuthority() {
+      @Override
+      public Future<Map<DocId, AuthzStatus>> isUserAuthorizedAsync(
+          AuthnIdentity identity, Collection<DocId> ids) {
+        // Never decided.
+        return SettableFuture.create();
+      }
+    };
+    DocumentHandler handler = createHandlerBuilder()
+        .setAdaptor(new MockAdaptor())
+        .setAuthzAuthority(new DeadlineAuthzAuthority(asyncAuthority, 10))
+        .build();
+    handler.handle(ex);
+    // Not 404, since the document may exist.
+    assertEquals(503, ex.getResponseCode());
+  }
+
   @Test
   public void testSecurityDisallowedUser() throws Exception {
     MockSamlServiceProvider samlServiceProvider = new MockSamlServiceProvider();
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -253,6 +254,44 @@ public class DownloadDumpHandlerTest {
     assertEquals(goldenStats, statsContents);
   }
 
+  @Test
+  public void testLogFilesWithPercentileStats() throws Exception {
+    StatRpcMethod statRpcMethod = new MockStatRpcMethod(
+        new MockJournal(new MockTimeProvider()),
+        new MockAdaptor(),
+        /*isAdaptorIncremental=*/ false,
+        /*configFile=*/ new MockFile("no-such-dir").setExists(false)) {
+      @Override
+      public Object run(List request) {
+        Map<String, Object> percentiles = new TreeMap<String, Object>();
+        percentiles.put("p50", 3L);
+        percentiles.put("p95", 15L);
+        percentiles.put("p99", 31L);
+        Map<String, Object> stat = new HashMap<String, Object>();
+        stat.put("snapshotDuration", 1000L);
+        stat.put("statData", Arrays.asList(new Object[60]));
+        stat.put("requestProcessingsDurationPercentiles", percentiles);
+        stat.put("responseSizePercentiles", percentiles);
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put("stats", Collections.singletonList(stat));
+        return Collections.unmodifiableMap(results);
+      }
+    };
+    handler = new ModifiedDownloadDumpHandler(config, "adaptor",
+        statRpcMethod, new MockFile("no-such-dir").setExists(false),
+        new MockTimeProvider());
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+
+    String goldenStats
+        = "period                       = 60 x 1000 ms\n"
+        + "responseTimePercentilesMs    = {p50=3, p95=15, p99=31}\n"
+        + "responseSizePercentilesBytes = {p50=3, p95=15, p99=31}\n\n";
+    String statsContents
+        = extractFileFromZip("stats.txt", ex.getResponseBytes());
+    assertEquals(goldenStats, statsContents);
+  }
+
   private MockHttpExchange createExchange(String path) {
     return new MockHttpExchange("GET", pathPrefix + path, httpContext);
   }
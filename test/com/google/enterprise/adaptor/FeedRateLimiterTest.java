@@ -0,0 +1,167 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link FeedRateLimiter}.
+ */
+public class FeedRateLimiterTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockRelativeTimeProvider timeProvider
+      = new MockRelativeTimeProvider();
+
+  @Test
+  public void testNegativeRate() {
+    thrown.expect(IllegalArgumentException.class);
+    new FeedRateLimiter(-1, 0, false, 0, timeProvider);
+  }
+
+  @Test
+  public void testUnlimited() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(0, 0, true, 0, timeProvider);
+    assertFalse(limiter.isLimited());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(0, limiter.reserve(5000));
+    }
+  }
+
+  @Test
+  public void testFeedsPerSecond() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(2, 0, false, 0, timeProvider);
+    assertTrue(limiter.isLimited());
+    // A second's worth of feeds may be sent immediately, and one more that
+    // delays the following feed.
+    assertEquals(0, limiter.reserve(5000));
+    assertEquals(0, limiter.reserve(5000));
+    assertEquals(0, limiter.reserve(5000));
+    assertEquals(500, limiter.reserve(5000));
+    assertEquals(1000, limiter.reserve(5000));
+
+    timeProvider.time = 1000;
+    assertEquals(500, limiter.reserve(5000));
+  }
+
+  @Test
+  public void testRecordsPerSecond() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(0, 100, false, 0, timeProvider);
+    assertEquals(0, limiter.reserve(1000));
+    // The large feed borrowed 9 seconds' worth of records.
+    assertEquals(9000, limiter.reserve(1));
+
+    // Tokens accumulate while idle, but only up to a second's worth.
+    timeProvider.time = 60000;
+    assertEquals(0, limiter.reserve(100));
+    assertEquals(0, limiter.reserve(50));
+    assertEquals(500, limiter.reserve(50));
+  }
+
+  @Test
+  public void testBothLimits() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(1, 1000, false, 0, timeProvider);
+    assertEquals(0, limiter.reserve(3000));
+    // Records are the bottleneck.
+    assertEquals(2000, limiter.reserve(1));
+    timeProvider.time = 2001;
+    assertEquals(0, limiter.reserve(1));
+    assertEquals(1, limiter.reserve(1));
+    // Now the feed rate is the bottleneck.
+    assertEquals(1000, limiter.reserve(1));
+  }
+
+  @Test
+  public void testAcquireSleeps() throws Exception {
+    final List<Long> sleeps = new ArrayList<Long>();
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(1, 0, false, 0, timeProvider) {
+          @Override
+          void sleep(long millis) {
+            sleeps.add(millis);
+          }
+        };
+    assertEquals(0, limiter.acquire(1));
+    assertEquals(0, limiter.acquire(1));
+    assertEquals(1000, limiter.acquire(1));
+    assertEquals(Arrays.asList(1000L), sleeps);
+  }
+
+  @Test
+  public void testAdaptiveBackoff() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(1, 0, true, 100, timeProvider);
+    assertEquals(1, limiter.getFactor(), 0);
+    limiter.recordUpload(50, true);
+    assertEquals(1, limiter.getFactor(), 0);
+    limiter.recordUpload(500, true);
+    assertEquals(0.5, limiter.getFactor(), 0);
+    limiter.recordUpload(50, false);
+    assertEquals(0.25, limiter.getFactor(), 0);
+    for (int i = 0; i < 20; i++) {
+      limiter.recordUpload(50, false);
+    }
+    assertEquals(FeedRateLimiter.MIN_FACTOR, limiter.getFactor(), 0);
+    for (int i = 0; i < 20; i++) {
+      limiter.recordUpload(50, true);
+    }
+    assertEquals(1, limiter.getFactor(), 0);
+  }
+
+  @Test
+  public void testAdaptiveSlowsRate() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(1, 0, true, 100, timeProvider);
+    limiter.recordUpload(500, true);
+    assertEquals(0, limiter.reserve(1));
+    assertEquals(0, limiter.reserve(1));
+    assertEquals(2000, limiter.reserve(1));
+    assertEquals(4000, limiter.reserve(1));
+  }
+
+  @Test
+  public void testNotAdaptive() {
+    FeedRateLimiter limiter
+        = new FeedRateLimiter(1, 0, false, 100, timeProvider);
+    limiter.recordUpload(500, false);
+    assertEquals(1, limiter.getFactor(), 0);
+  }
+
+  private static class MockRelativeTimeProvider
+      implements RelativeTimeProvider {
+    long time;
+
+    @Override
+    public long relativeTime(TimeUnit timeUnit) {
+      return timeUnit.convert(time, TimeUnit.MILLISECONDS);
+    }
+  }
+}
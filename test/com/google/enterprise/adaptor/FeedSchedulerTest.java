@@ -0,0 +1,196 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.enterprise.adaptor.FeedScheduler.Lane;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test cases for {@link FeedScheduler}.
+ */
+public class FeedSchedulerTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final MockTimeProvider timeProvider = new MockTimeProvider();
+  private final Journal journal = new Journal(timeProvider);
+  private final List<Lane> granted
+      = Collections.synchronizedList(new ArrayList<Lane>());
+  private final List<Thread> threads = new ArrayList<Thread>();
+
+  @After
+  public void tearDown() throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.interrupt();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testInvalidSlots() {
+    thrown.expect(IllegalArgumentException.class);
+    new FeedScheduler(0, new int[] {1, 1, 1}, journal, timeProvider);
+  }
+
+  @Test
+  public void testInvalidWeight() {
+    thrown.expect(IllegalArgumentException.class);
+    new FeedScheduler(1, new int[] {1, 0, 1}, journal, timeProvider);
+  }
+
+  @Test
+  public void testMissingWeight() {
+    thrown.expect(IllegalArgumentException.class);
+    new FeedScheduler(1, new int[] {1, 1}, journal, timeProvider);
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    FeedScheduler scheduler
+        = new FeedScheduler(1, new int[] {8, 8, 1}, journal, timeProvider);
+    FeedScheduler.Slot slot = scheduler.acquire(Lane.FULL);
+    startWaiters(scheduler, Lane.FULL, Lane.FULL, Lane.ASYNC, Lane.ASYNC);
+    slot.release();
+    joinWaiters();
+    assertEquals(Arrays.asList(Lane.ASYNC, Lane.ASYNC, Lane.FULL, Lane.FULL),
+        granted);
+  }
+
+  @Test
+  public void testWeightedSharing() throws Exception {
+    FeedScheduler scheduler
+        = new FeedScheduler(1, new int[] {2, 1, 1}, journal, timeProvider);
+    FeedScheduler.Slot slot = scheduler.acquire(Lane.INCREMENTAL);
+    startWaiters(scheduler, Lane.ASYNC, Lane.ASYNC, Lane.ASYNC, Lane.ASYNC,
+        Lane.FULL, Lane.FULL, Lane.FULL, Lane.FULL);
+    slot.release();
+    joinWaiters();
+    // The full lane gets a third of the slots while both lanes are waiting.
+    assertEquals(Arrays.asList(Lane.ASYNC, Lane.FULL, Lane.ASYNC, Lane.ASYNC,
+          Lane.FULL, Lane.ASYNC, Lane.FULL, Lane.FULL), granted);
+  }
+
+  @Test
+  public void testMultipleSlots() throws Exception {
+    FeedScheduler scheduler
+        = new FeedScheduler(2, new int[] {1, 1, 1}, journal, timeProvider);
+    FeedScheduler.Slot slot1 = scheduler.acquire(Lane.FULL);
+    FeedScheduler.Slot slot2 = scheduler.acquire(Lane.FULL);
+    startWaiters(scheduler, Lane.ASYNC);
+    slot1.release();
+    joinWaiters();
+    // Releasing twice has no effect.
+    slot1.release();
+    slot2.release();
+    assertEquals(3, getStats(Lane.FULL).uploads + getStats(Lane.ASYNC).uploads);
+  }
+
+  @Test
+  public void testInterruptedWhileWaiting() throws Exception {
+    FeedScheduler scheduler
+        = new FeedScheduler(1, new int[] {1, 1, 1}, journal, timeProvider);
+    FeedScheduler.Slot slot = scheduler.acquire(Lane.ASYNC);
+    startWaiters(scheduler, Lane.FULL);
+    threads.get(0).interrupt();
+    joinWaiters();
+    assertTrue(granted.isEmpty());
+    assertEquals(0, getStats(Lane.FULL).queueDepth);
+    assertEquals(0, getStats(Lane.FULL).uploads);
+    slot.release();
+    // The slot is still available.
+    scheduler.acquire(Lane.FULL).release();
+  }
+
+  @Test
+  public void testJournalStats() throws Exception {
+    timeProvider.autoIncrement = false;
+    FeedScheduler scheduler
+        = new FeedScheduler(1, new int[] {1, 1, 1}, journal, timeProvider);
+    timeProvider.time = 10;
+    FeedScheduler.Slot slot = scheduler.acquire(Lane.INCREMENTAL);
+    Journal.FeedLaneStats stats = getStats(Lane.INCREMENTAL);
+    assertEquals(0, stats.queueDepth);
+    assertEquals(1, stats.uploading);
+    assertEquals(1, stats.uploads);
+    assertEquals(0, stats.waitDurationSum);
+
+    startWaiters(scheduler, Lane.FULL);
+    assertEquals(1, getStats(Lane.FULL).queueDepth);
+    timeProvider.time = 15;
+    slot.release();
+    joinWaiters();
+    stats = getStats(Lane.INCREMENTAL);
+    assertEquals(0, stats.uploading);
+    assertEquals(5, stats.uploadDurationSum);
+    assertEquals(5, stats.maxUploadDuration);
+    stats = getStats(Lane.FULL);
+    assertEquals(0, stats.queueDepth);
+    assertEquals(1, stats.uploads);
+    assertEquals(5, stats.waitDurationSum);
+    assertEquals(5, stats.maxWaitDuration);
+  }
+
+  private Journal.FeedLaneStats getStats(Lane lane) {
+    return journal.getSnapshot().feedLaneStats[lane.ordinal()];
+  }
+
+  /**
+   * Starts a thread for each lane that acquires a slot, notes that it was
+   * granted, and releases it. Returns once all threads are waiting for a slot.
+   */
+  private void startWaiters(final FeedScheduler scheduler, Lane... lanes)
+      throws InterruptedException {
+    for (final Lane lane : lanes) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            FeedScheduler.Slot slot = scheduler.acquire(lane);
+            granted.add(lane);
+            slot.release();
+          } catch (InterruptedException ex) {
+            // Done.
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      while (thread.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+    }
+  }
+
+  private void joinWaiters() throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    threads.clear();
+  }
+}
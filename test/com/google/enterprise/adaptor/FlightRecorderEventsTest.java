@@ -0,0 +1,109 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Test cases for {@link FlightRecorderEvents}.
+ */
+public class FlightRecorderEventsTest {
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void testNotRecording() {
+    assumeTrue(!FlightRecorderEvents.isRecording());
+    FlightRecorderEvents.Event event
+        = FlightRecorderEvents.FEED_PUSH.begin();
+    assertFalse(event.isRecording());
+    // Discarded, even with the wrong number of values.
+    event.commit("groups", 1);
+  }
+
+  @Test
+  public void testAllTypesDefined() {
+    // Defining the event types must not fail, whether or not the flight
+    // recorder API is available.
+    FlightRecorderEvents.DOCUMENT_REQUEST.begin();
+    FlightRecorderEvents.FEED_PUSH.begin();
+    FlightRecorderEvents.TRANSFORM.begin();
+    FlightRecorderEvents.WATCHDOG_INTERRUPT.begin();
+  }
+
+  @Test
+  public void testRecording() throws Exception {
+    Class<?> recordingClass;
+    try {
+      recordingClass = Class.forName("jdk.jfr.Recording");
+    } catch (ClassNotFoundException ex) {
+      assumeNoException(ex);
+      return;
+    }
+    // jdk.jfr is accessed reflectively, since the library targets Java
+    // versions without it.
+    Object recording = recordingClass.newInstance();
+    File file = temp.newFile("events.jfr");
+    Class<?> pathClass = Class.forName("java.nio.file.Path");
+    Object path = File.class.getMethod("toPath").invoke(file);
+    try {
+      recordingClass.getMethod("start").invoke(recording);
+      assertTrue(FlightRecorderEvents.isRecording());
+      FlightRecorderEvents.Event event
+          = FlightRecorderEvents.FEED_PUSH.begin();
+      assertTrue(event.isRecording());
+      event.commit("metadata-and-url", 3, 1234L, 5678L, 2, true);
+      recordingClass.getMethod("stop").invoke(recording);
+      recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+    }
+    assertFalse(FlightRecorderEvents.isRecording());
+
+    Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+    Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+    Class<?> eventType = Class.forName("jdk.jfr.EventType");
+    Object feedPush = null;
+    for (Object e : (List<?>) recordingFile.getMethod("readAllEvents",
+        pathClass).invoke(null, path)) {
+      Object type = recordedEvent.getMethod("getEventType").invoke(e);
+      if ("com.google.enterprise.adaptor.FeedPush".equals(
+          eventType.getMethod("getName").invoke(type))) {
+        feedPush = e;
+      }
+    }
+    assertNotNull(feedPush);
+    Method getValue
+        = recordedEvent.getMethod("getValue", String.class);
+    assertEquals("metadata-and-url", getValue.invoke(feedPush, "feedType"));
+    assertEquals(3, getValue.invoke(feedPush, "batchSize"));
+    assertEquals(1234L, getValue.invoke(feedPush, "xmlLength"));
+    assertEquals(2, getValue.invoke(feedPush, "retries"));
+    assertEquals(true, getValue.invoke(feedPush, "success"));
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test cases for {@link FrequencySketch}.
+ */
+public class FrequencySketchTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testInvalidDimensions() {
+    thrown.expect(IllegalArgumentException.class);
+    new FrequencySketch(0, 10, 10);
+  }
+
+  @Test
+  public void testExactWhenSparse() {
+    FrequencySketch sketch = new FrequencySketch();
+    assertEquals(1, sketch.add("a"));
+    assertEquals(2, sketch.add("a"));
+    assertEquals(1, sketch.add("b"));
+    assertEquals(2, sketch.estimate("a"));
+    assertEquals(0, sketch.estimate("c"));
+    assertEquals(3, sketch.getTotal());
+  }
+
+  @Test
+  public void testErrorBound() {
+    // A small sketch, so that collisions are common.
+    FrequencySketch sketch = new FrequencySketch(5, 1000, 10);
+    assertEquals(Math.E / 1000, sketch.relativeError(), 0);
+    assertEquals(0.993, sketch.confidence(), 0.001);
+    // Zipf-like: document i is requested 10000 / i times.
+    int[] counts = new int[5000];
+    for (int i = 1; i < counts.length; i++) {
+      counts[i] = 10000 / i;
+      for (int j = 0; j < counts[i]; j++) {
+        sketch.add("doc" + i);
+      }
+    }
+    double bound = sketch.relativeError() * sketch.getTotal();
+    int outOfBound = 0;
+    for (int i = 1; i < counts.length; i++) {
+      long estimate = sketch.estimate("doc" + i);
+      assertTrue(estimate >= counts[i]);
+      if (estimate > counts[i] + bound) {
+        outOfBound++;
+      }
+    }
+    assertTrue("out of bound: " + outOfBound,
+        outOfBound <= (1 - sketch.confidence()) * counts.length);
+  }
+
+  @Test
+  public void testTop() {
+    FrequencySketch sketch = new FrequencySketch(5, 1000, 3);
+    for (int i = 1; i < 2000; i++) {
+      for (int j = 0; j < 1000 / i; j++) {
+        sketch.add("doc" + i);
+      }
+    }
+    Map<String, Long> top = sketch.getTop();
+    assertEquals(Arrays.asList("doc1", "doc2", "doc3"),
+        new ArrayList<String>(top.keySet()));
+    List<Long> estimates = new ArrayList<Long>(top.values());
+    assertTrue(estimates.get(0) >= 1000);
+    assertTrue(estimates.get(1) >= 500);
+    assertTrue(estimates.get(2) >= 333);
+  }
+
+  @Test
+  public void testNoTop() {
+    FrequencySketch sketch = new FrequencySketch(1, 10, 0);
+    sketch.add("a");
+    assertTrue(sketch.getTop().isEmpty());
+  }
+}
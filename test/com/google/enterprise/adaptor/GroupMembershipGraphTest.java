@@ -0,0 +1,165 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test cases for {@link GroupMembershipGraph}.
+ */
+public class GroupMembershipGraphTest {
+  private final GroupMembershipGraph graph = new GroupMembershipGraph();
+
+  private static Map<GroupPrincipal, Collection<Principal>> defs(
+      GroupPrincipal group, Principal... members) {
+    Map<GroupPrincipal, Collection<Principal>> defs
+        = new HashMap<GroupPrincipal, Collection<Principal>>();
+    defs.put(group, Arrays.asList(members));
+    return defs;
+  }
+
+  private static Set<GroupPrincipal> groups(String... names) {
+    Set<GroupPrincipal> groups = new HashSet<GroupPrincipal>();
+    for (String name : names) {
+      groups.add(new GroupPrincipal(name));
+    }
+    return groups;
+  }
+
+  private Set<GroupPrincipal> expand(String user, String... groups) {
+    return graph.expand(new UserPrincipal(user), groups(groups));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(groups("g1"), expand("u1", "g1"));
+    assertEquals(0, graph.getGroupCount());
+  }
+
+  @Test
+  public void testNested() {
+    graph.update(defs(new GroupPrincipal("eng"),
+        new UserPrincipal("u1"), new GroupPrincipal("frontend")), true);
+    graph.update(defs(new GroupPrincipal("everyone"),
+        new GroupPrincipal("eng"), new GroupPrincipal("sales")), true);
+    graph.update(defs(new GroupPrincipal("frontend"),
+        new UserPrincipal("u2")), true);
+
+    assertEquals(groups("eng", "everyone"), expand("u1"));
+    assertEquals(groups("frontend", "eng", "everyone"), expand("u2"));
+    assertEquals(groups("sales", "everyone"), expand("u3", "sales"));
+    assertEquals(groups(), expand("u3"));
+    assertEquals(3, graph.getGroupCount());
+  }
+
+  @Test
+  public void testCycle() {
+    graph.update(defs(new GroupPrincipal("a"), new GroupPrincipal("b")),
+        true);
+    graph.update(defs(new GroupPrincipal("b"), new GroupPrincipal("a"),
+        new UserPrincipal("u1")), true);
+    assertEquals(groups("a", "b"), expand("u1"));
+  }
+
+  @Test
+  public void testUpdateReplacesMembers() {
+    graph.update(defs(new GroupPrincipal("eng"), new UserPrincipal("u1")),
+        true);
+    assertEquals(groups("eng"), expand("u1"));
+    graph.update(defs(new GroupPrincipal("eng"), new UserPrincipal("u2")),
+        true);
+    assertEquals(groups(), expand("u1"));
+    assertEquals(groups("eng"), expand("u2"));
+  }
+
+  @Test
+  public void testCaseSensitivity() {
+    graph.update(defs(new GroupPrincipal("sensitive"),
+        new UserPrincipal("User1")), true);
+    graph.update(defs(new GroupPrincipal("insensitive"),
+        new UserPrincipal("User1"), new GroupPrincipal("Sensitive")), false);
+    assertEquals(groups("sensitive", "insensitive"), expand("User1"));
+    assertEquals(groups("insensitive"), expand("user1"));
+  }
+
+  @Test
+  public void testNestedCaseInsensitiveGroup() {
+    graph.update(defs(new GroupPrincipal("insensitive"),
+        new GroupPrincipal("Sensitive")), false);
+    graph.update(defs(new GroupPrincipal("sensitive"),
+        new UserPrincipal("User1")), true);
+    assertEquals(groups("sensitive", "insensitive"), expand("User1"));
+    assertEquals(groups(), expand("user1"));
+  }
+
+  @Test
+  public void testRebuiltAfterUpdate() {
+    graph.update(defs(new GroupPrincipal("eng"), new UserPrincipal("u1")),
+        true);
+    assertEquals(groups("eng"), expand("u1"));
+    graph.update(defs(new GroupPrincipal("everyone"),
+        new GroupPrincipal("eng")), true);
+    graph.update(defs(new GroupPrincipal("all"),
+        new GroupPrincipal("everyone")), true);
+    assertEquals(groups("eng", "everyone", "all"), expand("u1"));
+    assertEquals(3, graph.getGroupCount());
+  }
+
+  @Test
+  public void testUsersAndGroupsDistinct() {
+    graph.update(defs(new GroupPrincipal("g1"), new GroupPrincipal("u1")),
+        false);
+    assertEquals(groups(), expand("u1"));
+  }
+
+  @Test
+  public void testNamespaces() {
+    graph.update(defs(new GroupPrincipal("g1"),
+        new UserPrincipal("u1", "ns1")), true);
+    assertEquals(groups(),
+        graph.expand(new UserPrincipal("u1"), groups()));
+    assertEquals(groups("g1"),
+        graph.expand(new UserPrincipal("u1", "ns1"), groups()));
+  }
+
+  @Test
+  public void testExpandIdentity() {
+    graph.update(defs(new GroupPrincipal("everyone"),
+        new GroupPrincipal("eng")), true);
+    AuthnIdentity identity
+        = new AuthnIdentityImpl.Builder(new UserPrincipal("u1"))
+        .setPassword("pw").setGroups(groups("eng")).build();
+    AuthnIdentity expanded = graph.expand(identity);
+    assertEquals(identity.getUser(), expanded.getUser());
+    assertEquals("pw", expanded.getPassword());
+    assertEquals(groups("eng", "everyone"), expanded.getGroups());
+
+    AuthnIdentity unchanged
+        = new AuthnIdentityImpl.Builder(new UserPrincipal("u1"))
+        .setGroups(Collections.<GroupPrincipal>emptySet()).build();
+    assertSame(unchanged, graph.expand(unchanged));
+  }
+}
@@ -15,9 +15,12 @@
 package com.google.enterprise.adaptor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
+import com.google.enterprise.adaptor.GsaFeedFileArchiver.ArchivedFeed;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -26,16 +29,23 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Test cases for {@link GsaFeedFileArchiver}.
  */
 public class GsaFeedFileArchiverTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   @Rule
   public ExpectedException thrown = ExpectedException.none();
   
@@ -44,6 +54,7 @@ public class GsaFeedFileArchiverTest {
 
   File archiveDir;
   GsaFeedFileArchiver archiver;
+  MockTimeProvider timeProvider = new MockTimeProvider();
 
   @Before
   public void setUp() {
@@ -56,34 +67,38 @@ public class GsaFeedFileArchiverTest {
     GsaFeedFileArchiver archiver = new GsaFeedFileArchiver("");
     archiver.saveFeed("test", "foo");
     archiver.saveFailedFeed("test", "bar");
-    assertEquals(0, getArchiveFeedFiles().length);
+    archiver.close();
+    assertEquals(0, archiveDir.list().length);
+  }
+
+  @Test
+  public void testInvalidSegmentSize() {
+    thrown.expect(IllegalArgumentException.class);
+    new GsaFeedFileArchiver(archiveDir.toString(), 0, 0, 0, 1, timeProvider);
   }
 
   @Test
   public void testArchiveFeed() throws Exception {
     archiver.saveFeed("test", "foo");
-    checkOneFeed("test", "foo");
+    archiver.close();
+    checkFeeds("test", "foo");
   }
 
   @Test
   public void testArchiveFailedFeed() throws Exception {
     archiver.saveFailedFeed("test", "foo");
-    checkOneFeed("FAILED-test", "foo");
+    archiver.close();
+    checkFeeds("FAILED-test", "foo");
+    assertTrue(listFeeds().get(0).isFailed());
   }
 
   @Test
   public void testOneOfEachFeed() throws Exception {
     archiver.saveFeed("test", "foo");
     archiver.saveFailedFeed("test", "bar");
-    File[] feeds = getArchiveFeedFiles();
-    assertEquals(2, feeds.length);
-    for (File feed : feeds) {
-      if (feed.getName().contains("FAILED")) {
-        checkFeedFile(feed, "FAILED-test", "bar");
-      } else {
-        checkFeedFile(feed, "test", "foo");
-      }
-    }
+    archiver.close();
+    checkFeeds("test", "foo", "FAILED-test", "bar");
+    assertFalse(listFeeds().get(0).isFailed());
   }
 
   @Test
@@ -91,37 +106,146 @@ public class GsaFeedFileArchiverTest {
     archiver.saveFeed("test", "foo");
     archiver.saveFeed("test", "bar");
     archiver.saveFeed("test", "baz");
-    File[] feeds = getArchiveFeedFiles();
-    assertEquals(3, feeds.length);
-    Set<String> contents = new HashSet<String>();
-    for (File feed : feeds) {
-      assertTrue(feed.getName().matches("test-.+\\.xml"));
-      contents.add(Files.toString(feed, Charset.forName("UTF-8")));
-    }      
-    assertTrue(contents.contains("foo"));
-    assertTrue(contents.contains("bar"));
-    assertTrue(contents.contains("baz"));
+    archiver.close();
+    checkFeeds("test", "foo", "test", "bar", "test", "baz");
+    // All feeds share a segment.
+    assertEquals(1, getSegments().length);
+  }
+
+  @Test
+  public void testSegmentIsStandardGzip() throws Exception {
+    archiver.saveFeed("test", "<feed>foo</feed>\n");
+    archiver.saveFeed("test", "<feed>bar</feed>\n");
+    archiver.close();
+    File[] segments = getSegments();
+    assertEquals(1, segments.length);
+    InputStreamReader reader = new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(segments[0])), UTF8);
+    try {
+      assertEquals("<feed>foo</feed>\n<feed>bar</feed>\n",
+          CharStreams.toString(reader));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testNonAsciiFeed() throws Exception {
+    archiver.saveFeed("test", "\u00e9t\u00e9 \u2603");
+    archiver.close();
+    checkFeeds("test", "\u00e9t\u00e9 \u2603");
+  }
+
+  @Test
+  public void testRollsWhenSegmentFull() throws Exception {
+    archiver = new GsaFeedFileArchiver(
+        archiveDir.toString(), 1, 0, 0, 10, timeProvider);
+    archiver.saveFeed("test", "foo");
+    archiver.saveFeed("test", "bar");
+    archiver.saveFeed("test", "baz");
+    archiver.close();
+    assertEquals(3, getSegments().length);
+    checkFeeds("test", "foo", "test", "bar", "test", "baz");
+  }
+
+  @Test
+  public void testRollsDaily() throws Exception {
+    timeProvider.autoIncrement = false;
+    archiver = new GsaFeedFileArchiver(archiveDir.toString(),
+        GsaFeedFileArchiver.DEFAULT_SEGMENT_SIZE, 0, 0, 10, timeProvider);
+    archiver.saveFeed("test", "foo");
+    timeProvider.time = GsaFeedFileArchiver.MAX_SEGMENT_AGE_MILLIS - 1;
+    archiver.saveFeed("test", "bar");
+    timeProvider.time = GsaFeedFileArchiver.MAX_SEGMENT_AGE_MILLIS;
+    archiver.saveFeed("test", "baz");
+    archiver.close();
+    assertEquals(2, getSegments().length);
+    checkFeeds("test", "foo", "test", "bar", "test", "baz");
+    assertEquals(GsaFeedFileArchiver.MAX_SEGMENT_AGE_MILLIS,
+        listFeeds().get(2).getTime());
+  }
+
+  @Test
+  public void testMaxSize() throws Exception {
+    archiver = new GsaFeedFileArchiver(
+        archiveDir.toString(), 1, 1, 0, 10, timeProvider);
+    archiver.saveFeed("test", "foo");
+    archiver.saveFeed("test", "bar");
+    archiver.saveFeed("test", "baz");
+    archiver.close();
+    // Only the segment being written is kept.
+    assertEquals(1, getSegments().length);
+    checkFeeds("test", "baz");
+    // Indexes of deleted segments are deleted too.
+    assertEquals(2, archiveDir.list().length);
   }
 
-  private void checkOneFeed(String feedName, String contents)
-      throws Exception {
-    File[] files = getArchiveFeedFiles();
-    assertEquals(1, files.length);
-    checkFeedFile(files[0], feedName, contents);
+  @Test
+  public void testMaxAge() throws Exception {
+    long maxAge = TimeUnit.DAYS.toMillis(7);
+    archiver.close();
+    timeProvider.time = TimeUnit.DAYS.toMillis(10000);
+    archiver = new GsaFeedFileArchiver(
+        archiveDir.toString(), 1, 0, maxAge, 10, timeProvider);
+    archiver.saveFeed("test", "foo");
+    archiver.close();
+
+    timeProvider.time += maxAge;
+    archiver = new GsaFeedFileArchiver(
+        archiveDir.toString(), 1, 0, maxAge, 10, timeProvider);
+    archiver.saveFeed("test", "bar");
+    archiver.close();
+    // The first segment was written until the second was started, so it is
+    // not yet old enough to delete.
+    checkFeeds("test", "foo", "test", "bar");
+
+    timeProvider.time += maxAge + 1000;
+    archiver = new GsaFeedFileArchiver(
+        archiveDir.toString(), 1, 0, maxAge, 10, timeProvider);
+    archiver.saveFeed("test", "baz");
+    archiver.close();
+    checkFeeds("test", "bar", "test", "baz");
   }
 
-  private void checkFeedFile(File file, String feedName, String contents)
-      throws Exception {
-    assertTrue(file.getName().matches(feedName + "-.+\\.xml"));
-    assertEquals(contents, Files.toString(file, Charset.forName("UTF-8")));
+  @Test
+  public void testSkipsIncompleteIndexEntries() throws Exception {
+    archiver.saveFeed("test", "foo");
+    archiver.close();
+    File segment = getSegments()[0];
+    String indexName = segment.getName().replace(".xml.gz", ".idx");
+    File index = new File(archiveDir, indexName);
+    long length = segment.length();
+    Files.append(length + "\t20\t0\tmissing\ngarbage\n1\t2\t3", index, UTF8);
+    checkFeeds("test", "foo");
+  }
+
+  @Test
+  public void testSaveAfterClose() throws Exception {
+    archiver.close();
+    archiver.saveFeed("test", "foo");
+    assertEquals(0, archiveDir.list().length);
+  }
+
+  private List<ArchivedFeed> listFeeds() throws IOException {
+    return GsaFeedFileArchiver.listArchivedFeeds(archiveDir);
+  }
+
+  /** Checks the archived feeds against pairs of names and contents. */
+  private void checkFeeds(String... namesAndContents) throws IOException {
+    List<String> actual = new ArrayList<String>();
+    for (ArchivedFeed feed : listFeeds()) {
+      actual.add(feed.getName());
+      actual.add(feed.readXml());
+    }
+    assertEquals(Arrays.asList(namesAndContents), actual);
   }
 
-  /** Returns array of archive feed filenames. */
-  private File[] getArchiveFeedFiles() throws IOException {
+  /** Returns the archive's segment files. */
+  private File[] getSegments() {
     return archiveDir.listFiles(new FilenameFilter() {
         @Override
         public boolean accept(File dir, String name) {
-          return name.endsWith(".xml");
+          return name.endsWith(".xml.gz");
         }
       });
   }
@@ -469,6 +469,44 @@ public class GsaFeedFileMakerTest {
     assertEquals(golden, xml);
   }
 
+  @Test
+  public void testGroupDefinitionsEscaping() {
+    String golden =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+        + "<!DOCTYPE xmlgroups PUBLIC \"-//Google//DTD GSA Feeds//EN\" \"\">\n"
+        + "<xmlgroups>\n"
+        + "<!--GSA EasyConnector-->\n"
+        + "<membership>\n"
+        + "<principal namespace=\"a&amp;&quot;&#10;\" scope=\"GROUP\">"
+        + "&lt;\"b\"&gt;\n&amp;\t&#13;c</principal>\n"
+        + "<members/>\n"
+        + "</membership>\n"
+        + "</xmlgroups>\n";
+    Map<GroupPrincipal, List<Principal>> groupDefs
+        = new TreeMap<GroupPrincipal, List<Principal>>();
+    groupDefs.put(new GroupPrincipal("<\"b\">\n&\t\rc", "a&\"\n"),
+        new ArrayList<Principal>());
+    String xml = meker.makeGroupDefinitionsXml(groupDefs.entrySet(), false);
+    assertEquals(golden, xml);
+  }
+
+  @Test
+  public void testEstimateGroupDefinitionLength() {
+    Map<GroupPrincipal, List<Principal>> groupDefs
+        = new TreeMap<GroupPrincipal, List<Principal>>();
+    List<Principal> members = new ArrayList<Principal>();
+    members.add(new GroupPrincipal("MacLeod\\Duncan"));
+    members.add(new GroupPrincipal("badguys", "3vil"));
+    groupDefs.put(new GroupPrincipal("immortals"), members);
+    String xml = meker.makeGroupDefinitionsXml(groupDefs.entrySet(), false);
+    String empty = meker.makeGroupDefinitionsXml(
+        new TreeMap<GroupPrincipal, List<Principal>>().entrySet(), false);
+    // Exact for case-insensitive groups with nothing to escape or transform.
+    assertEquals(xml.length() - empty.length(),
+        meker.estimateGroupDefinitionLength(
+            new GroupPrincipal("immortals"), members));
+  }
+
   @Test
   public void testGroupDefinitionsAclTransform() {
     String golden =
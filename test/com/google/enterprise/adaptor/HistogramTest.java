@@ -0,0 +1,104 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Test cases for {@link Histogram}.
+ */
+public class HistogramTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final Histogram histogram = new Histogram();
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+  }
+
+  @Test
+  public void testSmallValuesExact() {
+    for (int i = 1; i <= 20; i++) {
+      histogram.record(i);
+    }
+    assertEquals(20, histogram.getTotalCount());
+    assertEquals(1, histogram.getValueAtPercentile(0));
+    assertEquals(10, histogram.getValueAtPercentile(50));
+    assertEquals(19, histogram.getValueAtPercentile(95));
+    assertEquals(20, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testRelativeError() {
+    for (long value = 1; value < Histogram.MAX_VALUE; value = value * 3 + 1) {
+      Histogram single = new Histogram();
+      single.record(value);
+      long reported = single.getValueAtPercentile(50);
+      assertTrue(value + " reported as " + reported, reported >= value);
+      assertTrue(value + " reported as " + reported,
+          reported - value <= value / 16);
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    // 1..10000 ms, uniformly.
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(5000, histogram.getValueAtPercentile(50), 5000 / 16);
+    assertEquals(9500, histogram.getValueAtPercentile(95), 9500 / 16);
+    assertEquals(9900, histogram.getValueAtPercentile(99), 9900 / 16);
+  }
+
+  @Test
+  public void testOutOfRange() {
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    assertEquals(Histogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testInvalidPercentile() {
+    thrown.expect(IllegalArgumentException.class);
+    histogram.getValueAtPercentile(101);
+  }
+
+  @Test
+  public void testAddAndClone() {
+    Histogram other = new Histogram();
+    histogram.record(1);
+    other.record(100);
+    other.record(100);
+    Histogram copy = histogram.clone();
+    histogram.add(other);
+    assertEquals(3, histogram.getTotalCount());
+    assertEquals(103, histogram.getValueAtPercentile(50));
+    // The clone is unaffected.
+    assertEquals(1, copy.getTotalCount());
+    histogram.reset();
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getValueAtPercentile(99));
+  }
+}
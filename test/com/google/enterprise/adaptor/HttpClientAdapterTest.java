@@ -0,0 +1,181 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.enterprise.adaptor.secmgr.http.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Test cases for {@link HttpClientAdapter}. */
+public class HttpClientAdapterTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private HttpServer server;
+  private URL url;
+  /** Client ports of the connections requests arrived on. */
+  private final Set<Integer> clientPorts
+      = Collections.synchronizedSet(new HashSet<Integer>());
+  private volatile CountDownLatch release = new CountDownLatch(0);
+  private volatile int responseCode = 200;
+
+  @Before
+  public void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(com.sun.net.httpserver.HttpExchange ex)
+          throws IOException {
+        clientPorts.add(ex.getRemoteAddress().getPort());
+        byte[] request = IOHelper.readInputStreamToByteArray(
+            ex.getRequestBody());
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        ex.sendResponseHeaders(responseCode, request.length);
+        ex.getResponseBody().write(request);
+        ex.close();
+      }
+    });
+    server.start();
+    url = new URL("http://localhost:" + server.getAddress().getPort()
+        + "/resolve");
+  }
+
+  @After
+  public void stopServer() {
+    release.countDown();
+    server.stop(0);
+  }
+
+  @Test
+  public void testNegativeTimeout() {
+    thrown.expect(IllegalArgumentException.class);
+    new HttpClientAdapter(-1, 0, 0);
+  }
+
+  @Test
+  public void testPostParameters() throws Exception {
+    HttpClientAdapter client = new HttpClientAdapter(1000, 1000, 2);
+    ListMultimap<String, String> params = ArrayListMultimap.create();
+    params.put("a", "1 2");
+    params.put("b", "3");
+    HttpExchange exchange = client.postExchange(url, params);
+    try {
+      assertEquals(200, exchange.exchange());
+      assertEquals("a=1+2&b=3", new String(IOHelper.readInputStreamToByteArray(
+          exchange.getResponseEntityAsStream()), UTF_8));
+    } finally {
+      exchange.close();
+    }
+    assertEquals(1, client.getExchangeCount());
+    assertEquals(0, client.getFailureCount());
+    assertEquals(0, client.getActiveExchanges());
+  }
+
+  @Test
+  public void testConnectionReused() throws Exception {
+    HttpClientAdapter client = new HttpClientAdapter(1000, 1000, 2);
+    for (int i = 0; i < 3; i++) {
+      HttpExchange exchange = client.postExchange(url, null);
+      try {
+        exchange.setRequestBody("unread response".getBytes(UTF_8));
+        assertEquals(200, exchange.exchange());
+      } finally {
+        // The response is not read before closing.
+        exchange.close();
+      }
+    }
+    assertEquals(1, clientPorts.size());
+    assertEquals(3, client.getExchangeCount());
+  }
+
+  @Test
+  public void testErrorCountsAsFailure() throws Exception {
+    responseCode = 500;
+    HttpClientAdapter client = new HttpClientAdapter(1000, 1000, 2);
+    HttpExchange exchange = client.postExchange(url, null);
+    try {
+      assertEquals(500, exchange.exchange());
+    } finally {
+      exchange.close();
+    }
+    assertEquals(1, client.getFailureCount());
+    assertEquals(0, client.getActiveExchanges());
+  }
+
+  @Test
+  public void testMaxConnectionsPerHost() throws Exception {
+    release = new CountDownLatch(1);
+    final HttpClientAdapter client = new HttpClientAdapter(100, 5000, 1);
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread blocked = new Thread() {
+      @Override
+      public void run() {
+        HttpExchange exchange = client.postExchange(url, null);
+        try {
+          exchange.exchange();
+        } catch (IOException ex) {
+          throw new RuntimeException(ex);
+        } finally {
+          exchange.close();
+          done.countDown();
+        }
+      }
+    };
+    blocked.start();
+    while (client.getActiveExchanges() == 0) {
+      Thread.sleep(1);
+    }
+    HttpExchange exchange = client.postExchange(url, null);
+    try {
+      thrown.expect(IOException.class);
+      thrown.expectMessage("Too many concurrent connections");
+      exchange.exchange();
+    } finally {
+      exchange.close();
+      assertEquals(1, client.getRejectedCount());
+      assertEquals(1, client.getFailureCount());
+      release.countDown();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(0, client.getActiveExchanges());
+    }
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Test cases for {@link HyperLogLog}.
+ */
+public class HyperLogLogTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testInvalidPrecision() {
+    thrown.expect(IllegalArgumentException.class);
+    new HyperLogLog(3);
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, new HyperLogLog().cardinality());
+  }
+
+  @Test
+  public void testSmallCardinalityNearlyExact() {
+    HyperLogLog hll = new HyperLogLog();
+    for (int i = 0; i < 100; i++) {
+      hll.add("doc" + i);
+      hll.add("doc" + i);
+    }
+    assertEquals(100, hll.cardinality());
+  }
+
+  @Test
+  public void testErrorBound() {
+    HyperLogLog hll = new HyperLogLog();
+    assertEquals(0.0081, hll.standardError(), 0.0001);
+    int added = 0;
+    for (int n : new int[] {1000, 10000, 100000, 1000000}) {
+      for (; added < n; added++) {
+        hll.add("http://example.com/doc/" + added);
+      }
+      // Three standard errors.
+      assertEquals(n, hll.cardinality(), 3 * hll.standardError() * n);
+    }
+  }
+
+  @Test
+  public void testLowPrecisionErrorBound() {
+    HyperLogLog hll = new HyperLogLog(8);
+    for (int i = 0; i < 50000; i++) {
+      hll.add("doc" + i);
+    }
+    assertEquals(50000, hll.cardinality(), 3 * hll.standardError() * 50000);
+  }
+
+  @Test
+  public void testMerge() {
+    HyperLogLog first = new HyperLogLog();
+    HyperLogLog second = new HyperLogLog();
+    for (int i = 0; i < 20000; i++) {
+      first.add("doc" + i);
+      second.add("doc" + (i + 10000));
+    }
+    first.merge(second);
+    assertEquals(30000, first.cardinality(),
+        3 * first.standardError() * 30000);
+  }
+
+  @Test
+  public void testMergeDifferentPrecision() {
+    thrown.expect(IllegalArgumentException.class);
+    new HyperLogLog(10).merge(new HyperLogLog(11));
+  }
+}
@@ -24,7 +24,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -103,6 +105,45 @@ public class JournalTest {
     assertEquals(0, journal.getSnapshot().numTotalGroupMembersPushed);
   }
 
+  @Test
+  public void testApproximateCounts() {
+    Journal journal = new Journal(false, true, new MockTimeProvider());
+    List<DocIdPusher.Record> records = new ArrayList<DocIdPusher.Record>();
+    for (int i = 0; i < 1000; i++) {
+      records.add(new DocIdPusher.Record.Builder(new DocId("" + i)).build());
+    }
+    journal.recordDocIdPush(records);
+    journal.recordDocIdPush(records);
+    for (int i = 0; i < 100; i++) {
+      journal.recordGsaContentRequest(new DocId("" + i));
+    }
+    for (int i = 0; i < 10; i++) {
+      journal.recordGsaContentRequest(new DocId("popular"));
+    }
+    journal.recordNonGsaContentRequest(new DocId("1"));
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertTrue(snapshot.uniqueCountsApproximate);
+    assertEquals(2000, snapshot.numTotalDocIdsPushed);
+    assertEquals(1000, snapshot.numUniqueDocIdsPushed, 1000 * 0.03);
+    assertEquals(101, snapshot.numUniqueGsaRequests, 101 * 0.03);
+    assertEquals(110, snapshot.numTotalGsaRequests);
+    assertEquals(1, snapshot.numUniqueNonGsaRequests);
+    assertEquals(0, snapshot.numUniqueGroupsPushed);
+    assertEquals(Long.valueOf(10),
+        snapshot.topGsaRequests.entrySet().iterator().next().getValue());
+    assertEquals("popular",
+        snapshot.topGsaRequests.keySet().iterator().next());
+  }
+
+  @Test
+  public void testExactCountsHaveNoTopRequests() {
+    Journal journal = new Journal(new MockTimeProvider());
+    journal.recordGsaContentRequest(new DocId("1"));
+    Journal.JournalSnapshot snapshot = journal.getSnapshot();
+    assertFalse(snapshot.uniqueCountsApproximate);
+    assertTrue(snapshot.topGsaRequests.isEmpty());
+  }
+
   @Test
   public void testUnsupportedDocIdPush() {
     class UnsupportedItem implements DocIdSender.Item {};
@@ -186,6 +227,11 @@ public class JournalTest {
     assertEquals(6, stat.requestProcessingsDurationSum);
     assertEquals(4, stat.requestProcessingsMaxDuration);
     assertEquals(18, stat.requestProcessingsThroughput);
+    assertEquals(2, stat.requestProcessingsDurations.getTotalCount());
+    assertEquals(2, stat.requestProcessingsDurations.getValueAtPercentile(50));
+    assertEquals(4, stat.requestProcessingsDurations.getValueAtPercentile(99));
+    assertEquals(8, stat.responseSizes.getValueAtPercentile(50));
+    assertEquals(10, stat.responseSizes.getValueAtPercentile(99));
 
     // Did it swap out to a new stat correctly?
     journal.recordRequestProcessingStart();
@@ -201,6 +247,7 @@ public class JournalTest {
     assertEquals(timeProvider.time - previousTime,
                  stat.requestProcessingsMaxDuration);
     assertEquals(101, stat.requestProcessingsThroughput);
+    assertEquals(1, stat.responseSizes.getTotalCount());
 
     // Does it still have correct values for previous stat?
     stat = snapshot.timeStats[0].stats[(snapshot.timeStats[0].currentStat - 1)
@@ -301,6 +348,52 @@ public class JournalTest {
     journal.recordFullPushFailed();
   }
 
+  @Test
+  public void testShardProgress() {
+    final MockTimeProvider timeProvider = new MockTimeProvider();
+    final Journal journal = new Journal(timeProvider);
+    timeProvider.autoIncrement = false;
+
+    journal.recordListingShards(Arrays.asList("a", "b"));
+    timeProvider.time = 3;
+    journal.recordShardAttemptStarted("a");
+    journal.recordShardRecordsPushed("a", 5);
+    timeProvider.time = 4;
+    journal.recordShardAttemptStarted("a");
+    journal.recordShardRecordsPushed("a", 2);
+    List<Journal.ShardProgress> progress = journal.getSnapshot().shardProgress;
+    assertEquals(2, progress.size());
+    assertEquals("a", progress.get(0).name);
+    assertEquals(null, progress.get(0).status);
+    assertEquals(2, progress.get(0).attempts);
+    assertEquals(7, progress.get(0).recordsPushed);
+    assertEquals(3, progress.get(0).startTime);
+    assertEquals("b", progress.get(1).name);
+    assertEquals(0, progress.get(1).attempts);
+
+    timeProvider.time = 6;
+    journal.recordShardCompleted("a", Journal.CompletionStatus.SUCCESS);
+    // The snapshot is not affected by later changes.
+    assertEquals(null, progress.get(0).status);
+    progress = journal.getSnapshot().shardProgress;
+    assertEquals(Journal.CompletionStatus.SUCCESS, progress.get(0).status);
+    assertEquals(6, progress.get(0).endTime);
+
+    // A new full push forgets the old shards.
+    journal.recordListingShards(Arrays.asList("c"));
+    progress = journal.getSnapshot().shardProgress;
+    assertEquals(1, progress.size());
+    assertEquals("c", progress.get(0).name);
+  }
+
+  @Test
+  public void testShardProgressUnknownShard() {
+    final Journal journal = new Journal(new MockTimeProvider());
+    journal.recordListingShards(Arrays.asList("a"));
+    thrown.expect(IllegalArgumentException.class);
+    journal.recordShardAttemptStarted("b");
+  }
+
   @Test
   public void testIncrementalPushStats() {
     final MockTimeProvider timeProvider = new MockTimeProvider();
@@ -541,4 +634,40 @@ public class JournalTest {
     timeProvider.time += 2 * dayInMillis;
     assertFalse(journal.hasGsaCrawledWithinLastDay());
   }
+
+  @Test
+  public void testMetrics() throws Exception {
+    final MockTimeProvider timeProvider = new MockTimeProvider();
+    final Journal journal = new Journal(timeProvider);
+    timeProvider.autoIncrement = false;
+    journal.recordGsaContentRequest(new DocId("a"));
+    journal.recordNonGsaContentRequest(new DocId("b"));
+    journal.recordRequestProcessingStart();
+    timeProvider.time += 20;
+    journal.recordRequestProcessingEnd(2000);
+    journal.recordRequestProcessingStart();
+    journal.recordRequestProcessingFailure();
+    journal.recordFeedUpload(100, 300, true);
+    journal.recordFeedUpload(50, 10, false);
+
+    StringWriter writer = new StringWriter();
+    journal.getMetrics().writeTo(writer);
+    String metrics = writer.toString();
+    assertTrue(metrics.contains("\nadaptor_gsa_requests_total 1\n"));
+    assertTrue(metrics.contains("\nadaptor_non_gsa_requests_total 1\n"));
+    assertTrue(metrics.contains("\nadaptor_requests_total 2\n"));
+    assertTrue(metrics.contains("\nadaptor_request_failures_total 1\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_request_duration_seconds_bucket{le=\"0.005\"} 1\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_request_duration_seconds_bucket{le=\"0.025\"} 2\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_request_duration_seconds_sum 0.02\n"));
+    assertTrue(metrics.contains("\nadaptor_response_size_bytes_sum 2000\n"));
+    assertTrue(metrics.contains("\nadaptor_feed_uploads_total 2\n"));
+    assertTrue(metrics.contains("\nadaptor_feed_upload_failures_total 1\n"));
+    assertTrue(metrics.contains("\nadaptor_feed_batch_size_sum 150\n"));
+    assertTrue(metrics.contains(
+        "\nadaptor_feed_upload_duration_seconds_sum 0.31\n"));
+  }
 }
@@ -0,0 +1,99 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+/**
+ * Test cases for {@link MetricsHandler}.
+ */
+public class MetricsHandlerTest {
+  private static final Charset charset = Charset.forName("UTF-8");
+
+  private final Metrics metrics = new Metrics();
+
+  @Test
+  public void testGet() throws Exception {
+    metrics.counter("requests_total", "Requests.").increment();
+    MetricsHandler handler = new MetricsHandler(metrics, new String[] {""});
+    MockHttpExchange ex = makeExchange(handler, "GET", "/metrics");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+    assertEquals(Metrics.CONTENT_TYPE,
+        ex.getResponseHeaders().getFirst("Content-Type"));
+    assertEquals("# HELP requests_total Requests.\n"
+        + "# TYPE requests_total counter\n"
+        + "requests_total 1\n",
+        new String(ex.getResponseBytes(), charset));
+  }
+
+  @Test
+  public void testPost() throws Exception {
+    MetricsHandler handler = new MetricsHandler(metrics, new String[0]);
+    MockHttpExchange ex = makeExchange(handler, "POST", "/metrics");
+    handler.handle(ex);
+    assertEquals(405, ex.getResponseCode());
+  }
+
+  @Test
+  public void testWrongPath() throws Exception {
+    MetricsHandler handler = new MetricsHandler(metrics, new String[0]);
+    MockHttpExchange ex = makeExchange(handler, "GET", "/metricsx");
+    handler.handle(ex);
+    assertEquals(404, ex.getResponseCode());
+  }
+
+  @Test
+  public void testAllowedAddress() throws Exception {
+    // MockHttpExchange's remote address is 127.0.0.3.
+    MetricsHandler handler
+        = new MetricsHandler(metrics, new String[] {"127.0.0.3"});
+    MockHttpExchange ex = makeExchange(handler, "GET", "/metrics");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+  }
+
+  @Test
+  public void testAllowedRange() throws Exception {
+    MetricsHandler handler
+        = new MetricsHandler(metrics, new String[] {"10.0.0.1", "127.0.0.0/8"});
+    MockHttpExchange ex = makeExchange(handler, "GET", "/metrics");
+    handler.handle(ex);
+    assertEquals(200, ex.getResponseCode());
+  }
+
+  @Test
+  public void testForbidden() throws Exception {
+    MetricsHandler handler
+        = new MetricsHandler(metrics, new String[] {"10.0.0.0/8"});
+    MockHttpExchange ex = makeExchange(handler, "GET", "/metrics");
+    ex.setRemoteAddress(new InetSocketAddress(
+        InetAddress.getByAddress(new byte[] {11, 0, 0, 1}), 65000));
+    handler.handle(ex);
+    assertEquals(403, ex.getResponseCode());
+  }
+
+  private MockHttpExchange makeExchange(MetricsHandler handler, String method,
+      String path) {
+    return new MockHttpExchange(method, path,
+        new MockHttpContext(handler, "/metrics"));
+  }
+}
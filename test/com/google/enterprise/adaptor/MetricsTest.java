@@ -0,0 +1,135 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.StringWriter;
+
+/**
+ * Test cases for {@link Metrics}.
+ */
+public class MetricsTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final Metrics metrics = new Metrics();
+
+  @Test
+  public void testInvalidName() {
+    thrown.expect(IllegalArgumentException.class);
+    metrics.counter("requests-total", "Requests.");
+  }
+
+  @Test
+  public void testCounter() throws Exception {
+    Metrics.Counter counter = metrics.counter("requests_total", "Requests.");
+    counter.increment();
+    counter.add(2);
+    assertEquals(3, counter.get());
+    assertSame(counter, metrics.counter("requests_total", "Requests."));
+    assertEquals("# HELP requests_total Requests.\n"
+        + "# TYPE requests_total counter\n"
+        + "requests_total 3\n", write());
+  }
+
+  @Test
+  public void testCounterDecrease() {
+    thrown.expect(IllegalArgumentException.class);
+    metrics.counter("requests_total", "Requests.").add(-1);
+  }
+
+  @Test
+  public void testConflictingRegistration() {
+    metrics.counter("queue_depth", "Depth.");
+    thrown.expect(IllegalArgumentException.class);
+    metrics.gauge("queue_depth", "Depth.", new FixedGauge(1));
+  }
+
+  @Test
+  public void testGaugeReplaced() throws Exception {
+    metrics.gauge("queue_depth", "Depth.", new FixedGauge(1));
+    metrics.gauge("queue_depth", "Depth.", new FixedGauge(2));
+    assertEquals("# HELP queue_depth Depth.\n"
+        + "# TYPE queue_depth gauge\n"
+        + "queue_depth 2\n", write());
+  }
+
+  @Test
+  public void testHelpEscaped() throws Exception {
+    metrics.counter("dropped_total", "Dropped \\ lost\nitems.",
+        new FixedGauge(4));
+    assertEquals("# HELP dropped_total Dropped \\\\ lost\\nitems.\n"
+        + "# TYPE dropped_total counter\n"
+        + "dropped_total 4\n", write());
+  }
+
+  @Test
+  public void testDistribution() throws Exception {
+    Metrics.Distribution distribution = metrics.distribution(
+        "duration_seconds", "Durations.", 1000, 10, 100);
+    distribution.observe(5);
+    distribution.observe(10);
+    distribution.observe(50);
+    distribution.observe(5000);
+    assertEquals(4, distribution.getCount());
+    assertEquals(5065, distribution.getSum());
+    assertEquals("# HELP duration_seconds Durations.\n"
+        + "# TYPE duration_seconds histogram\n"
+        + "duration_seconds_bucket{le=\"0.01\"} 2\n"
+        + "duration_seconds_bucket{le=\"0.1\"} 3\n"
+        + "duration_seconds_bucket{le=\"+Inf\"} 4\n"
+        + "duration_seconds_sum 5.065\n"
+        + "duration_seconds_count 4\n", write());
+  }
+
+  @Test
+  public void testDistributionUnsortedBounds() {
+    thrown.expect(IllegalArgumentException.class);
+    metrics.distribution("size_bytes", "Sizes.", 1, 100, 10);
+  }
+
+  @Test
+  public void testSortedByName() throws Exception {
+    metrics.gauge("b", "B.", new FixedGauge(2));
+    metrics.gauge("a", "A.", new FixedGauge(1));
+    assertEquals("# HELP a A.\n# TYPE a gauge\na 1\n"
+        + "# HELP b B.\n# TYPE b gauge\nb 2\n", write());
+  }
+
+  private String write() throws Exception {
+    StringWriter writer = new StringWriter();
+    metrics.writeTo(writer);
+    return writer.toString();
+  }
+
+  private static class FixedGauge implements Metrics.Gauge {
+    private final long value;
+
+    FixedGauge(long value) {
+      this.value = value;
+    }
+
+    @Override
+    public long getValue() {
+      return value;
+    }
+  }
+}
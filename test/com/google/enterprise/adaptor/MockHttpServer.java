@@ -81,7 +81,8 @@ public class MockHttpServer extends HttpServer {
 
   @Override
   public Executor getExecutor() {
-    throw new UnsupportedOperationException();
+    // Like HttpServer, report that no executor was set.
+    return null;
   }
 
   @Override
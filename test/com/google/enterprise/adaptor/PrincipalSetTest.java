@@ -0,0 +1,126 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/** Test cases for {@link PrincipalSet}. */
+public class PrincipalSetTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final Comparator<Principal> IGNORE_CASE
+      = new Comparator<Principal>() {
+        @Override
+        public int compare(Principal a, Principal b) {
+          return a.getName().toLowerCase(Locale.ENGLISH)
+              .compareTo(b.getName().toLowerCase(Locale.ENGLISH));
+        }
+      };
+
+  @Test
+  public void testNullEntry() {
+    thrown.expect(NullPointerException.class);
+    PrincipalSet.of(Arrays.asList(new UserPrincipal("a"), null), null);
+  }
+
+  @Test
+  public void testMatchesTreeSet() {
+    List<UserPrincipal> users = new ArrayList<UserPrincipal>();
+    for (int i = 0; i < 50; i++) {
+      users.add(new UserPrincipal("user" + (i * 37 % 23)));
+    }
+    users.add(new UserPrincipal("dom\\user"));
+    users.add(new UserPrincipal("user@dom"));
+    TreeSet<UserPrincipal> golden = new TreeSet<UserPrincipal>(users);
+    PrincipalSet<UserPrincipal> set = PrincipalSet.of(users, null);
+    assertEquals(new ArrayList<UserPrincipal>(golden),
+        new ArrayList<UserPrincipal>(set));
+    assertEquals(golden, set);
+    assertEquals(set, golden);
+    assertEquals(golden.hashCode(), set.hashCode());
+    assertTrue(set.contains(new UserPrincipal("user7")));
+    assertFalse(set.contains(new UserPrincipal("user99")));
+    assertFalse(set.contains(new GroupPrincipal("user7")));
+    assertFalse(set.contains("user7"));
+  }
+
+  @Test
+  public void testComparatorKeepsFirst() {
+    PrincipalSet<UserPrincipal> set = PrincipalSet.of(Arrays.asList(
+        new UserPrincipal("b"), new UserPrincipal("A"),
+        new UserPrincipal("B"), new UserPrincipal("a")), IGNORE_CASE);
+    Iterator<UserPrincipal> it = set.iterator();
+    assertEquals("A", it.next().getName());
+    assertEquals("b", it.next().getName());
+    assertFalse(it.hasNext());
+    assertTrue(set.contains(new UserPrincipal("B")));
+  }
+
+  @Test
+  public void testReusedWhenAlreadyOrdered() {
+    PrincipalSet<UserPrincipal> set = PrincipalSet.of(
+        Arrays.asList(new UserPrincipal("a")), null);
+    assertSame(set, PrincipalSet.of(set, null));
+    assertFalse(set == PrincipalSet.of(set, IGNORE_CASE));
+  }
+
+  @Test
+  public void testEmpty() {
+    PrincipalSet<UserPrincipal> set
+        = PrincipalSet.of(Collections.<UserPrincipal>emptySet(), null);
+    assertTrue(set.isEmpty());
+    assertEquals(Collections.emptySet(), set);
+    assertEquals(0, set.hashCode());
+  }
+
+  @Test
+  public void testImmutable() {
+    PrincipalSet<UserPrincipal> set = PrincipalSet.of(
+        Arrays.asList(new UserPrincipal("a")), null);
+    thrown.expect(UnsupportedOperationException.class);
+    set.iterator().remove();
+  }
+
+  @Test
+  public void testIsIdentical() {
+    PrincipalSet<UserPrincipal> set = PrincipalSet.of(
+        Arrays.asList(new UserPrincipal("dom\\a")), null);
+    PrincipalSet<UserPrincipal> same = PrincipalSet.of(
+        Arrays.asList(new UserPrincipal("dom\\a")), null);
+    PrincipalSet<UserPrincipal> respelled = PrincipalSet.of(
+        Arrays.asList(new UserPrincipal("a@dom")), null);
+    assertTrue(set.isIdentical(same));
+    assertEquals(set, respelled);
+    assertFalse(set.isIdentical(respelled));
+    assertFalse(set.isIdentical(PrincipalSet.of(set, IGNORE_CASE)));
+  }
+}
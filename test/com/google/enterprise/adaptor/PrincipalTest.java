@@ -16,6 +16,7 @@ package com.google.enterprise.adaptor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.enterprise.adaptor.Principal.DomainFormat;
@@ -347,4 +348,45 @@ public class PrincipalTest {
     assertEquals(new ParsedPrincipal(false, "a", "b", DomainFormat.DNS, "z"),
         p.namespace("z"));
   }
+
+  @Test
+  public void testParseIsCached() {
+    Principal p = new UserPrincipal("dom\\user");
+    assertSame(p.parse(), p.parse());
+    assertEquals("dom", p.parse().domain);
+    assertEquals("user", p.parse().plainName);
+  }
+
+  @Test
+  public void testCaseFolded() {
+    Principal.CaseFoldedKey key
+        = new GroupPrincipal("Eng@Example.COM", "NS").caseFolded();
+    assertEquals("ns", key.namespace);
+    assertEquals("example.com", key.domain);
+    assertEquals("eng", key.plainName);
+    assertEquals(0, key.compareTo(
+        new UserPrincipal("example.com\\ENG", "ns").caseFolded()));
+    assertTrue(key.compareTo(
+        new UserPrincipal("eng@example.com", "nt").caseFolded()) < 0);
+    assertTrue(key.compareTo(
+        new UserPrincipal("eng@example.org", "ns").caseFolded()) < 0);
+    assertTrue(key.compareTo(
+        new UserPrincipal("end@example.com", "ns").caseFolded()) > 0);
+  }
+
+  @Test
+  public void testInterner() {
+    PrincipalInterner interner = new PrincipalInterner();
+    GroupPrincipal g1 = new GroupPrincipal("dom\\eng", "ns");
+    GroupPrincipal g2 = new GroupPrincipal("dom\\eng", "ns");
+    assertSame(g1, interner.intern(g1));
+    assertSame(g1, interner.intern(g2));
+    // Equal, but spelled differently.
+    GroupPrincipal g3 = new GroupPrincipal("eng@dom", "ns");
+    assertEquals(g1, g3);
+    assertSame(g3, interner.intern(g3));
+    // A user is never equal to a group.
+    UserPrincipal u = new UserPrincipal("dom\\eng", "ns");
+    assertSame(u, interner.intern(u));
+  }
 }
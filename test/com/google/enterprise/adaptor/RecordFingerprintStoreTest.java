@@ -0,0 +1,231 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Test cases for {@link RecordFingerprintStore}.
+ */
+public class RecordFingerprintStoreTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File file;
+  private RecordFingerprintStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(temp.getRoot(), "fingerprints");
+    store = new RecordFingerprintStore(file);
+    store.load();
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+  }
+
+  @Test
+  public void testNullFile() {
+    thrown.expect(NullPointerException.class);
+    new RecordFingerprintStore(null);
+  }
+
+  @Test
+  public void testFingerprintCoversAllFields() {
+    DocIdPusher.Record base = new DocIdPusher.Record.Builder(new DocId("a"))
+        .build();
+    long fingerprint = RecordFingerprintStore.fingerprint(base);
+    assertEquals(fingerprint, RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base).build()));
+    assertFalse(fingerprint == RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base).setLastModified(new Date(1))
+        .build()));
+    assertFalse(fingerprint == RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base)
+        .setResultLink(URI.create("http://example.com/")).build()));
+    assertFalse(fingerprint == RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base).setCrawlImmediately(true)
+        .build()));
+    assertFalse(fingerprint == RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base).setCrawlOnce(true).build()));
+    assertFalse(fingerprint == RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base).setLock(true).build()));
+    assertFalse(fingerprint == RecordFingerprintStore.fingerprint(
+        new DocIdPusher.Record.Builder(base).setMetadata(new Metadata())
+        .build()));
+  }
+
+  @Test
+  public void testFingerprintMetadata() {
+    Metadata m1 = new Metadata();
+    m1.add("ab", "c");
+    Metadata m2 = new Metadata();
+    m2.add("a", "bc");
+    assertFalse(RecordFingerprintStore.fingerprint(record("a", m1))
+        == RecordFingerprintStore.fingerprint(record("a", m2)));
+    Metadata m3 = new Metadata();
+    m3.add("ab", "c");
+    assertEquals(RecordFingerprintStore.fingerprint(record("a", m1)),
+        RecordFingerprintStore.fingerprint(record("a", m3)));
+  }
+
+  @Test
+  public void testUnchanged() {
+    store.startFullPush();
+    DocIdPusher.Record record = record("a", null);
+    assertFalse(store.isUnchanged(record));
+    store.recordSent(Collections.singletonList(record));
+    assertTrue(store.isUnchanged(record));
+    assertFalse(store.isUnchanged(new DocIdPusher.Record.Builder(record)
+        .setLastModified(new Date(5)).build()));
+    assertFalse(store.isUnchanged(new DocIdPusher.Record.Builder(record)
+        .setDeleteFromIndex(true).build()));
+  }
+
+  @Test
+  public void testDeleteRemoves() {
+    store.startFullPush();
+    DocIdPusher.Record record = record("a", null);
+    store.recordSent(Collections.singletonList(record));
+    assertEquals(1, store.size());
+    store.recordSent(Collections.singletonList(
+        new DocIdPusher.Record.Builder(record).setDeleteFromIndex(true)
+        .build()));
+    assertEquals(0, store.size());
+    assertFalse(store.isUnchanged(record));
+  }
+
+  @Test
+  public void testPersistence() throws IOException {
+    store.startFullPush();
+    store.recordSent(Arrays.asList(record("a", null), record("b", null),
+          record("c", null)));
+    store.recordSent(Collections.singletonList(
+        new DocIdPusher.Record.Builder(new DocId("b"))
+        .setDeleteFromIndex(true).build()));
+    store.close();
+
+    store = new RecordFingerprintStore(file);
+    store.load();
+    assertEquals(2, store.size());
+    store.startFullPush();
+    assertTrue(store.isUnchanged(record("a", null)));
+    assertFalse(store.isUnchanged(record("b", null)));
+    assertTrue(store.isUnchanged(record("c", null)));
+  }
+
+  @Test
+  public void testTruncatedEntryIgnored() throws IOException {
+    store.startFullPush();
+    store.recordSent(Arrays.asList(record("a", null), record("b", null)));
+    store.close();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() - 1);
+    } finally {
+      raf.close();
+    }
+
+    store = new RecordFingerprintStore(file);
+    store.load();
+    assertEquals(1, store.size());
+    store.startFullPush();
+    assertTrue(store.isUnchanged(record("a", null)));
+  }
+
+  @Test
+  public void testCorruptFileStartsEmpty() throws IOException {
+    store.close();
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write("not a fingerprint file".getBytes("UTF-8"));
+    } finally {
+      os.close();
+    }
+    store = new RecordFingerprintStore(file);
+    store.load();
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void testVanished() {
+    store.startFullPush();
+    store.recordSent(Arrays.asList(record("a", null), record("b", null)));
+    store.completeFullPush(false, true);
+
+    store.startFullPush();
+    assertTrue(store.isUnchanged(record("a", null)));
+    assertEquals(Collections.singletonList(new DocId("b")),
+        store.getVanished());
+    store.completeFullPush(false, false);
+    assertEquals(2, store.size());
+
+    store.startFullPush();
+    assertTrue(store.isUnchanged(record("a", null)));
+    store.completeFullPush(false, true);
+    assertEquals(1, store.size());
+    assertTrue(store.getVanished().isEmpty());
+  }
+
+  @Test
+  public void testRefreshInterval() throws IOException {
+    assertFalse(store.isRefreshDue(0));
+    assertFalse(store.isRefreshDue(3));
+    assertTrue(store.isRefreshDue(1));
+    store.startFullPush();
+    store.completeFullPush(false, true);
+    assertFalse(store.isRefreshDue(3));
+    store.startFullPush();
+    store.completeFullPush(false, true);
+    assertTrue(store.isRefreshDue(3));
+    store.close();
+
+    // The count survives restarts.
+    store = new RecordFingerprintStore(file);
+    store.load();
+    assertTrue(store.isRefreshDue(3));
+    store.startFullPush();
+    store.completeFullPush(true, true);
+    assertFalse(store.isRefreshDue(3));
+  }
+
+  private static DocIdPusher.Record record(String id, Metadata metadata) {
+    return new DocIdPusher.Record.Builder(new DocId(id)).setMetadata(metadata)
+        .build();
+  }
+}
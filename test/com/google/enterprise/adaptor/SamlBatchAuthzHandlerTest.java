@@ -17,18 +17,28 @@ package com.google.enterprise.adaptor;
 import static org.junit.Assert.assertEquals;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Test cases for {@link SamlBatchAuthzHandler}.
@@ -259,6 +269,60 @@ public class SamlBatchAuthzHandlerTest {
     assertEquals(goldenResponse, response);
   }
   
+  @Test
+  public void testAuthzByAclNestedGroups() throws Exception {
+    Map<String, Acl> aclMap = new TreeMap<String, Acl>();
+    aclMap.put("doc/1234", new Acl.Builder()
+        .setPermitGroups(Arrays.asList(new GroupPrincipal("parent@test")))
+        .build());
+    GroupMembershipGraph graph = new GroupMembershipGraph();
+    Map<GroupPrincipal, Collection<Principal>> defs
+        = new TreeMap<GroupPrincipal, Collection<Principal>>();
+    defs.put(new GroupPrincipal("parent@test"),
+        Arrays.<Principal>asList(new GroupPrincipal("group1@test")));
+    graph.update(defs, true);
+
+    String extensionStr = ""
+        + "<saml2p:Extensions xmlns:goog=\"http://www.google.com/\" "
+        +   "xmlns:saml2p=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+        +   "<goog:SecmgrCredential "
+        +     "domain=\"test\" "
+        +     "name=\"joe\" "
+        +     "namespace=\"Default\" "
+        +     "xmlns:goog=\"http://www.google.com/\">"
+        +       "<goog:Group "
+        +         "domain=\"test\" "
+        +         "name=\"group1\" "
+        +         "namespace=\"Default\" "
+        +         "xmlns:goog=\"http://www.google.com/\"/>"
+        +   "</goog:SecmgrCredential>"
+        + "</saml2p:Extensions>";
+    String request
+        = SOAP_HEADER
+        + generateAuthzDecisionQuery("http://localhost/doc/1234",
+                                     "aoeuaoeu", "joe", extensionStr)
+        + SOAP_FOOTER;
+
+    for (boolean expand : new boolean[] {false, true}) {
+      SamlBatchAuthzHandler handler =
+          new SamlBatchAuthzHandler(new AuthzByAclMockAdaptor(aclMap),
+              new MockDocIdCodec(), samlMetadata, Principal.DomainFormat.DNS,
+              expand ? graph : null);
+      MockHttpExchange ex = new MockHttpExchange("POST", "/",
+          new MockHttpContext(handler, "/"));
+      String goldenResponse
+          = SOAP_HEADER
+          + generateGoldenResponse("http://localhost/doc/1234", "aoeuaoeu",
+                                   "joe", expand ? "Permit" : "Deny")
+          + SOAP_FOOTER;
+      ex.setRequestBody(stringToStream(request));
+      handler.handle(ex);
+      assertEquals(200, ex.getResponseCode());
+      String response = new String(ex.getResponseBytes(), charset);
+      assertEquals(goldenResponse, massageResponse(response));
+    }
+  }
+
   @Test
   public void testAuthzByAclNetbiosFormat() throws Exception {
     Map<String, Acl> aclMap = new TreeMap<String, Acl>();
@@ -503,6 +567,173 @@ public class SamlBatchAuthzHandlerTest {
     assertEquals(goldenResponse, response);
   }
 
+  @Test
+  public void testMultiRequestChunked() throws Exception {
+    final List<Collection<DocId>> calls
+        = Collections.synchronizedList(new ArrayList<Collection<DocId>>());
+    AuthzAuthority adaptor = new AuthzAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity identity,
+          Collection<DocId> ids) {
+        calls.add(ids);
+        Map<DocId, AuthzStatus> result = new HashMap<DocId, AuthzStatus>();
+        for (DocId id : ids) {
+          result.put(id, "doc/1235".equals(id.getUniqueId())
+              ? AuthzStatus.DENY : AuthzStatus.PERMIT);
+        }
+        return result;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
+          adaptor, new MockDocIdCodec(), samlMetadata,
+          Principal.DomainFormat.DNS, null, executor, 2, 10000);
+      MockHttpExchange ex = new MockHttpExchange("POST", "/",
+          new MockHttpContext(handler, "/"));
+      String request
+          = SOAP_HEADER
+          + generateAuthzDecisionQuery("http://localhost/doc/1234",
+                                       "aoeuaoeu1", DEFAULT_SUBJECT, null)
+          + generateAuthzDecisionQuery("http://localhost/doc/1235",
+                                       "aoeuaoeu2", DEFAULT_SUBJECT, null)
+          + generateAuthzDecisionQuery("http://localhost/doc/1236",
+                                       "aoeuaoeu3", DEFAULT_SUBJECT, null)
+          + SOAP_FOOTER;
+      String goldenResponse
+          = SOAP_HEADER
+          + generateGoldenResponse("http://localhost/doc/1234",
+                                   "aoeuaoeu1", DEFAULT_SUBJECT, "Permit")
+          + generateGoldenResponse("http://localhost/doc/1235",
+                                   "aoeuaoeu2", DEFAULT_SUBJECT, "Deny")
+          + generateGoldenResponse("http://localhost/doc/1236",
+                                   "aoeuaoeu3", DEFAULT_SUBJECT, "Permit")
+          + SOAP_FOOTER;
+      ex.setRequestBody(stringToStream(request));
+      handler.handle(ex);
+      assertEquals(200, ex.getResponseCode());
+      String response = new String(ex.getResponseBytes(), charset);
+      response = massageResponse(response);
+      assertEquals(goldenResponse, response);
+      assertEquals(2, calls.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSlowAdaptorIndeterminate() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    AuthzAuthority adaptor = new AuthzAuthority() {
+      @Override
+      public Map<DocId, AuthzStatus> isUserAuthorized(AuthnIdentity identity,
+          Collection<DocId> ids) throws IOException {
+        Map<DocId, AuthzStatus> result = new HashMap<DocId, AuthzStatus>();
+        for (DocId id : ids) {
+          if ("doc/1235".equals(id.getUniqueId())) {
+            try {
+              release.await();
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              throw new IOException(ex);
+            }
+          }
+          result.put(id, AuthzStatus.PERMIT);
+        }
+        return result;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
+          adaptor, new MockDocIdCodec(), samlMetadata,
+          Principal.DomainFormat.DNS, null, executor, 1, 100);
+      MockHttpExchange ex = new MockHttpExchange("POST", "/",
+          new MockHttpContext(handler, "/"));
+      String request
+          = SOAP_HEADER
+          + generateAuthzDecisionQuery("http://localhost/doc/1234",
+                                       "aoeuaoeu1", DEFAULT_SUBJECT, null)
+          + generateAuthzDecisionQuery("http://localhost/doc/1235",
+                                       "aoeuaoeu2", DEFAULT_SUBJECT, null)
+          + SOAP_FOOTER;
+      String goldenResponse
+          = SOAP_HEADER
+          + generateGoldenResponse("http://localhost/doc/1234",
+                                   "aoeuaoeu1", DEFAULT_SUBJECT, "Permit")
+          + generateGoldenResponse("http://localhost/doc/1235",
+                                   "aoeuaoeu2", DEFAULT_SUBJECT,
+                                   "Indeterminate")
+          + SOAP_FOOTER;
+      ex.setRequestBody(stringToStream(request));
+      handler.handle(ex);
+      assertEquals(200, ex.getResponseCode());
+      String response = new String(ex.getResponseBytes(), charset);
+      response = massageResponse(response);
+      assertEquals(goldenResponse, response);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAsyncAdaptorTimeoutIndeterminate() throws Exception {
+    AsyncAuthzAuthority asyncAdaptor = new AsyncAuthzAuthority() {
+      @Override
+      public Future<Map<DocId, AuthzStatus>> isUserAuthorizedAsync(
+          AuthnIdentity identity, Collection<DocId> ids) {
+        DocId id = ids.iterator().next();
+        if ("doc/1235".equals(id.getUniqueId())) {
+          // Never decided.
+          return SettableFuture.create();
+        }
+        AuthzStatus status = "doc/1234".equals(id.getUniqueId())
+            ? AuthzStatus.PERMIT : AuthzStatus.INDETERMINATE;
+        return Futures.immediateFuture(
+            Collections.singletonMap(id, status));
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      // The adaptor's deadline passes long before the batch's.
+      SamlBatchAuthzHandler handler = new SamlBatchAuthzHandler(
+          new DeadlineAuthzAuthority(asyncAdaptor, 100), new MockDocIdCodec(),
+          samlMetadata, Principal.DomainFormat.DNS, null, executor, 1, 10000);
+      MockHttpExchange ex = new MockHttpExchange("POST", "/",
+          new MockHttpContext(handler, "/"));
+      String request
+          = SOAP_HEADER
+          + generateAuthzDecisionQuery("http://localhost/doc/1234",
+                                       "aoeuaoeu1", DEFAULT_SUBJECT, null)
+          + generateAuthzDecisionQuery("http://localhost/doc/1235",
+                                       "aoeuaoeu2", DEFAULT_SUBJECT, null)
+          + generateAuthzDecisionQuery("http://localhost/doc/1236",
+                                       "aoeuaoeu3", DEFAULT_SUBJECT, null)
+          + SOAP_FOOTER;
+      // Timing out is indeterminate, while the adaptor deciding indeterminate
+      // is still denied.
+      String goldenResponse
+          = SOAP_HEADER
+          + generateGoldenResponse("http://localhost/doc/1234",
+                                   "aoeuaoeu1", DEFAULT_SUBJECT, "Permit")
+          + generateGoldenResponse("http://localhost/doc/1235",
+                                   "aoeuaoeu2", DEFAULT_SUBJECT,
+                                   "Indeterminate")
+          + generateGoldenResponse("http://localhost/doc/1236",
+                                   "aoeuaoeu3", DEFAULT_SUBJECT, "Deny")
+          + SOAP_FOOTER;
+      ex.setRequestBody(stringToStream(request));
+      handler.handle(ex);
+      assertEquals(200, ex.getResponseCode());
+      String response = new String(ex.getResponseBytes(), charset);
+      response = massageResponse(response);
+      assertEquals(goldenResponse, response);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testMultiRequestWithDifferentSubjects() throws Exception {
     String request
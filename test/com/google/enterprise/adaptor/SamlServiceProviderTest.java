@@ -40,6 +40,7 @@ import org.opensaml.saml2.core.NameID;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.security.KeyPairGenerator;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -194,74 +195,7 @@ public class SamlServiceProviderTest {
 
   @Test
   public void testAssertionConsumerNormal() throws Exception {
-    SamlHttpClient httpClient = new SamlHttpClient() {
-      @Override
-      protected void handleExchange(ClientExchange ex) {
-        String body = new String(ex.getRequestBody(), charset);
-        body = massageMessage(body);
-        assertEquals(GOLDEN_ARTIFACT_RESOLVE_REQUEST, body);
-
-        // Generate valid response.
-        String issuer = metadata.getPeerEntity().getEntityID();
-        String recipient = metadata.getLocalEntity()
-            .getSPSSODescriptor(SAMLConstants.SAML20P_NS)
-            .getAssertionConsumerServices().get(0).getLocation();
-        String audience = metadata.getLocalEntity().getEntityID();
-        String response
-            = "<SOAP-ENV:Envelope "
-            +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
-            +   "<SOAP-ENV:Body>"
-            +     "<samlp:ArtifactResponse "
-            +       "xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
-            +       "xmlns=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
-            +       "ID=\"someid1\" Version=\"2.0\" "
-            +       "InResponseTo=\"" + samlClient.getRequestId() + "\" "
-            +       "IssueInstant=\"2010-01-01T01:01:01Z\">"
-            +       "<Issuer>" + issuer + "</Issuer>"
-            +       "<samlp:Status>"
-            +         "<samlp:StatusCode "
-            +           "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
-            +       "</samlp:Status>"
-            +       "<samlp:Response "
-            +         "ID=\"someid2\" "
-            +         "Version=\"2.0\" "
-            +         "IssueInstant=\"2010-01-01T01:01:01Z\">"
-            +         "<samlp:Status>"
-            +           "<samlp:StatusCode "
-            +             "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
-            +         "</samlp:Status>"
-            +         "<Assertion "
-            +           "Version=\"2.0\" "
-            +           "ID=\"someid3\" "
-            +           "IssueInstant=\"2010-01-01T01:01:01Z\">"
-            +           "<Issuer>" + issuer + "</Issuer>"
-            +           "<Subject>"
-            +             "<NameID>CN=Polly Hedra</NameID>"
-            +             "<SubjectConfirmation "
-            +               "Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">"
-            +               "<SubjectConfirmationData "
-            +                 "InResponseTo=\"" + samlClient.getRequestId() + "\" "
-            +                 "Recipient=\"" + recipient + "\" "
-            +                 "NotOnOrAfter=\"2030-01-01T01:01:01Z\"/>"
-            +             "</SubjectConfirmation>"
-            +           "</Subject>"
-            +           "<Conditions "
-            +             "NotBefore=\"2010-01-01T01:01:01Z\">"
-            +             "<AudienceRestriction>"
-            +               "<Audience>" + audience + "</Audience>"
-            +             "</AudienceRestriction>"
-            +           "</Conditions>"
-            +           "<AuthnStatement "
-            +             "AuthnInstant=\"2010-01-01T01:01:01Z\"/>"
-            +         "</Assertion>"
-            +       "</samlp:Response>"
-            +     "</samlp:ArtifactResponse>"
-            +   "</SOAP-ENV:Body>"
-            + "</SOAP-ENV:Envelope>";
-        ex.setStatusCode(200);
-        ex.setResponseStream(response.getBytes(charset));
-      }
-    };
+    SamlHttpClient httpClient = createHttpClient();
     SamlClient samlClient = createSamlClient(httpClient);
     httpClient.setSamlClient(samlClient);
     issueRequest(exArtifact, initialEx, samlClient);
@@ -277,163 +211,7 @@ public class SamlServiceProviderTest {
 
   @Test
   public void testAssertionConsumerNormalWithExtension() throws Exception {
-    SamlHttpClient httpClient = new SamlHttpClient() {
-      @Override
-      protected void handleExchange(ClientExchange ex) {
-        String body = new String(ex.getRequestBody(), charset);
-        body = massageMessage(body);
-        assertEquals(GOLDEN_ARTIFACT_RESOLVE_REQUEST, body);
-
-        // Generate valid response.
-        String issuer = metadata.getPeerEntity().getEntityID();
-        String recipient = metadata.getLocalEntity()
-            .getSPSSODescriptor(SAMLConstants.SAML20P_NS)
-            .getAssertionConsumerServices().get(0).getLocation();
-        String audience = metadata.getLocalEntity().getEntityID();
-        String response
-            = "<SOAP-ENV:Envelope "
-            +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
-            +   "<SOAP-ENV:Body>"
-            +     "<samlp:ArtifactResponse "
-            +       "xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
-            +       "xmlns=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
-            +       "ID=\"someid1\" Version=\"2.0\" "
-            +       "InResponseTo=\"" + samlClient.getRequestId() + "\" "
-            +       "IssueInstant=\"2010-01-01T01:01:01Z\">"
-            +       "<Issuer>" + issuer + "</Issuer>"
-            +       "<samlp:Status>"
-            +         "<samlp:StatusCode "
-            +           "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
-            +       "</samlp:Status>"
-            +       "<samlp:Response "
-            +         "ID=\"someid2\" "
-            +         "Version=\"2.0\" "
-            +         "IssueInstant=\"2010-01-01T01:01:01Z\">"
-            +         "<samlp:Status>"
-            +           "<samlp:StatusCode "
-            +             "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
-            +         "</samlp:Status>"
-            +         "<Assertion "
-            +           "Version=\"2.0\" "
-            +           "ID=\"someid3\" "
-            +           "IssueInstant=\"2010-01-01T01:01:01Z\">"
-            +           "<Issuer>" + issuer + "</Issuer>"
-            +           "<Subject>"
-            +             "<NameID>CN=Polly Hedra</NameID>"
-            +             "<SubjectConfirmation "
-            +               "Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">"
-            +               "<SubjectConfirmationData "
-            +                 "InResponseTo=\"" + samlClient.getRequestId() + "\" "
-            +                 "Recipient=\"" + recipient + "\" "
-            +                 "NotOnOrAfter=\"2030-01-01T01:01:01Z\"/>"
-            +             "</SubjectConfirmation>"
-            +           "</Subject>"
-            +           "<Conditions "
-            +             "NotBefore=\"2010-01-01T01:01:01Z\">"
-            +             "<AudienceRestriction>"
-            +               "<Audience>" + audience + "</Audience>"
-            +             "</AudienceRestriction>"
-            +           "</Conditions>"
-            +           "<AuthnStatement "
-            +             "AuthnInstant=\"2010-01-01T01:01:01Z\">"
-            +             "<AuthnContext>"
-            +               "<AuthnContextClassRef>"
-            +                 "urn:oasis:names:tc:SAML:2.0:ac:classes:InternetProtocolPassword"
-            +               "</AuthnContextClassRef>"
-            +             "</AuthnContext>"
-            +           "</AuthnStatement>"
-            +           "<AttributeStatement>"
-            +             "<Attribute Name=\"SecurityManagerState\">"
-            +               "<AttributeValue>"
-            + "{"
-            +   "\"version\": 1,"
-            +   "\"timeStamp\": 1330042321589,"
-            +   "\"sessionState\": {"
-            +     "\"instructions\": ["
-            +       "{"
-            +         "\"operation\": \"ADD_CREDENTIAL\","
-            +         "\"authority\": "
-            + "\"http://google.com/enterprise/gsa/security-manager/Default\","
-            +         "\"operand\": {"
-            +           "\"name\": \"CN=Polly Hedra\","
-            +           "\"typeName\": \"AuthnPrincipal\""
-            +         "}"
-            +       "},"
-            +       "{"
-            +         "\"operation\": \"ADD_CREDENTIAL\","
-            +         "\"authority\": "
-            + "\"http://google.com/enterprise/gsa/security-manager/Default\","
-            +         "\"operand\": {"
-            +           "\"password\": \"p0ck3t\","
-            +           "\"typeName\": \"CredPassword\""
-            +         "}"
-            +       "},"
-            +       "{"
-            +         "\"operation\": \"ADD_VERIFICATION\","
-            +         "\"authority\": "
-            + "\"http://google.com/enterprise/gsa/security-manager/adaptor\","
-            +         "\"operand\": {"
-            +           "\"status\": \"VERIFIED\","
-            +           "\"expirationTime\": 1330043521581,"
-            +           "\"credentials\": ["
-            +             "{"
-            +               "\"name\": \"CN=Polly Hedra\","
-            +               "\"typeName\": \"AuthnPrincipal\""
-            +             "},"
-            +             "{"
-            +               "\"password\": \"p0ck3t\","
-            +               "\"typeName\": \"CredPassword\""
-            +             "}"
-            +           "]"
-            +         "}"
-            +       "}"
-            +     "]"
-            +   "},"
-            +   "\"pviCredentials\": {"
-            +     "\"username\": \"CN=Polly HedraNot\","
-            +     "\"password\": \"p0ck3t\","
-            +     "\"groups\": ["
-            +     "]"
-            +   "},"
-            +   "\"basicCredentials\": {"
-            +     "\"username\": \"CN=Polly Hedra\","
-            +     "\"password\": \"p0ck3t\","
-            +     "\"groups\": ["
-            +     "]"
-            +   "},"
-            +   "\"verifiedCredentials\": ["
-            +     "{"
-            +       "\"username\": \"CN=Polly HedraYes\","
-            +       "\"password\": \"p0ck3t\","
-            +       "\"name_space\": \"testCG1\","
-            +       "\"groups\": ["
-            +         "{"
-            +           "\"name\": \"group1\","
-            +           "\"namespace\": \"testCG1\","
-            +           "\"domain\": \"test.com\""
-            +         "},"
-            +         "{"
-            +           "\"name\": \"pollysGroup\","
-            +           "\"namespace\": \"testCG1\","
-            +           "\"domain\": \"test.com\""
-            +         "}"
-            +       "]"
-            +     "}"
-            +   "],"
-            +   "\"cookies\": []"
-            + "}"
-            +               "</AttributeValue>"
-            +             "</Attribute>"
-            +           "</AttributeStatement>"
-            +         "</Assertion>"
-            +       "</samlp:Response>"
-            +     "</samlp:ArtifactResponse>"
-            +   "</SOAP-ENV:Body>"
-            + "</SOAP-ENV:Envelope>";
-        ex.setStatusCode(200);
-        ex.setResponseStream(response.getBytes(charset));
-      }
-    };
+    SamlHttpClient httpClient = createHttpClientWithExtension();
     SamlClient samlClient = createSamlClient(httpClient);
     httpClient.setSamlClient(samlClient);
     issueRequest(exArtifact, initialEx, samlClient);
@@ -931,6 +709,340 @@ public class SamlServiceProviderTest {
     assertEquals("whale@ahab.net", identity.getUser().getName());
   }
 
+  @Test
+  public void testStatelessSessionToken() throws Exception {
+    SessionTokenCodec codec = new SessionTokenCodec(
+        new SensitiveValueCodec(
+            KeyPairGenerator.getInstance("RSA").generateKeyPair()));
+    SamlServiceProvider serviceProvider = new SamlServiceProvider(
+        sessionManager, metadata, /* KeyPair = */ null, httpClient,
+        Principal.DomainFormat.DNS, codec,
+        new SessionManager.HttpExchangeClientStore("authn"), 60 * 1000, null);
+    assertNull(serviceProvider.getUserIdentity(ex));
+
+    AuthnIdentity identity = new AuthnIdentityImpl
+       .Builder(new UserPrincipal("test")).build();
+    String token = codec.encode(identity, Long.MAX_VALUE);
+    ex.getRequestHeaders().add("Cookie", "authn=" + token);
+    assertEquals(identity.getUser(),
+        serviceProvider.getUserIdentity(ex).getUser());
+    // No session was needed to find the identity.
+    assertNull(sessionManager.getSession(ex, false));
+
+    MockHttpExchange tamperedEx = new MockHttpExchange("GET", "/",
+        new MockHttpContext("/"));
+    tamperedEx.getRequestHeaders().add("Cookie",
+        "authn=" + token.substring(0, token.length() - 4) + "AAA=");
+    assertNull(serviceProvider.getUserIdentity(tamperedEx));
+  }
+
+  @Test
+  public void testStatelessSessionTokenExpiry() throws Exception {
+    MockTimeProvider timeProvider = new MockTimeProvider();
+    timeProvider.autoIncrement = false;
+    // 2029-01-01, far from the real time, so that the token's expiration is
+    // only right if the codec's clock is used to compute it.
+    timeProvider.time = 1861920000000L;
+    SessionTokenCodec codec = new SessionTokenCodec(
+        new SensitiveValueCodec(
+            KeyPairGenerator.getInstance("RSA").generateKeyPair()),
+        timeProvider);
+    SamlServiceProvider serviceProvider = new SamlServiceProvider(
+        sessionManager, metadata, /* KeyPair = */ null, httpClient,
+        Principal.DomainFormat.DNS, codec,
+        new SessionManager.HttpExchangeClientStore("authn"), 60 * 1000, null);
+    SamlHttpClient samlHttpClient = createHttpClient();
+    SamlClient samlClient = createSamlClient(samlHttpClient);
+    samlHttpClient.setSamlClient(samlClient);
+    issueRequest(exArtifact, initialEx, samlClient);
+
+    serviceProvider.getAssertionConsumer().handle(exArtifact);
+    assertEquals(303, exArtifact.getResponseCode());
+    assertEquals("CN=Polly Hedra",
+        serviceProvider.getUserIdentity(exArtifact).getUser().getName());
+
+    timeProvider.time += 60 * 1000 + 1;
+    // The identity was only kept in the token, which has now expired.
+    assertNull(serviceProvider.getUserIdentity(exArtifact));
+  }
+
+  @Test
+  public void testStatelessSessionPasswordKeptInMemory() throws Exception {
+    MockTimeProvider timeProvider = new MockTimeProvider();
+    timeProvider.autoIncrement = false;
+    timeProvider.time = System.currentTimeMillis();
+    SessionTokenCodec codec = new SessionTokenCodec(
+        new SensitiveValueCodec(
+            KeyPairGenerator.getInstance("RSA").generateKeyPair()),
+        timeProvider);
+    SamlServiceProvider serviceProvider = new SamlServiceProvider(
+        sessionManager, metadata, /* KeyPair = */ null, httpClient,
+        Principal.DomainFormat.DNS, codec,
+        new SessionManager.HttpExchangeClientStore("authn"), 60 * 1000, null);
+    SamlHttpClient samlHttpClient = createHttpClientWithExtension();
+    SamlClient samlClient = createSamlClient(samlHttpClient);
+    samlHttpClient.setSamlClient(samlClient);
+    issueRequest(exArtifact, initialEx, samlClient);
+
+    serviceProvider.getAssertionConsumer().handle(exArtifact);
+    assertEquals(303, exArtifact.getResponseCode());
+    timeProvider.time += 60 * 1000 + 1;
+    // No token was issued, since it would have held the password, so the
+    // identity is still found in the session.
+    AuthnIdentity identity = serviceProvider.getUserIdentity(exArtifact);
+    assertEquals("CN=Polly HedraYes", identity.getUser().getName());
+    assertEquals("p0ck3t", identity.getPassword());
+  }
+
+  @Test
+  public void testStatelessSessionTokenRequiresStore() throws Exception {
+    SessionTokenCodec codec = new SessionTokenCodec(
+        new SensitiveValueCodec(
+            KeyPairGenerator.getInstance("RSA").generateKeyPair()));
+    thrown.expect(IllegalArgumentException.class);
+    new SamlServiceProvider(sessionManager, metadata, null, httpClient,
+        Principal.DomainFormat.DNS, codec, null, 60 * 1000, null);
+  }
+
+  /**
+   * Returns a client that resolves artifacts to a successful response without
+   * the security manager's extension.
+   */
+  private SamlHttpClient createHttpClient() {
+    return new SamlHttpClient() {
+      @Override
+      protected void handleExchange(ClientExchange ex) {
+        String body = new String(ex.getRequestBody(), charset);
+        body = massageMessage(body);
+        assertEquals(GOLDEN_ARTIFACT_RESOLVE_REQUEST, body);
+
+        // Generate valid response.
+        String issuer = metadata.getPeerEntity().getEntityID();
+        String recipient = metadata.getLocalEntity()
+            .getSPSSODescriptor(SAMLConstants.SAML20P_NS)
+            .getAssertionConsumerServices().get(0).getLocation();
+        String audience = metadata.getLocalEntity().getEntityID();
+        String response
+            = "<SOAP-ENV:Envelope "
+            +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            +   "<SOAP-ENV:Body>"
+            +     "<samlp:ArtifactResponse "
+            +       "xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
+            +       "xmlns=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+            +       "ID=\"someid1\" Version=\"2.0\" "
+            +       "InResponseTo=\"" + samlClient.getRequestId() + "\" "
+            +       "IssueInstant=\"2010-01-01T01:01:01Z\">"
+            +       "<Issuer>" + issuer + "</Issuer>"
+            +       "<samlp:Status>"
+            +         "<samlp:StatusCode "
+            +           "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
+            +       "</samlp:Status>"
+            +       "<samlp:Response "
+            +         "ID=\"someid2\" "
+            +         "Version=\"2.0\" "
+            +         "IssueInstant=\"2010-01-01T01:01:01Z\">"
+            +         "<samlp:Status>"
+            +           "<samlp:StatusCode "
+            +             "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
+            +         "</samlp:Status>"
+            +         "<Assertion "
+            +           "Version=\"2.0\" "
+            +           "ID=\"someid3\" "
+            +           "IssueInstant=\"2010-01-01T01:01:01Z\">"
+            +           "<Issuer>" + issuer + "</Issuer>"
+            +           "<Subject>"
+            +             "<NameID>CN=Polly Hedra</NameID>"
+            +             "<SubjectConfirmation "
+            +               "Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">"
+            +               "<SubjectConfirmationData "
+            +                 "InResponseTo=\"" + samlClient.getRequestId() + "\" "
+            +                 "Recipient=\"" + recipient + "\" "
+            +                 "NotOnOrAfter=\"2030-01-01T01:01:01Z\"/>"
+            +             "</SubjectConfirmation>"
+            +           "</Subject>"
+            +           "<Conditions "
+            +             "NotBefore=\"2010-01-01T01:01:01Z\">"
+            +             "<AudienceRestriction>"
+            +               "<Audience>" + audience + "</Audience>"
+            +             "</AudienceRestriction>"
+            +           "</Conditions>"
+            +           "<AuthnStatement "
+            +             "AuthnInstant=\"2010-01-01T01:01:01Z\"/>"
+            +         "</Assertion>"
+            +       "</samlp:Response>"
+            +     "</samlp:ArtifactResponse>"
+            +   "</SOAP-ENV:Body>"
+            + "</SOAP-ENV:Envelope>";
+        ex.setStatusCode(200);
+        ex.setResponseStream(response.getBytes(charset));
+      }
+    };
+  }
+
+  /**
+   * Returns a client that resolves artifacts to a successful response whose
+   * assertion carries the security manager's extension.
+   */
+  private SamlHttpClient createHttpClientWithExtension() {
+    return new SamlHttpClient() {
+      @Override
+      protected void handleExchange(ClientExchange ex) {
+        String body = new String(ex.getRequestBody(), charset);
+        body = massageMessage(body);
+        assertEquals(GOLDEN_ARTIFACT_RESOLVE_REQUEST, body);
+
+        // Generate valid response.
+        String issuer = metadata.getPeerEntity().getEntityID();
+        String recipient = metadata.getLocalEntity()
+            .getSPSSODescriptor(SAMLConstants.SAML20P_NS)
+            .getAssertionConsumerServices().get(0).getLocation();
+        String audience = metadata.getLocalEntity().getEntityID();
+        String response
+            = "<SOAP-ENV:Envelope "
+            +   "xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+            +   "<SOAP-ENV:Body>"
+            +     "<samlp:ArtifactResponse "
+            +       "xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
+            +       "xmlns=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+            +       "ID=\"someid1\" Version=\"2.0\" "
+            +       "InResponseTo=\"" + samlClient.getRequestId() + "\" "
+            +       "IssueInstant=\"2010-01-01T01:01:01Z\">"
+            +       "<Issuer>" + issuer + "</Issuer>"
+            +       "<samlp:Status>"
+            +         "<samlp:StatusCode "
+            +           "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
+            +       "</samlp:Status>"
+            +       "<samlp:Response "
+            +         "ID=\"someid2\" "
+            +         "Version=\"2.0\" "
+            +         "IssueInstant=\"2010-01-01T01:01:01Z\">"
+            +         "<samlp:Status>"
+            +           "<samlp:StatusCode "
+            +             "Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/>"
+            +         "</samlp:Status>"
+            +         "<Assertion "
+            +           "Version=\"2.0\" "
+            +           "ID=\"someid3\" "
+            +           "IssueInstant=\"2010-01-01T01:01:01Z\">"
+            +           "<Issuer>" + issuer + "</Issuer>"
+            +           "<Subject>"
+            +             "<NameID>CN=Polly Hedra</NameID>"
+            +             "<SubjectConfirmation "
+            +               "Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">"
+            +               "<SubjectConfirmationData "
+            +                 "InResponseTo=\"" + samlClient.getRequestId() + "\" "
+            +                 "Recipient=\"" + recipient + "\" "
+            +                 "NotOnOrAfter=\"2030-01-01T01:01:01Z\"/>"
+            +             "</SubjectConfirmation>"
+            +           "</Subject>"
+            +           "<Conditions "
+            +             "NotBefore=\"2010-01-01T01:01:01Z\">"
+            +             "<AudienceRestriction>"
+            +               "<Audience>" + audience + "</Audience>"
+            +             "</AudienceRestriction>"
+            +           "</Conditions>"
+            +           "<AuthnStatement "
+            +             "AuthnInstant=\"2010-01-01T01:01:01Z\">"
+            +             "<AuthnContext>"
+            +               "<AuthnContextClassRef>"
+            +                 "urn:oasis:names:tc:SAML:2.0:ac:classes:InternetProtocolPassword"
+            +               "</AuthnContextClassRef>"
+            +             "</AuthnContext>"
+            +           "</AuthnStatement>"
+            +           "<AttributeStatement>"
+            +             "<Attribute Name=\"SecurityManagerState\">"
+            +               "<AttributeValue>"
+            + "{"
+            +   "\"version\": 1,"
+            +   "\"timeStamp\": 1330042321589,"
+            +   "\"sessionState\": {"
+            +     "\"instructions\": ["
+            +       "{"
+            +         "\"operation\": \"ADD_CREDENTIAL\","
+            +         "\"authority\": "
+            + "\"http://google.com/enterprise/gsa/security-manager/Default\","
+            +         "\"operand\": {"
+            +           "\"name\": \"CN=Polly Hedra\","
+            +           "\"typeName\": \"AuthnPrincipal\""
+            +         "}"
+            +       "},"
+            +       "{"
+            +         "\"operation\": \"ADD_CREDENTIAL\","
+            +         "\"authority\": "
+            + "\"http://google.com/enterprise/gsa/security-manager/Default\","
+            +         "\"operand\": {"
+            +           "\"password\": \"p0ck3t\","
+            +           "\"typeName\": \"CredPassword\""
+            +         "}"
+            +       "},"
+            +       "{"
+            +         "\"operation\": \"ADD_VERIFICATION\","
+            +         "\"authority\": "
+            + "\"http://google.com/enterprise/gsa/security-manager/adaptor\","
+            +         "\"operand\": {"
+            +           "\"status\": \"VERIFIED\","
+            +           "\"expirationTime\": 1330043521581,"
+            +           "\"credentials\": ["
+            +             "{"
+            +               "\"name\": \"CN=Polly Hedra\","
+            +               "\"typeName\": \"AuthnPrincipal\""
+            +             "},"
+            +             "{"
+            +               "\"password\": \"p0ck3t\","
+            +               "\"typeName\": \"CredPassword\""
+            +             "}"
+            +           "]"
+            +         "}"
+            +       "}"
+            +     "]"
+            +   "},"
+            +   "\"pviCredentials\": {"
+            +     "\"username\": \"CN=Polly HedraNot\","
+            +     "\"password\": \"p0ck3t\","
+            +     "\"groups\": ["
+            +     "]"
+            +   "},"
+            +   "\"basicCredentials\": {"
+            +     "\"username\": \"CN=Polly Hedra\","
+            +     "\"password\": \"p0ck3t\","
+            +     "\"groups\": ["
+            +     "]"
+            +   "},"
+            +   "\"verifiedCredentials\": ["
+            +     "{"
+            +       "\"username\": \"CN=Polly HedraYes\","
+            +       "\"password\": \"p0ck3t\","
+            +       "\"name_space\": \"testCG1\","
+            +       "\"groups\": ["
+            +         "{"
+            +           "\"name\": \"group1\","
+            +           "\"namespace\": \"testCG1\","
+            +           "\"domain\": \"test.com\""
+            +         "},"
+            +         "{"
+            +           "\"name\": \"pollysGroup\","
+            +           "\"namespace\": \"testCG1\","
+            +           "\"domain\": \"test.com\""
+            +         "}"
+            +       "]"
+            +     "}"
+            +   "],"
+            +   "\"cookies\": []"
+            + "}"
+            +               "</AttributeValue>"
+            +             "</Attribute>"
+            +           "</AttributeStatement>"
+            +         "</Assertion>"
+            +       "</samlp:Response>"
+            +     "</samlp:ArtifactResponse>"
+            +   "</SOAP-ENV:Body>"
+            + "</SOAP-ENV:Envelope>";
+        ex.setStatusCode(200);
+        ex.setResponseStream(response.getBytes(charset));
+      }
+    };
+  }
+
   private SamlClient createSamlClient(HttpClientInterface httpClient) {
     return new SamlClient(metadata.getLocalEntity(), metadata.getPeerEntity(),
                           "Testing", null, httpClient);
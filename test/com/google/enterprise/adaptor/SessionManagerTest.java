@@ -15,6 +15,7 @@
 package com.google.enterprise.adaptor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
@@ -26,6 +27,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Test cases for {@link SessionManager}.
  */
@@ -110,6 +113,52 @@ public class SessionManagerTest {
     assertNotSame(sess1, sess2);
   }
 
+  @Test
+  public void testAccessDelaysExpiration() {
+    timeProvider.autoIncrement = false;
+    Reference ref1 = new Reference();
+    Session sess1 = sessionManager.getSession(ref1);
+
+    timeProvider.time += 800;
+    assertSame(sess1, sessionManager.getSession(ref1, false));
+
+    timeProvider.time += 800;
+    // Create a new session to allow checking for expired sessions.
+    sessionManager.getSession(new Reference());
+    assertEquals(2, sessionManager.getSessionCount());
+    assertSame(sess1, sessionManager.getSession(ref1, false));
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final SessionManager<Reference> sessionManager
+        = new SessionManager<Reference>(
+            new ReferenceClientStore(), 60 * 1000, 0);
+    final Reference shared = new Reference();
+    final Session sharedSession = sessionManager.getSession(shared);
+    final AtomicBoolean failed = new AtomicBoolean();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            if (sessionManager.getSession(new Reference()) == null
+                || sessionManager.getSession(shared, false) != sharedSession) {
+              failed.set(true);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed.get());
+    assertEquals(4001, sessionManager.getSessionCount());
+  }
+
   @Test
   public void testHttpExchangeClientStoreInitNull() {
     thrown.expect(NullPointerException.class);
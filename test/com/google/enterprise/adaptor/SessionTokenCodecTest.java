@@ -0,0 +1,154 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Test cases for {@link SessionTokenCodec}.
+ */
+public class SessionTokenCodecTest {
+  private static final KeyPair key;
+  private static final KeyPair otherKey;
+
+  static {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+      key = generator.generateKeyPair();
+      otherKey = generator.generateKeyPair();
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private MockTimeProvider timeProvider = new MockTimeProvider();
+  private SessionTokenCodec codec = new SessionTokenCodec(
+      new SensitiveValueCodec(key), timeProvider);
+
+  private static AuthnIdentity createIdentity() {
+    Set<GroupPrincipal> groups = new HashSet<GroupPrincipal>(Arrays.asList(
+        new GroupPrincipal("eng@example.com"),
+        new GroupPrincipal("sales", "ns1")));
+    return new AuthnIdentityImpl.Builder(new UserPrincipal("user1", "ns2"))
+        .setPassword("secret").setGroups(groups).build();
+  }
+
+  @Test
+  public void testNoKey() {
+    thrown.expect(IllegalStateException.class);
+    new SessionTokenCodec(new SensitiveValueCodec(null));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    AuthnIdentity identity = createIdentity();
+    AuthnIdentity decoded = codec.decode(codec.encode(identity, 1000));
+    assertEquals(identity.getUser(), decoded.getUser());
+    // The password is deliberately left out of tokens.
+    assertNull(decoded.getPassword());
+    assertEquals(identity.getGroups(), decoded.getGroups());
+  }
+
+  @Test
+  public void testPasswordNotEncoded() {
+    AuthnIdentity identity = createIdentity();
+    AuthnIdentity noPassword = new AuthnIdentityImpl.Builder(identity.getUser())
+        .setGroups(identity.getGroups()).build();
+    assertEquals(codec.encode(noPassword, 1000).length(),
+        codec.encode(identity, 1000).length());
+  }
+
+  @Test
+  public void testRoundTripNoGroups() {
+    AuthnIdentity identity
+        = new AuthnIdentityImpl.Builder(new UserPrincipal("user1")).build();
+    AuthnIdentity decoded = codec.decode(codec.encode(identity, 1000));
+    assertEquals(identity.getUser(), decoded.getUser());
+    assertNull(decoded.getPassword());
+    assertNull(decoded.getGroups());
+  }
+
+  @Test
+  public void testDoesNotContainPlaintext() {
+    String token = codec.encode(createIdentity(), 1000);
+    String decoded = new String(DatatypeConverter.parseBase64Binary(token),
+        Charset.forName("ISO-8859-1"));
+    assertFalse(decoded.contains("user1"));
+    assertFalse(decoded.contains("secret"));
+  }
+
+  @Test
+  public void testSharedBetweenCodecsWithSameKey() {
+    SessionTokenCodec other = new SessionTokenCodec(
+        new SensitiveValueCodec(key), timeProvider);
+    String token = codec.encode(createIdentity(), 1000);
+    assertEquals(new UserPrincipal("user1", "ns2"),
+        other.decode(token).getUser());
+  }
+
+  @Test
+  public void testDifferentKey() {
+    SessionTokenCodec other = new SessionTokenCodec(
+        new SensitiveValueCodec(otherKey), timeProvider);
+    assertNull(other.decode(codec.encode(createIdentity(), 1000)));
+  }
+
+  @Test
+  public void testExpired() {
+    timeProvider.autoIncrement = false;
+    String token = codec.encode(createIdentity(), 1000);
+    timeProvider.time = 1000;
+    assertEquals(new UserPrincipal("user1", "ns2"),
+        codec.decode(token).getUser());
+    timeProvider.time = 1001;
+    assertNull(codec.decode(token));
+  }
+
+  @Test
+  public void testTampered() {
+    byte[] token = DatatypeConverter.parseBase64Binary(
+        codec.encode(createIdentity(), 1000));
+    for (int i = 0; i < token.length; i++) {
+      token[i] ^= 1;
+      assertNull(codec.decode(DatatypeConverter.printBase64Binary(token)));
+      token[i] ^= 1;
+    }
+  }
+
+  @Test
+  public void testMalformed() {
+    assertNull(codec.decode(""));
+    assertNull(codec.decode("not a token!"));
+    assertNull(codec.decode(DatatypeConverter.printBase64Binary(new byte[10])));
+  }
+}
@@ -45,6 +45,7 @@ public class StatRpcMethodTest {
       simpleStats.put("numUniqueDocIdsPushed", 0L);
       simpleStats.put("numUniqueGsaRequests", 0L);
       simpleStats.put("numUniqueNonGsaRequests", 0L);
+      simpleStats.put("uniqueCountsApproximate", false);
       simpleStats.put("timeResolution", 1L);
       simpleStats.put("lastSuccessfulFullPushStart", 0L);
       simpleStats.put("lastSuccessfulFullPushEnd", 0L);
@@ -55,6 +56,7 @@ public class StatRpcMethodTest {
       simpleStats.put("lastSuccessfulGroupPushStart", 0L);
       simpleStats.put("lastSuccessfulGroupPushEnd", 0L);
       simpleStats.put("currentGroupPushStart", 0L);
+      simpleStats.put("totalFeedThrottleDuration", 0L);
       simpleStats.put("numTotalGroupsPushed", 0L);
       simpleStats.put("numTotalGroupMembersPushed", 0L);
       simpleStats.put("numUniqueGroupsPushed", 0L);
@@ -87,6 +89,7 @@ public class StatRpcMethodTest {
       data.put("requestProcessingsThroughput", 0L);
       data.put("groupsPushed", 0L);
       data.put("membersPushed", 0L);
+      data.put("feedThrottleDuration", 0L);
       data.put("time", -100L);
       datas.add(data);
       data = new HashMap<String, Object>();
@@ -96,12 +99,37 @@ public class StatRpcMethodTest {
       data.put("requestProcessingsThroughput", 0L);
       data.put("groupsPushed", 0L);
       data.put("membersPushed", 0L);
+      data.put("feedThrottleDuration", 0L);
       data.put("time", 0L);
       datas.add(data);
       stat.put("statData", datas);
+      Map<String, Object> percentiles = new HashMap<String, Object>();
+      percentiles.put("p50", 0L);
+      percentiles.put("p95", 0L);
+      percentiles.put("p99", 0L);
+      stat.put("requestProcessingsDurationPercentiles", percentiles);
+      stat.put("responseSizePercentiles", percentiles);
       stats.add(stat);
       golden.put("stats", stats);
 
+      golden.put("shardStats", new ArrayList<Object>());
+      golden.put("topGsaRequests", new ArrayList<Object>());
+
+      List<Map<String, Object>> lanes = new ArrayList<Map<String, Object>>();
+      for (String lane : new String[] {"ASYNC", "INCREMENTAL", "FULL"}) {
+        Map<String, Object> laneStats = new HashMap<String, Object>();
+        laneStats.put("lane", lane);
+        laneStats.put("queueDepth", 0);
+        laneStats.put("uploading", 0);
+        laneStats.put("uploads", 0L);
+        laneStats.put("waitDurationSum", 0L);
+        laneStats.put("maxWaitDuration", 0L);
+        laneStats.put("uploadDurationSum", 0L);
+        laneStats.put("maxUploadDuration", 0L);
+        lanes.add(laneStats);
+      }
+      golden.put("feedLaneStats", lanes);
+
       golden = Collections.unmodifiableMap(golden);
     }
     @SuppressWarnings("unchecked")
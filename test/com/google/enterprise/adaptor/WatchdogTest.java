@@ -14,6 +14,7 @@
 
 package com.google.enterprise.adaptor;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.After;
@@ -56,6 +57,7 @@ public class WatchdogTest {
       Thread.sleep(100);
     } finally {
       watchdog.processingCompleted();
+      assertEquals(1, watchdog.getTimeoutCount());
     }
   }
 
@@ -90,6 +92,7 @@ public class WatchdogTest {
       watchdog.processingCompleted();
     }
     Thread.sleep(10);
+    assertEquals(0, watchdog.getTimeoutCount());
   }
 
   @Test
@@ -0,0 +1,104 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.experimental;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.enterprise.adaptor.GsaFeedFileArchiver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Tests for {@link FeedReplayer}. */
+public class FeedReplayerTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final List<String> sent
+      = Collections.synchronizedList(new ArrayList<String>());
+  private final FeedReplayer.FeedSender sender
+      = new FeedReplayer.FeedSender() {
+        @Override
+        public void send(String datasource, String feedtype, String xml)
+            throws IOException {
+          if (xml.contains("fail")) {
+            throw new IOException("failed");
+          }
+          sent.add(datasource + "/" + feedtype);
+        }
+      };
+
+  @Test
+  public void testInvalidSpeed() {
+    thrown.expect(IllegalArgumentException.class);
+    new FeedReplayer(sender, -1, 1, false);
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    GsaFeedFileArchiver archiver
+        = new GsaFeedFileArchiver(temp.getRoot().toString());
+    archiver.saveFeed("a", feed("a", "full"));
+    archiver.saveFailedFeed("a", feed("a", "incremental"));
+    archiver.saveFeed("a", "<xmlgroups><membership/></xmlgroups>");
+    archiver.saveFeed("b", feed("b", "metadata-and-url"));
+    archiver.saveFeed("b", feed("fail", "metadata-and-url"));
+    archiver.close();
+
+    LoadStats.Snapshot result = new FeedReplayer(sender, 0, 1, false)
+        .replay(GsaFeedFileArchiver.listArchivedFeeds(temp.getRoot()));
+    assertEquals(Arrays.asList("a/full", "b/metadata-and-url"), sent);
+    assertEquals(3, result.getCount());
+    assertEquals(1, result.getFailures());
+  }
+
+  @Test
+  public void testReplayIncludingFailed() throws Exception {
+    GsaFeedFileArchiver archiver
+        = new GsaFeedFileArchiver(temp.getRoot().toString());
+    archiver.saveFeed("a", feed("a", "full"));
+    archiver.saveFailedFeed("a", feed("a", "incremental"));
+    archiver.close();
+
+    new FeedReplayer(sender, 1000, 1, true)
+        .replay(GsaFeedFileArchiver.listArchivedFeeds(temp.getRoot()));
+    assertEquals(Arrays.asList("a/full", "a/incremental"), sent);
+  }
+
+  @Test
+  public void testExtract() {
+    Pattern pattern = Pattern.compile("<a>([^<]*)</a>");
+    assertEquals("x", FeedReplayer.extract(pattern, "<b><a>x</a></b>"));
+    assertNull(FeedReplayer.extract(pattern, "<b/>"));
+  }
+
+  private static String feed(String datasource, String feedtype) {
+    return "<gsafeed><header><datasource>" + datasource + "</datasource>"
+        + "<feedtype>" + feedtype + "</feedtype></header></gsafeed>";
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.adaptor.experimental;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/** Tests for {@link LoadStats}. */
+public class LoadStatsTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testEmpty() {
+    LoadStats.Snapshot snapshot = new LoadStats().snapshotAndReset();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getLatencyPercentile(50));
+    assertEquals(0, snapshot.getLatencyPercentile(100));
+  }
+
+  @Test
+  public void testPercentiles() {
+    LoadStats stats = new LoadStats();
+    // Recorded out of order, and more than the initial capacity.
+    for (int i = 2000; i >= 1; i--) {
+      stats.record(i, 10, i % 100 != 0);
+    }
+    LoadStats.Snapshot snapshot = stats.snapshotAndReset();
+    assertEquals(2000, snapshot.getCount());
+    assertEquals(20, snapshot.getFailures());
+    assertEquals(20000, snapshot.getBytes());
+    assertEquals(1, snapshot.getLatencyPercentile(0));
+    assertEquals(1000, snapshot.getLatencyPercentile(50));
+    assertEquals(1980, snapshot.getLatencyPercentile(99));
+    assertEquals(2000, snapshot.getLatencyPercentile(100));
+  }
+
+  @Test
+  public void testReset() {
+    LoadStats stats = new LoadStats();
+    stats.record(5, 1, false);
+    stats.snapshotAndReset();
+    stats.record(7, 2, true);
+    LoadStats.Snapshot snapshot = stats.snapshotAndReset();
+    assertEquals(1, snapshot.getCount());
+    assertEquals(0, snapshot.getFailures());
+    assertEquals(2, snapshot.getBytes());
+    assertEquals(7, snapshot.getLatencyPercentile(50));
+  }
+
+  @Test
+  public void testInvalidPercentile() {
+    thrown.expect(IllegalArgumentException.class);
+    new LoadStats().snapshotAndReset().getLatencyPercentile(101);
+  }
+}
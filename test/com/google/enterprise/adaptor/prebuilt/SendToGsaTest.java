@@ -18,11 +18,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.io.Files;
 import com.google.enterprise.adaptor.InvalidConfigurationException;
 import com.google.enterprise.adaptor.MockHttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -47,6 +51,9 @@ public class SendToGsaTest {
   public static final String FILE_URLS = PREFIX + "urls.txt";
   public static final String SCRIPT_FILE = PREFIX + "script.txt";
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   // configuration tests
   @Test
   public void testZeroValueFlagsThatDontForceWebFeed() throws Exception {
@@ -255,6 +262,21 @@ public class SendToGsaTest {
   }
 
   // createFeedFile tests
+  @Test
+  public void testFeedSavedAsPlainXmlFile() throws Exception {
+    File feedDirectory = temp.newFolder("feeds");
+    String[] args = new String[]{"--aclPublic", "--dontSend",
+        "--feedDirectory", feedDirectory.getPath(), FILE_1};
+    SendToGsa test = new SendToGsa();
+    test.parseArgs(args);
+    String xml = test.createFeedFile();
+    File[] files = feedDirectory.listFiles();
+    assertEquals(1, files.length);
+    assertTrue(files[0].getName().startsWith("send2gsa-"));
+    assertTrue(files[0].getName().endsWith(".xml"));
+    assertEquals(xml, Files.toString(files[0], Charset.forName("UTF-8")));
+  }
+
   // TODO(myk): tests for SimpleGsaFeedFileMaker also needed!
   @Test
   public void testCreateIncrementalFeedOfFile1() throws Exception {